@@ -79,6 +79,15 @@ public final class Globals {
         "org.apache.catalina.resources";
 
 
+    /**
+     * The servlet context attribute, set to <code>Boolean.TRUE</code>, which
+     * tells the servlets of the context that anti resource locking is enabled,
+     * so they must not keep the resources open.
+     */
+    public static final String ANTI_RESOURCE_LOCKING_ATTR =
+        "org.apache.catalina.ANTI_RESOURCE_LOCKING";
+
+
     /**
      * The servlet context attribute under which we store the class path
      * for our application class loader (as an object of type String),
@@ -286,6 +286,12 @@ public class Connector
      protected MapperListener mapperListener = new MapperListener(mapper, this);
 
 
+     /**
+      * Cache of the mapper results.
+      */
+     protected MappingCache mappingCache = new MappingCache();
+
+
      /**
       * URI encoding.
       */
@@ -531,6 +537,50 @@ public class Connector
     }
 
 
+    /**
+     * Return the cache of the mapper results.
+     */
+    public MappingCache getMappingCache() {
+        return (mappingCache);
+    }
+
+
+    /**
+     * Return the maximum number of cached mapper results.
+     */
+    public int getMappingCacheSize() {
+        return (mappingCache.getMaxSize());
+    }
+
+
+    /**
+     * Set the maximum number of cached mapper results, 0 disabling the
+     * cache.
+     *
+     * @param mappingCacheSize The new maximum number of cached results
+     */
+    public void setMappingCacheSize(int mappingCacheSize) {
+        mappingCache.setMaxSize(mappingCacheSize);
+    }
+
+
+    /**
+     * Return the number of requests mapped using the mapping cache.
+     */
+    public long getMappingCacheHitCount() {
+        return (mappingCache.getHitCount());
+    }
+
+
+    /**
+     * Return the number of requests which were not found in the mapping
+     * cache.
+     */
+    public long getMappingCacheMissCount() {
+        return (mappingCache.getMissCount());
+    }
+
+
     /**
      * Return the maximum number of headers that are allowed by the container. A
      * value of less than 0 means no limit.
@@ -984,6 +1034,24 @@ public class Connector
     }
 
 
+    /**
+     * Use radix tries to map contexts and wrappers.
+     *
+     * @param trieMapping <code>true</code> if the mapper should use tries,
+     *                    <code>false</code> for sorted arrays.
+     */
+    public void setTrieMapping(boolean trieMapping) {
+        mapper.setTrieMapping(trieMapping);
+    }
+
+    /**
+     * Test if contexts and wrappers are mapped using radix tries.
+     */
+    public boolean getTrieMapping() {
+        return mapper.getTrieMapping();
+    }
+
+
     public String getExecutorName() {
         Object ex = IntrospectionUtils.getProperty(protocolHandler, "executor");
         if (ex instanceof org.apache.catalina.Executor) {
@@ -495,8 +495,21 @@ public class CoyoteAdapter implements Adapter {
         } else {
             serverName = req.serverName();
         }
-        connector.getMapper().map(serverName, decodedURI, 
-                                  request.getMappingData());
+        MappingCache mappingCache = connector.getMappingCache();
+        if (mappingCache.isEnabled() && !serverName.isNull()) {
+            String hostKey = serverName.toString();
+            String uriKey = decodedURI.toString();
+            if (!mappingCache.map(hostKey, uriKey, request.getMappingData())) {
+                int generation = mappingCache.getGeneration();
+                connector.getMapper().map(serverName, decodedURI, 
+                                          request.getMappingData());
+                mappingCache.put(hostKey, uriKey, request.getMappingData(),
+                                 generation);
+            }
+        } else {
+            connector.getMapper().map(serverName, decodedURI, 
+                                      request.getMappingData());
+        }
         request.setContext((Context) request.getMappingData().context);
         
         // If there is no context at this point, it is likely no ROOT context
@@ -277,11 +277,23 @@ public class MapperListener
         } else if (event.getType() == Host.REMOVE_ALIAS_EVENT) {
             mapper.removeHostAlias(event.getData().toString());
         }
+        clearMappingCache();
     }
 
     
     // ------------------------------------------------------ Protected Methods
 
+    /**
+     * Invalidate the cached mapping results of the connector, after the
+     * mapper has been modified.
+     */
+    private void clearMappingCache() {
+        if (connector != null) {
+            connector.getMappingCache().clear();
+        }
+    }
+
+
     private void registerEngine()
         throws Exception
     {
@@ -326,6 +338,7 @@ public class MapperListener
         if( defaultHost != null ) {
             mapper.setDefaultHostName(defaultHost);
         }
+        clearMappingCache();
     }
 
     /**
@@ -341,6 +354,7 @@ public class MapperListener
 
             String[] aliases = host.findAliases();
             mapper.addHost(name, aliases, objectName);
+            clearMappingCache();
             host.addContainerListener(this);
             if(log.isDebugEnabled())
                 log.debug(sm.getString
@@ -360,6 +374,7 @@ public class MapperListener
                 (Host) connector.getService().getContainer().findChild(name);
         
             mapper.removeHost(name);
+            clearMappingCache();
             if (host != null) {
                 host.removeContainerListener(this);
             }
@@ -426,6 +441,7 @@ public class MapperListener
 
         mapper.addContext(hostName, contextName, context, 
                           welcomeFiles, resources);
+        clearMappingCache();
 
     }
 
@@ -488,6 +504,7 @@ public class MapperListener
                   ("mapperListener.unregisterContext", contextName));
 
         mapper.removeContext(hostName, contextName);
+        clearMappingCache();
 
     }
 
@@ -549,6 +566,7 @@ public class MapperListener
             mapper.addWrapper(hostName, contextName, mappings[i], wrapper,
                               jspWildCard);
         }
+        clearMappingCache();
 
     }
 
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.connector;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.http.mapper.MappingData;
+
+
+/**
+ * Bounded cache of the results of the connector's mapper, keyed by host name
+ * and decoded URI. The cache is cleared by the {@link MapperListener}
+ * whenever hosts, contexts or wrappers are registered or unregistered.
+ * <p>
+ * URIs ending with '/', which are mapped using the welcome files, and
+ * mappings resulting in a redirect are not cached, as they depend on the
+ * static resources of the context. A path mapped to the default servlet
+ * keeps its cached mapping if a directory is later created with the same
+ * name, until the cache is cleared. When the cache is full it is cleared, so
+ * that the hot URIs quickly fill it again.
+ */
+public class MappingCache {
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Maximum number of cached mappings, 0 to disable the cache.
+     */
+    protected int maxSize = 0;
+
+
+    /**
+     * Cached mappings, keyed by host name and then by decoded URI.
+     */
+    protected ConcurrentHashMap<String, ConcurrentHashMap<String, Entry>> hosts =
+        new ConcurrentHashMap<String, ConcurrentHashMap<String, Entry>>();
+
+
+    /**
+     * Current number of cached mappings.
+     */
+    protected AtomicInteger size = new AtomicInteger();
+
+
+    /**
+     * Incremented on every clear, so that a mapping computed before the
+     * cache was invalidated is not added to it afterwards.
+     */
+    protected AtomicInteger generation = new AtomicInteger();
+
+
+    protected AtomicLong hitCount = new AtomicLong();
+
+
+    protected AtomicLong missCount = new AtomicLong();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * Set the maximum number of cached mappings, 0 disabling the cache.
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        clear();
+    }
+
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+
+    public int getSize() {
+        return size.get();
+    }
+
+
+    public int getGeneration() {
+        return generation.get();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Fill in the mapping data from the cache.
+     *
+     * @param host Host name
+     * @param uri Decoded URI
+     * @param mappingData Mapping data to fill in
+     * @return <code>true</code> if the mapping was found in the cache
+     */
+    public boolean map(String host, String uri, MappingData mappingData) {
+        ConcurrentHashMap<String, Entry> uris = hosts.get(host);
+        Entry entry = (uris == null) ? null : uris.get(uri);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return false;
+        }
+        hitCount.incrementAndGet();
+        mappingData.host = entry.host;
+        mappingData.context = entry.context;
+        mappingData.wrapper = entry.wrapper;
+        mappingData.jspWildCard = entry.jspWildCard;
+        mappingData.contextPath.setString(entry.contextPath);
+        if (entry.requestPath != null) {
+            mappingData.requestPath.setString(entry.requestPath);
+        }
+        if (entry.wrapperPath != null) {
+            mappingData.wrapperPath.setString(entry.wrapperPath);
+        }
+        if (entry.pathInfo != null) {
+            mappingData.pathInfo.setString(entry.pathInfo);
+        }
+        return true;
+    }
+
+
+    /**
+     * Add the result of a mapping to the cache, if it may be cached.
+     *
+     * @param host Host name
+     * @param uri Decoded URI
+     * @param mappingData Result of the mapping
+     * @param generation Value of {@link #getGeneration()} before the
+     *                   mapping was done
+     */
+    public void put(String host, String uri, MappingData mappingData,
+                    int generation) {
+        if (maxSize <= 0 || mappingData.context == null
+                || mappingData.wrapper == null
+                || !mappingData.redirectPath.isNull()
+                || uri.length() == 0 || uri.charAt(uri.length() - 1) == '/') {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.host = mappingData.host;
+        entry.context = mappingData.context;
+        entry.wrapper = mappingData.wrapper;
+        entry.jspWildCard = mappingData.jspWildCard;
+        entry.contextPath = mappingData.contextPath.toString();
+        entry.requestPath = mappingData.requestPath.toString();
+        entry.wrapperPath = mappingData.wrapperPath.toString();
+        entry.pathInfo = mappingData.pathInfo.toString();
+
+        if (size.get() >= maxSize) {
+            clear();
+            return;
+        }
+        ConcurrentHashMap<String, Entry> uris = hosts.get(host);
+        if (uris == null) {
+            uris = new ConcurrentHashMap<String, Entry>();
+            ConcurrentHashMap<String, Entry> previous =
+                hosts.putIfAbsent(host, uris);
+            if (previous != null) {
+                uris = previous;
+            }
+        }
+        if (generation != this.generation.get()) {
+            return;
+        }
+        Entry previous = uris.put(uri, entry);
+        if (generation != this.generation.get()) {
+            // The cache was cleared while the entry was added
+            uris.remove(uri, entry);
+        } else if (previous == null) {
+            size.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Remove all cached mappings.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        hosts.clear();
+        size.set(0);
+    }
+
+
+    // -------------------------------------------------------- Entry Inner Class
+
+
+    protected static final class Entry {
+        Object host;
+        Object context;
+        Object wrapper;
+        boolean jspWildCard;
+        String contextPath;
+        String requestPath;
+        String wrapperPath;
+        String pathInfo;
+    }
+
+
+}
@@ -658,6 +658,12 @@ public class StandardContext
     protected int cacheTTL = 5000;
 
 
+    /**
+     * Revalidate expired cache entries in the background.
+     */
+    protected boolean cacheAsyncRevalidation = false;
+
+
     private boolean lazy=true;
 
     /**
@@ -863,6 +869,22 @@ public class StandardContext
     }
 
 
+    /**
+     * Set whether expired cache entries are revalidated in the background.
+     */
+    public void setCacheAsyncRevalidation(boolean cacheAsyncRevalidation) {
+        this.cacheAsyncRevalidation = cacheAsyncRevalidation;
+    }
+
+
+    /**
+     * Are expired cache entries revalidated in the background ?
+     */
+    public boolean isCacheAsyncRevalidation() {
+        return cacheAsyncRevalidation;
+    }
+
+
     /**
      * Return the maximum size of the cache in KB.
      */
@@ -2066,6 +2088,8 @@ public class StandardContext
         if (resources instanceof BaseDirContext) {
             ((BaseDirContext) resources).setCached(isCachingAllowed());
             ((BaseDirContext) resources).setCacheTTL(getCacheTTL());
+            ((BaseDirContext) resources).setCacheAsyncRevalidation(
+                    isCacheAsyncRevalidation());
             ((BaseDirContext) resources).setCacheMaxSize(getCacheMaxSize());
             ((BaseDirContext) resources).setCacheObjectMaxSize(
                     getCacheObjectMaxSize());
@@ -4321,6 +4345,8 @@ public class StandardContext
                 ((BaseDirContext) webappResources).setCached
                     (isCachingAllowed());
                 ((BaseDirContext) webappResources).setCacheTTL(getCacheTTL());
+                ((BaseDirContext) webappResources).setCacheAsyncRevalidation
+                    (isCacheAsyncRevalidation());
                 ((BaseDirContext) webappResources).setCacheMaxSize
                     (getCacheMaxSize());
                 ((BaseDirContext) webappResources).allocate();
@@ -4690,6 +4716,10 @@ public class StandardContext
             // Create context attributes that will be required
             if (ok) {
                 postWelcomeFiles();
+                if (getAntiResourceLocking()) {
+                    getServletContext().setAttribute
+                        (Globals.ANTI_RESOURCE_LOCKING_ATTR, Boolean.TRUE);
+                }
             }
             
             // Set up the context init params
@@ -4770,6 +4800,9 @@ public class StandardContext
         // Close all JARs right away to avoid always opening a peak number 
         // of files on startup
         if (getLoader() instanceof WebappLoader) {
+            if (ok) {
+                ((WebappLoader) getLoader()).saveStartupCache();
+            }
             ((WebappLoader) getLoader()).closeJARs(true);
         }
 
@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.Executor;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.util.LifecycleSupport;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Executor running each task on a new virtual thread when the JVM supports
+ * them, and on threads of an unbounded cached pool otherwise. A semaphore
+ * caps the number of tasks running concurrently: tasks submitted while all
+ * the permits are taken wait in a queue, without a thread, and are run by
+ * the thread of the next task which completes.
+ * <p>
+ * Virtual threads are created through reflection, so that this class can
+ * be built and loaded on older JVMs.
+ */
+public class VirtualThreadExecutor implements Executor {
+
+    private static Log log = LogFactory.getLog(VirtualThreadExecutor.class);
+
+    // ---------------------------------------------- Properties
+    /**
+     * Run platform threads in daemon or non-daemon state
+     */
+    protected boolean daemon = true;
+
+    /**
+     * Default name prefix for the thread name
+     */
+    protected String namePrefix = "tomcat-vexec-";
+
+    /**
+     * max number of tasks running concurrently
+     */
+    protected int maxThreads = 10000;
+
+    /**
+     * idle time in milliseconds of the platform threads
+     */
+    protected int maxIdleTime = 60000;
+
+    /**
+     * The maximum number of tasks that can wait for a permit before we
+     * reject them
+     */
+    protected int maxQueueSize = Integer.MAX_VALUE;
+
+    /**
+     * Use virtual threads if the JVM supports them
+     */
+    protected boolean useVirtualThreads = true;
+
+    /**
+     * the name of this executor
+     */
+    protected String name;
+
+    /**
+     * Factory of virtual threads, null if they are not used.
+     */
+    protected ThreadFactory virtualThreadFactory = null;
+
+    /**
+     * Pool of platform threads, used if virtual threads are not.
+     */
+    protected ThreadPoolExecutor platformExecutor = null;
+
+    /**
+     * Permits to run a task.
+     */
+    protected Semaphore permits = null;
+
+    /**
+     * Tasks waiting for a permit.
+     */
+    protected ConcurrentLinkedQueue<Runnable> waitingTasks =
+        new ConcurrentLinkedQueue<Runnable>();
+
+    protected AtomicInteger waitingTasksCount = new AtomicInteger();
+
+    protected AtomicLong completedTaskCount = new AtomicLong();
+
+    protected AtomicInteger largestActiveCount = new AtomicInteger();
+
+    protected volatile boolean running = false;
+
+    private LifecycleSupport lifecycle = new LifecycleSupport(this);
+    // ---------------------------------------------- Constructors
+    public VirtualThreadExecutor() {
+        //empty constructor for the digester
+    }
+
+
+
+    // ---------------------------------------------- Public Methods
+    public void start() throws LifecycleException {
+        lifecycle.fireLifecycleEvent(BEFORE_START_EVENT, null);
+        lifecycle.fireLifecycleEvent(START_EVENT, null);
+        permits = new Semaphore(maxThreads);
+        if (useVirtualThreads) {
+            virtualThreadFactory = createVirtualThreadFactory(namePrefix);
+        }
+        if (virtualThreadFactory == null) {
+            if (log.isInfoEnabled()) {
+                log.info("Virtual threads are not available, executor " + name
+                        + " will use platform threads");
+            }
+            platformExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    maxIdleTime, TimeUnit.MILLISECONDS,
+                    new SynchronousQueue<Runnable>(),
+                    new PlatformThreadFactory(namePrefix));
+        }
+        running = true;
+        lifecycle.fireLifecycleEvent(AFTER_START_EVENT, null);
+    }
+
+    public void stop() throws LifecycleException{
+        lifecycle.fireLifecycleEvent(BEFORE_STOP_EVENT, null);
+        lifecycle.fireLifecycleEvent(STOP_EVENT, null);
+        running = false;
+        if ( platformExecutor != null ) platformExecutor.shutdown();
+        platformExecutor = null;
+        virtualThreadFactory = null;
+        waitingTasks.clear();
+        waitingTasksCount.set(0);
+        lifecycle.fireLifecycleEvent(AFTER_STOP_EVENT, null);
+    }
+
+    public void execute(Runnable command) {
+        if ( !running ) throw new IllegalStateException("VirtualThreadExecutor not started.");
+        if (permits.tryAcquire()) {
+            start(command);
+            return;
+        }
+        if (waitingTasksCount.incrementAndGet() > maxQueueSize) {
+            waitingTasksCount.decrementAndGet();
+            throw new RejectedExecutionException("Work queue full.");
+        }
+        waitingTasks.offer(command);
+        // A permit may have been released before the task was queued
+        if (permits.tryAcquire()) {
+            Runnable task = waitingTasks.poll();
+            if (task != null) {
+                waitingTasksCount.decrementAndGet();
+                start(task);
+            } else {
+                permits.release();
+            }
+        }
+    }
+
+    public boolean isDaemon() {
+        return daemon;
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public int getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean getUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    public void setDaemon(boolean daemon) {
+        this.daemon = daemon;
+    }
+
+    public void setNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    public void setMaxIdleTime(int maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+        if (platformExecutor != null) {
+            platformExecutor.setKeepAliveTime(maxIdleTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Set the maximum number of tasks running concurrently. Changes are only
+     * applied when the executor is started.
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setMaxQueueSize(int size) {
+        this.maxQueueSize = size;
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    /**
+     * Add a LifecycleEvent listener to this component.
+     *
+     * @param listener The listener to add
+     */
+    public void addLifecycleListener(LifecycleListener listener) {
+        lifecycle.addLifecycleListener(listener);
+    }
+
+
+    /**
+     * Get the lifecycle listeners associated with this lifecycle. If this
+     * Lifecycle has no listeners registered, a zero-length array is returned.
+     */
+    public LifecycleListener[] findLifecycleListeners() {
+        return lifecycle.findLifecycleListeners();
+    }
+
+
+    /**
+     * Remove a LifecycleEvent listener from this component.
+     *
+     * @param listener The listener to remove
+     */
+    public void removeLifecycleListener(LifecycleListener listener) {
+        lifecycle.removeLifecycleListener(listener);
+    }
+
+    // Statistics
+    public boolean isVirtual() {
+        return virtualThreadFactory != null;
+    }
+
+    public int getActiveCount() {
+        return (permits != null) ? maxThreads - permits.availablePermits() : 0;
+    }
+
+    public int getLargestActiveCount() {
+        return largestActiveCount.get();
+    }
+
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+    public int getPoolSize() {
+        return (platformExecutor != null) ? platformExecutor.getPoolSize() : getActiveCount();
+    }
+
+    public int getQueueSize() {
+        return waitingTasksCount.get();
+    }
+
+    // ---------------------------------------------- Protected Methods
+    /**
+     * Run a task, for which a permit has been acquired, on a new thread.
+     */
+    protected void start(Runnable command) {
+        int active = getActiveCount();
+        int largest = largestActiveCount.get();
+        while (active > largest
+                && !largestActiveCount.compareAndSet(largest, active)) {
+            largest = largestActiveCount.get();
+        }
+        Worker worker = new Worker(command);
+        try {
+            ThreadFactory factory = virtualThreadFactory;
+            if (factory != null) {
+                factory.newThread(worker).start();
+            } else {
+                platformExecutor.execute(worker);
+            }
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Create a factory of virtual threads, or return null if the JVM does
+     * not support them.
+     */
+    protected static ThreadFactory createVirtualThreadFactory(String namePrefix) {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class)
+                .invoke(builder, namePrefix, Long.valueOf(1));
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Throwable t) {
+            // Virtual threads are not supported, or not enabled
+            return null;
+        }
+    }
+
+    // ---------------------------------------------- Worker Inner Class
+    /**
+     * Run a task, then the waiting tasks, before releasing the permit.
+     */
+    protected class Worker implements Runnable {
+        private Runnable task;
+
+        Worker(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            while (task != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    // Do not lose the permit and the waiting tasks
+                    log.error("Uncaught exception in executor " + name, t);
+                }
+                completedTaskCount.incrementAndGet();
+                task = next();
+            }
+        }
+
+        private Runnable next() {
+            while (true) {
+                Runnable next = waitingTasks.poll();
+                if (next != null) {
+                    waitingTasksCount.decrementAndGet();
+                    return next;
+                }
+                permits.release();
+                // A task may have been queued before the permit was released
+                if (waitingTasks.isEmpty() || !permits.tryAcquire()) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------- ThreadFactory Inner Class
+    class PlatformThreadFactory implements ThreadFactory {
+        final ThreadGroup group;
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        final String namePrefix;
+
+        PlatformThreadFactory(String namePrefix) {
+            SecurityManager s = System.getSecurityManager();
+            group = (s != null) ? s.getThreadGroup() : Thread.currentThread().getThreadGroup();
+            this.namePrefix = namePrefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(group, r, namePrefix + threadNumber.getAndIncrement());
+            t.setDaemon(daemon);
+            return t;
+        }
+    }
+
+
+}
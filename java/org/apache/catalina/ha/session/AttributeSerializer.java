@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.ha.session;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Writes session attribute values in compact delta requests, instead of
+ * Java serialization, which writes the class descriptor of the value in
+ * every message.
+ * <p>
+ * Serializers are configured on the cluster manager with the
+ * <code>attributeSerializers</code> attribute, and are identified on the
+ * wire by their position in that list, hence all the nodes of a cluster
+ * must be configured with the same serializers, in the same order.
+ * Implementations must have a public no argument constructor and be
+ * thread safe.
+ *
+ * @version $Id$
+ * @see DeltaRequest
+ */
+public interface AttributeSerializer {
+
+    /**
+     * Return <code>true</code> if this serializer can write the given
+     * attribute value.
+     *
+     * @param value the attribute value, never <code>null</code>
+     */
+    public boolean accept(Object value);
+
+    /**
+     * Write an attribute value accepted by this serializer.
+     *
+     * @param value the attribute value
+     * @param out the stream to write to
+     * @throws IOException
+     */
+    public void writeValue(Object value, ObjectOutput out) throws IOException;
+
+    /**
+     * Read an attribute value written by {@link #writeValue}.
+     *
+     * @param in the stream to read from
+     * @return the attribute value
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public Object readValue(ObjectInput in) throws IOException, ClassNotFoundException;
+
+}
@@ -69,6 +69,24 @@ public class BackupManager extends StandardManager implements ClusterManager, Ma
      */
     private long rpcTimeout = DEFAULT_REPL_TIMEOUT;
 
+    /**
+     * Place session backups by consistent hashing instead of round robin.
+     */
+    private boolean consistentHashing = false;
+
+    /**
+     * Send delta requests in the compact format.
+     */
+    private boolean compactDelta = false;
+
+    /**
+     * The class names of the attribute serializers used by compact delta
+     * requests, comma separated.
+     */
+    private String attributeSerializers = null;
+
+    private AttributeSerializer[] attributeSerializerInstances = null;
+
     /**
      * Constructor, just calls super()
      *
@@ -206,6 +224,7 @@ public class BackupManager extends StandardManager implements ClusterManager, Ma
                                                           getMapName(),
                                                           getClassLoaders());
             map.setChannelSendOptions(mapSendOptions);
+            map.setConsistentHashing(consistentHashing);
             this.sessions = map;
             super.start();
             this.started = true;
@@ -290,6 +309,36 @@ public class BackupManager extends StandardManager implements ClusterManager, Ma
         return rpcTimeout;
     }
 
+    public boolean isConsistentHashing() {
+        return consistentHashing;
+    }
+
+    public void setConsistentHashing(boolean consistentHashing) {
+        this.consistentHashing = consistentHashing;
+    }
+
+    public boolean isCompactDelta() {
+        return compactDelta;
+    }
+
+    public void setCompactDelta(boolean compactDelta) {
+        this.compactDelta = compactDelta;
+    }
+
+    public String getAttributeSerializers() {
+        return attributeSerializers;
+    }
+
+    public void setAttributeSerializers(String attributeSerializers) {
+        this.attributeSerializerInstances =
+            ClusterManagerBase.createAttributeSerializers(attributeSerializers);
+        this.attributeSerializers = attributeSerializers;
+    }
+
+    public AttributeSerializer[] getAttributeSerializerInstances() {
+        return attributeSerializerInstances;
+    }
+
     public String[] getInvalidatedSessions() {
         return new String[0];
     }
@@ -303,6 +352,10 @@ public class BackupManager extends StandardManager implements ClusterManager, Ma
         result.mapSendOptions = mapSendOptions;
         result.maxActiveSessions = maxActiveSessions;
         result.rpcTimeout = rpcTimeout;
+        result.consistentHashing = consistentHashing;
+        result.compactDelta = compactDelta;
+        result.attributeSerializers = attributeSerializers;
+        result.attributeSerializerInstances = attributeSerializerInstances;
         return result;
     }
 
@@ -20,6 +20,8 @@ package org.apache.catalina.ha.session;
 import java.beans.PropertyChangeListener;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
 import java.util.regex.Pattern;
 
 import org.apache.catalina.Container;
@@ -52,6 +54,19 @@ public abstract class ClusterManagerBase extends ManagerBase implements Lifecycl
      */
     private Pattern sessionAttributePattern = null;
 
+    /**
+     * Send delta requests in the compact format.
+     */
+    private boolean compactDelta = false;
+
+    /**
+     * The class names of the attribute serializers used by compact delta
+     * requests, comma separated.
+     */
+    private String attributeSerializers = null;
+
+    private AttributeSerializer[] attributeSerializerInstances = null;
+
 
     /**
      * Return the string pattern used for including session attributes
@@ -96,6 +111,61 @@ public abstract class ClusterManagerBase extends ManagerBase implements Lifecycl
         return sessionAttributePattern.matcher(name).matches();
     }
 
+    public boolean isCompactDelta() {
+        return compactDelta;
+    }
+
+    /**
+     * Send delta requests in the compact format, which all the nodes can
+     * read, once all the nodes of the cluster support it.
+     *
+     * @param compactDelta <code>true</code> to use the compact format
+     * @see DeltaRequest
+     */
+    public void setCompactDelta(boolean compactDelta) {
+        this.compactDelta = compactDelta;
+    }
+
+    public String getAttributeSerializers() {
+        return attributeSerializers;
+    }
+
+    /**
+     * Set the {@link AttributeSerializer} class names, comma separated,
+     * used to write attribute values in compact delta requests.
+     *
+     * @param attributeSerializers the class names
+     */
+    public void setAttributeSerializers(String attributeSerializers) {
+        this.attributeSerializerInstances =
+            createAttributeSerializers(attributeSerializers);
+        this.attributeSerializers = attributeSerializers;
+    }
+
+    public AttributeSerializer[] getAttributeSerializerInstances() {
+        return attributeSerializerInstances;
+    }
+
+    public static AttributeSerializer[] createAttributeSerializers(String classNames) {
+        if (classNames == null || classNames.trim().length() == 0) {
+            return null;
+        }
+        ArrayList result = new ArrayList();
+        StringTokenizer tokens = new StringTokenizer(classNames, ", \t\r\n");
+        while (tokens.hasMoreTokens()) {
+            String className = tokens.nextToken();
+            try {
+                result.add(Class.forName(className).newInstance());
+            } catch (Exception e) {
+                throw new IllegalArgumentException(
+                        "Unable to create attribute serializer " + className
+                        + ": " + e);
+            }
+        }
+        return (AttributeSerializer[]) result.toArray(
+                new AttributeSerializer[result.size()]);
+    }
+
     public static ClassLoader[] getClassLoaders(Container container) {
         Loader loader = null;
         ClassLoader classLoader = null;
@@ -25,6 +25,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 
 import org.apache.catalina.Cluster;
@@ -43,6 +45,7 @@ import org.apache.catalina.ha.tcp.ReplicationValve;
 import org.apache.catalina.session.ManagerBase;
 import org.apache.catalina.session.TooManyActiveSessionsException;
 import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.MembershipListener;
 import org.apache.catalina.tribes.io.ReplicationStream;
 import org.apache.catalina.util.LifecycleSupport;
 import org.apache.catalina.util.StringManager;
@@ -130,6 +133,61 @@ public class DeltaManager extends ClusterManagerBase{
     private boolean receiverQueue = false ;
     private boolean stateTimestampDrop = true ;
     private long stateTransferCreateSendTime; 
+
+    /**
+     * Request a streamed session state: the sender sends the session ids
+     * first and then the sessions in blocks as it reads them, and the start
+     * goes on once <code>streamingReadyRatio</code> of the sessions arrived.
+     */
+    private boolean streamingStateTransfer = false;
+    private float streamingReadyRatio = 0.5f;
+
+    /**
+     * The streamed sessions that have not been received yet, with the
+     * messages received for each of them in the meantime.
+     */
+    private HashMap pendingSessions = new HashMap();
+    /**
+     * The sessions of a streamed session state received so far, so that a
+     * session fetched on demand is not replaced when its block arrives.
+     * Guarded by pendingSessions.
+     */
+    private HashSet streamedSessions = new HashSet();
+    /**
+     * The sessions whose fetch has timed out, they are not requested again.
+     * Guarded by pendingSessions.
+     */
+    private HashSet failedFetches = new HashSet();
+    private volatile boolean sessionStreaming = false;
+    private volatile boolean sessionIdsReceived = false;
+    private int expectedSessions = 0;
+    private int transferredSessions = 0;
+    private Member stateTransferSource = null;
+
+    /**
+     * The session id of a EVT_GET_ALL_SESSIONS message requesting a
+     * streamed session state.
+     */
+    protected static final String GET_ALL_STREAMING = "GET-ALL-STREAMING";
+
+    /**
+     * How long, in seconds, a request waits for a session of a streamed
+     * session state when <code>stateTransferTimeout</code> does not bound it.
+     */
+    protected static final int FETCH_TIMEOUT = 60;
+
+    /**
+     * Stops waiting for a streamed session state when the node sending it
+     * leaves the cluster.
+     */
+    private MembershipListener membershipListener = new MembershipListener() {
+        public void memberAdded(Member member) {
+            // NOOP
+        }
+        public void memberDisappeared(Member member) {
+            DeltaManager.this.memberDisappeared(member);
+        }
+    };
     
     // ------------------------------------------------------------------ stats attributes
     
@@ -453,6 +511,22 @@ public class DeltaManager extends ClusterManagerBase{
         this.sendAllSessions = sendAllSessions;
     }
     
+    public boolean isStreamingStateTransfer() {
+        return streamingStateTransfer;
+    }
+
+    public void setStreamingStateTransfer(boolean streamingStateTransfer) {
+        this.streamingStateTransfer = streamingStateTransfer;
+    }
+
+    public float getStreamingReadyRatio() {
+        return streamingReadyRatio;
+    }
+
+    public void setStreamingReadyRatio(float streamingReadyRatio) {
+        this.streamingReadyRatio = streamingReadyRatio;
+    }
+
     /**
      * @return Returns the sendAllSessionsSize.
      */
@@ -634,6 +708,28 @@ public class DeltaManager extends ClusterManagerBase{
         }
     }
 
+    /**
+     * Send a message to one member
+     * @param msg Session message
+     * @param dest the member to send to
+     */
+    protected void send(SessionMessage msg, Member dest) {
+        cluster.send(msg, dest);
+    }
+
+    /**
+     * Return the active session with the specified id. If the session state
+     * is being streamed and the session has not been received yet, it is
+     * requested from the node sending the state first.
+     *
+     * @param id The session id for the session to be returned
+     * @exception IOException if an input/output error occurs
+     */
+    public Session findSession(String id) throws IOException {
+        if (sessionStreaming && id != null) fetchSession(id);
+        return super.findSession(id);
+    }
+
     /**
      * Create DeltaSession
      * @see org.apache.catalina.Manager#createEmptySession()
@@ -709,6 +805,36 @@ public class DeltaManager extends ClusterManagerBase{
         return sessionId;
     }
 
+    /**
+     * serialize the ids of a streamed session state
+     * @throws IOException if an input/output error occurs
+     */
+    protected byte[] serializeSessionIds(String[] ids) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(bos));
+        oos.writeInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            oos.writeUTF(ids[i]);
+        }
+        oos.flush();
+        oos.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Load the ids of a streamed session state
+     * @throws IOException if an input/output error occurs
+     */
+    protected String[] deserializeSessionIds(byte[] data) throws IOException {
+        ReplicationStream ois = getReplicationStream(data);
+        String[] ids = new String[ois.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ois.readUTF();
+        }
+        ois.close();
+        return ids;
+    }
+
     /**
      * Load Deltarequest from external node
      * Load the Class at container classloader
@@ -775,6 +901,11 @@ public class DeltaManager extends ClusterManagerBase{
                 session.setManager(this);
                 session.setValid(true);
                 session.setPrimarySession(false);
+                if (!acceptStreamedSession(session.getIdInternal())) {
+                    // already fetched on demand, and possibly changed since
+                    if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.streaming.duplicate",getName(), session.getIdInternal()));
+                    continue;
+                }
                 //in case the nodes in the cluster are out of
                 //time synch, this will make sure that we have the
                 //correct timestamp, isValid returns true, cause
@@ -786,7 +917,7 @@ public class DeltaManager extends ClusterManagerBase{
                 session.resetDeltaRequest();
                 // FIXME How inform other session id cache like SingleSignOn
                 // increment sessionCounter to correct stats report
-                if (findSession(session.getIdInternal()) == null ) {
+                if (sessions.get(session.getIdInternal()) == null ) {
                     sessionCounter++;
                 } else {
                     sessionReplaceCounter++;
@@ -797,6 +928,7 @@ public class DeltaManager extends ClusterManagerBase{
                 if (notifySessionListenersOnReplication) {
                     session.tellNew();
                 }
+                sessionTransferred(session.getIdInternal());
             }
         } catch (ClassNotFoundException e) {
             log.error(sm.getString("deltaManager.loading.cnfe", e), e);
@@ -957,6 +1089,7 @@ public class DeltaManager extends ClusterManagerBase{
             //to survice context reloads, as only a stop/start is called, not
             // createManager
             cluster.registerManager(this);
+            if (getCluster().getChannel() != null) getCluster().getChannel().addMembershipListener(membershipListener);
 
             getAllClusterSessions();
 
@@ -976,12 +1109,14 @@ public class DeltaManager extends ClusterManagerBase{
             if(mbr == null) { // No domain member found
                  return;
             }
-            SessionMessage msg = new SessionMessageImpl(this.getName(),SessionMessage.EVT_GET_ALL_SESSIONS, null, "GET-ALL","GET-ALL-" + getName());
+            String request = isStreamingStateTransfer() ? GET_ALL_STREAMING : "GET-ALL";
+            SessionMessage msg = new SessionMessageImpl(this.getName(),SessionMessage.EVT_GET_ALL_SESSIONS, null, request,"GET-ALL-" + getName());
             // set reference time
             stateTransferCreateSendTime = beforeSendTime ;
             // request session state
             counterSend_EVT_GET_ALL_SESSIONS++;
             stateTransfered = false ;
+            sessionIdsReceived = false ;
             // FIXME This send call block the deploy thread, when sender waitForAck is enabled
             try {
                 synchronized(receivedMessageQueue) {
@@ -1075,7 +1210,7 @@ public class DeltaManager extends ClusterManagerBase{
                 }
                 reqNow = System.currentTimeMillis();
                 isTimeout = ((reqNow - reqStart) > (1000 * getStateTransferTimeout()));
-            } while ((!getStateTransfered()) && (!isTimeout) && (!isNoContextManagerReceived()));
+            } while ((!isStateReady()) && (!isTimeout) && (!isNoContextManagerReceived()));
         } else {
             if(getStateTransferTimeout() == -1) {
                 // wait that state is transfered
@@ -1084,7 +1219,7 @@ public class DeltaManager extends ClusterManagerBase{
                         Thread.sleep(100);
                     } catch (Exception sleep) {
                     }
-                } while ((!getStateTransfered())&& (!isNoContextManagerReceived()));
+                } while ((!isStateReady())&& (!isNoContextManagerReceived()));
                 reqNow = System.currentTimeMillis();
             }
         }
@@ -1094,12 +1229,156 @@ public class DeltaManager extends ClusterManagerBase{
         } else if (isNoContextManagerReceived()) {
             if (log.isWarnEnabled())
                 log.warn(sm.getString("deltaManager.noContextManager",getName(),new Date(beforeSendTime),Long.valueOf(reqNow - beforeSendTime)));
+        } else if (!getStateTransfered()) {
+            if (log.isInfoEnabled())
+                log.info(sm.getString("deltaManager.streaming.ready",new Object[] {getName(), new Date(beforeSendTime), Long.valueOf(reqNow - beforeSendTime), new Integer(transferredSessions), new Integer(expectedSessions)}));
         } else {
             if (log.isInfoEnabled())
                 log.info(sm.getString("deltaManager.sessionReceived",getName(), new Date(beforeSendTime), Long.valueOf(reqNow - beforeSendTime)));
         }
     }
 
+    /**
+     * Is the session state transferred, or for a streamed session state, has
+     * enough of it been received to start?
+     */
+    protected boolean isStateReady() {
+        if (getStateTransfered()) return true;
+        if (!sessionIdsReceived) return false;
+        synchronized (pendingSessions) {
+            return transferredSessions >= expectedSessions * streamingReadyRatio;
+        }
+    }
+
+    /**
+     * Request a session of a streamed session state that has not been
+     * received yet, and wait for it.
+     * @param id the session id
+     * @throws IOException
+     */
+    protected void fetchSession(String id) throws IOException {
+        Member source = null;
+        synchronized (pendingSessions) {
+            // a session which did not arrive in time is not waited for again
+            if (!pendingSessions.containsKey(id) || failedFetches.contains(id)) return;
+            source = stateTransferSource;
+        }
+        if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.streaming.fetch",getName(), id));
+        SessionMessage msg = new SessionMessageImpl(getName(), SessionMessage.EVT_GET_SESSION, null, id, id + "-" + System.currentTimeMillis());
+        msg.setTimestamp(System.currentTimeMillis());
+        send(msg, source);
+        int seconds = getStateTransferTimeout();
+        if (seconds <= 0) seconds = FETCH_TIMEOUT;
+        long timeout = 1000L * seconds;
+        long start = System.currentTimeMillis();
+        synchronized (pendingSessions) {
+            while (pendingSessions.containsKey(id)) {
+                long wait = timeout - (System.currentTimeMillis() - start);
+                if (wait <= 0) {
+                    log.warn(sm.getString("deltaManager.streaming.fetchTimeout",getName(), id));
+                    failedFetches.add(id);
+                    return;
+                }
+                try {
+                    pendingSessions.wait(wait);
+                } catch (InterruptedException x) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Keep the messages received for a session of a streamed session state
+     * that has not been received yet, they are applied once it is.
+     * @param msg the message
+     * @return <code>true</code> if the message has been kept
+     */
+    protected boolean deferMessage(SessionMessage msg) {
+        switch (msg.getEventType()) {
+            case SessionMessage.EVT_SESSION_EXPIRED:
+            case SessionMessage.EVT_SESSION_ACCESSED:
+            case SessionMessage.EVT_SESSION_DELTA:
+            case SessionMessage.EVT_CHANGE_SESSION_ID: {
+                synchronized (pendingSessions) {
+                    if (!pendingSessions.containsKey(msg.getSessionID())) return false;
+                    ArrayList deferred = (ArrayList) pendingSessions.get(msg.getSessionID());
+                    if (deferred == null) {
+                        deferred = new ArrayList();
+                        pendingSessions.put(msg.getSessionID(), deferred);
+                    }
+                    deferred.add(msg);
+                    return true;
+                }
+            }
+            default: {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * A session of a streamed session state has been received, or does not
+     * exist anymore: apply the messages kept for it and wake up the threads
+     * waiting for it.
+     * @param id the session id
+     */
+    protected void sessionTransferred(String id) {
+        if (!sessionStreaming) return;
+        synchronized (pendingSessions) {
+            if (!pendingSessions.containsKey(id)) return;
+            ArrayList deferred = (ArrayList) pendingSessions.remove(id);
+            failedFetches.remove(id);
+            transferredSessions++;
+            if (pendingSessions.isEmpty()) sessionStreaming = false;
+            pendingSessions.notifyAll();
+            // applied while holding the lock, so that they are not overtaken
+            for (int i = 0; deferred != null && i < deferred.size(); i++) {
+                SessionMessage smsg = (SessionMessage) deferred.get(i);
+                messageReceived(smsg, smsg.getAddress() != null ? (Member) smsg.getAddress() : null);
+            }
+        }
+    }
+
+    /**
+     * Stop waiting for the sessions of a streamed session state.
+     */
+    protected void clearPendingSessions() {
+        synchronized (pendingSessions) {
+            pendingSessions.clear();
+            failedFetches.clear();
+            sessionStreaming = false;
+            pendingSessions.notifyAll();
+        }
+    }
+
+    /**
+     * Is a session of a streamed session state received for the first time?
+     * A session fetched on demand is sent again in its block, which must not
+     * replace the session which is already in use.
+     * @param id the session id
+     * @return <code>true</code> if the session should be added
+     */
+    protected boolean acceptStreamedSession(String id) {
+        if (!sessionIdsReceived) return true;
+        synchronized (pendingSessions) {
+            return streamedSessions.add(id);
+        }
+    }
+
+    /**
+     * A member has left the cluster: if it was sending the streamed session
+     * state, the sessions not received yet will not arrive anymore.
+     * @param member the member
+     */
+    protected void memberDisappeared(Member member) {
+        synchronized (pendingSessions) {
+            if (!sessionStreaming || !member.equals(stateTransferSource)) return;
+        }
+        log.warn(sm.getString("deltaManager.streaming.sourceDisappeared",getName(), member));
+        clearPendingSessions();
+    }
+
     /**
      * Gracefully terminate the active use of the public methods of this
      * component. This method should be the last one called on a given instance
@@ -1138,7 +1417,12 @@ public class DeltaManager extends ClusterManagerBase{
         // Require a new random number generator if we are restarted
         this.random = null;
         getCluster().removeManager(this);
+        if (getCluster().getChannel() != null) getCluster().getChannel().removeMembershipListener(membershipListener);
         replicationValve = null;
+        clearPendingSessions();
+        synchronized (pendingSessions) {
+            streamedSessions.clear();
+        }
         if (initialized) {
             destroy();
         }
@@ -1456,6 +1740,9 @@ public class DeltaManager extends ClusterManagerBase{
         if(doDomainReplication() && !checkSenderDomain(msg,sender)) {
             return;
         }
+        if (sessionStreaming && deferMessage(msg)) {
+            return;
+        }
         ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
         try {
             
@@ -1500,6 +1787,14 @@ public class DeltaManager extends ClusterManagerBase{
                     handleALL_SESSION_NOCONTEXTMANAGER(msg,sender);
                     break;
                  }
+                case SessionMessage.EVT_ALL_SESSION_IDS: {
+                    handleALL_SESSION_IDS(msg,sender);
+                    break;
+                 }
+                case SessionMessage.EVT_GET_SESSION: {
+                    handleGET_SESSION(msg,sender);
+                    break;
+                 }
                 default: {
                     //we didn't recognize the message type, do nothing
                     break;
@@ -1525,6 +1820,47 @@ public class DeltaManager extends ClusterManagerBase{
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.transfercomplete",getName(), sender.getHost(), new Integer(sender.getPort())));
         stateTransferCreateSendTime = msg.getTimestamp() ;
         stateTransfered = true ;
+        // the sessions still missing have expired at the sender
+        clearPendingSessions();
+    }
+
+    /**
+     * handle receive the ids of a streamed session state, the sessions
+     * follow in EVT_ALL_SESSION_DATA messages
+     * @param msg
+     * @param sender
+     * @throws IOException
+     */
+    protected void handleALL_SESSION_IDS(SessionMessage msg, Member sender) throws IOException {
+        String[] ids = deserializeSessionIds(msg.getSession());
+        if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.allSessionIds",getName(), new Integer(ids.length)));
+        synchronized (pendingSessions) {
+            pendingSessions.clear();
+            streamedSessions.clear();
+            failedFetches.clear();
+            for (int i = 0; i < ids.length; i++) {
+                pendingSessions.put(ids[i], null);
+            }
+            expectedSessions = ids.length;
+            transferredSessions = 0;
+            stateTransferSource = sender;
+            sessionStreaming = ids.length > 0;
+        }
+        sessionIdsReceived = true;
+    }
+
+    /**
+     * handle receive that other node wants a session of a streamed session
+     * state before it has been sent, the session is sent on its own, or no
+     * session if it does not exist anymore
+     * @param msg
+     * @param sender
+     * @throws IOException
+     */
+    protected void handleGET_SESSION(SessionMessage msg, Member sender) throws IOException {
+        Session session = (Session) sessions.get(msg.getSessionID());
+        Session[] found = session != null ? new Session[] {session} : new Session[0];
+        sendSessions(sender, found, System.currentTimeMillis(), msg.getSessionID());
     }
 
     /**
@@ -1617,6 +1953,8 @@ public class DeltaManager extends ClusterManagerBase{
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.allSessionDataBegin",getName()));
         byte[] data = msg.getSession();
         deserializeSessions(data);
+        // a requested session which does not exist anymore
+        sessionTransferred(msg.getSessionID());
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.allSessionDataAfter",getName()));
         //stateTransferred = true;
     }
@@ -1634,6 +1972,10 @@ public class DeltaManager extends ClusterManagerBase{
         counterReceive_EVT_GET_ALL_SESSIONS++;
         //get a list of all the session from this manager
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.unloadingBegin", getName()));
+        if (GET_ALL_STREAMING.equals(msg.getSessionID())) {
+            streamSessions(sender);
+            return;
+        }
         // Write the number of active sessions, followed by the details
         // get all sessions and serialize without sync
         Session[] currentSessions = findSessions();
@@ -1656,11 +1998,45 @@ public class DeltaManager extends ClusterManagerBase{
             }//for
         }//end if
         
+        sendTransferComplete(sender, findSessionTimestamp);
+    }
+
+    /**
+     * Stream the sessions to the sender: the session ids are sent first, then
+     * the sessions are read and sent in blocks of
+     * <code>sendAllSessionsSize</code>, without waiting between blocks.
+     * @param sender
+     * @throws IOException
+     */
+    protected void streamSessions(Member sender) throws IOException {
+        String[] ids = (String[]) sessions.keySet().toArray(new String[0]);
+        long findSessionTimestamp = System.currentTimeMillis() ;
+        SessionMessage idmsg = new SessionMessageImpl(name,SessionMessage.EVT_ALL_SESSION_IDS, serializeSessionIds(ids),"SESSION-IDS", "SESSION-IDS-" + getName());
+        idmsg.setTimestamp(findSessionTimestamp);
+        send(idmsg, sender);
+        ArrayList block = new ArrayList();
+        for (int i = 0; i < ids.length; i++) {
+            Session session = (Session) sessions.get(ids[i]);
+            if (session != null) block.add(session);
+            if (block.size() > 0 && (block.size() >= getSendAllSessionsSize() || i == ids.length - 1)) {
+                sendSessions(sender, (Session[]) block.toArray(new Session[block.size()]), findSessionTimestamp);
+                block.clear();
+            }
+        }
+        sendTransferComplete(sender, findSessionTimestamp);
+    }
+
+    /**
+     * send that the session state is complete transfered
+     * @param sender
+     * @param findSessionTimestamp
+     */
+    protected void sendTransferComplete(Member sender, long findSessionTimestamp) {
         SessionMessage newmsg = new SessionMessageImpl(name,SessionMessage.EVT_ALL_SESSION_TRANSFERCOMPLETE, null,"SESSION-STATE-TRANSFERED", "SESSION-STATE-TRANSFERED"+ getName());
         newmsg.setTimestamp(findSessionTimestamp);
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.createMessage.allSessionTransfered",getName()));
         counterSend_EVT_ALL_SESSION_TRANSFERCOMPLETE++;
-        cluster.send(newmsg, sender);
+        send(newmsg, sender);
     }
 
     /**
@@ -1707,13 +2083,25 @@ public class DeltaManager extends ClusterManagerBase{
      * @throws IOException
      */
     protected void sendSessions(Member sender, Session[] currentSessions,long sendTimestamp) throws IOException {
+        sendSessions(sender, currentSessions, sendTimestamp, "SESSION-STATE");
+    }
+
+    /**
+     * send a block of session to sender
+     * @param sender
+     * @param currentSessions
+     * @param sendTimestamp
+     * @param sessionId the id of the requested session, if any
+     * @throws IOException
+     */
+    protected void sendSessions(Member sender, Session[] currentSessions,long sendTimestamp, String sessionId) throws IOException {
         byte[] data = serializeSessions(currentSessions);
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.unloadingAfter",getName()));
-        SessionMessage newmsg = new SessionMessageImpl(name,SessionMessage.EVT_ALL_SESSION_DATA, data,"SESSION-STATE", "SESSION-STATE-" + getName());
+        SessionMessage newmsg = new SessionMessageImpl(name,SessionMessage.EVT_ALL_SESSION_DATA, data,sessionId, "SESSION-STATE-" + getName());
         newmsg.setTimestamp(sendTimestamp);
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.createMessage.allSessionData",getName()));
         counterSend_EVT_ALL_SESSION_DATA++;
-        cluster.send(newmsg, sender);
+        send(newmsg, sender);
     }
 
     public ClusterManager cloneFromTemplate() {
@@ -1734,7 +2122,11 @@ public class DeltaManager extends ClusterManagerBase{
         result.receiverQueue = receiverQueue ;
         result.stateTimestampDrop = stateTimestampDrop ;
         result.stateTransferCreateSendTime = stateTransferCreateSendTime; 
+        result.streamingStateTransfer = streamingStateTransfer;
+        result.streamingReadyRatio = streamingReadyRatio;
         result.setSessionAttributeFilter(getSessionAttributeFilter());
+        result.setCompactDelta(isCompactDelta());
+        result.setAttributeSerializers(getAttributeSerializers());
         return result;
     }
 }
@@ -23,6 +23,12 @@ package org.apache.catalina.ha.session;
  * a request is executed. These actions will then translate into invokations of methods 
  * on the actual session.
  * This class is NOT thread safe. One DeltaRequest per session
+ * <p>
+ * When <code>compact</code> is set, the actions are written in a compact
+ * format: types and actions are packed into a byte, numbers are varints and
+ * attribute names and common attribute values are written without Java
+ * serialization. Each message can be read on its own, and both formats can
+ * always be read.
  * @author <a href="mailto:fhanik@apache.org">Filip Hanik</a>
  * @version 1.0
  */
@@ -33,8 +39,14 @@ import java.util.LinkedList;
 
 import org.apache.catalina.realm.GenericPrincipal;
 import org.apache.catalina.util.StringManager;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 
 
@@ -63,12 +75,32 @@ public class DeltaRequest implements Externalizable {
     public static final String NAME_ISNEW = "__SET__ISNEW__";
     public static final String NAME_AUTHTYPE = "__SET__AUTHTYPE__";
 
+    /**
+     * Starts a compact delta request. The standard format starts with the
+     * length of the session id, which cannot be this long.
+     */
+    protected static final int COMPACT_MARKER = 0xFFFF;
+    protected static final int COMPACT_VERSION = 1;
+
+    protected static final int VALUE_NULL = 0;
+    protected static final int VALUE_STRING = 1;
+    protected static final int VALUE_INTEGER = 2;
+    protected static final int VALUE_LONG = 3;
+    protected static final int VALUE_TRUE = 4;
+    protected static final int VALUE_FALSE = 5;
+    protected static final int VALUE_BYTES = 6;
+    protected static final int VALUE_CUSTOM = 7;
+    protected static final int VALUE_OBJECT = 8;
+
     private String sessionId;
     private LinkedList actions = new LinkedList();
     private LinkedList actionPool = new LinkedList();
     
     private boolean recordAllActions = false;
 
+    private boolean compact = false;
+    private AttributeSerializer[] serializers = null;
+
     public DeltaRequest() {
         
     }
@@ -236,6 +268,26 @@ public class DeltaRequest implements Externalizable {
         return actions.size();
     }
     
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Write the actions in the compact format.
+     * @param compact <code>true</code> to use the compact format
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    public AttributeSerializer[] getSerializers() {
+        return serializers;
+    }
+
+    public void setSerializers(AttributeSerializer[] serializers) {
+        this.serializers = serializers;
+    }
+
     public void clear() {
         actions.clear();
         actionPool.clear();
@@ -247,7 +299,12 @@ public class DeltaRequest implements Externalizable {
         //size - int
         //AttributeInfo - in an array
         reset();
-        sessionId = in.readUTF();
+        int length = in.readUnsignedShort();
+        if (length == COMPACT_MARKER) {
+            readCompact(in);
+            return;
+        }
+        sessionId = readUTF(length, in);
         recordAllActions = in.readBoolean();
         int cnt = in.readInt();
         if (actions == null)
@@ -279,6 +336,10 @@ public class DeltaRequest implements Externalizable {
         //recordAll - boolean
         //size - int
         //AttributeInfo - in an array
+        if (compact) {
+            writeCompact(out);
+            return;
+        }
         out.writeUTF(getSessionId());
         out.writeBoolean(recordAllActions);
         out.writeInt(getSize());
@@ -304,6 +365,186 @@ public class DeltaRequest implements Externalizable {
         oos.close();
         return bos.toByteArray();
     }
+
+    protected void writeCompact(ObjectOutput out) throws IOException {
+        //marker - short
+        //version - byte
+        //sessionId - String
+        //recordAll - boolean
+        //size - varint
+        //actions - type and action byte, name String, value
+        int size = getSize();
+        out.writeShort(COMPACT_MARKER);
+        out.writeByte(COMPACT_VERSION);
+        out.writeUTF(getSessionId());
+        out.writeBoolean(recordAllActions);
+        writeVarInt(size, out);
+        for (int i = 0; i < size; i++) {
+            AttributeInfo info = (AttributeInfo) actions.get(i);
+            out.writeByte((info.getType() << 1) | info.getAction());
+            if (info.getType() == TYPE_ATTRIBUTE) {
+                out.writeUTF(info.getName());
+            }
+            writeValue(info.getValue(), out);
+        }
+    }
+
+    protected void readCompact(ObjectInput in) throws IOException, ClassNotFoundException {
+        int version = in.readUnsignedByte();
+        if (version != COMPACT_VERSION) {
+            throw new IOException(sm.getString("deltaRequest.invalidVersion",
+                    new Integer(version)));
+        }
+        sessionId = in.readUTF();
+        recordAllActions = in.readBoolean();
+        int cnt = readVarInt(in);
+        for (int i = 0; i < cnt; i++) {
+            int typeAndAction = in.readUnsignedByte();
+            int type = typeAndAction >> 1;
+            int action = typeAndAction & 1;
+            String name;
+            switch (type) {
+                case TYPE_ATTRIBUTE: name = in.readUTF(); break;
+                case TYPE_PRINCIPAL: name = NAME_PRINCIPAL; break;
+                case TYPE_ISNEW: name = NAME_ISNEW; break;
+                case TYPE_MAXINTERVAL: name = NAME_MAXINTERVAL; break;
+                case TYPE_AUTHTYPE: name = NAME_AUTHTYPE; break;
+                default : throw new IOException("Invalid attribute info type="+type);
+            }
+            Object value = readValue(in);
+            AttributeInfo info = null;
+            if (this.actionPool.size() > 0) {
+                info = (AttributeInfo) actionPool.removeFirst();
+                info.init(type, action, name, value);
+            } else {
+                info = new AttributeInfo(type, action, name, value);
+            }
+            actions.addLast(info);
+        }
+    }
+
+    protected void writeValue(Object value, ObjectOutput out) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+            return;
+        }
+        Class clazz = value.getClass();
+        if (clazz == String.class) {
+            out.writeByte(VALUE_STRING);
+            byte[] bytes = ((String) value).getBytes("UTF-8");
+            writeVarInt(bytes.length, out);
+            out.write(bytes);
+        } else if (clazz == Integer.class) {
+            out.writeByte(VALUE_INTEGER);
+            int i = ((Integer) value).intValue();
+            writeVarInt((i << 1) ^ (i >> 31), out);
+        } else if (clazz == Long.class) {
+            out.writeByte(VALUE_LONG);
+            long l = ((Long) value).longValue();
+            writeVarLong((l << 1) ^ (l >> 63), out);
+        } else if (clazz == Boolean.class) {
+            out.writeByte(((Boolean) value).booleanValue() ? VALUE_TRUE : VALUE_FALSE);
+        } else if (clazz == byte[].class) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(VALUE_BYTES);
+            writeVarInt(bytes.length, out);
+            out.write(bytes);
+        } else {
+            if (serializers != null) {
+                for (int i = 0; i < serializers.length; i++) {
+                    if (serializers[i].accept(value)) {
+                        out.writeByte(VALUE_CUSTOM);
+                        writeVarInt(i, out);
+                        serializers[i].writeValue(value, out);
+                        return;
+                    }
+                }
+            }
+            out.writeByte(VALUE_OBJECT);
+            out.writeObject(value);
+        }
+    }
+
+    protected Object readValue(ObjectInput in) throws IOException, ClassNotFoundException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case VALUE_NULL: return null;
+            case VALUE_STRING: {
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                return new String(bytes, "UTF-8");
+            }
+            case VALUE_INTEGER: {
+                int i = readVarInt(in);
+                return new Integer((i >>> 1) ^ -(i & 1));
+            }
+            case VALUE_LONG: {
+                long l = readVarLong(in);
+                return new Long((l >>> 1) ^ -(l & 1));
+            }
+            case VALUE_TRUE: return Boolean.TRUE;
+            case VALUE_FALSE: return Boolean.FALSE;
+            case VALUE_BYTES: {
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                return bytes;
+            }
+            case VALUE_CUSTOM: {
+                int index = readVarInt(in);
+                if (serializers == null || index >= serializers.length) {
+                    throw new IOException(sm.getString("deltaRequest.unknownSerializer",
+                            new Integer(index), sessionId));
+                }
+                return serializers[index].readValue(in);
+            }
+            case VALUE_OBJECT: return in.readObject();
+            default: throw new IOException("Invalid attribute value tag="+tag);
+        }
+    }
+
+    private static String readUTF(int length, DataInput in) throws IOException {
+        byte[] bytes = new byte[length + 2];
+        bytes[0] = (byte) (length >>> 8);
+        bytes[1] = (byte) length;
+        in.readFully(bytes, 2, length);
+        return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+    }
+
+    protected static void writeVarInt(int value, DataOutput out) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    protected static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    protected static void writeVarLong(long value, DataOutput out) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    protected static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
     
     private static class AttributeInfo implements java.io.Externalizable {
         private String name = null;
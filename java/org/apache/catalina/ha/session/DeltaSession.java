@@ -540,6 +540,16 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
 
     public DeltaRequest getDeltaRequest() {
         if (deltaRequest == null) resetDeltaRequest();
+        //the manager is not known yet when a backup copy is created
+        if ( manager instanceof ClusterManagerBase ) {
+            ClusterManagerBase cmb = (ClusterManagerBase)manager;
+            deltaRequest.setCompact(cmb.isCompactDelta());
+            deltaRequest.setSerializers(cmb.getAttributeSerializerInstances());
+        } else if ( manager instanceof BackupManager ) {
+            BackupManager bm = (BackupManager)manager;
+            deltaRequest.setCompact(bm.isCompactDelta());
+            deltaRequest.setSerializers(bm.getAttributeSerializerInstances());
+        }
         return deltaRequest;
     }
 
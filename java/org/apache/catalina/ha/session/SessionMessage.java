@@ -34,6 +34,8 @@ import org.apache.catalina.ha.ClusterMessage;
  *   <li><pre>public static final int EVT_ALL_SESSION_TRANSFERCOMPLETE</pre><li>
  *   <li><pre>public static final int EVT_CHANGE_SESSION_ID</pre><li>
  *   <li><pre>public static final int EVT_ALL_SESSION_NOCONTEXTMANAGER</pre><li>
+ *   <li><pre>public static final int EVT_ALL_SESSION_IDS</pre><li>
+ *   <li><pre>public static final int EVT_GET_SESSION</pre><li>
  * </ul>
  *
  */
@@ -89,6 +91,18 @@ public interface SessionMessage extends ClusterMessage, java.io.Serializable
      */
     public static final int EVT_ALL_SESSION_NOCONTEXTMANAGER = 16;
 
+    /**
+     * Event type used when a session state is streamed, the ids of all the
+     * sessions that will be transferred are sent first.
+     */
+    public static final int EVT_ALL_SESSION_IDS = 17;
+
+    /**
+     * Event type used when a node receiving a streamed session state needs
+     * a session that has not been transferred yet.
+     */
+    public static final int EVT_GET_SESSION = 18;
+
     public String getContextName();
     
     public String getEventTypeString();
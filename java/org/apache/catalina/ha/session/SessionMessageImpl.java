@@ -146,6 +146,8 @@ public class SessionMessageImpl extends ClusterMessageBase implements SessionMes
             case EVT_ALL_SESSION_TRANSFERCOMPLETE : return "SESSION-STATE-TRANSFERED";
             case EVT_CHANGE_SESSION_ID : return "SESSION-ID-CHANGED";
             case EVT_ALL_SESSION_NOCONTEXTMANAGER : return "NO-CONTEXT-MANAGER";
+            case EVT_ALL_SESSION_IDS : return "ALL-SESSION-IDS";
+            case EVT_GET_SESSION : return "SESSION-GET";
             default : return "UNKNOWN-EVENT-TYPE";
         }
     }
@@ -18,8 +18,13 @@
 
 package org.apache.catalina.loader;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilePermission;
 import java.io.IOException;
@@ -44,14 +49,20 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -155,8 +166,34 @@ public class WebappClassLoader
     static {
         JVM_THREAD_GROUP_NAMES.add(JVN_THREAD_GROUP_SYSTEM);
         JVM_THREAD_GROUP_NAMES.add("RMI Runtime");
+
+        // Register as parallel capable on Java 7 and later, so that the JVM
+        // does not lock the whole class loader when loading a class
+        try {
+            Method registerParallel =
+                ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+            registerParallel.setAccessible(true);
+            registerParallel.invoke(null);
+        } catch (Exception e) {
+            // Ignore, not available before Java 7
+        }
     }
 
+    /**
+     * The maximum number of names kept in the list of not found resources.
+     */
+    protected static final int NOT_FOUND_RESOURCES_SIZE = 1000;
+
+    /**
+     * The name of the startup cache file, in the work directory.
+     */
+    protected static final String STARTUP_CACHE_FILE = "startup-cache.idx";
+
+    /**
+     * The version of the startup cache file format.
+     */
+    protected static final int STARTUP_CACHE_VERSION = 1;
+
     protected class PrivilegedFindResourceByName
         implements PrivilegedAction<ResourceEntry> {
 
@@ -286,20 +323,44 @@ public class WebappClassLoader
      * The cache of ResourceEntry for classes and resources we have loaded,
      * keyed by resource name.
      */
-    protected HashMap resourceEntries = new HashMap();
+    protected ConcurrentHashMap<String, ResourceEntry> resourceEntries =
+        new ConcurrentHashMap<String, ResourceEntry>();
 
 
     /**
-     * The list of not found resources.
+     * The list of not found resources. It is cleared once it holds more than
+     * {@link #NOT_FOUND_RESOURCES_SIZE} names.
      */
-    protected HashMap<String, String> notFoundResources =
-        new LinkedHashMap<String, String>() {
-        private static final long serialVersionUID = 1L;
-        protected boolean removeEldestEntry(
-                Map.Entry<String, String> eldest) {
-            return size() > 1000;
-        }
-    };
+    protected Map<String, String> notFoundResources =
+        new ConcurrentHashMap<String, String>();
+
+
+    /**
+     * The locks used to load each class, keyed by class name.
+     */
+    protected ConcurrentHashMap<String, Object> classLoadingLocks =
+        new ConcurrentHashMap<String, Object>();
+
+
+    /**
+     * Should the resources loaded from the JARs during the startup of the
+     * web application be recorded, and loaded again ahead of time on the
+     * next start?
+     */
+    protected boolean startupCache = false;
+
+
+    /**
+     * The file listing the resources loaded from the JARs during startup.
+     */
+    protected File startupCacheFile = null;
+
+
+    /**
+     * The resource paths loaded from the JARs since this class loader was
+     * started, keyed by resource name, until the startup cache is saved.
+     */
+    protected volatile Map<String, String> startupResources = null;
 
 
     /**
@@ -347,6 +408,28 @@ public class WebappClassLoader
     protected JarFile[] jarFiles = new JarFile[0];
 
 
+    /**
+     * The indexes in {@link #jarFiles} of the JARs holding entries in a given
+     * directory, keyed by directory path. Only these JARs are searched for a
+     * resource.
+     */
+    protected Map<String, int[]> jarIndex =
+        new ConcurrentHashMap<String, int[]>();
+
+
+    /**
+     * Guards the JAR files, which are searched concurrently, against being
+     * closed by {@link #closeJARs(boolean)}.
+     */
+    protected ReentrantReadWriteLock jarLock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Are the JAR files open?
+     */
+    protected volatile boolean jarsOpen = true;
+
+
     /**
      * The list of JARs, in the order they should be searched
      * for locally loaded classes or resources.
@@ -589,6 +672,22 @@ public class WebappClassLoader
     }
 
 
+    /**
+     * @return Returns the startupCache.
+     */
+    public boolean getStartupCache() {
+        return startupCache;
+    }
+
+    /**
+     * @param startupCache Whether the resources loaded from the JARs during
+     *  startup should be recorded and loaded ahead of time on the next start
+     */
+    public void setStartupCache(boolean startupCache) {
+        this.startupCache = startupCache;
+    }
+
+
     /**
      * If there is a Java SecurityManager create a read FilePermission
      * or JndiPermission for the file directory path.
@@ -671,6 +770,9 @@ public class WebappClassLoader
      */
     public void setWorkDir(File workDir) {
         this.loaderDir = new File(workDir, "loader");
+        if (workDir != null) {
+            startupCacheFile = new File(workDir, STARTUP_CACHE_FILE);
+        }
         if (loaderDir == null) {
             canonicalLoaderDir = null;
         } else { 
@@ -932,6 +1034,33 @@ public class WebappClassLoader
         if (!validateJarFile(file))
             return;
 
+        // Index the directories of the JAR before it can be searched
+        HashSet<String> directories = new HashSet<String>();
+        Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            directories.add(getDirectory(name));
+            if (name.endsWith("/")) {
+                // JarFile also finds directory entries without the final /
+                directories.add(
+                        getDirectory(name.substring(0, name.length() - 1)));
+            }
+        }
+        Iterator<String> directoryIterator = directories.iterator();
+        while (directoryIterator.hasNext()) {
+            String directory = directoryIterator.next();
+            int[] indexes = jarIndex.get(directory);
+            int[] result5;
+            if (indexes == null) {
+                result5 = new int[1];
+            } else {
+                result5 = new int[indexes.length + 1];
+                System.arraycopy(indexes, 0, result5, 0, indexes.length);
+            }
+            result5[result5.length - 1] = jarFiles.length;
+            jarIndex.put(directory, result5);
+        }
+
         JarFile[] result2 = new JarFile[jarFiles.length + 1];
         for (i = 0; i < jarFiles.length; i++) {
             result2[i] = jarFiles[i];
@@ -1309,20 +1438,29 @@ public class WebappClassLoader
         }
 
         // Looking at the JAR files
-        synchronized (jarFiles) {
-            if (openJARs()) {
-                for (i = 0; i < jarFilesLength; i++) {
-                    JarEntry jarEntry = jarFiles[i].getJarEntry(name);
-                    if (jarEntry != null) {
-                        try {
-                            String jarFakeUrl = getURI(jarRealFiles[i]).toString();
-                            jarFakeUrl = "jar:" + jarFakeUrl + "!/" + name;
-                            result.addElement(new URL(jarFakeUrl));
-                        } catch (MalformedURLException e) {
-                            // Ignore
+        int[] jarIndexes = findJars(name);
+        if (jarIndexes.length > 0) {
+            jarLock.readLock().lock();
+            try {
+                if (openJARs()) {
+                    for (int j = 0; j < jarIndexes.length; j++) {
+                        i = jarIndexes[j];
+                        if (i >= jarFilesLength)
+                            break;
+                        JarEntry jarEntry = jarFiles[i].getJarEntry(name);
+                        if (jarEntry != null) {
+                            try {
+                                String jarFakeUrl = getURI(jarRealFiles[i]).toString();
+                                jarFakeUrl = "jar:" + jarFakeUrl + "!/" + name;
+                                result.addElement(new URL(jarFakeUrl));
+                            } catch (MalformedURLException e) {
+                                // Ignore
+                            }
                         }
                     }
                 }
+            } finally {
+                jarLock.readLock().unlock();
             }
         }
 
@@ -1553,7 +1691,26 @@ public class WebappClassLoader
      *
      * @exception ClassNotFoundException if the class was not found
      */
-    public synchronized Class loadClass(String name, boolean resolve)
+    public Class loadClass(String name, boolean resolve)
+        throws ClassNotFoundException {
+
+        synchronized (getClassLoadingLock(name)) {
+            return loadClassInternal(name, resolve);
+        }
+
+    }
+
+
+    /**
+     * Load the class with the specified name, holding the lock of that class
+     * name.
+     *
+     * @param name Name of the class to be loaded
+     * @param resolve If <code>true</code> then resolve the class
+     *
+     * @exception ClassNotFoundException if the class was not found
+     */
+    protected Class loadClassInternal(String name, boolean resolve)
         throws ClassNotFoundException {
 
         if (log.isDebugEnabled())
@@ -1804,6 +1961,9 @@ public class WebappClassLoader
     public void start() throws LifecycleException {
 
         started = true;
+        if (startupCache) {
+            startupResources = new ConcurrentHashMap<String, String>();
+        }
         String encoding = null;
         try {
             encoding = System.getProperty("file.encoding");
@@ -1853,6 +2013,9 @@ public class WebappClassLoader
 
         notFoundResources.clear();
         resourceEntries.clear();
+        classLoadingLocks.clear();
+        startupResources = null;
+        jarIndex.clear();
         resources = null;
         repositories = null;
         repositoryURLs = null;
@@ -1882,9 +2045,11 @@ public class WebappClassLoader
      */
     public void closeJARs(boolean force) {
         if (jarFiles.length > 0) {
-                synchronized (jarFiles) {
+                jarLock.writeLock().lock();
+                try {
                     if (force || (System.currentTimeMillis() 
                                   > (lastJarAccessed + 90000))) {
+                        jarsOpen = false;
                         for (int i = 0; i < jarFiles.length; i++) {
                             try {
                                 if (jarFiles[i] != null) {
@@ -1898,8 +2063,153 @@ public class WebappClassLoader
                             }
                         }
                     }
+                } finally {
+                    jarLock.writeLock().unlock();
+                }
+        }
+    }
+
+
+    /**
+     * Load ahead of time, in parallel, the resources listed in the startup
+     * cache, provided the JARs have not changed since it was saved.
+     */
+    public void loadStartupCache() {
+
+        if (!startupCache || (startupCacheFile == null)
+                || !startupCacheFile.exists()) {
+            return;
+        }
+        List<String> names = new ArrayList<String>();
+        List<String> resourcePaths = new ArrayList<String>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(startupCacheFile)));
+            if (in.readInt() != STARTUP_CACHE_VERSION) {
+                return;
+            }
+            int jarCount = in.readInt();
+            if (jarCount != jarRealFiles.length) {
+                return;
+            }
+            for (int i = 0; i < jarCount; i++) {
+                String jarPath = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                if (!jarPath.equals(jarRealFiles[i].getAbsolutePath())
+                        || (length != jarRealFiles[i].length())
+                        || (lastModified != jarRealFiles[i].lastModified())) {
+                    return;
+                }
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                names.add(in.readUTF());
+                resourcePaths.add(in.readUTF());
+            }
+        } catch (IOException e) {
+            log.warn(sm.getString("webappClassLoader.startupCacheReadFail",
+                    startupCacheFile), e);
+            return;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "WebappClassLoader-prefetch");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        for (int i = 0; i < names.size(); i++) {
+            final String name = names.get(i);
+            final String path = resourcePaths.get(i);
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (securityManager != null) {
+                        AccessController.doPrivileged(
+                                new PrivilegedFindResourceByName(name, path));
+                    } else {
+                        findResourceInternal(name, path);
+                    }
                 }
+            });
         }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (log.isDebugEnabled())
+            log.debug("Loaded " + names.size() + " resources from the startup cache");
+
+    }
+
+
+    /**
+     * Save the resources loaded from the JARs since this class loader was
+     * started to the startup cache, and stop recording them.
+     */
+    public void saveStartupCache() {
+
+        Map<String, String> recorded = startupResources;
+        startupResources = null;
+        if ((recorded == null) || (startupCacheFile == null)) {
+            return;
+        }
+        recorded = new HashMap<String, String>(recorded);
+        File tmpFile = new File(startupCacheFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmpFile)));
+            out.writeInt(STARTUP_CACHE_VERSION);
+            out.writeInt(jarRealFiles.length);
+            for (int i = 0; i < jarRealFiles.length; i++) {
+                out.writeUTF(jarRealFiles[i].getAbsolutePath());
+                out.writeLong(jarRealFiles[i].length());
+                out.writeLong(jarRealFiles[i].lastModified());
+            }
+            out.writeInt(recorded.size());
+            Iterator<Map.Entry<String, String>> entries =
+                recorded.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, String> entry = entries.next();
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.close();
+            out = null;
+            startupCacheFile.delete();
+            if (!tmpFile.renameTo(startupCacheFile)) {
+                throw new IOException(tmpFile.getPath());
+            }
+        } catch (IOException e) {
+            log.warn(sm.getString("webappClassLoader.startupCacheWriteFail",
+                    startupCacheFile), e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            tmpFile.delete();
+        }
+
     }
 
 
@@ -2018,9 +2328,8 @@ public class WebappClassLoader
 
     private final void clearReferencesStaticFinal() {
         
-        @SuppressWarnings("unchecked")
         Collection<ResourceEntry> values =
-            ((HashMap<String,ResourceEntry>) resourceEntries.clone()).values();
+            new HashMap<String,ResourceEntry>(resourceEntries).values();
         Iterator<ResourceEntry> loadedClasses = values.iterator();
         //
         // walk through all loaded class to trigger initialization for
@@ -2744,19 +3053,27 @@ public class WebappClassLoader
 
     /**
      * Used to periodically signal to the classloader to release JAR resources.
+     * Must be called holding the read lock of {@link #jarLock}.
      */
     protected boolean openJARs() {
         if (started && (jarFiles.length > 0)) {
             lastJarAccessed = System.currentTimeMillis();
-            if (jarFiles[0] == null) {
-                for (int i = 0; i < jarFiles.length; i++) {
-                    try {
-                        jarFiles[i] = new JarFile(jarRealFiles[i]);
-                    } catch (IOException e) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Failed to open JAR", e);
+            if (!jarsOpen) {
+                synchronized (jarLock) {
+                    if (!jarsOpen) {
+                        for (int i = 0; i < jarFiles.length; i++) {
+                            try {
+                                if (jarFiles[i] == null) {
+                                    jarFiles[i] = new JarFile(jarRealFiles[i]);
+                                }
+                            } catch (IOException e) {
+                                if (log.isDebugEnabled()) {
+                                    log.debug("Failed to open JAR", e);
+                                }
+                                return false;
+                            }
                         }
-                        return false;
+                        jarsOpen = true;
                     }
                 }
             }
@@ -2765,6 +3082,46 @@ public class WebappClassLoader
     }
 
 
+    /**
+     * Return the indexes in {@link #jarFiles} of the JARs which may hold the
+     * given resource, in search order.
+     *
+     * @param path Path of the resource
+     */
+    protected int[] findJars(String path) {
+        int[] indexes = jarIndex.get(getDirectory(path));
+        return (indexes == null) ? new int[0] : indexes;
+    }
+
+
+    /**
+     * Return the directory of a JAR entry, or an empty string for entries
+     * at the root of the JAR.
+     */
+    protected static String getDirectory(String path) {
+        int pos = path.lastIndexOf('/');
+        return (pos < 0) ? "" : path.substring(0, pos);
+    }
+
+
+    /**
+     * Return the lock used to load the class with the given name.
+     *
+     * @param name Name of the class
+     */
+    protected Object getClassLoadingLock(String name) {
+        Object lock = classLoadingLocks.get(name);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = classLoadingLocks.putIfAbsent(name, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+
     /**
      * Find specified class in local repositories.
      *
@@ -2796,7 +3153,7 @@ public class WebappClassLoader
         if (clazz != null)
             return clazz;
 
-        synchronized (this) {
+        synchronized (getClassLoadingLock(name)) {
             clazz = entry.loadedClass;
             if (clazz != null)
                 return clazz;
@@ -2904,7 +3261,7 @@ public class WebappClassLoader
         if ((name == null) || (path == null))
             return null;
 
-        ResourceEntry entry = (ResourceEntry) resourceEntries.get(name);
+        ResourceEntry entry = resourceEntries.get(name);
         if (entry != null)
             return entry;
 
@@ -2988,14 +3345,20 @@ public class WebappClassLoader
 
         JarEntry jarEntry = null;
 
-        synchronized (jarFiles) {
+        int[] jarIndexes = (entry == null) ? findJars(path) : new int[0];
+
+        jarLock.readLock().lock();
+        try {
 
             try {
                 if (!openJARs()) {
                     return null;
                 }
-                for (i = 0; (entry == null) && (i < jarFilesLength); i++) {
+                for (int j = 0; (entry == null) && (j < jarIndexes.length); j++) {
     
+                    i = jarIndexes[j];
+                    if (i >= jarFilesLength)
+                        break;
                     jarEntry = jarFiles[i].getJarEntry(path);
     
                     if (jarEntry != null) {
@@ -3023,57 +3386,60 @@ public class WebappClassLoader
                             byte[] buf = new byte[1024];
                             File resourceFile = new File
                                 (loaderDir, jarEntry.getName());
-                            if (!resourceFile.exists()) {
-                                Enumeration<JarEntry> entries =
-                                    jarFiles[i].entries();
-                                while (entries.hasMoreElements()) {
-                                    JarEntry jarEntry2 =  entries.nextElement();
-                                    if (!(jarEntry2.isDirectory()) 
-                                        && (!jarEntry2.getName().endsWith
-                                            (".class"))) {
-                                        resourceFile = new File
-                                            (loaderDir, jarEntry2.getName());
-                                        try {
-                                            if (!resourceFile.getCanonicalPath().startsWith(
-                                                    canonicalLoaderDir)) {
-                                                throw new IllegalArgumentException(
-                                                        sm.getString("webappClassLoader.illegalJarPath",
-                                                    jarEntry2.getName()));
-                                            }
-                                        } catch (IOException ioe) {
-                                            throw new IllegalArgumentException(
-                                                    sm.getString("webappClassLoader.validationErrorJarPath",
-                                                            jarEntry2.getName()), ioe);
-                                        }                                 
-                                        resourceFile.getParentFile().mkdirs();
-                                        FileOutputStream os = null;
-                                        InputStream is = null;
-                                        try {
-                                            is = jarFiles[i].getInputStream
-                                                (jarEntry2);
-                                            os = new FileOutputStream
-                                                (resourceFile);
-                                            while (true) {
-                                                int n = is.read(buf);
-                                                if (n <= 0) {
-                                                    break;
-                                                }
-                                                os.write(buf, 0, n);
-                                            }
-                                        } catch (IOException e) {
-                                            // Ignore
-                                        } finally {
+                            // Only one thread extracts the resources of a JAR
+                            synchronized (jarRealFiles[i]) {
+                                if (!resourceFile.exists()) {
+                                    Enumeration<JarEntry> entries =
+                                        jarFiles[i].entries();
+                                    while (entries.hasMoreElements()) {
+                                        JarEntry jarEntry2 =  entries.nextElement();
+                                        if (!(jarEntry2.isDirectory()) 
+                                            && (!jarEntry2.getName().endsWith
+                                                (".class"))) {
+                                            resourceFile = new File
+                                                (loaderDir, jarEntry2.getName());
                                             try {
-                                                if (is != null) {
-                                                    is.close();
+                                                if (!resourceFile.getCanonicalPath().startsWith(
+                                                        canonicalLoaderDir)) {
+                                                    throw new IllegalArgumentException(
+                                                            sm.getString("webappClassLoader.illegalJarPath",
+                                                        jarEntry2.getName()));
                                                 }
-                                            } catch (IOException e) {
-                                            }
+                                            } catch (IOException ioe) {
+                                                throw new IllegalArgumentException(
+                                                        sm.getString("webappClassLoader.validationErrorJarPath",
+                                                                jarEntry2.getName()), ioe);
+                                            }                                 
+                                            resourceFile.getParentFile().mkdirs();
+                                            FileOutputStream os = null;
+                                            InputStream is = null;
                                             try {
-                                                if (os != null) {
-                                                    os.close();
+                                                is = jarFiles[i].getInputStream
+                                                    (jarEntry2);
+                                                os = new FileOutputStream
+                                                    (resourceFile);
+                                                while (true) {
+                                                    int n = is.read(buf);
+                                                    if (n <= 0) {
+                                                        break;
+                                                    }
+                                                    os.write(buf, 0, n);
                                                 }
                                             } catch (IOException e) {
+                                                // Ignore
+                                            } finally {
+                                                try {
+                                                    if (is != null) {
+                                                        is.close();
+                                                    }
+                                                } catch (IOException e) {
+                                                }
+                                                try {
+                                                    if (os != null) {
+                                                        os.close();
+                                                    }
+                                                } catch (IOException e) {
+                                                }
                                             }
                                         }
                                     }
@@ -3086,9 +3452,10 @@ public class WebappClassLoader
                 }
     
                 if (entry == null) {
-                    synchronized (notFoundResources) {
-                        notFoundResources.put(name, name);
+                    if (notFoundResources.size() >= NOT_FOUND_RESOURCES_SIZE) {
+                        notFoundResources.clear();
                     }
+                    notFoundResources.put(name, name);
                     return null;
                 }
     
@@ -3138,19 +3505,23 @@ public class WebappClassLoader
                     } catch (IOException e) { /* Ignore */}
                 }
             }
+        } finally {
+            jarLock.readLock().unlock();
         }
 
         // Add the entry in the local resource repository
-        synchronized (resourceEntries) {
-            // Ensures that all the threads which may be in a race to load
-            // a particular class all end up with the same ResourceEntry
-            // instance
-            ResourceEntry entry2 = (ResourceEntry) resourceEntries.get(name);
-            if (entry2 == null) {
-                resourceEntries.put(name, entry);
-            } else {
-                entry = entry2;
-            }
+        // Ensures that all the threads which may be in a race to load
+        // a particular class all end up with the same ResourceEntry
+        // instance
+        ResourceEntry entry2 = resourceEntries.putIfAbsent(name, entry);
+        if (entry2 != null) {
+            entry = entry2;
+        }
+
+        // Record the resources loaded from the JARs during startup
+        Map<String, String> recorded = startupResources;
+        if ((jarEntry != null) && (recorded != null)) {
+            recorded.put(name, path);
         }
 
         return entry;
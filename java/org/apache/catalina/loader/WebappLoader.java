@@ -215,6 +215,13 @@ public class WebappLoader
     private boolean searchExternalFirst = false;
 
 
+    /**
+     * Whether the resources loaded from the JARs during startup should be
+     * recorded and loaded ahead of time on the next start
+     */
+    private boolean startupCache = false;
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -367,6 +374,21 @@ public class WebappLoader
         }
     }
 
+    /**
+     * @return Returns startupCache.
+     */
+    public boolean getStartupCache() {
+        return startupCache;
+    }
+
+    /**
+     * @param startupCache Whether the resources loaded from the JARs during
+     *  startup should be recorded and loaded ahead of time on the next start
+     */
+    public void setStartupCache(boolean startupCache) {
+        this.startupCache = startupCache;
+    }
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -512,6 +534,17 @@ public class WebappLoader
     }
 
 
+    /**
+     * Save the classes and resources loaded from the JARs during startup,
+     * if the startup cache is enabled.
+     */
+    public void saveStartupCache() {
+        if (classLoader != null) {
+            classLoader.saveStartupCache();
+        }
+    }
+
+
     /**
      * Remove a property change listener from this component.
      *
@@ -662,6 +695,7 @@ public class WebappLoader
             classLoader.setResources(container.getResources());
             classLoader.setDelegate(this.delegate);
             classLoader.setSearchExternalFirst(searchExternalFirst);
+            classLoader.setStartupCache(startupCache);
             if (container instanceof StandardContext) {
                 classLoader.setAntiJARLocking(
                         ((StandardContext) container).getAntiJARLocking());
@@ -688,6 +722,9 @@ public class WebappLoader
             if (classLoader instanceof Lifecycle)
                 ((Lifecycle) classLoader).start();
 
+            // Load the classes and resources used during the last startup
+            classLoader.loadStartupCache();
+
             // Binding the Webapp class loader to the directory context
             DirContextURLStreamHandler.bind
                 ((ClassLoader) classLoader, this.container.getResources());
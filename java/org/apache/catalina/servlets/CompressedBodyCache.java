@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.servlets;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * Bounded cache of the compressed bodies of static resources, used by the
+ * default servlet so that a resource is compressed once rather than on
+ * every request. Keys include the ETag of the resource, so that a modified
+ * resource gets a new entry; the stale entries are dropped, oldest first,
+ * when the total size of the bodies would exceed the maximum size.
+ */
+public class CompressedBodyCache {
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    public CompressedBodyCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Maximum total size of the cached bodies in bytes.
+     */
+    protected long maxSize;
+
+
+    /**
+     * Total size of the cached bodies in bytes. Guarded by this.
+     */
+    protected long size = 0;
+
+
+    /**
+     * Compressed bodies.
+     */
+    protected ConcurrentHashMap<String, byte[]> bodies =
+        new ConcurrentHashMap<String, byte[]>();
+
+
+    /**
+     * Keys of the cached bodies, oldest first. Guarded by this.
+     */
+    protected ConcurrentLinkedQueue<String> order =
+        new ConcurrentLinkedQueue<String>();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+
+    public int getCount() {
+        return bodies.size();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Return the cached body for the given key, or <code>null</code>.
+     */
+    public byte[] get(String key) {
+        return bodies.get(key);
+    }
+
+
+    /**
+     * Add a body to the cache, unless it is larger than a twentieth of the
+     * cache.
+     */
+    public synchronized void put(String key, byte[] body) {
+        if ((body.length > maxSize / 20) || bodies.containsKey(key)) {
+            return;
+        }
+        while (size + body.length > maxSize) {
+            String eldest = order.poll();
+            if (eldest == null) {
+                break;
+            }
+            byte[] removed = bodies.remove(eldest);
+            if (removed != null) {
+                size -= removed.length;
+            }
+        }
+        bodies.put(key, body);
+        order.offer(key);
+        size += body.length;
+    }
+
+
+    /**
+     * Remove all the cached bodies.
+     */
+    public synchronized void clear() {
+        bodies.clear();
+        order.clear();
+        size = 0;
+    }
+
+
+}
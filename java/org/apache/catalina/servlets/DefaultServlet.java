@@ -33,9 +33,12 @@ import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.StringTokenizer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.naming.InitialContext;
 import javax.naming.NameClassPair;
@@ -195,6 +198,62 @@ public class DefaultServlet
      */
     protected int sendfileSize = 48 * 1024;
     
+    /**
+     * Minimum size for serving resources from memory mapped files in bytes,
+     * 0 to disable it.
+     */
+    protected int mappedFileSize = 0;
+
+
+    /**
+     * Maximum total size of the memory mapped files in bytes.
+     */
+    protected long mappedCacheSize = 64 * 1024 * 1024;
+
+
+    /**
+     * Memory mapped files, shared by all the requests.
+     */
+    protected MappedFileCache mappedFiles = null;
+
+
+    /**
+     * Buffer used to copy from the mapped files to the output stream.
+     */
+    protected ThreadLocal<byte[]> mappedCopyBuffer = new ThreadLocal<byte[]>();
+
+    /**
+     * Should precompressed variants of the resources be served?
+     */
+    protected boolean precompressed = false;
+
+
+    /**
+     * Maximum total size of the cached compressed bodies in bytes, 0 to
+     * disable compression.
+     */
+    protected long compressedCacheSize = 0;
+
+
+    /**
+     * Minimum size for compressing resources in bytes.
+     */
+    protected int compressionMinSize = 2048;
+
+
+    /**
+     * MIME types which may be compressed.
+     */
+    protected String[] compressableMimeTypes =
+    { "text/html", "text/xml", "text/plain", "text/css", "text/javascript",
+      "application/javascript", "application/x-javascript" };
+
+
+    /**
+     * Compressed bodies, shared by all the requests.
+     */
+    protected CompressedBodyCache compressedBodies = null;
+
     /**
      * Should the Accept-Ranges: bytes header be send with static resources?
      */
@@ -247,6 +306,18 @@ public class DefaultServlet
     protected static final int BUFFER_SIZE = 4096;
 
 
+    /**
+     * Supported content codings, in order of preference.
+     */
+    protected static final String[] ENCODINGS = { "gzip", "deflate" };
+
+
+    /**
+     * Extensions of the precompressed variants, for each content coding.
+     */
+    protected static final String[] ENCODING_EXTENSIONS = { ".gz", ".zz" };
+
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -254,6 +325,12 @@ public class DefaultServlet
      * Finalize this servlet.
      */
     public void destroy() {
+        if (mappedFiles != null) {
+            mappedFiles.clear();
+        }
+        if (compressedBodies != null) {
+            compressedBodies.clear();
+        }
     }
 
 
@@ -280,6 +357,52 @@ public class DefaultServlet
             sendfileSize = 
                 Integer.parseInt(getServletConfig().getInitParameter("sendfileSize")) * 1024;
 
+        if (getServletConfig().getInitParameter("mappedFileSize") != null)
+            mappedFileSize = 
+                Integer.parseInt(getServletConfig().getInitParameter("mappedFileSize")) * 1024;
+
+        if (getServletConfig().getInitParameter("mappedCacheSize") != null)
+            mappedCacheSize = 
+                Long.parseLong(getServletConfig().getInitParameter("mappedCacheSize")) * 1024;
+
+        // Mapped files stay locked until the mappings are garbage collected
+        if (Boolean.TRUE.equals(getServletContext().getAttribute
+                (Globals.ANTI_RESOURCE_LOCKING_ATTR))) {
+            mappedFileSize = 0;
+        }
+
+        if (mappedFileSize > 0) {
+            mappedFiles = new MappedFileCache(mappedCacheSize);
+        }
+
+        precompressed = Boolean.parseBoolean(getServletConfig().getInitParameter("precompressed"));
+
+        if (getServletConfig().getInitParameter("compressedCacheSize") != null)
+            compressedCacheSize = 
+                Long.parseLong(getServletConfig().getInitParameter("compressedCacheSize")) * 1024;
+
+        if (getServletConfig().getInitParameter("compressionMinSize") != null)
+            compressionMinSize = 
+                Integer.parseInt(getServletConfig().getInitParameter("compressionMinSize"));
+
+        if (getServletConfig().getInitParameter("compressableMimeTypes") != null) {
+            StringTokenizer st = new StringTokenizer
+                (getServletConfig().getInitParameter("compressableMimeTypes"), ",");
+            ArrayList types = new ArrayList();
+            while (st.hasMoreTokens()) {
+                String type = st.nextToken().trim();
+                if (type.length() > 0) {
+                    types.add(type);
+                }
+            }
+            compressableMimeTypes = 
+                (String[]) types.toArray(new String[types.size()]);
+        }
+
+        if (compressedCacheSize > 0) {
+            compressedBodies = new CompressedBodyCache(compressedCacheSize);
+        }
+
         fileEncoding = getServletConfig().getInitParameter("fileEncoding");
 
         globalXsltFile = getServletConfig().getInitParameter("globalXsltFile");
@@ -786,27 +909,50 @@ public class DefaultServlet
             isError = status.intValue() >= HttpServletResponse.SC_BAD_REQUEST;
         }
 
+        boolean included =
+            (request.getAttribute(Globals.INCLUDE_CONTEXT_PATH_ATTR) != null);
+
+        // Find content type.
+        String contentType = cacheEntry.attributes.getMimeType();
+        if (contentType == null) {
+            contentType = getServletContext().getMimeType(cacheEntry.name);
+            cacheEntry.attributes.setMimeType(contentType);
+        }
+
+        // Select the content coding of the representation to serve, which
+        // has its own ETag
+        int encoding = -1;
+        CacheEntry[] variants = null;
+        ResourceAttributes attributes = cacheEntry.attributes;
+        if ((cacheEntry.context == null) && !isError && !included
+                && (cacheEntry.attributes.getContentLength() > 0)) {
+            variants = findPrecompressed(path, cacheEntry);
+            boolean compressable = isCompressable(cacheEntry, contentType);
+            if ((variants != null) || compressable) {
+                // The representation depends on the request headers
+                response.addHeader("Vary", "Accept-Encoding");
+                if (request.getHeader("Range") == null) {
+                    encoding = selectEncoding(request, variants, compressable);
+                }
+            }
+            if (encoding >= 0) {
+                attributes = getEncodedAttributes(cacheEntry, variants,
+                                                  encoding);
+            }
+        }
+
         // Check if the conditions specified in the optional If headers are
         // satisfied.
         if (cacheEntry.context == null) {
 
             // Checking If headers
-            boolean included =
-                (request.getAttribute(Globals.INCLUDE_CONTEXT_PATH_ATTR) != null);
             if (!included && !isError &&
-                    !checkIfHeaders(request, response, cacheEntry.attributes)) {
+                    !checkIfHeaders(request, response, attributes)) {
                 return;
             }
 
         }
 
-        // Find content type.
-        String contentType = cacheEntry.attributes.getMimeType();
-        if (contentType == null) {
-            contentType = getServletContext().getMimeType(cacheEntry.name);
-            cacheEntry.attributes.setMimeType(contentType);
-        }
-
         ArrayList ranges = null;
         long contentLength = -1L;
 
@@ -832,7 +978,7 @@ public class DefaultServlet
                 ranges = parseRange(request, response, cacheEntry.attributes);
     
                 // ETag header
-                response.setHeader("ETag", cacheEntry.attributes.getETag());
+                response.setHeader("ETag", attributes.getETag());
     
                 // Last-Modified header
                 response.setHeader("Last-Modified",
@@ -885,6 +1031,18 @@ public class DefaultServlet
                         contentType + "'");
                 response.setContentType(contentType);
             }
+
+            // Serve the compressed representation selected above
+            if (encoding >= 0) {
+                if (((ostream != null) || !content)
+                        && serveCompressed(request, response, cacheEntry,
+                                           variants, encoding, content,
+                                           ostream)) {
+                    return;
+                }
+                response.setHeader("ETag", cacheEntry.attributes.getETag());
+            }
+
             if ((cacheEntry.resource != null) && (contentLength >= 0)) {
                 if (debug > 0)
                     log("DefaultServlet.serveFile:  contentLength=" +
@@ -994,6 +1152,308 @@ public class DefaultServlet
     }
 
 
+    /**
+     * Find the precompressed variants of the resource, for each content
+     * coding. A variant older than the resource is ignored, as it was not
+     * made from the current contents of the resource.
+     *
+     * @param path The path of the resource
+     * @param cacheEntry The resource
+     * @return the variants, indexed like {@link #ENCODINGS}, or
+     *  <code>null</code> if the resource has none
+     */
+    protected CacheEntry[] findPrecompressed(String path,
+                                             CacheEntry cacheEntry) {
+
+        if (!precompressed) {
+            return null;
+        }
+        CacheEntry[] variants = null;
+        long lastModified = cacheEntry.attributes.getLastModified();
+        for (int i = 0; i < ENCODINGS.length; i++) {
+            CacheEntry variant =
+                resources.lookupCache(path + ENCODING_EXTENSIONS[i]);
+            if (variant.exists && (variant.context == null)
+                    && (variant.resource != null)
+                    && (variant.attributes.getLastModified() >= lastModified)) {
+                if (variants == null) {
+                    variants = new CacheEntry[ENCODINGS.length];
+                }
+                variants[i] = variant;
+            }
+        }
+        return variants;
+
+    }
+
+
+    /**
+     * Check if the resource may be compressed and its compressed body
+     * cached.
+     */
+    protected boolean isCompressable(CacheEntry cacheEntry,
+                                     String contentType) {
+        long length = cacheEntry.attributes.getContentLength();
+        return (compressedBodies != null)
+            && (cacheEntry.resource != null)
+            && (length >= compressionMinSize)
+            && (length <= compressedBodies.getMaxSize() / 20)
+            && isCompressable(contentType);
+    }
+
+
+    /**
+     * Select the content coding of the representation to serve, preferring
+     * a precompressed variant to a compressed body.
+     *
+     * @param request The servlet request we are processing
+     * @param variants The precompressed variants, or <code>null</code>
+     * @param compressable Can the resource be compressed?
+     * @return the index of the content coding in {@link #ENCODINGS}, or -1
+     *  to serve the resource itself
+     */
+    protected int selectEncoding(HttpServletRequest request,
+                                 CacheEntry[] variants,
+                                 boolean compressable) {
+
+        int selected = -1;
+        for (int i = 0; i < ENCODINGS.length; i++) {
+            if (!acceptsEncoding(request, ENCODINGS[i])) {
+                continue;
+            }
+            if ((variants != null) && (variants[i] != null)) {
+                return i;
+            }
+            if (compressable && (selected < 0)) {
+                selected = i;
+            }
+        }
+        return selected;
+
+    }
+
+
+    /**
+     * Return the ETag of the representation of a resource with the given
+     * content coding, so that caches and conditional requests do not mistake
+     * it for the representation with another coding.
+     *
+     * @param attributes The attributes of the resource
+     * @param encoding The index of the content coding in {@link #ENCODINGS}
+     */
+    protected String getETag(ResourceAttributes attributes, int encoding) {
+        String eTag = attributes.getETag();
+        if (eTag == null) {
+            return null;
+        }
+        if (eTag.endsWith("\"")) {
+            return eTag.substring(0, eTag.length() - 1) + "-"
+                + ENCODINGS[encoding] + "\"";
+        }
+        return eTag + "-" + ENCODINGS[encoding];
+    }
+
+
+    /**
+     * Return the attributes checked against the conditional headers for the
+     * representation of the resource with the given content coding.
+     *
+     * @param cacheEntry The resource
+     * @param variants The precompressed variants, or <code>null</code>
+     * @param encoding The index of the content coding in {@link #ENCODINGS}
+     */
+    protected ResourceAttributes getEncodedAttributes(CacheEntry cacheEntry,
+                                                      CacheEntry[] variants,
+                                                      int encoding) {
+        ResourceAttributes attributes = cacheEntry.attributes;
+        if ((variants != null) && (variants[encoding] != null)) {
+            attributes = variants[encoding].attributes;
+        }
+        ResourceAttributes encoded = new ResourceAttributes();
+        encoded.setLastModified(cacheEntry.attributes.getLastModified());
+        encoded.setETag(getETag(attributes, encoding));
+        return encoded;
+    }
+
+
+    /**
+     * Serve the precompressed variant of the resource, or its cached
+     * compressed body, with the given content coding.
+     *
+     * @param request The servlet request we are processing
+     * @param response The servlet response we are creating
+     * @param cacheEntry The resource
+     * @param variants The precompressed variants, or <code>null</code>
+     * @param encoding The index of the content coding in {@link #ENCODINGS}
+     * @param content Should the content be included?
+     * @param ostream The output stream to write to
+     * @return true if the compressed representation has been served
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    protected boolean serveCompressed(HttpServletRequest request,
+                                      HttpServletResponse response,
+                                      CacheEntry cacheEntry,
+                                      CacheEntry[] variants, int encoding,
+                                      boolean content,
+                                      ServletOutputStream ostream)
+        throws IOException {
+
+        if ((variants != null) && (variants[encoding] != null)) {
+            CacheEntry variant = variants[encoding];
+            long length = variant.attributes.getContentLength();
+            response.setHeader("Content-Encoding", ENCODINGS[encoding]);
+            setContentLength(response, length);
+            if (content) {
+                try {
+                    response.setBufferSize(output);
+                } catch (IllegalStateException e) {
+                    // Silent catch
+                }
+                if (!checkSendfile(request, response, variant, length, null))
+                    copy(variant, null, ostream);
+            }
+            return true;
+        }
+
+        byte[] body = getCompressedBody(cacheEntry, encoding);
+        if (body == null) {
+            return false;
+        }
+        response.setHeader("Content-Encoding", ENCODINGS[encoding]);
+        response.setContentLength(body.length);
+        if (content) {
+            ostream.write(body, 0, body.length);
+        }
+        return true;
+
+    }
+
+
+    /**
+     * Return the body of the resource compressed with the given content
+     * coding, compressing it and adding it to the cache if needed.
+     */
+    protected byte[] getCompressedBody(CacheEntry cacheEntry, int encoding)
+        throws IOException {
+
+        String key = ENCODINGS[encoding] + ' ' + cacheEntry.name + ' '
+            + cacheEntry.attributes.getETag();
+        byte[] body = compressedBodies.get(key);
+        if (body != null) {
+            return body;
+        }
+
+        long length = cacheEntry.attributes.getContentLength();
+        if (length > compressedBodies.getMaxSize() / 20) {
+            // Compressing would be pointless, as the body would not be cached
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) length);
+        DeflaterOutputStream compressor = null;
+        if (encoding == 0) {
+            compressor = new GZIPOutputStream(bytes, input);
+        } else {
+            compressor = new DeflaterOutputStream(bytes);
+        }
+        byte[] content = cacheEntry.resource.getContent();
+        if (content != null) {
+            compressor.write(content, 0, content.length);
+        } else {
+            InputStream istream = cacheEntry.resource.streamContent();
+            try {
+                byte[] buffer = new byte[input];
+                int len = 0;
+                while ((len = istream.read(buffer)) != -1) {
+                    compressor.write(buffer, 0, len);
+                }
+            } finally {
+                istream.close();
+            }
+        }
+        compressor.close();
+        body = bytes.toByteArray();
+        compressedBodies.put(key, body);
+        return body;
+
+    }
+
+
+    /**
+     * Check if the given content type may be compressed.
+     */
+    protected boolean isCompressable(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        if (semicolon >= 0) {
+            contentType = contentType.substring(0, semicolon).trim();
+        }
+        for (int i = 0; i < compressableMimeTypes.length; i++) {
+            if (compressableMimeTypes[i].equalsIgnoreCase(contentType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Check if the client accepts the given content coding, taking the
+     * quality values of the Accept-Encoding header into account.
+     */
+    protected boolean acceptsEncoding(HttpServletRequest request,
+                                      String encoding) {
+        String header = request.getHeader("Accept-Encoding");
+        if (header == null) {
+            return false;
+        }
+        boolean wildcard = false;
+        StringTokenizer st = new StringTokenizer(header, ",");
+        while (st.hasMoreTokens()) {
+            String coding = st.nextToken();
+            float quality = 1.0f;
+            int semicolon = coding.indexOf(';');
+            if (semicolon >= 0) {
+                String parameter = coding.substring(semicolon + 1).trim();
+                coding = coding.substring(0, semicolon);
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0.0f;
+                    }
+                }
+            }
+            coding = coding.trim();
+            if (coding.equalsIgnoreCase(encoding)) {
+                return quality > 0.0f;
+            }
+            if (coding.equals("*")) {
+                wildcard = quality > 0.0f;
+            }
+        }
+        return wildcard;
+    }
+
+
+    /**
+     * Set the content length of the response, as a header if it does not
+     * fit in an int.
+     */
+    protected void setContentLength(HttpServletResponse response,
+                                    long length) {
+        if (length < Integer.MAX_VALUE) {
+            response.setContentLength((int) length);
+        } else {
+            // Set the content-length as String to be able to use a long
+            response.setHeader("content-length", "" + length);
+        }
+    }
+
+
     /**
      * Parse the content-range header.
      *
@@ -1626,6 +2086,24 @@ public class DefaultServlet
     }
     
     
+    /**
+     * Return a buffer holding the contents of the resource if it should be
+     * served from a memory mapped file, or <code>null</code> otherwise.
+     */
+    protected ByteBuffer getMappedContent(CacheEntry entry) {
+        if ((mappedFiles == null)
+            || (entry.resource == null)
+            || (entry.resource.getContent() != null)
+            || (entry.attributes.getCanonicalPath() == null)
+            || (entry.attributes.getContentLength() < mappedFileSize)) {
+            return null;
+        }
+        return mappedFiles.get(entry.attributes.getCanonicalPath(),
+                               entry.attributes.getLastModified(),
+                               entry.attributes.getContentLength());
+    }
+
+
     /**
      * Check if the if-match condition is satisfied.
      *
@@ -1828,6 +2306,14 @@ public class DefaultServlet
                 ostream.write(buffer, 0, buffer.length);
                 return;
             }
+            ByteBuffer mapped = getMappedContent(cacheEntry);
+            if (mapped != null) {
+                exception = copyRange(cacheEntry, mapped, ostream, 0,
+                                      mapped.limit() - 1);
+                if (exception != null)
+                    throw exception;
+                return;
+            }
             resourceInputStream = cacheEntry.resource.streamContent();
         } else {
             resourceInputStream = is;
@@ -1908,6 +2394,15 @@ public class DefaultServlet
 
         IOException exception = null;
 
+        ByteBuffer mapped = getMappedContent(cacheEntry);
+        if (mapped != null) {
+            exception = copyRange(cacheEntry, mapped, ostream, range.start,
+                                  range.end);
+            if (exception != null)
+                throw exception;
+            return;
+        }
+
         InputStream resourceInputStream = cacheEntry.resource.streamContent();
         InputStream istream =
             new BufferedInputStream(resourceInputStream, input);
@@ -1978,11 +2473,16 @@ public class DefaultServlet
 
         IOException exception = null;
 
+        ByteBuffer mapped = getMappedContent(cacheEntry);
+
         while ( (exception == null) && (ranges.hasNext()) ) {
 
-            InputStream resourceInputStream = cacheEntry.resource.streamContent();
-            InputStream istream =
-                new BufferedInputStream(resourceInputStream, input);
+            InputStream istream = null;
+            if (mapped == null) {
+                InputStream resourceInputStream =
+                    cacheEntry.resource.streamContent();
+                istream = new BufferedInputStream(resourceInputStream, input);
+            }
 
             Range currentRange = (Range) ranges.next();
 
@@ -1997,10 +2497,14 @@ public class DefaultServlet
             ostream.println();
 
             // Printing content
-            exception = copyRange(istream, ostream, currentRange.start,
-                                  currentRange.end);
-
-            istream.close();
+            if (mapped != null) {
+                exception = copyRange(cacheEntry, mapped, ostream,
+                                      currentRange.start, currentRange.end);
+            } else {
+                exception = copyRange(istream, ostream, currentRange.start,
+                                      currentRange.end);
+                istream.close();
+            }
 
         }
 
@@ -2239,6 +2743,95 @@ public class DefaultServlet
 
 
 
+    /**
+     * Copy the specified range of a memory mapped file to the specified
+     * output stream. The range is copied into a per thread array the size of
+     * the response buffer, one chunk at a time, and each chunk is written to
+     * the output stream. The mapping is only handed out while the file on
+     * disk is unchanged, but the file can still be truncated during the
+     * copy: on JVMs which then throw an <code>InternalError</code>, the
+     * mapping is dropped and the rest of the range is read from the resource
+     * stream instead, while others crash.
+     *
+     * @param cacheEntry The cache entry of the resource
+     * @param buffer The mapped contents
+     * @param ostream The output stream to write to
+     * @param start Start of the range which will be copied
+     * @param end End of the range which will be copied
+     * @return Exception which occurred during processing
+     */
+    protected IOException copyRange(CacheEntry cacheEntry, ByteBuffer buffer,
+                                  ServletOutputStream ostream,
+                                  long start, long end) {
+
+        if (debug > 10)
+            log("Serving mapped bytes:" + start + "-" + end);
+
+        byte[] chunk = mappedCopyBuffer.get();
+        if ((chunk == null) || (chunk.length != output)) {
+            chunk = new byte[output];
+            mappedCopyBuffer.set(chunk);
+        }
+
+        buffer.position((int) start);
+        long bytesToRead = end - start + 1;
+        try {
+            while (bytesToRead > 0) {
+                int len = (int) Math.min(chunk.length, bytesToRead);
+                try {
+                    buffer.get(chunk, 0, len);
+                } catch (InternalError e) {
+                    // The file was truncated after it was mapped
+                    mappedFiles.remove(cacheEntry.attributes.getCanonicalPath());
+                    return copyRange(cacheEntry, ostream,
+                                     end - bytesToRead + 1, end);
+                }
+                ostream.write(chunk, 0, len);
+                bytesToRead -= len;
+            }
+        } catch (IOException e) {
+            return e;
+        }
+        return null;
+
+    }
+
+
+    /**
+     * Copy the specified range of the resource to the specified output
+     * stream, reading it from the resource stream.
+     *
+     * @param cacheEntry The cache entry of the resource
+     * @param ostream The output stream to write to
+     * @param start Start of the range which will be copied
+     * @param end End of the range which will be copied
+     * @return Exception which occurred during processing
+     */
+    protected IOException copyRange(CacheEntry cacheEntry,
+                                  ServletOutputStream ostream,
+                                  long start, long end) {
+
+        InputStream istream = null;
+        try {
+            istream = new BufferedInputStream
+                (cacheEntry.resource.streamContent(), input);
+            return copyRange(istream, ostream, start, end);
+        } catch (IOException e) {
+            return e;
+        } finally {
+            if (istream != null) {
+                try {
+                    istream.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+
+    }
+
+
+
     // ------------------------------------------------------ Range Inner Class
 
 
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.servlets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * Pool of read only memory mapped files, keyed by the canonical path of the
+ * file, used by the default servlet to serve large static resources
+ * without reading them through an input stream on every request.
+ * <p>
+ * A mapping is reused as long as the last modification date and length of
+ * the file are unchanged. These are checked against the file itself each
+ * time the mapping is handed out, and not only against the possibly stale
+ * attributes of the resources cache, as reading a mapping past the end of a
+ * file truncated since it was mapped crashes some JVMs. This narrows but
+ * cannot close the window: a file truncated while a buffer is being read
+ * can still do so. When the total size of the mapped files would exceed the
+ * maximum size, the oldest mappings are dropped. The memory of a dropped
+ * mapping is released when the buffer is garbage collected, and on some
+ * platforms the file cannot be deleted or replaced until then.
+ */
+public class MappedFileCache {
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    public MappedFileCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Maximum total size of the mapped files in bytes.
+     */
+    protected long maxSize;
+
+
+    /**
+     * Total size of the mapped files in bytes. Guarded by this.
+     */
+    protected long size = 0;
+
+
+    /**
+     * Mapped files, keyed by canonical path.
+     */
+    protected ConcurrentHashMap<String, MappedFile> files =
+        new ConcurrentHashMap<String, MappedFile>();
+
+
+    /**
+     * Paths of the mapped files, oldest first. Guarded by this.
+     */
+    protected ConcurrentLinkedQueue<String> order =
+        new ConcurrentLinkedQueue<String>();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+
+    public int getCount() {
+        return files.size();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Return a buffer holding the contents of the given file, positioned at
+     * the beginning of the file.
+     *
+     * @param path Canonical path of the file
+     * @param lastModified Last modification date of the file
+     * @param length Length of the file
+     * @return a new buffer sharing the mapped contents, or <code>null</code>
+     *  if the file could not be mapped or has changed since it was mapped
+     */
+    public ByteBuffer get(String path, long lastModified, long length) {
+        MappedFile file = files.get(path);
+        if ((file != null) && (file.lastModified == lastModified)
+                && (file.length == length)) {
+            if (!file.isUnchanged()) {
+                // Modified on disk, the resources cache has not noticed yet
+                remove(path);
+                return null;
+            }
+            return file.buffer.duplicate();
+        }
+        return load(path, lastModified, length);
+    }
+
+
+    /**
+     * Drop the mapping of the given file, if any.
+     *
+     * @param path Canonical path of the file
+     */
+    public synchronized void remove(String path) {
+        MappedFile file = files.remove(path);
+        if (file != null) {
+            order.remove(path);
+            size -= file.length;
+        }
+    }
+
+
+    /**
+     * Drop all the mappings.
+     */
+    public synchronized void clear() {
+        files.clear();
+        order.clear();
+        size = 0;
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    protected synchronized ByteBuffer load(String path, long lastModified,
+                                           long length) {
+        MappedFile file = files.get(path);
+        if ((file != null) && (file.lastModified == lastModified)
+                && (file.length == length)) {
+            if (!file.isUnchanged()) {
+                remove(path);
+                return null;
+            }
+            return file.buffer.duplicate();
+        }
+        if ((length > maxSize) || (length > Integer.MAX_VALUE)) {
+            return null;
+        }
+        if (file != null) {
+            remove(path);
+        }
+        while (size + length > maxSize) {
+            String eldest = order.poll();
+            if (eldest == null) {
+                break;
+            }
+            remove(eldest);
+        }
+
+        File f = new File(path);
+        long fileLastModified = f.lastModified();
+        MappedByteBuffer buffer = null;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "r");
+            if (raf.length() != length) {
+                // The file is being modified
+                return null;
+            }
+            buffer = raf.getChannel().map
+                (FileChannel.MapMode.READ_ONLY, 0, length);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            // The mapping remains valid after the file is closed
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+
+        file = new MappedFile();
+        file.buffer = buffer;
+        file.lastModified = lastModified;
+        file.length = length;
+        file.file = f;
+        file.fileLastModified = fileLastModified;
+        if (!file.isUnchanged()) {
+            // The file was modified while it was being mapped
+            return null;
+        }
+        files.put(path, file);
+        order.offer(path);
+        size += length;
+        return buffer.duplicate();
+    }
+
+
+    // --------------------------------------------------- MappedFile Inner Class
+
+
+    protected static final class MappedFile {
+        MappedByteBuffer buffer;
+        long lastModified;
+        long length;
+        File file;
+        long fileLastModified;
+
+        /**
+         * Are the length and last modification date of the file on disk
+         * still those it had when it was mapped ?
+         */
+        boolean isUnchanged() {
+            return (file.length() == length)
+                && (file.lastModified() == fileLastModified);
+        }
+    }
+
+
+}
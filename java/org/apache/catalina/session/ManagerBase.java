@@ -39,8 +39,11 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.MBeanRegistration;
 import javax.management.MBeanServer;
@@ -171,6 +174,24 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     protected String randomClass = "java.security.SecureRandom";
 
 
+    /**
+     * Should session identifiers be generated without the manager wide lock?
+     * When <code>true</code>, each generating thread borrows its own random
+     * number generator and message digest from {@link #sessionIdSources},
+     * so concurrent session creation does not serialize on this manager.
+     */
+    protected boolean lockFreeSessionIdGeneration = false;
+
+
+    /**
+     * Pool of random number generator and digest pairs used when
+     * {@link #lockFreeSessionIdGeneration} is enabled. The pool grows to the
+     * number of threads concurrently generating session identifiers.
+     */
+    protected Queue<SessionIdSource> sessionIdSources =
+        new ConcurrentLinkedQueue<SessionIdSource>();
+
+
     /**
      * The longest time (in seconds) that an expired session had been alive.
      */
@@ -212,7 +233,7 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     private final Object maxActiveUpdateLock = new Object();
 
     // number of duplicated session ids - anything >0 means we have problems
-    protected int duplicates=0;
+    protected final AtomicInteger duplicates = new AtomicInteger();
 
     protected boolean initialized=false;
     
@@ -286,6 +307,7 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
 
         String oldAlgorithm = this.algorithm;
         this.algorithm = algorithm;
+        sessionIdSources.clear();
         support.firePropertyChange("algorithm", oldAlgorithm, this.algorithm);
 
     }
@@ -329,26 +351,7 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     public synchronized MessageDigest getDigest() {
 
         if (this.digest == null) {
-            long t1=System.currentTimeMillis();
-            if (log.isDebugEnabled())
-                log.debug(sm.getString("managerBase.getting", algorithm));
-            try {
-                this.digest = MessageDigest.getInstance(algorithm);
-            } catch (NoSuchAlgorithmException e) {
-                log.error(sm.getString("managerBase.digest", algorithm), e);
-                try {
-                    this.digest = MessageDigest.getInstance(DEFAULT_ALGORITHM);
-                } catch (NoSuchAlgorithmException f) {
-                    log.error(sm.getString("managerBase.digest",
-                                     DEFAULT_ALGORITHM), e);
-                    this.digest = null;
-                }
-            }
-            if (log.isDebugEnabled())
-                log.debug(sm.getString("managerBase.gotten"));
-            long t2=System.currentTimeMillis();
-            if( log.isDebugEnabled() )
-                log.debug("getDigest() " + (t2-t1));
+            this.digest = createDigest();
         }
 
         return (this.digest);
@@ -356,6 +359,38 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     }
 
 
+    /**
+     * Create a new MessageDigest for the configured algorithm, falling back
+     * to {@link #DEFAULT_ALGORITHM} if it is not available.
+     */
+    protected MessageDigest createDigest() {
+
+        MessageDigest result = null;
+        long t1=System.currentTimeMillis();
+        if (log.isDebugEnabled())
+            log.debug(sm.getString("managerBase.getting", algorithm));
+        try {
+            result = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            log.error(sm.getString("managerBase.digest", algorithm), e);
+            try {
+                result = MessageDigest.getInstance(DEFAULT_ALGORITHM);
+            } catch (NoSuchAlgorithmException f) {
+                log.error(sm.getString("managerBase.digest",
+                                 DEFAULT_ALGORITHM), e);
+                result = null;
+            }
+        }
+        if (log.isDebugEnabled())
+            log.debug(sm.getString("managerBase.gotten"));
+        long t2=System.currentTimeMillis();
+        if( log.isDebugEnabled() )
+            log.debug("createDigest() " + (t2-t1));
+        return result;
+
+    }
+
+
     /**
      * Return the distributable flag for the sessions supported by
      * this Manager.
@@ -598,31 +633,7 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
      */
     public Random getRandom() {
         if (this.random == null) {
-            // Calculate the new random number generator seed
-            long seed = System.currentTimeMillis();
-            long t1 = seed;
-            char entropy[] = getEntropy().toCharArray();
-            for (int i = 0; i < entropy.length; i++) {
-                long update = ((long) entropy[i]) << ((i % 8) * 8);
-                seed ^= update;
-            }
-            try {
-                // Construct and seed a new random number generator
-                Class clazz = Class.forName(randomClass);
-                this.random = (Random) clazz.newInstance();
-                this.random.setSeed(seed);
-            } catch (Exception e) {
-                // Fall back to the simple case
-                log.error(sm.getString("managerBase.random", randomClass),
-                        e);
-                this.random = new java.util.Random();
-                this.random.setSeed(seed);
-            }
-            if(log.isDebugEnabled()) {
-                long t2=System.currentTimeMillis();
-                if( (t2-t1) > 100 )
-                    log.debug(sm.getString("managerBase.seeding", randomClass) + " " + (t2-t1));
-            }
+            this.random = createRandom();
         }
         
         return (this.random);
@@ -630,6 +641,43 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     }
 
 
+    /**
+     * Construct and seed a new random number generator of the configured
+     * class, falling back to <code>java.util.Random</code> on failure.
+     */
+    protected Random createRandom() {
+        Random result = null;
+        // Calculate the new random number generator seed
+        long seed = System.currentTimeMillis();
+        long t1 = seed;
+        char entropy[] = getEntropy().toCharArray();
+        for (int i = 0; i < entropy.length; i++) {
+            long update = ((long) entropy[i]) << ((i % 8) * 8);
+            seed ^= update;
+        }
+        // Make sure generators created at the same time get different seeds
+        seed ^= System.nanoTime();
+        try {
+            // Construct and seed a new random number generator
+            Class clazz = Class.forName(randomClass);
+            result = (Random) clazz.newInstance();
+            result.setSeed(seed);
+        } catch (Exception e) {
+            // Fall back to the simple case
+            log.error(sm.getString("managerBase.random", randomClass),
+                    e);
+            result = new java.util.Random();
+            result.setSeed(seed);
+        }
+        if(log.isDebugEnabled()) {
+            long t2=System.currentTimeMillis();
+            if( (t2-t1) > 100 )
+                log.debug(sm.getString("managerBase.seeding", randomClass) + " " + (t2-t1));
+        }
+        return result;
+    }
+
+
     /**
      * Return the random number generator class name.
      */
@@ -649,12 +697,44 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
 
         String oldRandomClass = this.randomClass;
         this.randomClass = randomClass;
+        sessionIdSources.clear();
         support.firePropertyChange("randomClass", oldRandomClass,
                                    this.randomClass);
 
     }
 
 
+    /**
+     * Return <code>true</code> if session identifiers are generated without
+     * holding the manager wide lock.
+     */
+    public boolean getLockFreeSessionIdGeneration() {
+
+        return (this.lockFreeSessionIdGeneration);
+
+    }
+
+
+    /**
+     * Set whether session identifiers are generated without holding the
+     * manager wide lock. In that mode <code>randomFile</code> is not used,
+     * since a single input stream cannot be shared between threads.
+     *
+     * @param lockFreeSessionIdGeneration The new flag value
+     */
+    public void setLockFreeSessionIdGeneration(
+            boolean lockFreeSessionIdGeneration) {
+
+        boolean oldLockFreeSessionIdGeneration =
+            this.lockFreeSessionIdGeneration;
+        this.lockFreeSessionIdGeneration = lockFreeSessionIdGeneration;
+        support.firePropertyChange("lockFreeSessionIdGeneration",
+                new Boolean(oldLockFreeSessionIdGeneration),
+                new Boolean(this.lockFreeSessionIdGeneration));
+
+    }
+
+
     /**
      * Gets the number of sessions that have expired.
      *
@@ -756,6 +836,7 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
             }
             randomIS=null;
         }
+        sessionIdSources.clear();
 
         initialized=false;
         oname = null;
@@ -880,7 +961,7 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
              synchronized (sessions) {
                 while (sessions.get(sessionId) != null) { // Guarantee
                     // uniqueness
-                    duplicates++;
+                    duplicates.incrementAndGet();
                     sessionId = generateSessionId();
                 }
             }
@@ -1043,9 +1124,37 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     /**
      * Generate and return a new session identifier.
      */
-    protected synchronized String generateSessionId() {
+    protected String generateSessionId() {
 
-        byte random[] = new byte[16];
+        if (lockFreeSessionIdGeneration) {
+            SessionIdSource source = sessionIdSources.poll();
+            if (source == null) {
+                source = new SessionIdSource(createRandom(), createDigest());
+            }
+            try {
+                return generateSessionId(source.random, source.digest);
+            } finally {
+                sessionIdSources.offer(source);
+            }
+        }
+
+        synchronized (this) {
+            return generateSessionId(null, null);
+        }
+
+    }
+
+
+    /**
+     * Generate a new session identifier using the given random number
+     * generator and digest, which must not be used concurrently by any other
+     * thread. If <code>random</code> is <code>null</code>, the shared
+     * generator of this manager is used instead and the caller must hold the
+     * lock on this manager.
+     */
+    private String generateSessionId(Random random, MessageDigest digest) {
+
+        byte bytes[] = new byte[16];
         String jvmRoute = getJvmRoute();
         String result = null;
 
@@ -1055,17 +1164,22 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
             int resultLenBytes = 0;
             if (result != null) {
                 buffer = new StringBuffer();
-                duplicates++;
+                duplicates.incrementAndGet();
             }
 
             while (resultLenBytes < this.sessionIdLength) {
-                getRandomBytes(random);
-                random = getDigest().digest(random);
+                if (random == null) {
+                    getRandomBytes(bytes);
+                    bytes = getDigest().digest(bytes);
+                } else {
+                    random.nextBytes(bytes);
+                    bytes = digest.digest(bytes);
+                }
                 for (int j = 0;
-                j < random.length && resultLenBytes < this.sessionIdLength;
+                j < bytes.length && resultLenBytes < this.sessionIdLength;
                 j++) {
-                    byte b1 = (byte) ((random[j] & 0xf0) >> 4);
-                    byte b2 = (byte) (random[j] & 0x0f);
+                    byte b1 = (byte) ((bytes[j] & 0xf0) >> 4);
+                    byte b2 = (byte) (bytes[j] & 0x0f);
                     if (b1 < 10)
                         buffer.append((char) ('0' + b1));
                     else
@@ -1087,6 +1201,22 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     }
 
 
+    /**
+     * A random number generator and message digest owned by one thread at a
+     * time while it generates a session identifier.
+     */
+    protected static final class SessionIdSource {
+
+        protected final Random random;
+        protected final MessageDigest digest;
+
+        protected SessionIdSource(Random random, MessageDigest digest) {
+            this.random = random;
+            this.digest = digest;
+        }
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
 
@@ -1141,12 +1271,12 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
      * @return The count of duplicates
      */
     public int getDuplicates() {
-        return duplicates;
+        return duplicates.get();
     }
 
 
     public void setDuplicates(int duplicates) {
-        this.duplicates = duplicates;
+        this.duplicates.set(duplicates);
     }
 
 
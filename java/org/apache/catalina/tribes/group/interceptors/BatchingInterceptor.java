@@ -0,0 +1,380 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.ErrorHandler;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.UniqueId;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+
+/**
+ *
+ * The batching interceptor coalesces the messages sent to the same members,
+ * with the same options, within a short time window into a single message,
+ * which is split back into the original messages by the batching interceptor
+ * of the receiving node. This saves a network round trip and an ack per
+ * message when many threads send small messages, such as session deltas.
+ * <br>
+ * The ack semantics are kept for each message: a synchronous send returns
+ * once the batch holding the message has been sent and acknowledged, and
+ * fails if the batch fails. As the receiving node processes all the messages
+ * of a batch before sending the ack, a failure to process one of them fails
+ * the whole batch. Asynchronous messages are reported to their error handler
+ * when the batch has been sent.
+ * <br>
+ * All the members must use this interceptor, as it adds a flag to every
+ * message.
+ * <br>
+ * The order of the messages is not preserved: a batch and a message sent
+ * while it is open, such as a message too large to be batched, can be sent
+ * over different connections and processed by different threads of the
+ * receiving node. When the order matters, add an OrderInterceptor before
+ * this interceptor, so that it numbers the messages before they are batched
+ * and orders them once the batches have been split.
+ * <br><b>Configuration Options</b><br>
+ * BatchingInterceptor.maxWait=&lt;milliseconds&gt; - how long the first message of a batch waits for other messages <b>default=2ms</b><br>
+ * BatchingInterceptor.maxSize=&lt;bytes&gt; - the batch is sent as soon as it reaches this size, larger messages are not batched <b>default=64kB</b><br>
+ * @version $Id$
+ */
+public class BatchingInterceptor extends ChannelInterceptorBase implements Runnable {
+    private static org.apache.juli.logging.Log log = org.apache.juli.logging.LogFactory.getLog( BatchingInterceptor.class );
+
+    protected long maxWait = 2;
+    protected int maxSize = 1024*64;
+
+    /**
+     * The open batches, by destination and options.
+     */
+    protected HashMap batches = new HashMap();
+    protected volatile boolean run = false;
+    protected Thread batchThread = null;
+
+
+    public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload) throws ChannelException {
+        int size = msg.getMessage().getLength();
+        if ( !run || size >= maxSize || !okToProcess(msg.getOptions()) ) {
+            msg.getMessage().append(false);
+            super.sendMessage(destination, msg, payload);
+            return;
+        }
+        BatchKey key = new BatchKey(destination, msg.getOptions());
+        Batch batch = null;
+        boolean full = false;
+        synchronized (batches) {
+            batch = (Batch)batches.get(key);
+            if ( batch == null ) {
+                batch = new Batch(destination, msg);
+                batches.put(key, batch);
+                batches.notifyAll();
+            }
+            //the message is copied, so that it can be reused once we return
+            batch.add(msg, payload);
+            if ( batch.getSize() >= maxSize ) {
+                batches.remove(key);
+                full = true;
+            }
+        }
+        if ( full ) send(batch);
+        boolean async = (msg.getOptions() & Channel.SEND_OPTIONS_ASYNCHRONOUS) == Channel.SEND_OPTIONS_ASYNCHRONOUS;
+        if ( !async ) {
+            ChannelException x = batch.await();
+            if ( x != null ) throw x;
+        }
+    }
+
+    public void messageReceived(ChannelMessage msg) {
+        boolean batched = XByteBuffer.toBoolean(msg.getMessage().getBytesDirect(),msg.getMessage().getLength()-1);
+        msg.getMessage().trim(1);
+        if ( batched ) {
+            ChannelMessage[] messages = split(msg);
+            for ( int i=0; i<messages.length; i++ ) {
+                super.messageReceived(messages[i]);
+            }
+        } else {
+            super.messageReceived(msg);
+        }
+    }
+
+    /**
+     * Split a batch into the messages it holds.
+     * @param batch ChannelMessage
+     * @return ChannelMessage[]
+     */
+    protected ChannelMessage[] split(ChannelMessage batch) {
+        byte[] data = batch.getMessage().getBytesDirect();
+        int offset = 0;
+        int count = XByteBuffer.toInt(data,offset);
+        offset += 4;
+        ChannelMessage[] result = new ChannelMessage[count];
+        for ( int i=0; i<count; i++ ) {
+            ChannelData msg = new ChannelData(false);
+            msg.setAddress(batch.getAddress());
+            msg.setOptions(XByteBuffer.toInt(data,offset));
+            offset += 4;
+            msg.setTimestamp(XByteBuffer.toLong(data,offset));
+            offset += 8;
+            byte[] uniqueId = new byte[XByteBuffer.toInt(data,offset)];
+            offset += 4;
+            System.arraycopy(data,offset,uniqueId,0,uniqueId.length);
+            offset += uniqueId.length;
+            msg.setUniqueId(uniqueId);
+            int length = XByteBuffer.toInt(data,offset);
+            offset += 4;
+            XByteBuffer buf = new XByteBuffer(length,false);
+            buf.append(data,offset,length);
+            offset += length;
+            msg.setMessage(buf);
+            result[i] = msg;
+        }
+        return result;
+    }
+
+    protected void send(Batch batch) {
+        ChannelException error = null;
+        try {
+            super.sendMessage(batch.getDestination(), batch.getMessage(), null);
+        } catch ( ChannelException x ) {
+            error = x;
+        } catch ( RuntimeException x ) {
+            error = new ChannelException(x);
+        }
+        batch.complete(error);
+    }
+
+    /**
+     * Sends the batches whose time window has elapsed.
+     */
+    public void run() {
+        ArrayList ready = new ArrayList();
+        while ( run ) {
+            try {
+                synchronized (batches) {
+                    long now = System.currentTimeMillis();
+                    long next = Long.MAX_VALUE;
+                    for ( Iterator i = batches.values().iterator(); i.hasNext(); ) {
+                        Batch batch = (Batch)i.next();
+                        long due = batch.getCreated() + maxWait;
+                        if ( due <= now ) {
+                            ready.add(batch);
+                            i.remove();
+                        } else if ( due < next ) {
+                            next = due;
+                        }
+                    }
+                    if ( ready.size() == 0 ) {
+                        if ( next == Long.MAX_VALUE ) batches.wait();
+                        else batches.wait(next - now);
+                    }
+                }
+                for ( int i=0; i<ready.size(); i++ ) send((Batch)ready.get(i));
+                ready.clear();
+            } catch ( InterruptedException x ) {
+                //stopped
+            } catch ( Throwable t ) {
+                log.error("Unable to send message batch.",t);
+            }
+        }
+    }
+
+    public void start(int svc) throws ChannelException {
+        if ( !run && ((svc & Channel.SND_TX_SEQ)==Channel.SND_TX_SEQ) ) {
+            synchronized (this) {
+                if ( !run ) {
+                    run = true;
+                    batchThread = new Thread(this);
+                    batchThread.setName("BatchingInterceptor.BatchThread");
+                    batchThread.setDaemon(true);
+                    batchThread.start();
+                }
+            }
+        }
+        super.start(svc);
+    }
+
+    public void stop(int svc) throws ChannelException {
+        if ( run && ((svc & Channel.SND_TX_SEQ)==Channel.SND_TX_SEQ) ) {
+            synchronized (this) {
+                if ( run ) {
+                    run = false;
+                    batchThread.interrupt();
+                    try {
+                        batchThread.join();
+                    } catch ( InterruptedException x ) {
+                        Thread.currentThread().interrupt();
+                    }
+                    batchThread = null;
+                    //send what is left before the sender stops
+                    Object[] left;
+                    synchronized (batches) {
+                        left = batches.values().toArray();
+                        batches.clear();
+                    }
+                    for ( int i=0; i<left.length; i++ ) send((Batch)left[i]);
+                }
+            }
+        }
+        super.stop(svc);
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    public static class BatchKey {
+        private Member[] destination;
+        private int options;
+        public BatchKey(Member[] destination, int options) {
+            this.destination = destination;
+            this.options = options;
+        }
+
+        public int hashCode() {
+            return Arrays.hashCode(destination) ^ options;
+        }
+
+        public boolean equals(Object o) {
+            if ( o instanceof BatchKey ) {
+                BatchKey other = (BatchKey)o;
+                return options == other.options && Arrays.equals(destination,other.destination);
+            } else return false;
+        }
+    }
+
+
+    /**
+     * The messages coalesced into one message. The messages are written as
+     * a count followed by, for each message, its options, timestamp,
+     * unique id and data.
+     */
+    public static class Batch {
+        private long created = System.currentTimeMillis();
+        private Member[] destination;
+        private ChannelData first;
+        private ChannelData message;
+        private ArrayList uniqueIds = new ArrayList();
+        private ArrayList handlers = new ArrayList();
+        private boolean done = false;
+        private ChannelException error = null;
+
+        public Batch(Member[] destination, ChannelMessage msg) {
+            this.destination = destination;
+            message = new ChannelData(true);
+            message.setOptions(msg.getOptions());
+            message.setAddress(msg.getAddress());
+            message.setTimestamp(created);
+            message.setMessage(new XByteBuffer(1024,false));
+            message.getMessage().append(0);
+        }
+
+        public synchronized void add(ChannelMessage msg, InterceptorPayload payload) {
+            XByteBuffer buf = message.getMessage();
+            if ( uniqueIds.size() == 0 ) {
+                first = new ChannelData(msg.getUniqueId(),new XByteBuffer(msg.getMessage().getLength()+1,false),msg.getTimestamp());
+                first.setOptions(msg.getOptions());
+                first.setAddress(msg.getAddress());
+                first.getMessage().append(msg.getMessage().getBytesDirect(),0,msg.getMessage().getLength());
+            }
+            buf.append(msg.getOptions());
+            buf.append(msg.getTimestamp());
+            buf.append(msg.getUniqueId().length);
+            buf.append(msg.getUniqueId(),0,msg.getUniqueId().length);
+            buf.append(msg.getMessage().getLength());
+            buf.append(msg.getMessage().getBytesDirect(),0,msg.getMessage().getLength());
+            uniqueIds.add(msg.getUniqueId());
+            handlers.add(payload!=null?payload.getErrorHandler():null);
+            XByteBuffer.toBytes(uniqueIds.size(),buf.getBytesDirect(),0);
+        }
+
+        public synchronized int getSize() {
+            return message.getMessage().getLength();
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public Member[] getDestination() {
+            return destination;
+        }
+
+        /**
+         * The message to send, a single message is sent as is.
+         * @return ChannelMessage
+         */
+        public synchronized ChannelMessage getMessage() {
+            if ( uniqueIds.size() == 1 ) {
+                first.getMessage().append(false);
+                return first;
+            }
+            message.getMessage().append(true);
+            return message;
+        }
+
+        public synchronized void complete(ChannelException error) {
+            this.error = error;
+            this.done = true;
+            notifyAll();
+            for ( int i=0; i<handlers.size(); i++ ) {
+                ErrorHandler handler = (ErrorHandler)handlers.get(i);
+                if ( handler == null ) continue;
+                UniqueId id = new UniqueId((byte[])uniqueIds.get(i));
+                try {
+                    if ( error == null ) handler.handleCompletion(id);
+                    else handler.handleError(error,id);
+                } catch ( Exception x ) {
+                    log.error("Unable to report back message completion.",x);
+                }
+            }
+        }
+
+        public synchronized ChannelException await() {
+            while ( !done ) {
+                try {
+                    wait();
+                } catch ( InterruptedException x ) {
+                    return new ChannelException("Interrupted while waiting for the batch to be sent.",x);
+                }
+            }
+            return error;
+        }
+    }
+
+}
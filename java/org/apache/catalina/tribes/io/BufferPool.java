@@ -17,6 +17,8 @@
 package org.apache.catalina.tribes.io;
 
 
+import java.nio.ByteBuffer;
+
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
@@ -31,6 +33,8 @@ public class BufferPool {
 
     public static int DEFAULT_POOL_SIZE = 100*1024*1024; //100MB
 
+    public static int DEFAULT_DIRECT_POOL_SIZE = 16*1024*1024; //16MB
+
 
 
     protected static volatile BufferPool instance = null;
@@ -49,10 +53,40 @@ public class BufferPool {
         if ( pool != null ) pool.returnBuffer(buffer);
     }
 
+    /**
+     * Returns a cleared direct buffer of at least <code>minSize</code> bytes.
+     * Direct buffers are expensive to allocate and are not reclaimed until
+     * they are garbage collected, hence they should be returned using
+     * {@link #returnDirectBuffer(ByteBuffer)} once the data has been written.
+     * @param minSize int
+     * @return ByteBuffer
+     */
+    public ByteBuffer getDirectBuffer(int minSize) {
+        if ( pool != null ) return pool.getDirectBuffer(minSize);
+        else return ByteBuffer.allocateDirect(minSize);
+    }
+
+    public void returnDirectBuffer(ByteBuffer buffer) {
+        if ( pool != null ) pool.returnDirectBuffer(buffer);
+    }
+
     public void clear() {
         if ( pool != null ) pool.clear();
     }
 
+    /**
+     * The capacity of the direct buffers handed out, rounded up to a power
+     * of two so that pooled buffers fit most of the following requests.
+     * @param minSize int
+     * @return int
+     */
+    static int getDirectCapacity(int minSize) {
+        int capacity = Math.max(minSize, 1024);
+        int rounded = Integer.highestOneBit(capacity);
+        if ( rounded < capacity && rounded < (1<<30) ) rounded = rounded << 1;
+        return Math.max(rounded, capacity);
+    }
+
 
     public static BufferPool getBufferPool() {
         if (  (instance == null) ) {
@@ -72,8 +106,11 @@ public class BufferPool {
                            if ( log.isDebugEnabled() ) log.debug("Unable to initilize BufferPool, not pooling XByteBuffer objects:",x);
                        }
                    }
-                   pool.setMaxSize(DEFAULT_POOL_SIZE);
-                   log.info("Created a buffer pool with max size:"+DEFAULT_POOL_SIZE+" bytes of type:"+(clazz!=null?clazz.getName():"null"));
+                   if ( pool != null ) {
+                       pool.setMaxSize(DEFAULT_POOL_SIZE);
+                       pool.setMaxDirectSize(DEFAULT_DIRECT_POOL_SIZE);
+                   }
+                   log.info("Created a buffer pool with max size:"+DEFAULT_POOL_SIZE+" bytes, max direct size:"+DEFAULT_DIRECT_POOL_SIZE+" bytes of type:"+(clazz!=null?clazz.getName():"null"));
                    instance = new BufferPool(pool);
                 }//end if
             }//sync
@@ -89,6 +126,12 @@ public class BufferPool {
 
         public void returnBuffer(XByteBuffer buffer);
 
+        public void setMaxDirectSize(int bytes);
+
+        public ByteBuffer getDirectBuffer(int minSize);
+
+        public void returnDirectBuffer(ByteBuffer buffer);
+
         public void clear();
     }    
 }
@@ -16,6 +16,7 @@
  */
 package org.apache.catalina.tribes.io;
 
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 
 
@@ -28,6 +29,9 @@ class BufferPool14Impl implements BufferPool.BufferPoolAPI {
     protected int maxSize;
     protected int size = 0;
     protected LinkedList queue = new LinkedList();
+    protected int maxDirectSize;
+    protected int directSize = 0;
+    protected LinkedList directQueue = new LinkedList();
 
     public void setMaxSize(int bytes) {
         this.maxSize = bytes;
@@ -57,9 +61,33 @@ class BufferPool14Impl implements BufferPool.BufferPoolAPI {
         }
     }
 
+    public void setMaxDirectSize(int bytes) {
+        this.maxDirectSize = bytes;
+    }
+
+    public synchronized ByteBuffer getDirectBuffer(int minSize) {
+        ByteBuffer buffer = (ByteBuffer)(directQueue.size()>0?directQueue.remove(0):null);
+        if ( buffer != null ) directSize -= buffer.capacity();
+        //a buffer that is too small is left to the garbage collector
+        if ( buffer == null || buffer.capacity() < minSize ) {
+            buffer = ByteBuffer.allocateDirect(BufferPool.getDirectCapacity(minSize));
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public synchronized void returnDirectBuffer(ByteBuffer buffer) {
+        if ( buffer.isDirect() && (directSize + buffer.capacity()) <= maxDirectSize ) {
+            directSize += buffer.capacity();
+            directQueue.add(buffer);
+        }
+    }
+
     public synchronized void clear() {
         queue.clear();
         size = 0;
+        directQueue.clear();
+        directSize = 0;
     }
 
     public int getMaxSize() {
@@ -16,6 +16,7 @@
  */
 package org.apache.catalina.tribes.io;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -28,6 +29,9 @@ class BufferPool15Impl implements BufferPool.BufferPoolAPI {
     protected int maxSize;
     protected AtomicInteger size = new AtomicInteger(0);
     protected ConcurrentLinkedQueue queue = new ConcurrentLinkedQueue();
+    protected int maxDirectSize;
+    protected AtomicInteger directSize = new AtomicInteger(0);
+    protected ConcurrentLinkedQueue directQueue = new ConcurrentLinkedQueue();
 
     public void setMaxSize(int bytes) {
         this.maxSize = bytes;
@@ -51,9 +55,33 @@ class BufferPool15Impl implements BufferPool.BufferPoolAPI {
         }
     }
 
+    public void setMaxDirectSize(int bytes) {
+        this.maxDirectSize = bytes;
+    }
+
+    public ByteBuffer getDirectBuffer(int minSize) {
+        ByteBuffer buffer = (ByteBuffer)directQueue.poll();
+        if ( buffer != null ) directSize.addAndGet(-buffer.capacity());
+        //a buffer that is too small is left to the garbage collector
+        if ( buffer == null || buffer.capacity() < minSize ) {
+            buffer = ByteBuffer.allocateDirect(BufferPool.getDirectCapacity(minSize));
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public void returnDirectBuffer(ByteBuffer buffer) {
+        if ( buffer.isDirect() && (directSize.get() + buffer.capacity()) <= maxDirectSize ) {
+            directSize.addAndGet(buffer.capacity());
+            directQueue.offer(buffer);
+        }
+    }
+
     public void clear() {
         queue.clear();
         size.set(0);
+        directQueue.clear();
+        directSize.set(0);
     }
 
     public int getMaxSize() {
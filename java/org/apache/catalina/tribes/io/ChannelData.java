@@ -16,6 +16,7 @@
  */
 package org.apache.catalina.tribes.io;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import org.apache.catalina.tribes.ChannelMessage;
@@ -213,6 +214,26 @@ public class ChannelData implements ChannelMessage {
         return data;
     }
     
+    /**
+     * Serializes the ChannelData object into a buffer, starting at the
+     * buffer's position. The buffer must have at least
+     * {@link #getDataPackageLength()} bytes remaining.
+     * @param buf ByteBuffer
+     * @return ByteBuffer - the buffer, positioned after the package
+     */
+    public ByteBuffer getDataPackage(ByteBuffer buf)  {
+        byte[] addr = ((MemberImpl)address).getData(false);
+        buf.putInt(options);
+        buf.putLong(timestamp);
+        buf.putInt(uniqueId.length);
+        buf.put(uniqueId);
+        buf.putInt(addr.length);
+        buf.put(addr);
+        buf.putInt(message.getLength());
+        buf.put(message.getBytesDirect(),0,message.getLength());
+        return buf;
+    }
+    
     /**
      * Deserializes a ChannelData object from a byte array
      * @param b byte[]
@@ -246,8 +267,19 @@ public class ChannelData implements ChannelMessage {
     }
 
     public static ChannelData getDataFromPackage(byte[] b)  {
+        return getDataFromPackage(b,0,b.length);
+    }
+    
+    /**
+     * Deserializes a ChannelData object from a region of a byte array.
+     * Only the message data is copied, into a pooled buffer.
+     * @param b byte[]
+     * @param offset int - where the package starts
+     * @param length int - the length of the package
+     * @return ChannelData
+     */
+    public static ChannelData getDataFromPackage(byte[] b, int offset, int length)  {
         ChannelData data = new ChannelData(false);
-        int offset = 0;
         data.setOptions(XByteBuffer.toInt(b,offset));
         offset += 4; //options
         data.setTimestamp(XByteBuffer.toLong(b,offset));
@@ -256,16 +288,13 @@ public class ChannelData implements ChannelMessage {
         offset += 4; //uniqueId length
         System.arraycopy(b,offset,data.uniqueId,0,data.uniqueId.length);
         offset += data.uniqueId.length; //uniqueId data
-        byte[] addr = new byte[XByteBuffer.toInt(b,offset)];
+        int addrlen = XByteBuffer.toInt(b,offset);
         offset += 4; //addr length
-        System.arraycopy(b,offset,addr,0,addr.length);
-        data.setAddress(MemberImpl.getMember(addr));
-        offset += addr.length; //addr data
+        data.setAddress(MemberImpl.getMember(b,offset,addrlen));
+        offset += addrlen; //addr data
         int xsize = XByteBuffer.toInt(b,offset);
-        //data.message = new XByteBuffer(new byte[xsize],false);
-        data.message = BufferPool.getBufferPool().getBuffer(xsize,false);
         offset += 4; //message length
-        System.arraycopy(b,offset,data.message.getBytesDirect(),0,xsize);
+        data.message = BufferPool.getBufferPool().getBuffer(xsize,false);
         data.message.append(b,offset,xsize);
         offset += xsize; //message data
         return data;
@@ -117,13 +117,7 @@ public class ObjectReader {
      * @throws java.io.IOException
      */
     public ChannelMessage[] execute() throws java.io.IOException {
-        int pkgCnt = buffer.countPackages();
-        ChannelMessage[] result = new ChannelMessage[pkgCnt];
-        for (int i=0; i<pkgCnt; i++)  {
-            ChannelMessage data = buffer.extractPackage(true);
-            result[i] = data;
-        }
-        return result;
+        return buffer.extractPackages();
     }
     
     public int bufferSize() {
@@ -336,6 +336,27 @@ public class XByteBuffer
         ChannelData cdata = ChannelData.getDataFromPackage(xbuf);
         return cdata;
     }
+
+    /**
+     * Extracts all the complete packages in the buffer and removes them.
+     * Each package is deserialized where it lies, so only the message data
+     * is copied, and the remaining bytes are moved once for all packages.
+     * @return - the packages, an empty array if there are none
+     */
+    public ChannelData[] extractPackages() {
+        int cnt = countPackages();
+        if ( cnt == 0 ) return ChannelData.EMPTY_DATA_ARRAY;
+        ChannelData[] result = new ChannelData[cnt];
+        int start = 0;
+        for (int i=0; i<cnt; i++) {
+            int size = toInt(buf, start + START_DATA.length);
+            result[i] = ChannelData.getDataFromPackage(buf, start + START_DATA.length + 4, size);
+            start += getDataPackageLength(size);
+        }
+        bufSize = bufSize - start;
+        System.arraycopy(buf, start, buf, 0, bufSize);
+        return result;
+    }
     
     /**
      * Creates a complete data package
@@ -362,6 +383,26 @@ public class XByteBuffer
         return data;
     }
     
+    /**
+     * Writes a complete data package (header,size,data,footer) into a
+     * buffer, starting at the buffer's position, without any intermediate
+     * byte array. The buffer must have at least
+     * <code>getDataPackageLength(cdata.getDataPackageLength())</code>
+     * bytes remaining.
+     * @param cdata - the message to write
+     * @param buf - the destination buffer, typically a pooled direct buffer
+     * @return - the buffer, positioned after the package
+     * @see BufferPool#getDirectBuffer(int)
+     */
+    public static ByteBuffer createDataPackage(ChannelData cdata, ByteBuffer buf) {
+        int dlength = cdata.getDataPackageLength();
+        buf.put(START_DATA);
+        buf.putInt(dlength);
+        cdata.getDataPackage(buf);
+        buf.put(END_DATA);
+        return buf;
+    }
+    
     public static byte[] createDataPackage(byte[] data, int doff, int dlength, byte[] buffer, int bufoff) {
         if ( (buffer.length-bufoff) > getDataPackageLength(dlength) ) {
             throw new ArrayIndexOutOfBoundsException("Unable to create data package, buffer is too small.");
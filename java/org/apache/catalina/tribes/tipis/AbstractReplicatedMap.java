@@ -125,6 +125,14 @@ public abstract class AbstractReplicatedMap extends ConcurrentHashMap implements
      * on a round robin basis
      */
     protected transient int currentNode = 0;
+
+    /**
+     * Place the backup of each entry on the member with the highest
+     * rendezvous hash for its key, instead of round robin, so that a
+     * membership change only relocates the entries of the members that
+     * joined or left.
+     */
+    protected transient boolean consistentHashing = false;
     
     /**
      * Since the map keeps internal membership
@@ -687,6 +695,9 @@ public abstract class AbstractReplicatedMap extends ConcurrentHashMap implements
                 memberAdded = true;
             }
         }
+        if ( memberAdded && consistentHashing ) {
+            relocateBackups(member);
+        }
         if ( memberAdded ) {
             synchronized (stateMutex) {
                 Iterator i = super.entrySet().iterator();
@@ -808,6 +819,90 @@ public abstract class AbstractReplicatedMap extends ConcurrentHashMap implements
         return members[node];
     }
 
+    /**
+     * Returns the map members ordered by their rendezvous hash for the given
+     * key, the first member being the preferred backup node.
+     * Only the relative order of two members depends on the key, so when a
+     * member leaves, only the entries it was backing up move, and when a
+     * member joins, only the entries for which it has the highest hash move
+     * to it.
+     * @param key Object
+     * @return Member[]
+     */
+    public Member[] getBackupCandidates(Object key) {
+        Member[] members = getMapMembers();
+        final long[] scores = new long[members.length];
+        Integer[] order = new Integer[members.length];
+        for (int i=0; i<members.length; i++) {
+            scores[i] = score(key,members[i]);
+            order[i] = new Integer(i);
+        }
+        java.util.Arrays.sort(order, new java.util.Comparator() {
+            public int compare(Object o1, Object o2) {
+                long s1 = scores[((Integer)o1).intValue()];
+                long s2 = scores[((Integer)o2).intValue()];
+                return s1 > s2 ? -1 : (s1 < s2 ? 1 : 0);
+            }
+        });
+        Member[] result = new Member[members.length];
+        for (int i=0; i<order.length; i++) result[i] = members[order[i].intValue()];
+        return result;
+    }
+
+    /**
+     * The rendezvous hash of a key for a member. Members are identified by
+     * their address, so that a restarted member gets its entries back.
+     * @param key Object
+     * @param member Member
+     * @return long
+     */
+    protected long score(Object key, Member member) {
+        int hash = member.getPort();
+        byte[] host = member.getHost();
+        for (int i=0; host!=null && i<host.length; i++) hash = 31*hash + host[i];
+        long h = (((long)key.hashCode()) << 32) ^ (hash & 0xFFFFFFFFL);
+        //murmur3 finalizer, spreads the bits of both hashes
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb64e53e89af1L;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+    /**
+     * Moves the backup of the primary entries for which the new member now
+     * has the highest rendezvous hash. The entries are published one at a
+     * time, without holding the state lock, so the map stays available
+     * while the backups move.
+     * @param member Member - the member that joined the map
+     */
+    protected void relocateBackups(Member member) {
+        ArrayList keys = new ArrayList();
+        Iterator i = super.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry e = (Map.Entry) i.next();
+            MapEntry entry = (MapEntry) e.getValue();
+            if (entry == null || !entry.isPrimary()) continue;
+            Member[] backups = entry.getBackupNodes();
+            if (backups == null || backups.length == 0 || inSet(member, backups)) continue;
+            if (score(entry.getKey(), member) > score(entry.getKey(), backups[0])) {
+                keys.add(entry.getKey());
+            }
+        }
+        if (log.isDebugEnabled()) log.debug("Map["+mapname+"] relocating "+keys.size()+" backups to:"+member.getName());
+        for (int k=0; k<keys.size(); k++) {
+            MapEntry entry = (MapEntry) super.get(keys.get(k));
+            if (entry == null || !entry.isPrimary()) continue;
+            try {
+                Member[] backup = publishEntryInfo(entry.getKey(), entry.getValue());
+                entry.setBackupNodes(backup);
+            } catch (ChannelException x) {
+                log.error("Unable to relocate[" + entry.getKey() + "] to a new backup node", x);
+            }
+        }
+    }
+
     protected abstract Member[] publishEntryInfo(Object key, Object value) throws ChannelException;
     
     public void heartbeat() {
@@ -1477,6 +1572,14 @@ public abstract class AbstractReplicatedMap extends ConcurrentHashMap implements
         return accessTimeout;
     }
 
+    public boolean isConsistentHashing() {
+        return consistentHashing;
+    }
+
+    public void setConsistentHashing(boolean consistentHashing) {
+        this.consistentHashing = consistentHashing;
+    }
+
     public void setMapOwner(MapOwner mapOwner) {
         this.mapOwner = mapOwner;
     }
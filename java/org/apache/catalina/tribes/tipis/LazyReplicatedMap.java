@@ -127,8 +127,8 @@ public class LazyReplicatedMap extends AbstractReplicatedMap
      */
     protected Member[] publishEntryInfo(Object key, Object value) throws ChannelException {
         if  (! (key instanceof Serializable && value instanceof Serializable)  ) return new Member[0];
-        Member[] members = getMapMembers();
-        int firstIdx = getNextBackupIndex();
+        Member[] members = consistentHashing ? getBackupCandidates(key) : getMapMembers();
+        int firstIdx = consistentHashing ? (members.length > 0 ? 0 : -1) : getNextBackupIndex();
         int nextIdx = firstIdx;
         Member[] backup = new Member[0];
         
@@ -61,6 +61,8 @@ public class NioSender extends AbstractSender implements DataSender{
     protected ByteBuffer readbuf = null;
     protected ByteBuffer writebuf = null;
     protected byte[] current = null;
+    protected ByteBuffer[] currentBuffers = null;
+    protected ByteBuffer[] writebufs = null;
     protected XByteBuffer ackbuf = new XByteBuffer(128,true);
     protected int remaining = 0;
     protected boolean complete;
@@ -87,7 +89,7 @@ public class NioSender extends AbstractSender implements DataSender{
         if ( key.isConnectable() ) {
             if ( socketChannel.finishConnect() ) {
                 completeConnect();
-                if ( current != null ) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                if ( hasMessage() ) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
                 return false;
             } else  { 
                 //wait for the connection to finish
@@ -151,7 +153,7 @@ public class NioSender extends AbstractSender implements DataSender{
 
     protected boolean read(SelectionKey key) throws IOException {
         //if there is no message here, we are done
-        if ( current == null ) return true;
+        if ( !hasMessage() ) return true;
         int read = socketChannel.read(readbuf);
         //end of stream
         if ( read == -1 ) throw new IOException("Unable to receive an ack message. EOF on socket channel has been reached.");
@@ -176,11 +178,11 @@ public class NioSender extends AbstractSender implements DataSender{
         if ( (!isConnected()) || (this.socketChannel==null)) {
             throw new IOException("NioSender is not connected, this should not occur.");
         }
-        if ( current != null ) {
+        if ( hasMessage() ) {
             if ( remaining > 0 ) {
                 //weve written everything, or we are starting a new package
                 //protect against buffer overwrite
-                int byteswritten = socketChannel.write(writebuf);
+                long byteswritten = (writebufs != null)?socketChannel.write(writebufs):socketChannel.write(writebuf);
                 if (byteswritten == -1 ) throw new EOFException();
                 remaining -= byteswritten;
                 //if the entire message was written from the buffer
@@ -265,6 +267,8 @@ public class NioSender extends AbstractSender implements DataSender{
         if ( readbuf != null ) readbuf.clear();
         if ( writebuf != null ) writebuf.clear();
         current = null;
+        currentBuffers = null;
+        writebufs = null;
         ackbuf.clear();
         remaining = 0;
         complete = false;
@@ -299,6 +303,8 @@ public class NioSender extends AbstractSender implements DataSender{
    public synchronized void setMessage(byte[] data,int offset, int length) throws IOException {
        if ( data != null ) {
            current = data;
+           currentBuffers = null;
+           writebufs = null;
            remaining = length;
            ackbuf.clear();
            if ( writebuf != null ) writebuf.clear();
@@ -315,10 +321,45 @@ public class NioSender extends AbstractSender implements DataSender{
        } 
    }
    
+   /**
+    * Sets the message from buffers holding complete data packages. The
+    * buffers are sent with a gathering write, without being copied, and
+    * are not modified, so the same buffers can be handed to several senders.
+    * They must not be reused before the send has completed.
+    * @param data ByteBuffer[]
+    * @throws IOException
+    * @see org.apache.catalina.tribes.io.XByteBuffer#createDataPackage(org.apache.catalina.tribes.io.ChannelData, ByteBuffer)
+    */
+   public synchronized void setMessage(ByteBuffer[] data) throws IOException {
+       if ( data != null ) {
+           current = null;
+           currentBuffers = data;
+           writebufs = new ByteBuffer[data.length];
+           remaining = 0;
+           for (int i=0; i<data.length; i++) {
+               //each sender has its own position
+               writebufs[i] = data[i].duplicate();
+               remaining += writebufs[i].remaining();
+           }
+           ackbuf.clear();
+           if (isConnected()) {
+               socketChannel.register(getSelector(), SelectionKey.OP_WRITE, this);
+           }
+       }
+   }
+
    public byte[] getMessage() {
        return current;
    }
 
+   public ByteBuffer[] getMessageBuffers() {
+       return currentBuffers;
+   }
+
+   protected boolean hasMessage() {
+       return (current != null) || (currentBuffers != null);
+   }
+
 
 
     public boolean isComplete() {
@@ -18,6 +18,7 @@ package org.apache.catalina.tribes.transport.nio;
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.HashMap;
@@ -27,6 +28,7 @@ import java.util.Map;
 import org.apache.catalina.tribes.ChannelException;
 import org.apache.catalina.tribes.ChannelMessage;
 import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.io.BufferPool;
 import org.apache.catalina.tribes.io.ChannelData;
 import org.apache.catalina.tribes.io.XByteBuffer;
 import org.apache.catalina.tribes.transport.MultiPointSender;
@@ -62,11 +64,25 @@ public class ParallelNioSender extends AbstractSender implements MultiPointSende
     
     public synchronized void sendMessage(Member[] destination, ChannelMessage msg) throws ChannelException {
         long start = System.currentTimeMillis();
-        byte[] data = XByteBuffer.createDataPackage((ChannelData)msg);
-        NioSender[] senders = setupForSend(destination);
-        connect(senders);
-        setData(senders,data);
-        
+        //the package is written once, in place, into a pooled direct buffer
+        //that all the senders write from
+        ChannelData cdata = (ChannelData)msg;
+        int length = XByteBuffer.getDataPackageLength(cdata.getDataPackageLength());
+        ByteBuffer buffer = BufferPool.getBufferPool().getDirectBuffer(length);
+        XByteBuffer.createDataPackage(cdata,buffer);
+        buffer.flip();
+        ByteBuffer[] data = new ByteBuffer[] {buffer};
+        try {
+            NioSender[] senders = setupForSend(destination);
+            connect(senders);
+            setData(senders,data);
+            sendMessage(senders,msg,start);
+        } finally {
+            BufferPool.getBufferPool().returnDirectBuffer(buffer);
+        }
+    }
+    
+    private void sendMessage(NioSender[] senders, ChannelMessage msg, long start) throws ChannelException {
         int remaining = senders.length;
         ChannelException cx = null;
         try {
@@ -158,7 +174,7 @@ public class ParallelNioSender extends AbstractSender implements MultiPointSende
                     throw cx;
                 }
                 
-                byte[] data = sender.getMessage();
+                ByteBuffer[] data = sender.getMessageBuffers();
                 if ( retry ) {
                     try { 
                         sender.disconnect(); 
@@ -192,7 +208,7 @@ public class ParallelNioSender extends AbstractSender implements MultiPointSende
         if ( x != null ) throw x;
     }
     
-    private void setData(NioSender[] senders, byte[] data) throws ChannelException {
+    private void setData(NioSender[] senders, ByteBuffer[] data) throws ChannelException {
         ChannelException x = null;
         for (int i=0; i<senders.length; i++ ) {
             try {
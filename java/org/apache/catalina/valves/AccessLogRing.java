@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.valves;
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Bounded ring buffer of encoded log records, written by any number of
+ * request threads and read by a single writer thread, without locks.
+ * <p>
+ * A producer claims the next sequence number with a compare and set, copies
+ * its record into the slot, whose byte array is reused and only grows, then
+ * publishes the slot by storing its sequence number. The consumer reads the
+ * slots in sequence order, and the slot of a record becomes free for the
+ * producers once the consumer has copied it.
+ * <p>
+ * Once the ring has been closed, records are refused, and {@link #close()}
+ * returns when no producer can publish a record anymore, so that the
+ * consumer can read the last ones.
+ */
+public class AccessLogRing {
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * @param capacity Maximum number of records, rounded up to a power of
+     *  two
+     */
+    public AccessLogRing(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        records = new byte[size][];
+        lengths = new int[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    protected int mask;
+
+
+    /**
+     * Record bytes, per slot.
+     */
+    protected byte[][] records;
+
+
+    /**
+     * Record lengths, per slot.
+     */
+    protected int[] lengths;
+
+
+    /**
+     * Sequence number of the record published in each slot.
+     */
+    protected AtomicLongArray published;
+
+
+    /**
+     * Next sequence number to be claimed by a producer.
+     */
+    protected AtomicLong claimed = new AtomicLong(0);
+
+
+    /**
+     * Next sequence number to be read by the consumer. Only written by the
+     * consumer.
+     */
+    protected volatile long consumed = 0;
+
+
+    /**
+     * The consumer thread, while it waits for records.
+     */
+    protected volatile Thread waiting = null;
+
+
+    /**
+     * Has the ring been closed ?
+     */
+    protected volatile boolean closed = false;
+
+
+    /**
+     * Number of producers running {@link #offer(byte[], int, int, boolean)}.
+     */
+    protected AtomicInteger producers = new AtomicInteger(0);
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public int getCapacity() {
+        return records.length;
+    }
+
+
+    /**
+     * Return the number of records claimed and not read yet.
+     */
+    public int getSize() {
+        return (int) (claimed.get() - consumed);
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Add a record.
+     *
+     * @param b Bytes of the record
+     * @param off Offset of the record
+     * @param len Length of the record
+     * @param block Wait for a free slot if the buffer is full, instead of
+     *  dropping the record
+     * @return <code>false</code> if the record was dropped, because the
+     *  buffer was full or has been closed
+     */
+    public boolean offer(byte[] b, int off, int len, boolean block) {
+        // Registered before reading the flag, so that close() waits for
+        // any producer which has not seen it
+        producers.incrementAndGet();
+        try {
+            long seq;
+            while (true) {
+                if (closed) {
+                    return false;
+                }
+                seq = claimed.get();
+                if (seq - consumed >= records.length) {
+                    if (!block) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(100000L);
+                    continue;
+                }
+                if (claimed.compareAndSet(seq, seq + 1)) {
+                    break;
+                }
+            }
+            int slot = (int) (seq & mask);
+            byte[] record = records[slot];
+            if ((record == null) || (record.length < len)) {
+                record = new byte[Math.max(len, 128)];
+                records[slot] = record;
+            }
+            System.arraycopy(b, off, record, 0, len);
+            lengths[slot] = len;
+            published.set(slot, seq);
+        } finally {
+            producers.decrementAndGet();
+        }
+        Thread consumer = waiting;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+
+    /**
+     * Refuse any further record, and wait until the producers which had not
+     * seen it yet have returned, so that all the records which were accepted
+     * are published. Producers waiting for a free slot give up.
+     */
+    public void close() {
+        closed = true;
+        while (producers.get() > 0) {
+            LockSupport.parkNanos(100000L);
+        }
+    }
+
+
+    /**
+     * Return the length of the next record, or -1 if it has not been
+     * published yet. Only called by the consumer.
+     */
+    public int nextLength() {
+        int slot = (int) (consumed & mask);
+        if (published.get(slot) != consumed) {
+            return -1;
+        }
+        return lengths[slot];
+    }
+
+
+    /**
+     * Copy the next record, which must have been published and must fit,
+     * into the given buffer, and free its slot. Only called by the consumer.
+     */
+    public void take(ByteBuffer buffer) {
+        int slot = (int) (consumed & mask);
+        buffer.put(records[slot], 0, lengths[slot]);
+        consumed = consumed + 1;
+    }
+
+
+    /**
+     * Wait until a record is published or the timeout expires. Only called
+     * by the consumer.
+     *
+     * @param timeout Maximum time to wait in milliseconds
+     */
+    public void await(long timeout) {
+        waiting = Thread.currentThread();
+        if (nextLength() < 0) {
+            LockSupport.parkNanos(timeout * 1000000L);
+        }
+        waiting = null;
+    }
+
+
+    /**
+     * Wake up the consumer if it is waiting.
+     */
+    public void wakeup() {
+        Thread consumer = waiting;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+
+}
@@ -27,13 +27,19 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
@@ -136,6 +142,15 @@ import org.apache.tomcat.util.buf.B2CConverter;
  * </p>
  *
  * <p>
+ * If <code>asyncWrite</code> is set, request threads do not write to the
+ * log file: they encode each line to bytes in a per thread buffer and hand
+ * it to a lock free ring buffer, from which a single writer thread writes
+ * batches of lines to the file and handles the rotation. When the ring
+ * buffer is full, request threads either wait or drop their line, according
+ * to <code>asyncOverflowPolicy</code>.
+ * </p>
+ *
+ * <p>
  * For extended attributes coming from a getAttribute() call,
  * it is you responsibility to ensure there are no newline or
  * control characters.
@@ -344,6 +359,73 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
      */
     protected AccessLogElement[] logElements = null;
 
+    /**
+     * Write the log lines from a background thread.
+     */
+    protected boolean asyncWrite = false;
+
+    /**
+     * Maximum number of lines waiting to be written in async mode.
+     */
+    protected int asyncQueueSize = 8192;
+
+    /**
+     * What to do with a line when the queue is full in async mode: wait
+     * for the writer thread (<code>block</code>) or drop the line
+     * (<code>drop</code>).
+     */
+    protected String asyncOverflowPolicy = "block";
+
+    /**
+     * Number of lines dropped because the queue was full.
+     */
+    protected AtomicLong droppedCount = new AtomicLong(0);
+
+    /**
+     * The lines waiting to be written in async mode.
+     */
+    protected AccessLogRing ring = null;
+
+    /**
+     * The writer thread in async mode.
+     */
+    protected Thread asyncWriter = null;
+
+    protected volatile boolean asyncRunning = false;
+
+    /**
+     * The channel of the current log file, used to write bytes directly in
+     * async mode.
+     */
+    protected FileChannel channel = null;
+
+    /**
+     * The character set of the current log file.
+     */
+    protected Charset charset = null;
+
+    /**
+     * Are the ASCII characters encoded as single bytes of the same value in
+     * the character set of the log file ?
+     */
+    protected boolean asciiCompatible = false;
+
+    /**
+     * Line separator, as it is written by the PrintWriter in sync mode.
+     */
+    protected static final byte[] LINE_SEPARATOR =
+        System.getProperty("line.separator", "\n").getBytes();
+
+    /**
+     * Per thread buffers used to format and encode the lines in async mode.
+     */
+    protected ThreadLocal<AsyncLogBuffer> asyncBuffers =
+        new ThreadLocal<AsyncLogBuffer>() {
+        protected AsyncLogBuffer initialValue() {
+            return new AsyncLogBuffer();
+        }
+    };
+
     // ------------------------------------------------------------- Properties
 
     /**
@@ -559,6 +641,69 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
         this.fileDateFormat =  fileDateFormat;
     }
 
+    /**
+     * Are the log lines written from a background thread ?
+     */
+    public boolean getAsyncWrite() {
+        return asyncWrite;
+    }
+
+
+    /**
+     * Write the log lines from a background thread. Changes are only
+     * applied when the valve is started.
+     */
+    public void setAsyncWrite(boolean asyncWrite) {
+        this.asyncWrite = asyncWrite;
+    }
+
+
+    public int getAsyncQueueSize() {
+        return asyncQueueSize;
+    }
+
+
+    /**
+     * Set the maximum number of lines waiting to be written in async mode,
+     * which is rounded up to a power of two.
+     */
+    public void setAsyncQueueSize(int asyncQueueSize) {
+        this.asyncQueueSize = asyncQueueSize;
+    }
+
+
+    public String getAsyncOverflowPolicy() {
+        return asyncOverflowPolicy;
+    }
+
+
+    /**
+     * Set what to do with a line when the queue is full in async mode:
+     * <code>block</code> to wait for the writer thread, or <code>drop</code>
+     * to drop the line and count it.
+     */
+    public void setAsyncOverflowPolicy(String asyncOverflowPolicy) {
+        this.asyncOverflowPolicy = asyncOverflowPolicy;
+    }
+
+
+    /**
+     * Return the number of lines dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+
+    /**
+     * Return the number of lines waiting to be written in async mode.
+     */
+    public int getAsyncQueueLength() {
+        AccessLogRing ring = this.ring;
+        return (ring != null) ? ring.getSize() : 0;
+    }
+
+
     /**
      * Return the character set name that is used to write the log file.
      *
@@ -590,7 +735,8 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
      * throwables will be caught and logged.
      */
     public void backgroundProcess() {
-        if (started && getEnabled() && writer != null && buffered) {
+        if (started && getEnabled() && writer != null && buffered
+                && ring == null) {
             writer.flush();
         }
     }    
@@ -630,6 +776,17 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
         }
 
         Date date = getDate();
+        AccessLogRing ring = this.ring;
+        if (ring != null) {
+            AsyncLogBuffer buffer = asyncBuffers.get();
+            StringBuffer result = buffer.line;
+            result.setLength(0);
+            for (int i = 0; i < logElements.length; i++) {
+                logElements[i].addElement(result, date, request, response, time);
+            }
+            enqueue(ring, buffer);
+            return;
+        }
         StringBuffer result = new StringBuffer(128);
 
         for (int i = 0; i < logElements.length; i++) {
@@ -678,13 +835,14 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
     /**
      * Close the currently open log file (if any)
      */
-    private synchronized void close() {
+    protected synchronized void close() {
         if (writer == null) {
             return;
         }
         writer.flush();
         writer.close();
         writer = null;
+        channel = null;
         dateStamp = "";
         currentLogFile = null;
     }
@@ -697,9 +855,39 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
      * @param message Message to be logged
      */
     public void log(String message) {
+        AccessLogRing ring = this.ring;
+        if (ring != null) {
+            AsyncLogBuffer buffer = asyncBuffers.get();
+            buffer.line.setLength(0);
+            buffer.line.append(message);
+            enqueue(ring, buffer);
+            return;
+        }
+
+        checkLogFile(System.currentTimeMillis());
+
+        // Log this message
+        synchronized(this) {
+            if (writer != null) {
+                writer.println(message);
+                if (!buffered) {
+                    writer.flush();
+                }
+            }
+        }
+
+    }
+
+
+    /**
+     * Switch log files if the date has changed since the previous check, or
+     * if the current log file has been removed and checkExists is set.
+     *
+     * @param systime Current time
+     */
+    protected void checkLogFile(long systime) {
         if (rotatable) {
             // Only do a logfile switch check once a second, max.
-            long systime = System.currentTimeMillis();
             if ((systime - rotationLastChecked) > 1000) {
                 synchronized(this) {
                     if ((systime - rotationLastChecked) > 1000) {
@@ -738,17 +926,6 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
                 }
             }
         }
-
-        // Log this message
-        synchronized(this) {
-            if (writer != null) {
-                writer.println(message);
-                if (!buffered) {
-                    writer.flush();
-                }
-            }
-        }
-
     }
 
 
@@ -812,14 +989,21 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
             charset = Charset.defaultCharset();
         }
 
+        if (!charset.equals(this.charset)) {
+            this.charset = charset;
+            asciiCompatible = isAsciiCompatible(charset);
+        }
+
         try {
+            FileOutputStream out = new FileOutputStream(pathname, true);
             writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(pathname, true), charset), 128000),
-                    false);
+                    out, charset), 128000), false);
+            channel = out.getChannel();
 
             currentLogFile = pathname;
         } catch (IOException e) {
             writer = null;
+            channel = null;
             currentLogFile = null;
             log.error(sm.getString("accessLogValve.openFail", pathname), e);
         }
@@ -879,6 +1063,66 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
     }
 
 
+    /**
+     * Encode the line held by the given buffer, followed by a line
+     * separator, and add it to the given ring buffer.
+     */
+    protected void enqueue(AccessLogRing ring, AsyncLogBuffer buffer) {
+        int len = buffer.encode(charset, asciiCompatible);
+        if (!ring.offer(buffer.bytes, 0, len,
+                !"drop".equalsIgnoreCase(asyncOverflowPolicy))) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Write the given buffer to the current log file, after the lines
+     * written through the writer, and clear it.
+     */
+    protected synchronized void write(ByteBuffer buffer) {
+        if (writer != null) {
+            writer.flush();
+        }
+        buffer.flip();
+        try {
+            while (channel != null && buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            log.error(sm.getString("accessLogValve.writeFail",
+                    currentLogFile), e);
+        }
+        buffer.clear();
+    }
+
+
+    /**
+     * Are the ASCII characters encoded as single bytes of the same value in
+     * the given character set ?
+     */
+    protected static boolean isAsciiCompatible(Charset charset) {
+        char[] ascii = new char[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (char) i;
+        }
+        try {
+            ByteBuffer bytes = charset.newEncoder().encode(CharBuffer.wrap(ascii));
+            if (bytes.remaining() != ascii.length) {
+                return false;
+            }
+            for (int i = 0; i < ascii.length; i++) {
+                if (bytes.get(i) != i) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+
     // ------------------------------------------------------ Lifecycle Methods
 
 
@@ -940,6 +1184,17 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
         fileDateFormatter.setTimeZone(timezone);
         dateStamp = fileDateFormatter.format(currentDateStruct.get().currentDate);
         open();
+
+        if (asyncWrite) {
+            ring = new AccessLogRing(asyncQueueSize);
+            asyncRunning = true;
+            asyncWriter = new Thread(new AsyncWriter(),
+                    "AccessLogValve-AsyncWriter[" + prefix + "]");
+            asyncWriter.setDaemon(true);
+            asyncWriter.start();
+        } else {
+            ring = null;
+        }
     }
 
 
@@ -959,10 +1214,122 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
                     .getString("accessLogValve.notStarted"));
         lifecycle.fireLifecycleEvent(STOP_EVENT, null);
         started = false;
+
+        if (asyncWriter != null) {
+            // Lines logged from now on are dropped, and the writer thread
+            // writes the remaining ones before exiting
+            ring.close();
+            asyncRunning = false;
+            ring.wakeup();
+            try {
+                asyncWriter.join();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            asyncWriter = null;
+            // The closed ring is kept until the next start, so that lines
+            // logged by late request threads are counted as dropped
+        }
         
         close();
     }
     
+    /**
+     * Per thread buffers used to format and encode the lines in async mode.
+     */
+    protected static class AsyncLogBuffer {
+        protected StringBuffer line = new StringBuffer(256);
+        protected char[] chars = new char[256];
+        protected byte[] bytes = new byte[256];
+        protected Charset charset = null;
+        protected CharsetEncoder encoder = null;
+
+        /**
+         * Encode the line, followed by a line separator, into the bytes
+         * buffer, and return the number of bytes.
+         */
+        protected int encode(Charset charset, boolean asciiCompatible) {
+            int len = line.length();
+            if (chars.length < len) {
+                chars = new char[Math.max(len, 2 * chars.length)];
+            }
+            line.getChars(0, len, chars, 0);
+            int pos = 0;
+            if (asciiCompatible) {
+                if (bytes.length < len + LINE_SEPARATOR.length) {
+                    bytes = new byte[Math.max(len + LINE_SEPARATOR.length,
+                            2 * bytes.length)];
+                }
+                while (pos < len && chars[pos] < 0x80) {
+                    bytes[pos] = (byte) chars[pos];
+                    pos++;
+                }
+            }
+            if (pos < len) {
+                if (encoder == null || this.charset != charset) {
+                    this.charset = charset;
+                    encoder = charset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                }
+                int max = (int) Math.ceil(len * encoder.maxBytesPerChar())
+                    + LINE_SEPARATOR.length;
+                if (bytes.length < max) {
+                    byte[] expanded = new byte[max];
+                    System.arraycopy(bytes, 0, expanded, 0, pos);
+                    bytes = expanded;
+                }
+                // Encode the rest, the ASCII prefix is already done
+                ByteBuffer out = ByteBuffer.wrap(bytes, pos, bytes.length - pos);
+                encoder.reset();
+                encoder.encode(CharBuffer.wrap(chars, pos, len - pos), out, true);
+                encoder.flush(out);
+                pos = out.position();
+            }
+            System.arraycopy(LINE_SEPARATOR, 0, bytes, pos,
+                    LINE_SEPARATOR.length);
+            return pos + LINE_SEPARATOR.length;
+        }
+    }
+
+
+    /**
+     * Writes the lines queued by the request threads to the log file, in
+     * batches, and switches log files when needed.
+     */
+    protected class AsyncWriter implements Runnable {
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(65536);
+            while (true) {
+                // Read the flag first, so that no line is left behind
+                boolean running = asyncRunning;
+                try {
+                    checkLogFile(System.currentTimeMillis());
+                    int len;
+                    while ((len = ring.nextLength()) >= 0) {
+                        if (len > buffer.remaining()) {
+                            write(buffer);
+                            if (len > buffer.capacity()) {
+                                buffer = ByteBuffer.allocate(len);
+                            }
+                        }
+                        ring.take(buffer);
+                    }
+                    write(buffer);
+                } catch (Throwable t) {
+                    log.error(sm.getString("accessLogValve.writeFail",
+                            currentLogFile), t);
+                    buffer.clear();
+                }
+                if (!running) {
+                    break;
+                }
+                ring.await(1000);
+            }
+        }
+    }
+
+
     /**
      * AccessLogElement writes the partial message into the buffer.
      */
@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.valves;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import org.apache.catalina.util.StringManager;
+
+
+/**
+ * Reads the log files written by {@link BinaryAccessLogValve}, row by row.
+ * The values of the current row can be read by column, as numbers or
+ * strings, or the row can be converted back to the line which
+ * {@link AccessLogValve} would have written for the same pattern.
+ * <p>
+ * When run from the command line, converts the given log files to text on
+ * the standard output:
+ * <pre>
+ * java org.apache.catalina.valves.BinaryAccessLogReader access_log.2010-01-01
+ * </pre>
+ *
+ * @version $Id$
+ */
+
+public class BinaryAccessLogReader {
+
+
+    protected static StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    public BinaryAccessLogReader(InputStream is) {
+        this.in = new DataInputStream(new BufferedInputStream(is));
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    protected DataInputStream in;
+
+
+    /**
+     * Types of the segments of the pattern.
+     */
+    protected byte[] segmentTypes = new byte[0];
+
+
+    /**
+     * Literal text or column name of the segments of the pattern.
+     */
+    protected String[] segmentTexts = new String[0];
+
+
+    /**
+     * Segment of each column.
+     */
+    protected int[] columnSegments = new int[0];
+
+
+    /**
+     * Values of the current block, for the number and time columns.
+     */
+    protected long[][] numbers = new long[0][];
+
+
+    /**
+     * Values of the current block, for the string columns.
+     */
+    protected String[][] strings = new String[0][];
+
+
+    /**
+     * Number of rows in the current block.
+     */
+    protected int rows = 0;
+
+
+    /**
+     * Current row.
+     */
+    protected int row = -1;
+
+
+    protected SimpleDateFormat dateFormat =
+        new SimpleDateFormat("'['dd/MMM/yyyy:HH:mm:ss Z']'", Locale.US);
+
+
+    protected Date date = new Date();
+
+
+    protected byte[] data = new byte[8192];
+
+
+    protected int pos = 0;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public int getColumnCount() {
+        return columnSegments.length;
+    }
+
+
+    /**
+     * Return the pattern element of the column, for example
+     * <code>%h</code> or <code>%{User-Agent}i</code>.
+     */
+    public String getColumnName(int column) {
+        return segmentTexts[columnSegments[column]];
+    }
+
+
+    /**
+     * Return the type of the column, one of the segment types of
+     * {@link BinaryAccessLogValve}.
+     */
+    public byte getColumnType(int column) {
+        return segmentTypes[columnSegments[column]];
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Move to the next row.
+     *
+     * @return <code>false</code> if there are no more rows
+     */
+    public boolean next() throws IOException {
+        while (row + 1 >= rows) {
+            if (!readRecord()) {
+                return false;
+            }
+        }
+        row++;
+        return true;
+    }
+
+
+    /**
+     * Return the value of a number or time column in the current row. Times
+     * are in milliseconds since the epoch.
+     */
+    public long getLong(int column) {
+        return numbers[column][row];
+    }
+
+
+    /**
+     * Return the value of a column in the current row, as it would be
+     * written in the text log.
+     */
+    public String getString(int column) {
+        if (getColumnType(column) == BinaryAccessLogValve.SEGMENT_STRING) {
+            return strings[column][row];
+        }
+        StringBuffer buffer = new StringBuffer();
+        appendValue(buffer, column);
+        return buffer.toString();
+    }
+
+
+    /**
+     * Return the current row as a line of the text log.
+     */
+    public String getLine() {
+        StringBuffer buffer = new StringBuffer(128);
+        int column = 0;
+        for (int i = 0; i < segmentTypes.length; i++) {
+            if (segmentTypes[i] == BinaryAccessLogValve.SEGMENT_LITERAL) {
+                buffer.append(segmentTexts[i]);
+            } else {
+                appendValue(buffer, column++);
+            }
+        }
+        return buffer.toString();
+    }
+
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    protected void appendValue(StringBuffer buffer, int column) {
+        byte type = getColumnType(column);
+        if (type == BinaryAccessLogValve.SEGMENT_STRING) {
+            buffer.append(strings[column][row]);
+            return;
+        }
+        long value = numbers[column][row];
+        if (type == BinaryAccessLogValve.SEGMENT_TIME) {
+            date.setTime(value);
+            buffer.append(dateFormat.format(date));
+            return;
+        }
+        String name = getColumnName(column);
+        if ("%b".equals(name) && value <= 0) {
+            buffer.append('-');
+        } else if ("%T".equals(name)) {
+            // Elapsed time is stored in milliseconds
+            buffer.append(value / 1000);
+            buffer.append('.');
+            int remains = (int) (value % 1000);
+            buffer.append(remains / 100);
+            remains = remains % 100;
+            buffer.append(remains / 10);
+            buffer.append(remains % 10);
+        } else {
+            buffer.append(value);
+        }
+    }
+
+
+    /**
+     * Read the next record.
+     *
+     * @return <code>false</code> at the end of the file
+     */
+    protected boolean readRecord() throws IOException {
+        byte type;
+        int length;
+        try {
+            type = in.readByte();
+            length = in.readInt();
+            if (data.length < length) {
+                data = new byte[length];
+            }
+            in.readFully(data, 0, length);
+        } catch (EOFException e) {
+            // The last record may be incomplete if the log is being written
+            return false;
+        }
+        pos = 0;
+        if (type == BinaryAccessLogValve.RECORD_HEADER) {
+            readHeader();
+        } else if (type == BinaryAccessLogValve.RECORD_BLOCK) {
+            readBlock();
+        }
+        // Other records are skipped
+        return true;
+    }
+
+
+    protected void readHeader() throws IOException {
+        int version = data[pos++];
+        if (version != BinaryAccessLogValve.VERSION) {
+            throw new IOException(sm.getString(
+                    "binaryAccessLogReader.version", Integer.valueOf(version)));
+        }
+        int count = (int) readVarLong();
+        segmentTypes = new byte[count];
+        segmentTexts = new String[count];
+        int columns = 0;
+        for (int i = 0; i < count; i++) {
+            segmentTypes[i] = data[pos++];
+            segmentTexts[i] = readString();
+            if (segmentTypes[i] != BinaryAccessLogValve.SEGMENT_LITERAL) {
+                columns++;
+            }
+        }
+        columnSegments = new int[columns];
+        columns = 0;
+        for (int i = 0; i < count; i++) {
+            if (segmentTypes[i] != BinaryAccessLogValve.SEGMENT_LITERAL) {
+                columnSegments[columns++] = i;
+            }
+        }
+        numbers = new long[columns][];
+        strings = new String[columns][];
+        rows = 0;
+        row = -1;
+    }
+
+
+    protected void readBlock() throws IOException {
+        int count = (int) readVarLong();
+        for (int i = 0; i < columnSegments.length; i++) {
+            if (getColumnType(i) == BinaryAccessLogValve.SEGMENT_STRING) {
+                String[] dictionary = new String[(int) readVarLong()];
+                for (int j = 0; j < dictionary.length; j++) {
+                    dictionary[j] = readString();
+                }
+                if (strings[i] == null || strings[i].length < count) {
+                    strings[i] = new String[count];
+                }
+                for (int j = 0; j < count; j++) {
+                    strings[i][j] = dictionary[(int) readVarLong()];
+                }
+            } else {
+                if (numbers[i] == null || numbers[i].length < count) {
+                    numbers[i] = new long[count];
+                }
+                long value = 0;
+                for (int j = 0; j < count; j++) {
+                    long delta = readVarLong();
+                    value += (delta >>> 1) ^ -(delta & 1);
+                    numbers[i][j] = value;
+                }
+            }
+        }
+        rows = count;
+        row = -1;
+    }
+
+
+    protected long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+
+    protected String readString() throws IOException {
+        int length = (int) readVarLong();
+        String value = new String(data, pos, length, "UTF-8");
+        pos += length;
+        return value;
+    }
+
+
+    // ----------------------------------------------------------- Main Program
+
+
+    /**
+     * Convert the given log files to text on the standard output.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println(sm.getString("binaryAccessLogReader.usage"));
+            System.exit(1);
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out)));
+        for (int i = 0; i < args.length; i++) {
+            BinaryAccessLogReader reader =
+                new BinaryAccessLogReader(new FileInputStream(args[i]));
+            try {
+                while (reader.next()) {
+                    out.println(reader.getLine());
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        out.flush();
+    }
+
+
+}
@@ -0,0 +1,603 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.valves;
+
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+
+/**
+ * <p>Access log valve which writes the fields of the <code>pattern</code> in
+ * a compact binary format instead of text lines, for log files which are
+ * processed by programs rather than read.</p>
+ *
+ * <p>The pattern is parsed as by {@link AccessLogValve}, each element which
+ * is not a literal becomes a column. Times, sizes, the status code and the
+ * port are stored as numbers, so that dates and numbers are never formatted,
+ * the other elements as strings. Rows are buffered into blocks of
+ * <code>blockSize</code> rows, which are written column by column: numbers
+ * as variable length deltas from the previous row, strings as indexes in a
+ * dictionary of the distinct values of the column in the block, which keeps
+ * the repeated host names, URIs and user agents small.</p>
+ *
+ * <p>The log file is a sequence of records, each made of a type byte, the
+ * length of the record data as a four bytes integer, and the data. A header
+ * record describing the literals and the columns of the pattern is written
+ * each time the file is opened, followed by block records.
+ * {@link BinaryAccessLogReader} reads these files and converts them back to
+ * the text format.</p>
+ *
+ * <p>Blocks are written when they are full, by the background processing
+ * thread for the rows which have been waiting for a while, and when the file
+ * is closed. If <code>buffered</code> is <code>false</code>, each row is
+ * written as its own block. <code>asyncWrite</code> is not supported.</p>
+ *
+ * @version $Id$
+ */
+
+public class BinaryAccessLogValve extends AccessLogValve {
+
+    private static Log log = LogFactory.getLog(BinaryAccessLogValve.class);
+
+
+    /**
+     * Type of the header records.
+     */
+    public static final byte RECORD_HEADER = 'H';
+
+
+    /**
+     * Type of the block records.
+     */
+    public static final byte RECORD_BLOCK = 'B';
+
+
+    /**
+     * Version of the format, written in the header records.
+     */
+    public static final byte VERSION = 1;
+
+
+    /**
+     * Segment types of the header records.
+     */
+    public static final byte SEGMENT_LITERAL = 0;
+    public static final byte SEGMENT_STRING = 1;
+    public static final byte SEGMENT_NUMBER = 2;
+    public static final byte SEGMENT_TIME = 3;
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * The descriptive information about this implementation.
+     */
+    protected static final String binaryAccessLogInfo =
+        "org.apache.catalina.valves.BinaryAccessLogValve/1.0";
+
+
+    /**
+     * Maximum number of rows in a block.
+     */
+    protected int blockSize = 1024;
+
+
+    /**
+     * The columns of the pattern, in order.
+     */
+    protected ColumnElement[] columns = new ColumnElement[0];
+
+
+    /**
+     * Rows of the current block, for the number and time columns.
+     */
+    protected long[][] numbers = null;
+
+
+    /**
+     * Dictionary indexes of the rows of the current block, for the string
+     * columns.
+     */
+    protected int[][] indexes = null;
+
+
+    /**
+     * Dictionaries of the current block, for the string columns.
+     */
+    protected List<HashMap<String, Integer>> dictionaries =
+        new ArrayList<HashMap<String, Integer>>();
+
+
+    /**
+     * Distinct values of the current block in index order, for the string
+     * columns.
+     */
+    protected List<List<String>> values = new ArrayList<List<String>>();
+
+
+    /**
+     * Number of rows in the current block.
+     */
+    protected int rows = 0;
+
+
+    /**
+     * Maximum number of rows in the current block.
+     */
+    protected int capacity = 0;
+
+
+    /**
+     * Time the first row of the current block was added.
+     */
+    protected long blockTime = 0;
+
+
+    /**
+     * Buffer the records are encoded into.
+     */
+    protected byte[] output = new byte[8192];
+
+
+    protected int outputLength = 0;
+
+
+    /**
+     * Per thread buffers holding the values of a row until it is added to
+     * the block.
+     */
+    protected ThreadLocal<Row> threadRows = new ThreadLocal<Row>() {
+        protected Row initialValue() {
+            return new Row();
+        }
+    };
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Return descriptive information about this implementation.
+     */
+    public String getInfo() {
+        return (binaryAccessLogInfo);
+    }
+
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
+    /**
+     * Set the maximum number of rows in a block. Changes are only applied
+     * when the valve is started.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Write the block if its rows have been waiting for a while.
+     */
+    public void backgroundProcess() {
+        if (started && getEnabled()) {
+            synchronized (this) {
+                if (rows > 0
+                        && System.currentTimeMillis() - blockTime > 1000) {
+                    writeBlock();
+                }
+            }
+        }
+    }
+
+
+    public void log(Request request, Response response, long time) {
+        if (logElements == null || numbers == null || condition != null
+                && null != request.getRequest().getAttribute(condition)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Row row = threadRows.get();
+        row.prepare(columns.length, now);
+        for (int i = 0; i < columns.length; i++) {
+            ColumnElement column = columns[i];
+            if (column.type == SEGMENT_STRING) {
+                row.buffer.setLength(0);
+                column.element.addElement(row.buffer, row.date, request,
+                        response, time);
+                row.strings[i] = row.buffer.toString();
+            } else {
+                row.numbers[i] = getNumber(column, now, request, response, time);
+            }
+        }
+
+        checkLogFile(now);
+
+        synchronized (this) {
+            if (numbers == null) {
+                return;
+            }
+            if (rows == 0) {
+                blockTime = now;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].type == SEGMENT_STRING) {
+                    indexes[i][rows] = getIndex(i, row.strings[i]);
+                } else {
+                    numbers[i][rows] = row.numbers[i];
+                }
+            }
+            rows++;
+            if (rows == capacity || !isBuffered()) {
+                writeBlock();
+            }
+        }
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * Return the value of a number or time column.
+     */
+    protected long getNumber(ColumnElement column, long now, Request request,
+            Response response, long time) {
+        switch (column.code) {
+        case 't':
+            return now;
+        case 'b':
+        case 'B':
+            return (response != null) ? response.getContentCountLong() : 0;
+        case 'D':
+        case 'T':
+            return time;
+        case 's':
+            return (response != null) ? response.getStatus() : 0;
+        case 'p':
+            return (request != null) ? request.getServerPort() : 0;
+        default:
+            return 0;
+        }
+    }
+
+
+    /**
+     * Return the index of the value in the dictionary of the column, adding
+     * it if needed.
+     */
+    protected int getIndex(int column, String value) {
+        HashMap<String, Integer> dictionary = dictionaries.get(column);
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            List<String> list = values.get(column);
+            index = Integer.valueOf(list.size());
+            dictionary.put(value, index);
+            list.add(value);
+        }
+        return index.intValue();
+    }
+
+
+    /**
+     * Write the current block to the log file, and clear it.
+     */
+    protected synchronized void writeBlock() {
+        if (rows == 0) {
+            return;
+        }
+        outputLength = 0;
+        writeByte(RECORD_BLOCK);
+        outputLength += 4;
+        writeVarLong(rows);
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].type == SEGMENT_STRING) {
+                List<String> list = values.get(i);
+                writeVarLong(list.size());
+                for (int j = 0; j < list.size(); j++) {
+                    writeString(list.get(j));
+                }
+                int[] column = indexes[i];
+                for (int j = 0; j < rows; j++) {
+                    writeVarLong(column[j]);
+                }
+                list.clear();
+                dictionaries.get(i).clear();
+            } else {
+                long[] column = numbers[i];
+                long previous = 0;
+                for (int j = 0; j < rows; j++) {
+                    long delta = column[j] - previous;
+                    // Zig zag encoding, so that small negative deltas are small
+                    writeVarLong((delta << 1) ^ (delta >> 63));
+                    previous = column[j];
+                }
+            }
+        }
+        rows = 0;
+        writeRecord();
+    }
+
+
+    /**
+     * Write the header record describing the pattern.
+     */
+    protected void writeHeader() {
+        outputLength = 0;
+        writeByte(RECORD_HEADER);
+        outputLength += 4;
+        writeByte(VERSION);
+        writeVarLong(logElements.length);
+        StringBuffer buffer = new StringBuffer();
+        for (int i = 0; i < logElements.length; i++) {
+            if (logElements[i] instanceof ColumnElement) {
+                ColumnElement column = (ColumnElement) logElements[i];
+                writeByte(column.type);
+                writeString(column.name);
+            } else {
+                // Literals do not use their arguments
+                buffer.setLength(0);
+                logElements[i].addElement(buffer, null, null, null, 0);
+                writeByte(SEGMENT_LITERAL);
+                writeString(buffer.toString());
+            }
+        }
+        writeRecord();
+    }
+
+
+    /**
+     * Set the length of the record held by the output buffer, and write it
+     * to the log file.
+     */
+    protected void writeRecord() {
+        int length = outputLength - 5;
+        output[1] = (byte) (length >>> 24);
+        output[2] = (byte) (length >>> 16);
+        output[3] = (byte) (length >>> 8);
+        output[4] = (byte) length;
+        ByteBuffer buffer = ByteBuffer.wrap(output, 0, outputLength);
+        try {
+            while (channel != null && buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            log.error(sm.getString("accessLogValve.writeFail",
+                    currentLogFile), e);
+        }
+    }
+
+
+    protected void writeByte(int b) {
+        if (outputLength == output.length) {
+            expand(1);
+        }
+        output[outputLength++] = (byte) b;
+    }
+
+
+    protected void writeVarLong(long value) {
+        if (outputLength + 10 > output.length) {
+            expand(10);
+        }
+        while ((value & ~0x7FL) != 0) {
+            output[outputLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output[outputLength++] = (byte) value;
+    }
+
+
+    protected void writeString(String value) {
+        byte[] bytes;
+        try {
+            bytes = value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Not possible
+            bytes = value.getBytes();
+        }
+        writeVarLong(bytes.length);
+        if (outputLength + bytes.length > output.length) {
+            expand(bytes.length);
+        }
+        System.arraycopy(bytes, 0, output, outputLength, bytes.length);
+        outputLength += bytes.length;
+    }
+
+
+    protected void expand(int needed) {
+        byte[] expanded =
+            new byte[Math.max(output.length * 2, outputLength + needed)];
+        System.arraycopy(output, 0, expanded, 0, outputLength);
+        output = expanded;
+    }
+
+
+    /**
+     * Open the new log file and write the header record.
+     */
+    protected synchronized void open() {
+        super.open();
+        if (logElements != null) {
+            writeHeader();
+        }
+    }
+
+
+    /**
+     * Write the current block and close the log file.
+     */
+    protected synchronized void close() {
+        writeBlock();
+        super.close();
+    }
+
+
+    /**
+     * Wrap the elements created for the pattern which are not literals into
+     * columns.
+     */
+    protected AccessLogElement createAccessLogElement(String header,
+            char pattern) {
+        AccessLogElement element = super.createAccessLogElement(header, pattern);
+        if (element instanceof StringElement) {
+            return element;
+        }
+        return new ColumnElement("%{" + header + "}" + pattern, pattern,
+                SEGMENT_STRING, element);
+    }
+
+
+    protected AccessLogElement createAccessLogElement(char pattern) {
+        AccessLogElement element = super.createAccessLogElement(pattern);
+        if (element instanceof StringElement) {
+            return element;
+        }
+        byte type;
+        switch (pattern) {
+        case 't':
+            type = SEGMENT_TIME;
+            break;
+        case 'b':
+        case 'B':
+        case 'D':
+        case 'T':
+        case 's':
+        case 'p':
+            type = SEGMENT_NUMBER;
+            break;
+        default:
+            type = SEGMENT_STRING;
+        }
+        return new ColumnElement("%" + pattern, pattern, type, element);
+    }
+
+
+    // ------------------------------------------------------ Lifecycle Methods
+
+
+    /**
+     * Prepare the block for the columns of the pattern, and open the log
+     * file.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    public void start() throws LifecycleException {
+        asyncWrite = false;
+        List<ColumnElement> list = new ArrayList<ColumnElement>();
+        if (logElements != null) {
+            for (int i = 0; i < logElements.length; i++) {
+                if (logElements[i] instanceof ColumnElement) {
+                    list.add((ColumnElement) logElements[i]);
+                }
+            }
+        }
+        synchronized (this) {
+            columns = list.toArray(new ColumnElement[0]);
+            int size = Math.max(blockSize, 1);
+            capacity = size;
+            numbers = new long[columns.length][];
+            indexes = new int[columns.length][];
+            dictionaries.clear();
+            values.clear();
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].type == SEGMENT_STRING) {
+                    indexes[i] = new int[size];
+                } else {
+                    numbers[i] = new long[size];
+                }
+                dictionaries.add(new HashMap<String, Integer>());
+                values.add(new ArrayList<String>());
+            }
+            if (columns.length == 0) {
+                numbers = null;
+            }
+            rows = 0;
+        }
+        super.start();
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+
+    /**
+     * Element of the pattern stored as a column.
+     */
+    protected static class ColumnElement implements AccessLogElement {
+        protected String name;
+        protected char code;
+        protected byte type;
+        protected AccessLogElement element;
+
+        public ColumnElement(String name, char code, byte type,
+                AccessLogElement element) {
+            this.name = name;
+            this.code = code;
+            this.type = type;
+            this.element = element;
+        }
+
+        public void addElement(StringBuffer buf, Date date, Request request,
+                Response response, long time) {
+            element.addElement(buf, date, request, response, time);
+        }
+    }
+
+
+    /**
+     * Values of a row, before it is added to the block.
+     */
+    protected static class Row {
+        protected StringBuffer buffer = new StringBuffer(128);
+        protected Date date = new Date();
+        protected long[] numbers = new long[0];
+        protected String[] strings = new String[0];
+
+        protected void prepare(int count, long now) {
+            if (numbers.length < count) {
+                numbers = new long[count];
+                strings = new String[count];
+            }
+            date.setTime(now);
+        }
+    }
+
+
+}
@@ -1554,12 +1554,13 @@ public class Http11NioProcessor implements ActionHook {
      */
     private boolean isCompressable() {
 
-        // Check if content is not already gzipped
+        // Check if content is not already compressed
         MessageBytes contentEncodingMB =
             response.getMimeHeaders().getValue("Content-Encoding");
 
         if ((contentEncodingMB != null)
-            && (contentEncodingMB.indexOf("gzip") != -1))
+            && ((contentEncodingMB.indexOf("gzip") != -1)
+                || (contentEncodingMB.indexOf("deflate") != -1)))
             return false;
 
         // If force mode, always compress (test purposes only)
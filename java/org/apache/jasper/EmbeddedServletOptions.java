@@ -173,6 +173,16 @@ public final class EmbeddedServletOptions implements Options {
      */
     private boolean recompileOnFail = false;
     
+    /**
+     * Are all the JSPs compiled in the background on startup?
+     */
+    private boolean precompileOnStartup = false;
+    
+    /**
+     * Number of background compilation threads.
+     */
+    private int compileThreads = Runtime.getRuntime().availableProcessors();
+    
     /**
      * Is generation of X-Powered-By response header enabled/disabled?
      */
@@ -257,6 +267,20 @@ public final class EmbeddedServletOptions implements Options {
         return recompileOnFail;
     }
     
+    /**
+     * Compile all the JSPs in the background on startup.
+     */
+    public boolean getPrecompileOnStartup() {
+        return precompileOnStartup;
+    }
+    
+    /**
+     * Number of background compilation threads.
+     */
+    public int getCompileThreads() {
+        return compileThreads;
+    }
+    
     /**
      * Is Jasper being used in development mode?
      */
@@ -509,6 +533,37 @@ public final class EmbeddedServletOptions implements Options {
                 }
             }
         }
+        
+        String precompileOnStartup = config.getInitParameter("precompileOnStartup"); 
+        if (precompileOnStartup != null) {
+            if (precompileOnStartup.equalsIgnoreCase("true")) {
+                this.precompileOnStartup = true;
+            } else if (precompileOnStartup.equalsIgnoreCase("false")) {
+                this.precompileOnStartup = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.precompileOnStartup"));
+                }
+            }
+        }
+        
+        String compileThreads = config.getInitParameter("compileThreads");
+        if (compileThreads != null) {
+            try {
+                int threads = Integer.parseInt(compileThreads);
+                if (threads > 0) {
+                    this.compileThreads = threads;
+                } else {
+                    if (log.isWarnEnabled()) {
+                        log.warn(Localizer.getMessage("jsp.warning.compileThreads"));
+                    }
+                }
+            } catch(NumberFormatException ex) {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.compileThreads"));
+                }
+            }
+        }
         String development = config.getInitParameter("development");
         if (development != null) {
             if (development.equalsIgnoreCase("true")) {
@@ -544,6 +544,24 @@ public class JspC extends Task implements Options {
     }
     
     
+    /**
+     * In JspC this always returns <code>false</code>.
+     * {@inheritDoc}
+     */
+    public boolean getPrecompileOnStartup() {
+        return false;
+    }
+    
+    
+    /**
+     * In JspC this always returns <code>1</code>.
+     * {@inheritDoc}
+     */
+    public int getCompileThreads() {
+        return 1;
+    }
+    
+    
     /**
      * In JspC this always returns <code>false</code>.
      * {@inheritDoc}
@@ -208,6 +208,17 @@ public interface Options {
      */
     public boolean getRecompileOnFail();
     
+    /**
+     * Are all the JSPs of the web application compiled in the background
+     * when the JSP servlet starts?
+     */
+    public boolean getPrecompileOnStartup();
+    
+    /**
+     * Number of threads used to compile and check JSPs in the background.
+     */
+    public int getCompileThreads();
+    
     /**
      * Is caching enabled (used for precompilation).
      */
@@ -486,20 +486,31 @@ public abstract class Compiler {
         while (it.hasNext()) {
             String include = (String) it.next();
             try {
-                URL includeUrl = ctxt.getResource(include);
-                if (includeUrl == null) {
-                    return true;
-                }
-
-                URLConnection iuc = includeUrl.openConnection();
+                JspRuntimeContext rctxt = ctxt.getRuntimeContext();
+                Long cached = (rctxt == null) ? null
+                        : rctxt.getDependencyLastModified(include);
                 long includeLastModified = 0;
-                if (iuc instanceof JarURLConnection) {
-                    includeLastModified =
-                        ((JarURLConnection) iuc).getJarEntry().getTime();
+                if (cached != null) {
+                    includeLastModified = cached.longValue();
                 } else {
-                    includeLastModified = iuc.getLastModified();
+                    URL includeUrl = ctxt.getResource(include);
+                    if (includeUrl == null) {
+                        return true;
+                    }
+
+                    URLConnection iuc = includeUrl.openConnection();
+                    if (iuc instanceof JarURLConnection) {
+                        includeLastModified =
+                            ((JarURLConnection) iuc).getJarEntry().getTime();
+                    } else {
+                        includeLastModified = iuc.getLastModified();
+                    }
+                    iuc.getInputStream().close();
+                    if (rctxt != null) {
+                        rctxt.setDependencyLastModified(include,
+                                includeLastModified);
+                    }
                 }
-                iuc.getInputStream().close();
 
                 if (includeLastModified > targetLastModified) {
                     return true;
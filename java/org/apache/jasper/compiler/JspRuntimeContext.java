@@ -26,9 +26,18 @@ import java.security.CodeSource;
 import java.security.PermissionCollection;
 import java.security.Policy;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletContext;
 import javax.servlet.jsp.JspFactory;
@@ -165,6 +174,18 @@ public final class JspRuntimeContext {
      */
     private Map<String, JspServletWrapper> jsps = new ConcurrentHashMap<String, JspServletWrapper>();
  
+    /**
+     * Executor used to compile JSPs in the background, created on first use.
+     */
+    private ExecutorService compileExecutor;
+
+    /**
+     * Last modification times of the files JSPs depend on, shared by all the
+     * JSPs checked during a background check so that a file included by many
+     * JSPs is only looked up once. Only set while a check is running.
+     */
+    private volatile Map<String, Long> dependencyLastModified;
+
 
     // ------------------------------------------------------ Public Methods
 
@@ -240,6 +261,11 @@ public final class JspRuntimeContext {
      * Process a "destory" event for this web application context.
      */                                                        
     public void destroy() {
+        synchronized (this) {
+            if (compileExecutor != null) {
+                compileExecutor.shutdownNow();
+            }
+        }
         Iterator servlets = jsps.values().iterator();
         while (servlets.hasNext()) {
             ((JspServletWrapper) servlets.next()).destroy();
@@ -290,23 +316,107 @@ public final class JspRuntimeContext {
         }
         
         Object [] wrappers = jsps.values().toArray();
-        for (int i = 0; i < wrappers.length; i++ ) {
-            JspServletWrapper jsw = (JspServletWrapper)wrappers[i];
-            JspCompilationContext ctxt = jsw.getJspEngineContext();
-            // JspServletWrapper also synchronizes on this when
-            // it detects it has to do a reload
-            synchronized(jsw) {
-                try {
-                    ctxt.compile();
-                } catch (FileNotFoundException ex) {
-                    ctxt.incrementRemoved();
-                } catch (Throwable t) {
-                    jsw.getServletContext().log("Background compile failed",
-						t);
-                }
+        List<Future<?>> results = new ArrayList<Future<?>>(wrappers.length);
+        dependencyLastModified = new ConcurrentHashMap<String, Long>();
+        try {
+            ExecutorService executor = getCompileExecutor();
+            for (int i = 0; i < wrappers.length; i++ ) {
+                final JspServletWrapper jsw = (JspServletWrapper)wrappers[i];
+                results.add(executor.submit(new Runnable() {
+                    public void run() {
+                        compile(jsw);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                results.get(i).get();
+            }
+        } catch (RejectedExecutionException e) {
+            // The context is being destroyed
+        } catch (ExecutionException e) {
+            // Failures are logged by compile(JspServletWrapper)
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            dependencyLastModified = null;
+        }
+
+    }
+
+    /**
+     * Compile the given JSP if it, or one of the files it depends on, has
+     * been modified.
+     *
+     * @param jsw Servlet wrapper for the JSP
+     */
+    public void compile(JspServletWrapper jsw) {
+        JspCompilationContext ctxt = jsw.getJspEngineContext();
+        // JspServletWrapper also synchronizes on this when
+        // it detects it has to do a reload
+        synchronized(jsw) {
+            try {
+                ctxt.compile();
+            } catch (FileNotFoundException ex) {
+                ctxt.incrementRemoved();
+            } catch (Throwable t) {
+                jsw.getServletContext().log("Background compile failed",
+                        t);
             }
         }
+    }
+
+    /**
+     * Get the executor used to compile JSPs in the background. Its threads
+     * use the web application class loader as context class loader.
+     *
+     * @return the executor
+     */
+    public synchronized ExecutorService getCompileExecutor() {
+        if (compileExecutor == null) {
+            compileExecutor = Executors.newFixedThreadPool(
+                    Math.max(1, options.getCompileThreads()),
+                    new ThreadFactory() {
+                        private AtomicInteger count = new AtomicInteger();
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "JspCompiler-"
+                                    + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            thread.setContextClassLoader(parentClassLoader);
+                            return thread;
+                        }
+                    });
+        }
+        return compileExecutor;
+    }
 
+    /**
+     * Get the last modification time of a file a JSP depends on, as found
+     * by an earlier JSP during the running background check.
+     *
+     * @param path Path of the file, relative to the context
+     * @return the last modification time, or <code>null</code> if it is not
+     *         known
+     */
+    public Long getDependencyLastModified(String path) {
+        Map<String, Long> lastModified = dependencyLastModified;
+        if (lastModified == null) {
+            return null;
+        }
+        return lastModified.get(path);
+    }
+
+    /**
+     * Record the last modification time of a file a JSP depends on, for the
+     * other JSPs checked during the running background check.
+     *
+     * @param path Path of the file, relative to the context
+     * @param time Last modification time of the file
+     */
+    public void setDependencyLastModified(String path, long time) {
+        Map<String, Long> lastModified = dependencyLastModified;
+        if (lastModified != null) {
+            lastModified.put(path, Long.valueOf(time));
+        }
     }
 
     /**
@@ -17,18 +17,36 @@
 
 package org.apache.jasper.compiler;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.JarURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import org.xml.sax.InputSource;
@@ -91,6 +109,26 @@ public class TldLocationsCache {
     private static final String FILE_PROTOCOL = "file:";
     private static final String JAR_FILE_SUFFIX = ".jar";
 
+    /**
+     * The number of threads scanning JARs for TLDs, the JARs are scanned on
+     * the calling thread if it is 1.
+     */
+    private static final int SCAN_THREADS = Integer.getInteger(
+            "org.apache.jasper.compiler.TldLocationsCache.SCAN_THREADS",
+            Runtime.getRuntime().availableProcessors()).intValue();
+
+    /**
+     * Keep the TLDs found in each JAR in an index in the work directory of
+     * the web application, so that the JARs which have the same size and
+     * modification time are not opened again on the next start.
+     */
+    private static final boolean USE_INDEX = Boolean.valueOf(System.getProperty(
+            "org.apache.jasper.compiler.TldLocationsCache.USE_INDEX",
+            "false")).booleanValue();
+
+    private static final String INDEX_FILE = "tld-locations.idx";
+    private static final int INDEX_VERSION = 1;
+
     // Names of JARs that are known not to contain any TLDs
     private static HashSet<String> noTldJars;
 
@@ -343,18 +381,22 @@ public class TldLocationsCache {
 
     /**
      * Scans the given JarURLConnection for TLD files located in META-INF
-     * (or a subdirectory of it), adding an implicit map entry to the taglib
-     * map for any TLD that has a <uri> element.
+     * (or a subdirectory of it), and returns the implicit map entries for
+     * the TLDs that have a <uri> element, in the order of the JAR.
      *
      * @param conn The JarURLConnection to the JAR file to scan
      * @param ignore true if any exceptions raised when processing the given
      * JAR should be ignored, false otherwise
+     *
+     * @return The uri, location and entry name of the TLDs, or null if an
+     * exception has been ignored
      */
-    private void scanJar(JarURLConnection conn, boolean ignore)
+    private List<String[]> scanJar(JarURLConnection conn, boolean ignore)
                 throws JasperException {
 
         JarFile jarFile = null;
         String resourcePath = conn.getJarFileURL().toString();
+        List<String[]> tlds = new ArrayList<String[]>();
         try {
             if (redeployMode) {
                 conn.setUseCaches(false);
@@ -369,10 +411,8 @@ public class TldLocationsCache {
                 InputStream stream = jarFile.getInputStream(entry);
                 try {
                     String uri = getUriFromTld(resourcePath, stream);
-                    // Add implicit map entry only if its uri is not already
-                    // present in the map
-                    if (uri != null && mappings.get(uri) == null) {
-                        mappings.put(uri, new String[]{ resourcePath, name });
+                    if (uri != null) {
+                        tlds.add(new String[] { uri, resourcePath, name });
                     }
                 } finally {
                     if (stream != null) {
@@ -398,6 +438,7 @@ public class TldLocationsCache {
             if (!ignore) {
                 throw new JasperException(ex);
             }
+            tlds = null;
         } finally {
             if (redeployMode) {
                 // if in redeploy mode, always close the jar
@@ -410,6 +451,7 @@ public class TldLocationsCache {
                 }
             }
         }
+        return tlds;
     }
 
     /*
@@ -493,9 +535,10 @@ public class TldLocationsCache {
      */
     private void scanJars() throws Exception {
 
-        ClassLoader webappLoader
+        final ClassLoader webappLoader
             = Thread.currentThread().getContextClassLoader();
         ClassLoader loader = webappLoader;
+        List<JarURLConnection> jars = new ArrayList<JarURLConnection>();
 
         while (loader != null) {
             if (loader instanceof URLClassLoader) {
@@ -505,7 +548,7 @@ public class TldLocationsCache {
                     if (conn instanceof JarURLConnection) {
                         if (needScanJar(loader, webappLoader,
                                         ((JarURLConnection) conn).getJarFile().getName())) {
-                            scanJar((JarURLConnection) conn, true);
+                            jars.add((JarURLConnection) conn);
                         }
                     } else {
                         String urlStr = urls[i].toString();
@@ -513,8 +556,7 @@ public class TldLocationsCache {
                                 && urlStr.endsWith(JAR_FILE_SUFFIX)
                                 && needScanJar(loader, webappLoader, urlStr)) {
                             URL jarURL = new URL("jar:" + urlStr + "!/");
-                            scanJar((JarURLConnection) jarURL.openConnection(),
-                                    true);
+                            jars.add((JarURLConnection) jarURL.openConnection());
                         }
                     }
                 }
@@ -522,6 +564,206 @@ public class TldLocationsCache {
 
             loader = loader.getParent();
         }
+
+        File indexFile = null;
+        if (USE_INDEX) {
+            File workDir = (File) ctxt.getAttribute(Constants.TMP_DIR);
+            if (workDir != null) {
+                indexFile = new File(workDir, INDEX_FILE);
+            }
+        }
+        final Map<String,JarTlds> index = (indexFile != null) ?
+                loadIndex(indexFile) : new HashMap<String,JarTlds>();
+        final Map<String,JarTlds> newIndex = new HashMap<String,JarTlds>();
+
+        List<List<String[]>> results = new ArrayList<List<String[]>>();
+        int threads = Math.min(SCAN_THREADS, jars.size());
+        if (threads > 1) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads,
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "TldScanner");
+                            t.setDaemon(true);
+                            t.setContextClassLoader(webappLoader);
+                            return t;
+                        }
+                    });
+            try {
+                List<Future<List<String[]>>> futures =
+                    new ArrayList<Future<List<String[]>>>();
+                for (final JarURLConnection conn : jars) {
+                    futures.add(executor.submit(new Callable<List<String[]>>() {
+                        public List<String[]> call() throws Exception {
+                            return scanJar(conn, index, newIndex);
+                        }
+                    }));
+                }
+                for (Future<List<String[]>> future : futures) {
+                    try {
+                        results.add(future.get());
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof Exception) {
+                            throw (Exception) e.getCause();
+                        }
+                        throw e;
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } else {
+            for (JarURLConnection conn : jars) {
+                results.add(scanJar(conn, index, newIndex));
+            }
+        }
+
+        // Add implicit map entries in the order of the JARs, and only if
+        // their uri is not already present in the map
+        for (List<String[]> tlds : results) {
+            for (String[] tld : tlds) {
+                if (mappings.get(tld[0]) == null) {
+                    mappings.put(tld[0], new String[] { tld[1], tld[2] });
+                }
+            }
+        }
+
+        if (indexFile != null && !newIndex.equals(index)) {
+            saveIndex(indexFile, newIndex);
+        }
+    }
+
+    /*
+     * Scans a JAR for TLDs, unless the index has the TLDs of the same JAR
+     * file. The TLDs found are added to the new index.
+     */
+    private List<String[]> scanJar(JarURLConnection conn,
+            Map<String,JarTlds> index, Map<String,JarTlds> newIndex)
+            throws JasperException {
+        File file = null;
+        URL jarFileURL = conn.getJarFileURL();
+        if ("file".equals(jarFileURL.getProtocol())) {
+            try {
+                file = new File(jarFileURL.toURI());
+            } catch (Exception e) {
+                // not indexed
+            }
+        }
+        if (file != null) {
+            JarTlds cached = index.get(file.getPath());
+            if (cached != null && cached.size == file.length()
+                    && cached.lastModified == file.lastModified()) {
+                synchronized (newIndex) {
+                    newIndex.put(file.getPath(), cached);
+                }
+                return cached.tlds;
+            }
+        }
+        List<String[]> tlds = scanJar(conn, true);
+        if (tlds == null) {
+            return new ArrayList<String[]>();
+        }
+        if (file != null) {
+            JarTlds scanned = new JarTlds(file.length(), file.lastModified(),
+                    tlds);
+            synchronized (newIndex) {
+                newIndex.put(file.getPath(), scanned);
+            }
+        }
+        return tlds;
+    }
+
+    /*
+     * Reads the TLD index, an empty index is returned if it does not exist
+     * or cannot be read.
+     */
+    private Map<String,JarTlds> loadIndex(File indexFile) {
+        Map<String,JarTlds> index = new HashMap<String,JarTlds>();
+        if (!indexFile.exists()) {
+            return index;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(indexFile)));
+            if (in.readInt() != INDEX_VERSION) {
+                return index;
+            }
+            int jarCount = in.readInt();
+            for (int i = 0; i < jarCount; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                int tldCount = in.readInt();
+                List<String[]> tlds = new ArrayList<String[]>(tldCount);
+                for (int j = 0; j < tldCount; j++) {
+                    tlds.add(new String[] {
+                            in.readUTF(), in.readUTF(), in.readUTF() });
+                }
+                index.put(path, new JarTlds(size, lastModified, tlds));
+            }
+        } catch (IOException e) {
+            if (log.isWarnEnabled()) {
+                log.warn(Localizer.getMessage("jsp.warning.tldIndex.read",
+                        indexFile.getAbsolutePath()), e);
+            }
+            index.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (Throwable t) {
+                    // do nothing
+                }
+            }
+        }
+        return index;
+    }
+
+    /*
+     * Writes the TLD index, through a temporary file so that a partly
+     * written index is never read.
+     */
+    private void saveIndex(File indexFile, Map<String,JarTlds> index) {
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmpFile)));
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(index.size());
+            for (Map.Entry<String,JarTlds> entry : index.entrySet()) {
+                JarTlds jar = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(jar.size);
+                out.writeLong(jar.lastModified);
+                out.writeInt(jar.tlds.size());
+                for (String[] tld : jar.tlds) {
+                    out.writeUTF(tld[0]);
+                    out.writeUTF(tld[1]);
+                    out.writeUTF(tld[2]);
+                }
+            }
+            out.close();
+            out = null;
+            indexFile.delete();
+            if (!tmpFile.renameTo(indexFile)) {
+                throw new IOException(tmpFile.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            if (log.isWarnEnabled()) {
+                log.warn(Localizer.getMessage("jsp.warning.tldIndex.write",
+                        indexFile.getAbsolutePath()), e);
+            }
+            tmpFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (Throwable t) {
+                    // do nothing
+                }
+            }
+        }
     }
 
     /*
@@ -550,4 +792,19 @@ public class TldLocationsCache {
             return (!noTldJars.contains(jarName));
         }
     }
+
+    /*
+     * The TLDs found in a JAR file of the given size and modification time.
+     */
+    private static class JarTlds {
+        final long size;
+        final long lastModified;
+        final List<String[]> tlds;
+
+        JarTlds(long size, long lastModified, List<String[]> tlds) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.tlds = tlds;
+        }
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.Tag;
+
+import org.apache.AnnotationProcessor;
+import org.apache.jasper.Constants;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Lock free pool of tag handlers that can be reused.
+ * <p>
+ * The pool is split in stripes, one per processor rounded up to a power of
+ * two, and a thread only uses the stripe picked by its identifier, so that
+ * threads running on different processors rarely touch the same handlers.
+ * Each stripe is an array of slots which are taken and filled with
+ * compare-and-set operations, instead of locking the whole pool as
+ * {@link TagHandlerPool} does on every tag invocation. The pool holds at
+ * most <code>tagpoolMaxSize</code> handlers, or one per stripe if that is
+ * larger.
+ * <p>
+ * The pool is used when the <code>tagpoolClassName</code> init parameter
+ * of the JSP servlet is set to
+ * <code>org.apache.jasper.runtime.StripedTagHandlerPool</code>.
+ */
+public class StripedTagHandlerPool extends TagHandlerPool {
+
+    private static Log log = LogFactory.getLog(StripedTagHandlerPool.class);
+
+    private AtomicReferenceArray<Tag>[] stripes;
+
+    private int mask;
+
+    /**
+     * Constructs a tag handler pool with the default capacity.
+     */
+    public StripedTagHandlerPool() {
+        super();
+    }
+
+    protected void init(ServletConfig config) {
+        int maxSize = Constants.MAX_POOL_SIZE;
+        String maxSizeS = getOption(config, OPTION_MAXSIZE, null);
+        if (maxSizeS != null) {
+            try {
+                maxSize = Integer.parseInt(maxSizeS);
+            } catch (NumberFormatException ex) {
+                maxSize = -1;
+            }
+            if (maxSize < 0) {
+                maxSize = Constants.MAX_POOL_SIZE;
+            }
+        }
+        init(maxSize, Runtime.getRuntime().availableProcessors());
+        if (config != null && config.getServletContext() != null) {
+            this.annotationProcessor = (AnnotationProcessor) config
+                    .getServletContext().getAttribute(
+                            AnnotationProcessor.class.getName());
+        }
+    }
+
+    /**
+     * Creates the stripes.
+     *
+     * @param maxSize Tag handler pool capacity
+     * @param processors Number of processors the pool is shared by
+     */
+    @SuppressWarnings("unchecked")
+    protected void init(int maxSize, int processors) {
+        int count = 1;
+        while (count < processors) {
+            count <<= 1;
+        }
+        int stripeSize = Math.max(1, (maxSize + count - 1) / count);
+        stripes = new AtomicReferenceArray[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new AtomicReferenceArray<Tag>(stripeSize);
+        }
+        mask = count - 1;
+    }
+
+    /**
+     * Gets the next available tag handler from the stripe of the current
+     * thread, instantiating one if that stripe is empty.
+     *
+     * @param handlerClass Tag handler class
+     *
+     * @return Reused or newly instantiated tag handler
+     *
+     * @throws JspException if a tag handler cannot be instantiated
+     */
+    public Tag get(Class handlerClass) throws JspException {
+        AtomicReferenceArray<Tag> stripe = getStripe();
+        for (int i = stripe.length() - 1; i >= 0; i--) {
+            Tag handler = stripe.get(i);
+            if (handler != null && stripe.compareAndSet(i, handler, null)) {
+                return handler;
+            }
+        }
+
+        try {
+            Tag instance = (Tag) handlerClass.newInstance();
+            AnnotationHelper.postConstruct(annotationProcessor, instance);
+            return instance;
+        } catch (Exception e) {
+            throw new JspException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Adds the given tag handler to the stripe of the current thread, unless
+     * that stripe is full, in which case the tag handler's release() method
+     * is called.
+     *
+     * @param handler Tag handler to add to this tag handler pool
+     */
+    public void reuse(Tag handler) {
+        AtomicReferenceArray<Tag> stripe = getStripe();
+        for (int i = 0; i < stripe.length(); i++) {
+            if (stripe.get(i) == null && stripe.compareAndSet(i, null, handler)) {
+                return;
+            }
+        }
+        doRelease(handler);
+    }
+
+    /**
+     * Calls the release() method of all available tag handlers in this tag
+     * handler pool.
+     */
+    public void release() {
+        for (int i = 0; i < stripes.length; i++) {
+            for (int j = 0; j < stripes[i].length(); j++) {
+                Tag handler = stripes[i].getAndSet(j, null);
+                if (handler != null) {
+                    doRelease(handler);
+                }
+            }
+        }
+    }
+
+    private AtomicReferenceArray<Tag> getStripe() {
+        return stripes[(int) Thread.currentThread().getId() & mask];
+    }
+
+    private void doRelease(Tag handler) {
+        handler.release();
+        if (annotationProcessor != null) {
+            try {
+                AnnotationHelper.preDestroy(annotationProcessor, handler);
+            } catch (Exception e) {
+                log.warn("Error processing preDestroy on tag instance of "
+                        + handler.getClass().getName(), e);
+            }
+        }
+    }
+}
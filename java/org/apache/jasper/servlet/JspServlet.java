@@ -20,6 +20,10 @@ package org.apache.jasper.servlet;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -32,6 +36,7 @@ import org.apache.PeriodicEventListener;
 
 import org.apache.jasper.Constants;
 import org.apache.jasper.EmbeddedServletOptions;
+import org.apache.jasper.JasperException;
 import org.apache.jasper.Options;
 import org.apache.jasper.compiler.JspRuntimeContext;
 import org.apache.jasper.compiler.Localizer;
@@ -101,6 +106,10 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
         }
         rctxt = new JspRuntimeContext(context, options);
         
+        if (options.getPrecompileOnStartup()) {
+            precompile("/");
+        }
+        
         if (log.isDebugEnabled()) {
             log.debug(Localizer.getMessage("jsp.message.scratch.dir.is",
                     options.getScratchDir().toString()));
@@ -285,6 +294,51 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
 
     // -------------------------------------------------------- Private Methods
 
+    /**
+     * Compile in the background all the JSPs found in the given directory of
+     * the web application and in its subdirectories.
+     */
+    private void precompile(String path) {
+        Set paths = context.getResourcePaths(path);
+        if (paths == null) {
+            return;
+        }
+        ExecutorService executor = rctxt.getCompileExecutor();
+        Iterator iter = paths.iterator();
+        while (iter.hasNext()) {
+            final String jspUri = (String) iter.next();
+            if (jspUri.endsWith("/")) {
+                precompile(jspUri);
+            } else if (jspUri.endsWith(".jsp") || jspUri.endsWith(".jspx")) {
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            JspServletWrapper wrapper;
+                            try {
+                                synchronized (JspServlet.this) {
+                                    wrapper = rctxt.getWrapper(jspUri);
+                                    if (wrapper == null) {
+                                        wrapper = new JspServletWrapper(config,
+                                                options, jspUri, false, rctxt);
+                                        rctxt.addWrapper(jspUri, wrapper);
+                                    }
+                                }
+                            } catch (JasperException e) {
+                                context.log("Background compile failed", e);
+                                return;
+                            }
+                            rctxt.compile(wrapper);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // The servlet has been destroyed
+                    return;
+                }
+            }
+        }
+    }
+
+
     private void serviceJspFile(HttpServletRequest request,
                                 HttpServletResponse response, String jspUri,
                                 Throwable exception, boolean precompile)
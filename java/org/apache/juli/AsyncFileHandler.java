@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.juli;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * <b>FileHandler</b> which does not write on the thread which logs: records
+ * are added to a bounded queue, and a background thread formats and writes
+ * them in batches, flushing the file once per batch.
+ *
+ * <p>The following configuration properties are available, in addition to
+ * the ones of {@link FileHandler}:</p>
+ *
+ * <ul>
+ *   <li><code>queueSize</code> - The maximum number of records waiting to be
+ *    written. Default value: <code>10000</code></li>
+ *   <li><code>batchSize</code> - The maximum number of records written
+ *    between two flushes. Default value: <code>1000</code></li>
+ *   <li><code>overflowPolicy</code> - What to do when the queue is full:
+ *    <code>block</code> waits until the background thread has written some
+ *    records, <code>dropNewest</code> drops the record being logged and
+ *    <code>dropOldest</code> drops the oldest queued record. Dropped records
+ *    are counted, and the count is written to the log file by the background
+ *    thread. Default value: <code>block</code></li>
+ * </ul>
+ *
+ * <p>Closing the handler, which {@link ClassLoaderLogManager} does for all
+ * its handlers when it is shut down, writes the queued records before the
+ * file is closed.</p>
+ *
+ * @version $Id$
+ */
+
+public class AsyncFileHandler
+    extends FileHandler {
+
+
+    public static final int OVERFLOW_BLOCK = 0;
+    public static final int OVERFLOW_DROP_NEWEST = 1;
+    public static final int OVERFLOW_DROP_OLDEST = 2;
+
+
+    protected static final AtomicInteger threadCount = new AtomicInteger(0);
+
+
+    // ------------------------------------------------------------ Constructor
+
+
+    public AsyncFileHandler() {
+        this(null, null, null);
+    }
+
+
+    public AsyncFileHandler(String directory, String prefix, String suffix) {
+        super(directory, prefix, suffix);
+        configureAsync();
+        queue = new ArrayBlockingQueue<LogRecord>(queueSize);
+        writerThread = new LoggerThread();
+        writerThread.start();
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Maximum number of records waiting to be written.
+     */
+    protected int queueSize = 10000;
+
+
+    /**
+     * Maximum number of records written between two flushes.
+     */
+    protected int batchSize = 1000;
+
+
+    /**
+     * What to do when the queue is full.
+     */
+    protected int overflowPolicy = OVERFLOW_BLOCK;
+
+
+    /**
+     * Records waiting to be written.
+     */
+    protected BlockingQueue<LogRecord> queue;
+
+
+    /**
+     * Number of records dropped because the queue was full.
+     */
+    protected AtomicLong droppedCount = new AtomicLong(0);
+
+
+    protected volatile boolean closed = false;
+
+
+    /**
+     * Number of threads running {@link #publish(LogRecord)}.
+     */
+    protected AtomicInteger publishers = new AtomicInteger(0);
+
+
+    protected LoggerThread writerThread;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+
+    public int getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+
+    /**
+     * Return the number of records waiting to be written.
+     */
+    public int getQueueLength() {
+        return queue.size();
+    }
+
+
+    /**
+     * Return the number of records dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Add a <tt>LogRecord</tt> to the queue.
+     *
+     * @param  record  description of the log event
+     */
+    public void publish(LogRecord record) {
+
+        if (!isLoggable(record)) {
+            return;
+        }
+
+        // Registered before reading the flag, so that close() waits for
+        // any publisher which has not seen it
+        publishers.incrementAndGet();
+        try {
+            if (closed) {
+                write(record, true);
+                return;
+            }
+
+            // The caller is inferred from the stack when these are first
+            // called, so it has to be done on the logging thread
+            record.getSourceMethodName();
+
+            switch (overflowPolicy) {
+            case OVERFLOW_DROP_NEWEST:
+                if (!queue.offer(record)) {
+                    droppedCount.incrementAndGet();
+                }
+                break;
+            case OVERFLOW_DROP_OLDEST:
+                while (!queue.offer(record)) {
+                    if (queue.poll() != null) {
+                        droppedCount.incrementAndGet();
+                    }
+                }
+                break;
+            default:
+                try {
+                    while (!queue.offer(record, 100, TimeUnit.MILLISECONDS)) {
+                        if (closed) {
+                            // Nothing will read the queue anymore
+                            write(record, true);
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    droppedCount.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } finally {
+            publishers.decrementAndGet();
+        }
+    }
+
+
+    /**
+     * Write the queued records, then close the log file.
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            writerThread.interrupt();
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Wait for the publishers which had not seen the flag, then
+            // write the records they added while the thread was stopping
+            while (publishers.get() > 0) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            writeQueued();
+        }
+        super.close();
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * Write the queued records, in batches, and report the dropped records.
+     */
+    protected void writeQueued() {
+        List<LogRecord> batch = new ArrayList<LogRecord>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            writeBatch(batch);
+        }
+        writerThread.reportDropped();
+        flush();
+    }
+
+
+    /**
+     * Write the given records, followed by a record reporting the dropped
+     * records if needed, and flush the log file.
+     */
+    protected void writeBatch(List<LogRecord> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            write(batch.get(i), false);
+        }
+        batch.clear();
+        writerThread.reportDropped();
+        flush();
+    }
+
+
+    private void configureAsync() {
+        String className = this.getClass().getName();
+        try {
+            queueSize = Integer.parseInt(getProperty(className + ".queueSize",
+                    String.valueOf(queueSize)));
+        } catch (NumberFormatException ignore) {
+            //no op
+        }
+        if (queueSize < 1) {
+            queueSize = 1;
+        }
+        try {
+            batchSize = Integer.parseInt(getProperty(className + ".batchSize",
+                    String.valueOf(batchSize)));
+        } catch (NumberFormatException ignore) {
+            //no op
+        }
+        if (batchSize < 1) {
+            batchSize = 1;
+        }
+        String policy = getProperty(className + ".overflowPolicy", "block");
+        if ("dropNewest".equalsIgnoreCase(policy)) {
+            overflowPolicy = OVERFLOW_DROP_NEWEST;
+        } else if ("dropOldest".equalsIgnoreCase(policy)) {
+            overflowPolicy = OVERFLOW_DROP_OLDEST;
+        } else {
+            overflowPolicy = OVERFLOW_BLOCK;
+        }
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+
+    /**
+     * Background thread writing the queued records.
+     */
+    protected class LoggerThread extends Thread {
+
+        /**
+         * Number of dropped records already reported in the log file.
+         */
+        protected long reported = 0;
+
+        public LoggerThread() {
+            setName("AsyncFileHandlerWriter-" + threadCount.incrementAndGet());
+            setDaemon(true);
+        }
+
+        public void run() {
+            List<LogRecord> batch = new ArrayList<LogRecord>(batchSize);
+            while (!closed) {
+                try {
+                    LogRecord record = queue.poll(1000, TimeUnit.MILLISECONDS);
+                    if (record != null) {
+                        batch.add(record);
+                        queue.drainTo(batch, batchSize - 1);
+                        writeBatch(batch);
+                    } else {
+                        reportDropped();
+                    }
+                } catch (InterruptedException e) {
+                    // Closed
+                }
+            }
+            writeQueued();
+        }
+
+        protected void reportDropped() {
+            long dropped = droppedCount.get();
+            if (dropped != reported) {
+                LogRecord record = new LogRecord(Level.WARNING,
+                        "AsyncFileHandler queue full, " + (dropped - reported)
+                        + " log records dropped (" + dropped + " in total)");
+                record.setLoggerName(AsyncFileHandler.class.getName());
+                reported = dropped;
+                write(record, false);
+            }
+        }
+    }
+
+
+}
@@ -23,6 +23,7 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * <p>Cache structure for SimpleDateFormat formatted timestamps based on
@@ -31,15 +32,15 @@ import java.util.TimeZone;
  * <p>Millisecond formatting using S is not supported. You should add the
  * millisecond information after getting back the second formatting.</p>
  *
- * <p>The cache consists of entries for a consecutive range of
- * seconds. The length of the range is configurable. It is
- * implemented based on a cyclic buffer. New entries shift the range.</p>
+ * <p>The cache holds one entry per second for a range of consecutive
+ * seconds, the entry of a second replacing the one of the second
+ * <code>size</code> seconds before or after it. Entries are immutable and
+ * published through an atomic array, so the cache is threadsafe without
+ * locking: threads which miss the same second at the same time both format
+ * it, and one of the results is kept.</p>
  *
- * <p>The cache is not threadsafe. It can be used without synchronization
- * via thread local instances, or with synchronization as a global cache.</p>
- *
- * <p>The cache can be created with a parent cache to build a cache hierarchy.
- * Access to the parent cache is threadsafe.</p>
+ * <p>The cache can be created with a parent cache to build a cache hierarchy,
+ * for example small thread local caches in front of a global one.</p>
  *
  * @version $Id$
  */
@@ -54,7 +55,19 @@ public class DateFormatCache {
     /* Number of cached entries */
     private int cacheSize = 0;
 
-    private Cache cache;
+    /* Cached entries, indexed by second modulo the cache size */
+    private final AtomicReferenceArray<Entry> cache;
+
+    private final DateFormatCache parent;
+
+    /* Formatters, SimpleDateFormat is not threadsafe */
+    private final ThreadLocal<Formatter> formatters =
+            new ThreadLocal<Formatter>() {
+        @Override
+        protected Formatter initialValue() {
+            return new Formatter(format);
+        }
+    };
 
     /**
      * Replace the millisecond formatting character 'S' by
@@ -83,112 +96,55 @@ public class DateFormatCache {
     }
 
     public DateFormatCache(int size, String format, DateFormatCache parent) {
-        cacheSize = size;
+        cacheSize = (size > 0) ? size : 1;
         this.format = tidyFormat(format);
-        Cache parentCache = null;
-        if (parent != null) {
-            synchronized(parent) {
-                parentCache = parent.cache;
-            }
-        }
-        cache = new Cache(parentCache);
+        this.parent = parent;
+        cache = new AtomicReferenceArray<Entry>(cacheSize);
     }
 
     public String getFormat(long time) {
-        return cache.getFormat(time);
+        long seconds = time / 1000;
+        int index = (int) (seconds % cacheSize);
+        if (index < 0) {
+            index += cacheSize;
+        }
+        Entry entry = cache.get(index);
+        if (entry != null && entry.seconds == seconds) {
+            return entry.format;
+        }
+        String result;
+        if (parent != null) {
+            result = parent.getFormat(time);
+        } else {
+            result = formatters.get().format(time);
+        }
+        cache.set(index, new Entry(seconds, result));
+        return result;
     }
 
-    private class Cache {
+    private static final class Entry {
+        private final long seconds;
+        private final String format;
 
-        /* Second formatted in most recent invocation */
-        private long previousSeconds = Long.MIN_VALUE;
-        /* Formatted timestamp generated in most recent invocation */
-        private String previousFormat = "";
+        private Entry(long seconds, String format) {
+            this.seconds = seconds;
+            this.format = format;
+        }
+    }
 
-        /* First second contained in cache */
-        private long first = Long.MIN_VALUE;
-        /* Last second contained in cache */
-        private long last = Long.MIN_VALUE;
-        /* Index of "first" in the cyclic cache */
-        private int offset = 0;
+    private static final class Formatter {
         /* Helper object to be able to call SimpleDateFormat.format(). */
         private final Date currentDate = new Date();
+        private final SimpleDateFormat formatter;
 
-        private String cache[];
-        private SimpleDateFormat formatter;
-
-        private Cache parent = null;
-
-        private Cache(Cache parent) {
-            cache = new String[cacheSize];
-            for (int i = 0; i < cacheSize; i++) {
-                cache[i] = null;
-            }
+        private Formatter(String format) {
             formatter = new SimpleDateFormat(format, Locale.US);
             formatter.setTimeZone(TimeZone.getDefault());
-            this.parent = parent;
         }
 
-        private String getFormat(long time) {
-
-            long seconds = time / 1000;
-
-            /* First step: if we have seen this timestamp
-               during the previous call, return the previous value. */
-            if (seconds == previousSeconds) {
-                return previousFormat;
-            }
-
-            /* Second step: Try to locate in cache */
-            previousSeconds = seconds;
-            int index = (offset + (int)(seconds - first)) % cacheSize;
-            if (index < 0) {
-                index += cacheSize;
-            }
-            if (seconds >= first && seconds <= last) {
-                if (cache[index] != null) {
-                    /* Found, so remember for next call and return.*/
-                    previousFormat = cache[index];
-                    return previousFormat;
-                }
-
-            /* Third step: not found in cache, adjust cache and add item */
-            } else if (seconds >= last + cacheSize || seconds <= first - cacheSize) {
-                first = seconds;
-                last = first + cacheSize - 1;
-                index = 0;
-                offset = 0;
-                for (int i = 1; i < cacheSize; i++) {
-                    cache[i] = null;
-                }
-            } else if (seconds > last) {
-                for (int i = 1; i < seconds - last; i++) {
-                    cache[(index + cacheSize - i) % cacheSize] = null;
-                }
-                first = seconds - (cacheSize - 1);
-                last = seconds;
-                offset = (index + 1) % cacheSize;
-            } else if (seconds < first) {
-                for (int i = 1; i < first - seconds; i++) {
-                    cache[(index + i) % cacheSize] = null;
-                }
-                first = seconds;
-                last = seconds + (cacheSize - 1);
-                offset = index;
-            }
-
-            /* Last step: format new timestamp either using
-             * parent cache or locally. */
-            if (parent != null) {
-                synchronized(parent) {
-                    previousFormat = parent.getFormat(time);
-                }
-            } else {
-                currentDate.setTime(time);
-                previousFormat = formatter.format(currentDate);
-            }
-            cache[index] = previousFormat;
-            return previousFormat;
+        private String format(long time) {
+            currentDate.setTime(time);
+            return formatter.format(currentDate);
         }
     }
 }
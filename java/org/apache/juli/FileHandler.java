@@ -21,11 +21,13 @@ package org.apache.juli;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.sql.Timestamp;
+import java.util.Calendar;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.ErrorManager;
@@ -152,6 +154,12 @@ public class FileHandler
     private int bufferSize = -1;
 
 
+    /**
+     * The current day, so that the date is only formatted when it changes.
+     */
+    private volatile Day today = null;
+
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -166,10 +174,20 @@ public class FileHandler
             return;
         }
 
-        // Construct the timestamp we will use, if requested
-        Timestamp ts = new Timestamp(System.currentTimeMillis());
-        String tsString = ts.toString().substring(0, 19);
-        String tsDate = tsString.substring(0, 10);
+        write(record, bufferSize < 0);
+    }
+
+
+    /**
+     * Format a <tt>LogRecord</tt> and write it to the current log file,
+     * switching log files first if the date has changed.
+     *
+     * @param  record  description of the log event
+     * @param  flush  flush the writer after the record
+     */
+    protected void write(LogRecord record, boolean flush) {
+
+        String tsDate = getDate(System.currentTimeMillis());
 
         writerLock.readLock().lock();
         // If the date has changed, switch log files
@@ -193,9 +211,28 @@ public class FileHandler
         }
 
         try {
+            Formatter formatter = getFormatter();
+            // Only the formatter itself, a subclass may override format()
+            if (formatter != null && formatter.getClass() == OneLineFormatter.class
+                    && writer != null) {
+                // Format directly into the writer
+                try {
+                    ((OneLineFormatter) formatter).format(record, writer);
+                    if (flush) {
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    reportError(null, e, ErrorManager.WRITE_FAILURE);
+                } catch (Exception e) {
+                    // A PrintWriter does not throw, this comes from formatting
+                    reportError(null, e, ErrorManager.FORMAT_FAILURE);
+                }
+                return;
+            }
+
             String result = null;
             try {
-                result = getFormatter().format(record);
+                result = formatter.format(record);
             } catch (Exception e) {
                 reportError(null, e, ErrorManager.FORMAT_FAILURE);
                 return;
@@ -204,7 +241,7 @@ public class FileHandler
             try {
                 if (writer!=null) {
                     writer.write(result);
-                    if (bufferSize < 0) {
+                    if (flush) {
                         writer.flush();
                     }
                 } else {
@@ -337,7 +374,20 @@ public class FileHandler
     }
 
     
-    private String getProperty(String name, String defaultValue) {
+    /**
+     * Return the date, as used in the log file names, of the given time.
+     */
+    private String getDate(long time) {
+        Day day = today;
+        if (day == null || time < day.start || time >= day.end) {
+            day = new Day(time);
+            today = day;
+        }
+        return day.date;
+    }
+
+
+    protected String getProperty(String name, String defaultValue) {
         String value = LogManager.getLogManager().getProperty(name);
         if (value == null) {
             value = defaultValue;
@@ -387,4 +437,27 @@ public class FileHandler
     }
 
 
+    /**
+     * A day, with its date and the time range it covers.
+     */
+    private static final class Day {
+        private final String date;
+        private final long start;
+        private final long end;
+
+        private Day(long time) {
+            date = new Timestamp(time).toString().substring(0, 10);
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(time);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            start = calendar.getTimeInMillis();
+            calendar.add(Calendar.DATE, 1);
+            end = calendar.getTimeInMillis();
+        }
+    }
+
+
 }
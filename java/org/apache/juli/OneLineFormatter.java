@@ -17,8 +17,9 @@
 
 package org.apache.juli;
 
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.Writer;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 
@@ -26,6 +27,13 @@ import java.util.logging.LogRecord;
  * Provides same information as default log format but on a single line to make
  * it easier to grep the logs. The only exception is stacktraces which are
  * always preceded by whitespace to make it simple to skip them.
+ * <p>
+ * Records are formatted into a buffer of the current thread, which is reused
+ * for the next records, as is the formatted timestamp of the current second.
+ * {@link #format(LogRecord, Writer)} writes the buffer without creating a
+ * String, so that formatting a record without
+ * parameters nor exception does not allocate any object once the buffers
+ * have grown to the size of the records.
  */
 /*
  * Date processing based on AccessLogValve.
@@ -43,11 +51,6 @@ public class OneLineFormatter extends Formatter {
      */
     private static final int globalCacheSize = 30;
 
-    /**
-     * The size of our thread local date format cache
-     */
-    private static final int localCacheSize = 5;
-
     /**
      * Global date format cache.
      */
@@ -55,19 +58,45 @@ public class OneLineFormatter extends Formatter {
             new DateFormatCache(globalCacheSize, timeFormat, null);
 
     /**
-     * Thread local date format cache.
+     * Thread local formatting buffers.
      */
-    private static final ThreadLocal<DateFormatCache> localDateCache =
-            new ThreadLocal<DateFormatCache>() {
+    private static final ThreadLocal<FormatBuffer> buffers =
+            new ThreadLocal<FormatBuffer>() {
         @Override
-        protected DateFormatCache initialValue() {
-            return new DateFormatCache(localCacheSize, timeFormat, globalDateCache);
+        protected FormatBuffer initialValue() {
+            return new FormatBuffer();
         }
     };
 
     @Override
     public String format(LogRecord record) {
-        StringBuilder sb = new StringBuilder();
+        return format(record, buffers.get()).toString();
+    }
+
+    /**
+     * Format the given record and write it to the given writer.
+     *
+     * @param record The record
+     * @param out The writer
+     */
+    public void format(LogRecord record, Writer out) throws IOException {
+        FormatBuffer buffer = buffers.get();
+        StringBuilder sb = format(record, buffer);
+        int len = sb.length();
+        if (buffer.chars.length < len) {
+            buffer.chars = new char[Math.max(len, 2 * buffer.chars.length)];
+        }
+        sb.getChars(0, len, buffer.chars, 0);
+        out.write(buffer.chars, 0, len);
+    }
+
+    /**
+     * Format the given record into the builder of the given buffer, which is
+     * returned.
+     */
+    protected StringBuilder format(LogRecord record, FormatBuffer buffer) {
+        StringBuilder sb = buffer.builder;
+        sb.setLength(0);
 
         // Timestamp
         addTimestamp(sb, record.getMillis());
@@ -79,7 +108,7 @@ public class OneLineFormatter extends Formatter {
         // Thread
         sb.append(' ');
         sb.append('[');
-        sb.append(Thread.currentThread().getName());
+        sb.append(getThreadName(buffer));
         sb.append(']');
 
         // Source
@@ -95,21 +124,24 @@ public class OneLineFormatter extends Formatter {
         // Stack trace
         if (record.getThrown() != null) {
             sb.append(ST_SEP);
-            StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter(sw);
-            record.getThrown().printStackTrace(pw);
-            pw.close();
-            sb.append(sw.getBuffer());
+            record.getThrown().printStackTrace(buffer.stackTraceWriter);
+            buffer.stackTraceWriter.flush();
         }
 
         // New line for next record
         sb.append(LINE_SEP);
 
-        return sb.toString();
+        return sb;
     }
 
     protected void addTimestamp(StringBuilder buf, long timestamp) {
-        buf.append(localDateCache.get().getFormat(timestamp));
+        FormatBuffer buffer = buffers.get();
+        long seconds = timestamp / 1000;
+        if (seconds != buffer.seconds) {
+            buffer.seconds = seconds;
+            buffer.timestamp = globalDateCache.getFormat(timestamp);
+        }
+        buf.append(buffer.timestamp);
         long frac = timestamp % 1000;
         buf.append('.');
         if (frac < 100) {
@@ -122,4 +154,46 @@ public class OneLineFormatter extends Formatter {
         }
         buf.append(frac);
     }
+
+    /**
+     * Return the name of the current thread, which is checked for each
+     * record, reusing the name kept by the buffer while it does not change.
+     */
+    private static String getThreadName(FormatBuffer buffer) {
+        String name = Thread.currentThread().getName();
+        if (!name.equals(buffer.threadName)) {
+            buffer.threadName = name;
+        }
+        return buffer.threadName;
+    }
+
+    /**
+     * Buffers of a thread, reused for each record.
+     */
+    protected static final class FormatBuffer {
+        private final StringBuilder builder = new StringBuilder(256);
+        private char[] chars = new char[256];
+        private long seconds = Long.MIN_VALUE;
+        private String timestamp = null;
+        private String threadName = Thread.currentThread().getName();
+        private final PrintWriter stackTraceWriter = new PrintWriter(
+                new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                builder.append(cbuf, off, len);
+            }
+            @Override
+            public void write(String str, int off, int len) {
+                builder.append(str, off, off + len);
+            }
+            @Override
+            public void flush() {
+                // NO-OP
+            }
+            @Override
+            public void close() {
+                // NO-OP
+            }
+        });
+    }
 }
@@ -104,6 +104,12 @@ public abstract class BaseDirContext implements DirContext {
     protected int cacheTTL = 5000; // 5s
 
 
+    /**
+     * Revalidate expired cache entries in the background.
+     */
+    protected boolean cacheAsyncRevalidation = false;
+
+
     /**
      * Max size of cache for resources.
      */
@@ -182,6 +188,22 @@ public abstract class BaseDirContext implements DirContext {
     }
 
 
+    /**
+     * Set whether expired cache entries are revalidated in the background.
+     */
+    public void setCacheAsyncRevalidation(boolean cacheAsyncRevalidation) {
+        this.cacheAsyncRevalidation = cacheAsyncRevalidation;
+    }
+
+
+    /**
+     * Are expired cache entries revalidated in the background ?
+     */
+    public boolean isCacheAsyncRevalidation() {
+        return cacheAsyncRevalidation;
+    }
+
+
     /**
      * Return the maximum size of the cache in KB.
      */
@@ -22,6 +22,11 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Hashtable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.Context;
 import javax.naming.Name;
@@ -76,6 +81,8 @@ public class ProxyDirContext implements DirContext {
                 }
                 cache.setCacheMaxSize(baseDirContext.getCacheMaxSize());
                 cacheTTL = baseDirContext.getCacheTTL();
+                cacheAsyncRevalidation =
+                    baseDirContext.isCacheAsyncRevalidation();
                 cacheObjectMaxSize = baseDirContext.getCacheObjectMaxSize();
                 // cacheObjectMaxSize must be less than cacheMaxSize
                 // Set a sensible limit
@@ -176,6 +183,12 @@ public class ProxyDirContext implements DirContext {
     protected int cacheTTL = 5000; // 5s
 
 
+    /**
+     * Revalidate expired cache entries in the background.
+     */
+    protected boolean cacheAsyncRevalidation = false;
+
+
     /**
      * Max size of resources which will have their content cached.
      */
@@ -1454,7 +1467,10 @@ public class ProxyDirContext implements DirContext {
             cacheLoad(cacheEntry);
         } else {
             if (!validate(cacheEntry)) {
-                if (!revalidate(cacheEntry)) {
+                if (cacheAsyncRevalidation && isCacheable(cacheEntry)
+                        && revalidateAsync(cacheEntry)) {
+                    // Keep serving the entry until it has been revalidated
+                } else if (!revalidate(cacheEntry)) {
                     cacheUnload(cacheEntry.name);
                     return (null);
                 } else {
@@ -1483,6 +1499,47 @@ public class ProxyDirContext implements DirContext {
     }
 
 
+    /**
+     * Return true if the entry holds everything needed to serve it, so that
+     * only its TTL may invalidate it.
+     */
+    protected boolean isCacheable(CacheEntry entry) {
+        return ((!entry.exists)
+                || (entry.context != null)
+                || ((entry.resource != null)
+                    && (entry.resource.getContent() != null)));
+    }
+
+
+    /**
+     * Schedule the revalidation of an expired entry in the background. The
+     * entry TTL is extended right away, so that a single revalidation is
+     * scheduled and the entry can be used in the meantime.
+     *
+     * @return false if the revalidation could not be scheduled
+     */
+    protected boolean revalidateAsync(final CacheEntry entry) {
+        final long timestamp = entry.timestamp;
+        entry.timestamp = System.currentTimeMillis() + cacheTTL;
+        try {
+            RevalidationExecutor.EXECUTOR.execute(new Runnable() {
+                public void run() {
+                    if (revalidate(entry)) {
+                        entry.timestamp =
+                            System.currentTimeMillis() + cacheTTL;
+                    } else {
+                        cacheUnload(entry.name);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            entry.timestamp = timestamp;
+            return false;
+        }
+    }
+
+
     /**
      * Revalidate entry.
      */
@@ -1630,5 +1687,33 @@ public class ProxyDirContext implements DirContext {
             return result;
         }
     }
-}
 
+
+    // ------------------------------------------ RevalidationExecutor Inner Class
+
+
+    /**
+     * Daemon thread revalidating the expired cache entries of all the
+     * contexts, created on first use.
+     */
+    protected static class RevalidationExecutor {
+
+        protected static final ThreadPoolExecutor EXECUTOR =
+            new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(1000),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "ResourceCacheRevalidator");
+                            t.setDaemon(true);
+                            // Avoid pinning the class loader of the web
+                            // application which first used the executor
+                            t.setContextClassLoader
+                                (ProxyDirContext.class.getClassLoader());
+                            return t;
+                        }
+                    });
+
+    }
+
+
+}
@@ -5,58 +5,117 @@
  * The ASF licenses this file to You under the Apache License, Version 2.0
  * (the "License"); you may not use this file except in compliance with
  * the License.  You may obtain a copy of the License at
- * 
+ *
  *      http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
  * See the License for the specific language governing permissions and
  * limitations under the License.
- */ 
+ */
 
 package org.apache.naming.resources;
 
-import java.util.HashMap;
-import java.util.Random;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
  * Implements a special purpose cache.
- * 
+ * <p>
+ * Lookups never block: entries are held in a concurrent map, and accesses
+ * are recorded in a bounded buffer which is replayed under the eviction lock
+ * by the next writer, or by a reader which finds the buffer full enough.
+ * Eviction follows a segmented LRU policy weighted by the size of the
+ * entries: new entries go to a probation segment, and are promoted to a
+ * protected segment when they are accessed again, so that resources which
+ * are only requested once cannot flush the hot ones out of the cache.
+ *
  * @author <a href="mailto:remm@apache.org">Remy Maucherat</a>
  * @version $Revision$
  */
 public class ResourceCache {
-    
-    
+
+
+    /**
+     * Maximum number of accesses kept until the next drain. Accesses are
+     * dropped when the buffer is full, which only makes the recency
+     * information less accurate.
+     */
+    protected static final int ACCESS_BUFFER_SIZE = 256;
+
+
+    /**
+     * Number of buffered accesses at which a reader will try to drain them.
+     */
+    protected static final int ACCESS_BUFFER_DRAIN_THRESHOLD = 64;
+
+
     // ----------------------------------------------------------- Constructors
-    
-    
+
+
     public ResourceCache() {
     }
-    
-    
-    // ----------------------------------------------------- Instance Variables
 
 
-    /**
-     * Random generator used to determine elements to free.
-     */
-    protected Random random = new Random();
+    // ----------------------------------------------------- Instance Variables
 
 
     /**
      * Cache.
      * Path -> Cache entry.
      */
-    protected CacheEntry[] cache = new CacheEntry[0];
+    protected ConcurrentHashMap<String, CacheEntry> cache =
+        new ConcurrentHashMap<String, CacheEntry>();
 
 
     /**
      * Not found cache.
      */
-    protected HashMap notFoundCache = new HashMap();
+    protected ConcurrentHashMap<String, CacheEntry> notFoundCache =
+        new ConcurrentHashMap<String, CacheEntry>();
+
+
+    /**
+     * Probation segment, in access order. Guarded by the eviction lock.
+     */
+    protected LinkedHashMap<String, CacheEntry> probation =
+        new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+
+    /**
+     * Protected segment, in access order. Guarded by the eviction lock.
+     */
+    protected LinkedHashMap<String, CacheEntry> protectedSegment =
+        new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+
+    /**
+     * Size of the protected segment in KB. Guarded by the eviction lock.
+     */
+    protected int protectedSize = 0;
+
+
+    /**
+     * Lock guarding the segments and the size of the cache.
+     */
+    protected ReentrantLock evictionLock = new ReentrantLock();
+
+
+    /**
+     * Accesses which have not yet been applied to the segments.
+     */
+    protected ConcurrentLinkedQueue<CacheEntry> accessBuffer =
+        new ConcurrentLinkedQueue<CacheEntry>();
+
+
+    protected AtomicInteger accessBufferSize = new AtomicInteger();
 
 
     /**
@@ -65,15 +124,22 @@ public class ResourceCache {
     protected int cacheMaxSize = 10240; // 10 MB
 
 
+    /**
+     * Percentage of the cache which may be used by the protected segment.
+     */
+    protected int protectedRatio = 80;
+
+
     /**
      * Max amount of removals during a make space.
+     * Not used by the segmented LRU eviction.
      */
     protected int maxAllocateIterations = 20;
 
 
     /**
      * Entry hit ratio at which an entry will never be removed from the cache.
-     * Compared with entry.access / hitsCount
+     * Not used by the segmented LRU eviction.
      */
     protected long desiredEntryAccessRatio = 3;
 
@@ -87,19 +153,31 @@ public class ResourceCache {
     /**
      * Current cache size in KB.
      */
-    protected int cacheSize = 0;
+    protected volatile int cacheSize = 0;
+
+
+    /**
+     * Current size of the cached resource contents in bytes.
+     */
+    protected AtomicLong cachedBytes = new AtomicLong();
 
 
     /**
      * Number of accesses to the cache.
      */
-    protected long accessCount = 0;
+    protected AtomicLong accessCount = new AtomicLong();
 
 
     /**
      * Number of cache hits.
      */
-    protected long hitsCount = 0;
+    protected AtomicLong hitsCount = new AtomicLong();
+
+
+    /**
+     * Number of entries evicted to make space in the cache.
+     */
+    protected AtomicLong evictionCount = new AtomicLong();
 
 
     // ------------------------------------------------------------- Properties
@@ -107,11 +185,9 @@ public class ResourceCache {
 
     /**
      * Return the access count.
-     * Note: Update is not synced, so the number may not be completely 
-     * accurate.
      */
     public long getAccessCount() {
-        return accessCount;
+        return accessCount.get();
     }
 
 
@@ -139,6 +215,14 @@ public class ResourceCache {
     }
 
 
+    /**
+     * Return the size in bytes of the resource contents held by the cache.
+     */
+    public long getCachedBytes() {
+        return cachedBytes.get();
+    }
+
+
     /**
      * Return desired entry access ratio.
      */
@@ -155,13 +239,31 @@ public class ResourceCache {
     }
 
 
+    /**
+     * Return the number of entries evicted to make space in the cache.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+
     /**
      * Return the number of cache hits.
-     * Note: Update is not synced, so the number may not be completely 
-     * accurate.
      */
     public long getHitsCount() {
-        return hitsCount;
+        return hitsCount.get();
+    }
+
+
+    /**
+     * Return the ratio of lookups which were cache hits, between 0 and 1.
+     */
+    public double getHitRatio() {
+        long accesses = accessCount.get();
+        if (accesses == 0) {
+            return 0;
+        }
+        return ((double) hitsCount.get()) / accesses;
     }
 
 
@@ -181,6 +283,24 @@ public class ResourceCache {
     }
 
 
+    /**
+     * Return the percentage of the cache which may be used by entries which
+     * have been accessed more than once.
+     */
+    public int getProtectedRatio() {
+        return protectedRatio;
+    }
+
+
+    /**
+     * Set the percentage of the cache which may be used by entries which
+     * have been accessed more than once.
+     */
+    public void setProtectedRatio(int protectedRatio) {
+        this.protectedRatio = protectedRatio;
+    }
+
+
     /**
      * Return the amount of spare not found entries.
      */
@@ -202,109 +322,67 @@ public class ResourceCache {
 
     public boolean allocate(int space) {
 
+        if (space > cacheMaxSize) {
+            return false;
+        }
+
         int toFree = space - (cacheMaxSize - cacheSize);
 
         if (toFree <= 0) {
             return true;
         }
 
-        // Increase the amount to free so that allocate won't have to run right
-        // away again
-        toFree += (cacheMaxSize / 20);
+        evictionLock.lock();
+        try {
 
-        int size = notFoundCache.size();
-        if (size > spareNotFoundEntries) {
-            notFoundCache.clear();
-            cacheSize -= size;
-            toFree -= size;
-        }
+            // Increase the amount to free so that allocate won't have to run
+            // right away again
+            toFree += (cacheMaxSize / 20);
 
-        if (toFree <= 0) {
-            return true;
-        }
-
-        int attempts = 0;
-        int entriesFound = 0;
-        long totalSpace = 0;
-        int[] toRemove = new int[maxAllocateIterations];
-        while (toFree > 0) {
-            if (attempts == maxAllocateIterations) {
-                // Give up, no changes are made to the current cache
-                return false;
+            int size = notFoundCache.size();
+            if (size > spareNotFoundEntries) {
+                notFoundCache.clear();
+                cacheSize -= size;
+                toFree -= size;
             }
-            if (toFree > 0) {
-                // Randomly select an entry in the array
-                int entryPos = -1;
-                boolean unique = false;
-                while (!unique) {
-                    unique = true;
-                    entryPos = random.nextInt(cache.length) ;
-                    // Guarantee uniqueness
-                    for (int i = 0; i < entriesFound; i++) {
-                        if (toRemove[i] == entryPos) {
-                            unique = false;
-                        }
-                    }
+
+            drainAccessBuffer();
+
+            // Evict from the probation segment first, then from the
+            // protected segment, least recently used first
+            while (toFree > 0) {
+                CacheEntry victim = eldest(probation);
+                if (victim == null) {
+                    victim = eldest(protectedSegment);
                 }
-                long entryAccessRatio = 
-                    ((cache[entryPos].accessCount * 100) / accessCount);
-                if (entryAccessRatio < desiredEntryAccessRatio) {
-                    toRemove[entriesFound] = entryPos;
-                    totalSpace += cache[entryPos].size;
-                    toFree -= cache[entryPos].size;
-                    entriesFound++;
+                if (victim == null) {
+                    break;
                 }
+                removeEntry(victim.name);
+                toFree -= victim.size;
+                evictionCount.incrementAndGet();
             }
-            attempts++;
-        }
 
-        // Now remove the selected entries
-        java.util.Arrays.sort(toRemove, 0, entriesFound);
-        CacheEntry[] newCache = new CacheEntry[cache.length - entriesFound];
-        int pos = 0;
-        int n = -1;
-        if (entriesFound > 0) {
-            n = toRemove[0];
-            for (int i = 0; i < cache.length; i++) {
-                if (i == n) {
-                    if ((pos + 1) < entriesFound) {
-                        n = toRemove[pos + 1];
-                        pos++;
-                    } else {
-                        pos++;
-                        n = -1;
-                    }
-                } else {
-                    newCache[i - pos] = cache[i];
-                }
-            }
-        }
-        cache = newCache;
-        cacheSize -= totalSpace;
+            return (cacheSize + space <= cacheMaxSize);
 
-        return true;
+        } finally {
+            evictionLock.unlock();
+        }
 
     }
 
 
     public CacheEntry lookup(String name) {
 
-        CacheEntry cacheEntry = null;
-        CacheEntry[] currentCache = cache;
-        accessCount++;
-        int pos = find(currentCache, name);
-        if ((pos != -1) && (name.equals(currentCache[pos].name))) {
-            cacheEntry = currentCache[pos];
-        }
-        if (cacheEntry == null) {
-            try {
-                cacheEntry = (CacheEntry) notFoundCache.get(name);
-            } catch (Exception e) {
-                // Ignore: the reliability of this lookup is not critical
-            }
+        accessCount.incrementAndGet();
+        CacheEntry cacheEntry = cache.get(name);
+        if (cacheEntry != null) {
+            recordAccess(cacheEntry);
+        } else {
+            cacheEntry = notFoundCache.get(name);
         }
         if (cacheEntry != null) {
-            hitsCount++;
+            hitsCount.incrementAndGet();
         }
         return cacheEntry;
 
@@ -312,111 +390,132 @@ public class ResourceCache {
 
 
     public void load(CacheEntry entry) {
-        if (entry.exists) {
-            if (insertCache(entry)) {
-                cacheSize += entry.size;
+        evictionLock.lock();
+        try {
+            if (entry.exists) {
+                if (cache.putIfAbsent(entry.name, entry) == null) {
+                    probation.put(entry.name, entry);
+                    cacheSize += entry.size;
+                    cachedBytes.addAndGet(contentLength(entry));
+                }
+            } else {
+                if (notFoundCache.put(entry.name, entry) == null) {
+                    cacheSize++;
+                }
             }
-        } else {
-            int sizeIncrement = (notFoundCache.get(entry.name) == null) ? 1 : 0;
-            notFoundCache.put(entry.name, entry);
-            cacheSize += sizeIncrement;
+        } finally {
+            evictionLock.unlock();
         }
     }
 
 
     public boolean unload(String name) {
-        CacheEntry removedEntry = removeCache(name);
-        if (removedEntry != null) {
-            cacheSize -= removedEntry.size;
-            return true;
-        } else if (notFoundCache.remove(name) != null) {
-            cacheSize--;
-            return true;
+        evictionLock.lock();
+        try {
+            if (removeEntry(name) != null) {
+                return true;
+            } else if (notFoundCache.remove(name) != null) {
+                cacheSize--;
+                return true;
+            }
+            return false;
+        } finally {
+            evictionLock.unlock();
         }
-        return false;
     }
 
 
-    /**
-     * Find a map elemnt given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final int find(CacheEntry[] map, String name) {
+    // ------------------------------------------------------ Protected Methods
 
-        int a = 0;
-        int b = map.length - 1;
 
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
-        if (name.compareTo(map[0].name) < 0) {
-            return -1;
+    /**
+     * Record an access to a cached entry, without blocking.
+     */
+    protected void recordAccess(CacheEntry entry) {
+        int buffered = accessBufferSize.get();
+        if (buffered < ACCESS_BUFFER_SIZE) {
+            accessBufferSize.incrementAndGet();
+            accessBuffer.offer(entry);
         }
-        if (b == 0) {
-            return 0;
+        if (buffered >= ACCESS_BUFFER_DRAIN_THRESHOLD
+                && evictionLock.tryLock()) {
+            try {
+                drainAccessBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
         }
+    }
 
-        int i = 0;
-        while (true) {
-            i = (b + a) / 2;
-            int result = name.compareTo(map[i].name);
-            if (result > 0) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = name.compareTo(map[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
+
+    /**
+     * Apply the buffered accesses to the segments. Must be called with the
+     * eviction lock held.
+     */
+    protected void drainAccessBuffer() {
+        CacheEntry entry = null;
+        while ((entry = accessBuffer.poll()) != null) {
+            accessBufferSize.decrementAndGet();
+            String name = entry.name;
+            if (probation.get(name) == entry) {
+                // Second access: promote to the protected segment
+                probation.remove(name);
+                protectedSegment.put(name, entry);
+                protectedSize += entry.size;
+                int maxProtectedSize =
+                    (int) (((long) cacheMaxSize) * protectedRatio / 100);
+                while (protectedSize > maxProtectedSize) {
+                    CacheEntry demoted = eldest(protectedSegment);
+                    protectedSegment.remove(demoted.name);
+                    protectedSize -= demoted.size;
+                    probation.put(demoted.name, demoted);
                 }
+            } else {
+                // Moves the entry to the most recently used position
+                protectedSegment.get(name);
             }
         }
-
     }
 
 
     /**
-     * Insert into the right place in a sorted MapElement array, and prevent
-     * duplicates.
+     * Remove an entry from the cache and the segments. Must be called with
+     * the eviction lock held.
      */
-    private final boolean insertCache(CacheEntry newElement) {
-        CacheEntry[] oldCache = cache;
-        int pos = find(oldCache, newElement.name);
-        if ((pos != -1) && (newElement.name.equals(oldCache[pos].name))) {
-            return false;
+    protected CacheEntry removeEntry(String name) {
+        CacheEntry removedEntry = cache.remove(name);
+        if (removedEntry == null) {
+            return null;
         }
-        CacheEntry[] newCache = new CacheEntry[cache.length + 1];
-        System.arraycopy(oldCache, 0, newCache, 0, pos + 1);
-        newCache[pos + 1] = newElement;
-        System.arraycopy
-            (oldCache, pos + 1, newCache, pos + 2, oldCache.length - pos - 1);
-        cache = newCache;
-        return true;
+        if (probation.remove(name) == null
+                && protectedSegment.remove(name) != null) {
+            protectedSize -= removedEntry.size;
+        }
+        cacheSize -= removedEntry.size;
+        cachedBytes.addAndGet(-contentLength(removedEntry));
+        return removedEntry;
     }
 
 
-    /**
-     * Insert into the right place in a sorted MapElement array.
-     */
-    private final CacheEntry removeCache(String name) {
-        CacheEntry[] oldCache = cache;
-        int pos = find(oldCache, name);
-        if ((pos != -1) && (name.equals(oldCache[pos].name))) {
-            CacheEntry[] newCache = new CacheEntry[cache.length - 1];
-            System.arraycopy(oldCache, 0, newCache, 0, pos);
-            System.arraycopy(oldCache, pos + 1, newCache, pos, 
-                             oldCache.length - pos - 1);
-            cache = newCache;
-            return oldCache[pos];
+    // -------------------------------------------------------- Private Methods
+
+
+    private static final CacheEntry eldest
+        (LinkedHashMap<String, CacheEntry> segment) {
+        Iterator<CacheEntry> iterator = segment.values().iterator();
+        if (iterator.hasNext()) {
+            return iterator.next();
         }
         return null;
     }
 
+
+    private static final long contentLength(CacheEntry entry) {
+        if ((entry.resource != null) && (entry.resource.getContent() != null)) {
+            return entry.resource.getContent().length;
+        }
+        return 0;
+    }
+
+
 }
@@ -19,6 +19,7 @@ package org.apache.tomcat.util.http;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Enumeration;
 
 import org.apache.tomcat.util.buf.MessageBytes;
@@ -58,9 +59,12 @@ import org.apache.tomcat.util.res.StringManager;
    Apache seems to be using a similar method for storing and manipulating
    headers.
        
+   The exception are the well known names ( host, content-length,
+   cookie, connection... ): their fields are indexed as they are added,
+   using a perfect hash of the names, so that looking them up needs no
+   scan and no allocation.
+
    Future enhancements:
-   - hash the headers the first time a header is requested ( i.e. if the
-   servlet needs direct access to headers).
    - scan "common" values ( length, cookies, etc ) during the parse
    ( addHeader hook )
    
@@ -84,7 +88,6 @@ import org.apache.tomcat.util.res.StringManager;
  *  XXX one-buffer parsing - for http ( other protocols don't need that )
  *  XXX remove unused methods
  *  XXX External enumerations, with 0 GC.
- *  XXX use HeaderName ID
  *  
  * 
  * @author dac@eng.sun.com
@@ -101,6 +104,58 @@ public class MimeHeaders {
     private static final StringManager sm =
             StringManager.getManager("org.apache.tomcat.util.http");
 
+    /**
+     * Well known header names. The fields with these names are indexed as
+     * they are added, so that they can be looked up without scanning all
+     * the fields.
+     */
+    private static final String[] KNOWN_NAMES = {
+        "accept", "accept-encoding", "accept-language", "authorization",
+        "cache-control", "connection", "content-encoding", "content-length",
+        "content-type", "cookie", "date", "expect", "host",
+        "if-match", "if-modified-since", "if-none-match",
+        "if-unmodified-since", "keep-alive", "location", "origin", "pragma",
+        "range", "referer", "server", "set-cookie", "transfer-encoding",
+        "upgrade", "user-agent", "vary", "x-forwarded-for"
+    };
+
+    /**
+     * Number of bits of the perfect hash of the well known names.
+     */
+    private static final int KNOWN_HASH_BITS = 7;
+
+    /**
+     * Multiplier of the perfect hash, chosen when the class is loaded so that
+     * no two well known names have the same hash.
+     */
+    private static final int KNOWN_HASH_SEED;
+
+    /**
+     * Index in KNOWN_NAMES + 1 for each hash value, 0 if there is none.
+     */
+    private static final byte[] KNOWN_SLOTS = new byte[1 << KNOWN_HASH_BITS];
+
+    static {
+        int seed = 0x9E3779B1;
+        boolean found = false;
+        while (!found) {
+            Arrays.fill(KNOWN_SLOTS, (byte) 0);
+            found = true;
+            for (int i = 0; i < KNOWN_NAMES.length; i++) {
+                String name = KNOWN_NAMES[i];
+                int slot = knownHash(name.length(), name.charAt(0),
+                        name.charAt(name.length() - 1), seed);
+                if (KNOWN_SLOTS[slot] != 0) {
+                    found = false;
+                    seed += 2;
+                    break;
+                }
+                KNOWN_SLOTS[slot] = (byte) (i + 1);
+            }
+        }
+        KNOWN_HASH_SEED = seed;
+    }
+
     /**
      * The header fields.
      */
@@ -117,10 +172,28 @@ public class MimeHeaders {
      */
     private int limit = -1;
 
+    /**
+     * Position of the first field with each well known name, -1 if there is
+     * none.
+     */
+    private int[] knownFirst = new int[KNOWN_NAMES.length];
+
+    /**
+     * Number of fields with each well known name.
+     */
+    private int[] knownCount = new int[KNOWN_NAMES.length];
+
+    /**
+     * False when fields have been removed, so that the positions must be
+     * computed again before use.
+     */
+    private boolean knownValid = true;
+
     /**
      * Creates a new MimeHeaders object using a default buffer size.
      */
     public MimeHeaders() {
+        Arrays.fill(knownFirst, -1);
     }
 
     /**
@@ -152,6 +225,9 @@ public class MimeHeaders {
             headers[i].recycle();
         }
         count = 0;
+        Arrays.fill(knownFirst, -1);
+        Arrays.fill(knownCount, 0);
+        knownValid = true;
     }
 
     /**
@@ -202,13 +278,19 @@ public class MimeHeaders {
     /** Find the index of a header with the given name.
      */
     public int findHeader( String name, int starting ) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead 
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
-
-        // A custom search tree may be better
+        int id = knownId(name);
+        if (id >= 0) {
+            int first = findKnown(id);
+            if (first < 0 || first >= starting) {
+                return first;
+            }
+            for (int i = starting; i < count; i++) {
+                if (headers[i].id == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
         for (int i = starting; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 return i;
@@ -239,7 +321,7 @@ public class MimeHeaders {
      * Adds a partially constructed field to the header.  This
      * field has not had its name or value initialized.
      */
-    private MimeHeaderField createHeader() {
+    private MimeHeaderField createHeader(int id) {
         if (limit > -1 && count >= limit) {
             throw new IllegalStateException(sm.getString(
                     "headers.maxCountFail", Integer.valueOf(limit)));
@@ -259,6 +341,12 @@ public class MimeHeaders {
         if ((mh = headers[count]) == null) {
             headers[count] = mh = new MimeHeaderField();
         }
+        mh.id = id;
+        if (id >= 0) {
+            if (knownCount[id]++ == 0) {
+                knownFirst[id] = count;
+            }
+        }
         count++;
         return mh;
     }
@@ -267,7 +355,7 @@ public class MimeHeaders {
         container for the new value
     */
     public MessageBytes addValue( String name ) {
-         MimeHeaderField mh = createHeader();
+        MimeHeaderField mh = createHeader(knownId(name));
         mh.getName().setString(name);
         return mh.getValue();
     }
@@ -278,7 +366,7 @@ public class MimeHeaders {
      */
     public MessageBytes addValue(byte b[], int startN, int len)
     {
-        MimeHeaderField mhf=createHeader();
+        MimeHeaderField mhf=createHeader(knownId(b, startN, len));
         mhf.getName().setBytes(b, startN, len);
         return mhf.getValue();
     }
@@ -287,7 +375,7 @@ public class MimeHeaders {
      */
     public MessageBytes addValue(char c[], int startN, int len)
     {
-        MimeHeaderField mhf=createHeader();
+        MimeHeaderField mhf=createHeader(knownId(c, startN, len));
         mhf.getName().setChars(c, startN, len);
         return mhf.getValue();
     }
@@ -298,6 +386,24 @@ public class MimeHeaders {
         if this .
     */
     public MessageBytes setValue( String name ) {
+        int id = knownId(name);
+        if (id >= 0) {
+            int first = findKnown(id);
+            if (first >= 0) {
+                if (knownCount[id] > 1) {
+                    for (int j = first + 1; j < count; j++) {
+                        if (headers[j].id == id) {
+                            removeHeader(j--);
+                        }
+                    }
+                }
+                // Removals may move fields, but not the ones before them
+                return headers[first].getValue();
+            }
+            MimeHeaderField mh = createHeader(id);
+            mh.getName().setString(name);
+            return mh.getValue();
+        }
         for ( int i = 0; i < count; i++ ) {
             if(headers[i].getName().equalsIgnoreCase(name)) {
                 for ( int j=i+1; j < count; j++ ) {
@@ -308,7 +414,7 @@ public class MimeHeaders {
                 return headers[i].getValue();
             }
         }
-        MimeHeaderField mh = createHeader();
+        MimeHeaderField mh = createHeader(-1);
         mh.getName().setString(name);
         return mh.getValue();
     }
@@ -320,6 +426,11 @@ public class MimeHeaders {
      * in the header, an arbitrary one is returned.
      */
     public MessageBytes getValue(String name) {
+        int id = knownId(name);
+        if (id >= 0) {
+            int first = findKnown(id);
+            return (first >= 0) ? headers[first].getValue() : null;
+        }
         for (int i = 0; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 return headers[i].getValue();
@@ -334,6 +445,17 @@ public class MimeHeaders {
      * unique then an {@link IllegalArgumentException} is thrown. 
      */
     public MessageBytes getUniqueValue(String name) {
+        int id = knownId(name);
+        if (id >= 0) {
+            int first = findKnown(id);
+            if (first < 0) {
+                return null;
+            }
+            if (knownCount[id] > 1) {
+                throw new IllegalArgumentException();
+            }
+            return headers[first].getValue();
+        }
         MessageBytes result = null;
         for (int i = 0; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
@@ -364,6 +486,10 @@ public class MimeHeaders {
         // XXX
         // warning: rather sticky code; heavily tuned
 
+        int id = knownId(name);
+        if (id >= 0 && findKnown(id) < 0) {
+            return;
+        }
         for (int i = 0; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 removeHeader(i--);
@@ -382,6 +508,101 @@ public class MimeHeaders {
         headers[idx] = headers[count - 1];
         headers[count - 1] = mh;
         count--;
+        knownValid = false;
+    }
+
+    // -------------------- Well known names --------------------
+
+    /**
+     * Return the position of the first field with the given well known
+     * name, or -1 if there is none.
+     */
+    private int findKnown(int id) {
+        if (!knownValid) {
+            Arrays.fill(knownFirst, -1);
+            Arrays.fill(knownCount, 0);
+            for (int i = 0; i < count; i++) {
+                int fieldId = headers[i].id;
+                if (fieldId >= 0) {
+                    if (knownCount[fieldId]++ == 0) {
+                        knownFirst[fieldId] = i;
+                    }
+                }
+            }
+            knownValid = true;
+        }
+        return knownFirst[id];
+    }
+
+    /**
+     * Perfect hash of the well known names, computed from their length and
+     * their first and last chars, ignoring case.
+     */
+    private static int knownHash(int length, int first, int last, int seed) {
+        int key = (length << 16) | ((first | 0x20) << 8) | (last | 0x20);
+        return (key * seed) >>> (32 - KNOWN_HASH_BITS);
+    }
+
+    private static int toLower(int c) {
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Return the index of the given name in the well known names, or -1.
+     */
+    static int knownId(String name) {
+        int length = name.length();
+        if (length == 0) {
+            return -1;
+        }
+        int id = KNOWN_SLOTS[knownHash(length, name.charAt(0) & 0xff,
+                name.charAt(length - 1) & 0xff, KNOWN_HASH_SEED)] - 1;
+        if (id < 0 || !KNOWN_NAMES[id].equalsIgnoreCase(name)) {
+            return -1;
+        }
+        return id;
+    }
+
+    static int knownId(byte[] b, int start, int length) {
+        if (length <= 0) {
+            return -1;
+        }
+        int id = KNOWN_SLOTS[knownHash(length, b[start] & 0xff,
+                b[start + length - 1] & 0xff, KNOWN_HASH_SEED)] - 1;
+        if (id < 0) {
+            return -1;
+        }
+        String known = KNOWN_NAMES[id];
+        if (known.length() != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLower(b[start + i] & 0xff) != known.charAt(i)) {
+                return -1;
+            }
+        }
+        return id;
+    }
+
+    static int knownId(char[] c, int start, int length) {
+        if (length <= 0) {
+            return -1;
+        }
+        int id = KNOWN_SLOTS[knownHash(length, c[start] & 0xff,
+                c[start + length - 1] & 0xff, KNOWN_HASH_SEED)] - 1;
+        if (id < 0) {
+            return -1;
+        }
+        String known = KNOWN_NAMES[id];
+        if (known.length() != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLower(c[start + i]) != known.charAt(i)) {
+                return -1;
+            }
+        }
+        return id;
     }
 
 }
@@ -489,6 +710,11 @@ class MimeHeaderField {
     protected final MessageBytes nameB = MessageBytes.newInstance();
     protected final MessageBytes valueB = MessageBytes.newInstance();
 
+    /**
+     * Index of the name in the well known names, or -1.
+     */
+    int id = -1;
+
     /**
      * Creates a new, uninitialized header field.
      */
@@ -499,6 +725,7 @@ class MimeHeaderField {
         nameB.recycle();
         valueB.recycle();
         next=null;
+        id = -1;
     }
 
     public MessageBytes getName() {
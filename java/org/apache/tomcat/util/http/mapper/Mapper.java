@@ -57,6 +57,13 @@ public final class Mapper {
     protected Context context = new Context();
 
 
+    /**
+     * Use radix tries instead of binary searches over sorted arrays to map
+     * contexts and wrappers.
+     */
+    protected boolean trieMapping = false;
+
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -79,6 +86,43 @@ public final class Mapper {
         this.defaultHostName = defaultHostName;
     }
 
+
+    /**
+     * Are contexts and wrappers mapped using radix tries?
+     */
+    public boolean getTrieMapping() {
+        return trieMapping;
+    }
+
+
+    /**
+     * Set whether contexts and wrappers are mapped using radix tries, which
+     * match exact and prefix mappings in a single pass over the URI instead
+     * of repeated binary searches. This is useful with large numbers of
+     * contexts per host or of wrappers per context. The mapping results are
+     * the same either way.
+     *
+     * @param trieMapping <code>true</code> to use tries
+     */
+    public synchronized void setTrieMapping(boolean trieMapping) {
+        this.trieMapping = trieMapping;
+        Host[] hosts = this.hosts;
+        for (int i = 0; i < hosts.length; i++) {
+            synchronized (hosts[i]) {
+                updateTrie(hosts[i].contextList);
+                Context[] contexts = hosts[i].contextList.contexts;
+                for (int j = 0; j < contexts.length; j++) {
+                    synchronized (contexts[j]) {
+                        updateTrie(contexts[j]);
+                    }
+                }
+            }
+        }
+        synchronized (context) {
+            updateTrie(context);
+        }
+    }
+
     /**
      * Add a new host to the mapper.
      *
@@ -240,6 +284,7 @@ public final class Mapper {
                 newContext.resources = resources;
                 if (insertMap(contexts, newContexts, newContext)) {
                     host.contextList.contexts = newContexts;
+                    updateTrie(host.contextList);
                 }
             }
         }
@@ -277,6 +322,7 @@ public final class Mapper {
                             host.contextList.nesting = slashCount;
                         }
                     }
+                    updateTrie(host.contextList);
                 }
             }
         }
@@ -412,6 +458,7 @@ public final class Mapper {
                     context.exactWrappers = newWrappers;
                 }
             }
+            updateTrie(context);
         }
     }
 
@@ -495,9 +542,57 @@ public final class Mapper {
                     context.exactWrappers = newWrappers;
                 }
             }
+            updateTrie(context);
+        }
+    }
+
+    /**
+     * Rebuild the context trie of the given context list, which must be
+     * locked by the caller.
+     */
+    private void updateTrie(ContextList contextList) {
+        if (!trieMapping) {
+            contextList.contextTrie = null;
+            return;
+        }
+        MappingTrie contextTrie = new MappingTrie();
+        Context[] contexts = contextList.contexts;
+        for (int i = 0; i < contexts.length; i++) {
+            contextTrie.put(contexts[i].name, true, contexts[i]);
+        }
+        contextList.contextTrie = contextTrie;
+    }
+
+
+    /**
+     * Rebuild the wrapper tries of the given context, which must be locked
+     * by the caller.
+     */
+    private void updateTrie(Context context) {
+        if (!trieMapping) {
+            context.wrapperTrie = null;
+            context.extensionTrie = null;
+            return;
+        }
+        MappingTrie wrapperTrie = new MappingTrie();
+        Wrapper[] wrappers = context.exactWrappers;
+        for (int i = 0; i < wrappers.length; i++) {
+            wrapperTrie.put(wrappers[i].name, false, wrappers[i]);
+        }
+        wrappers = context.wildcardWrappers;
+        for (int i = 0; i < wrappers.length; i++) {
+            wrapperTrie.put(wrappers[i].name, true, wrappers[i]);
         }
+        MappingTrie extensionTrie = new MappingTrie();
+        wrappers = context.extensionWrappers;
+        for (int i = 0; i < wrappers.length; i++) {
+            extensionTrie.put(wrappers[i].name, false, wrappers[i]);
+        }
+        context.wrapperTrie = wrapperTrie;
+        context.extensionTrie = extensionTrie;
     }
 
+
     public String getWrappersString( String host, String context ) {
         String names[]=getWrapperNames(host, context);
         StringBuffer sb=new StringBuffer();
@@ -591,6 +686,7 @@ public final class Mapper {
         uri.setLimit(-1);
 
         Context[] contexts = null;
+        MappingTrie contextTrie = null;
         Context context = null;
         int nesting = 0;
 
@@ -601,6 +697,7 @@ public final class Mapper {
             if ((pos != -1) && (host.equalsIgnoreCase(hosts[pos].name))) {
                 mappingData.host = hosts[pos].object;
                 contexts = hosts[pos].contextList.contexts;
+                contextTrie = hosts[pos].contextList.contextTrie;
                 nesting = hosts[pos].contextList.nesting;
             } else {
                 if (defaultHostName == null) {
@@ -610,6 +707,7 @@ public final class Mapper {
                 if ((pos != -1) && (defaultHostName.equals(hosts[pos].name))) {
                     mappingData.host = hosts[pos].object;
                     contexts = hosts[pos].contextList.contexts;
+                    contextTrie = hosts[pos].contextList.contextTrie;
                     nesting = hosts[pos].contextList.nesting;
                 } else {
                     return;
@@ -618,7 +716,19 @@ public final class Mapper {
         }
 
         // Context mapping
-        if (mappingData.context == null) {
+        if (mappingData.context == null && contextTrie != null) {
+            context = (Context) contextTrie.findPrefix
+                (uri.getBuffer(), uri.getStart(), uri.getEnd());
+            if (context == null) {
+                if (contexts.length > 0 && contexts[0].name.equals("")) {
+                    context = contexts[0];
+                } else {
+                    return;
+                }
+            }
+            mappingData.context = context.object;
+            mappingData.contextPath.setString(context.name);
+        } else if (mappingData.context == null) {
             int pos = find(contexts, uri);
             if (pos == -1) {
                 return;
@@ -696,15 +806,23 @@ public final class Mapper {
         path.setOffset(servletPath);
 
         // Rule 1 -- Exact Match
+        MappingTrie wrapperTrie = context.wrapperTrie;
         Wrapper[] exactWrappers = context.exactWrappers;
-        internalMapExactWrapper(exactWrappers, path, mappingData);
+        if (wrapperTrie != null) {
+            // Rules 1 and 2 are done in a single walk of the trie
+            internalMapTrieWrapper(wrapperTrie, path, mappingData);
+        } else {
+            internalMapExactWrapper(exactWrappers, path, mappingData);
+        }
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
         Wrapper[] wildcardWrappers = context.wildcardWrappers;
-        if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, context.nesting, 
-                                       path, mappingData);
+        if (mappingData.wrapper == null || wrapperTrie != null) {
+            if (wrapperTrie == null) {
+                internalMapWildcardWrapper(wildcardWrappers, context.nesting, 
+                                           path, mappingData);
+            }
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
                 if (buf[pathEnd - 1] == '/') {
@@ -737,8 +855,10 @@ public final class Mapper {
 
         // Rule 3 -- Extension Match
         Wrapper[] extensionWrappers = context.extensionWrappers;
+        MappingTrie extensionTrie = context.extensionTrie;
         if (mappingData.wrapper == null && !checkJspWelcomeFiles) {
-            internalMapExtensionWrapper(extensionWrappers, path, mappingData);
+            internalMapExtensionWrapper(extensionWrappers, extensionTrie,
+                                        path, mappingData);
         }
 
         // Rule 4 -- Welcome resources processing for servlets
@@ -758,10 +878,17 @@ public final class Mapper {
                     path.setOffset(servletPath);
 
                     // Rule 4a -- Welcome resources processing for exact macth
-                    internalMapExactWrapper(exactWrappers, path, mappingData);
+                    if (wrapperTrie != null) {
+                        // Rule 4b is done in the same walk of the trie
+                        internalMapTrieWrapper
+                            (wrapperTrie, path, mappingData);
+                    } else {
+                        internalMapExactWrapper
+                            (exactWrappers, path, mappingData);
+                    }
 
                     // Rule 4b -- Welcome resources processing for prefix match
-                    if (mappingData.wrapper == null) {
+                    if (mappingData.wrapper == null && wrapperTrie == null) {
                         internalMapWildcardWrapper
                             (wildcardWrappers, context.nesting, 
                              path, mappingData);
@@ -780,6 +907,7 @@ public final class Mapper {
                         }
                         if (file != null && !(file instanceof DirContext) ) {
                             internalMapExtensionWrapper(extensionWrappers,
+                                                        extensionTrie,
                                                         path, mappingData);
                             if (mappingData.wrapper == null
                                 && context.defaultWrapper != null) {
@@ -911,11 +1039,62 @@ public final class Mapper {
     }
 
 
+    /**
+     * Exact and wildcard mapping, using a single walk of the wrapper trie.
+     * An exact match takes precedence over the longest wildcard match.
+     */
+    private final void internalMapTrieWrapper
+        (MappingTrie trie, CharChunk path, MappingData mappingData) {
+
+        char[] buf = path.getBuffer();
+        int start = path.getStart();
+        int end = path.getEnd();
+
+        MappingTrie.Node node = trie.root;
+        int pos = start;
+        Wrapper wildcard = null;
+        int length = -1;
+        while (true) {
+            if (node.prefix != null && (pos == end || buf[pos] == '/')) {
+                wildcard = (Wrapper) node.prefix;
+                length = pos - start;
+            }
+            if (pos == end) {
+                if (node.exact != null) {
+                    Wrapper exact = (Wrapper) node.exact;
+                    mappingData.requestPath.setString(exact.name);
+                    mappingData.wrapperPath.setString(exact.name);
+                    mappingData.wrapper = exact.object;
+                    return;
+                }
+                break;
+            }
+            node = MappingTrie.next(node, buf, pos, end);
+            if (node == null) {
+                break;
+            }
+            pos += node.label.length;
+        }
+
+        if (wildcard != null) {
+            mappingData.wrapperPath.setString(wildcard.name);
+            if (path.getLength() > length) {
+                mappingData.pathInfo.setChars
+                    (buf, start + length, path.getLength() - length);
+            }
+            mappingData.requestPath.setChars(buf, start, path.getLength());
+            mappingData.wrapper = wildcard.object;
+            mappingData.jspWildCard = wildcard.jspWildCard;
+        }
+    }
+
+
     /**
      * Extension mappings.
      */
     private final void internalMapExtensionWrapper
-        (Wrapper[] wrappers, CharChunk path, MappingData mappingData) {
+        (Wrapper[] wrappers, MappingTrie trie, CharChunk path,
+         MappingData mappingData) {
         char[] buf = path.getBuffer();
         int pathEnd = path.getEnd();
         int servletPath = path.getOffset();
@@ -934,7 +1113,17 @@ public final class Mapper {
                     break;
                 }
             }
-            if (period >= 0) {
+            if (period >= 0 && trie != null) {
+                Wrapper wrapper =
+                    (Wrapper) trie.findExact(buf, period + 1, pathEnd);
+                if (wrapper != null) {
+                    mappingData.wrapperPath.setChars
+                        (buf, servletPath, pathEnd - servletPath);
+                    mappingData.requestPath.setChars
+                        (buf, servletPath, pathEnd - servletPath);
+                    mappingData.wrapper = wrapper.object;
+                }
+            } else if (period >= 0) {
                 path.setOffset(period + 1);
                 path.setEnd(pathEnd);
                 int pos = find(wrappers, path);
@@ -1291,6 +1480,7 @@ public final class Mapper {
 
         public Context[] contexts = new Context[0];
         public int nesting = 0;
+        MappingTrie contextTrie = null;
 
     }
 
@@ -1309,6 +1499,8 @@ public final class Mapper {
         public Wrapper[] wildcardWrappers = new Wrapper[0];
         public Wrapper[] extensionWrappers = new Wrapper[0];
         public int nesting = 0;
+        MappingTrie wrapperTrie = null;
+        MappingTrie extensionTrie = null;
 
     }
 
@@ -0,0 +1,230 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.http.mapper;
+
+/**
+ * Radix (path compressed) trie over mapping names, used by the
+ * {@link Mapper} instead of binary searches over sorted arrays when
+ * trie mapping is enabled.
+ * <p>
+ * Each node may hold an exact and a prefix element, so that exact and
+ * prefix (wildcard) matching can be done in a single walk over the URI.
+ * A trie is never modified once it has been published: the mapper builds
+ * a new one whenever the mapped names change and replaces the reference,
+ * the same way it replaces its sorted arrays.
+ */
+final class MappingTrie {
+
+
+    private static final char[] NO_CHARS = new char[0];
+
+    private static final Node[] NO_NODES = new Node[0];
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Root node, which corresponds to the empty name.
+     */
+    final Node root = new Node();
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Add an element to the trie.
+     *
+     * @param name Name of the element
+     * @param prefix <code>true</code> to register the element for prefix
+     *               matching, <code>false</code> for exact matching
+     * @param element The element
+     */
+    void put(String name, boolean prefix, Mapper.MapElement element) {
+        Node node = root;
+        int i = 0;
+        int length = name.length();
+        while (i < length) {
+            int idx = indexOf(node.firsts, name.charAt(i));
+            if (idx < 0) {
+                Node leaf = new Node();
+                leaf.label = name.substring(i).toCharArray();
+                insertChild(node, -(idx + 1), leaf);
+                node = leaf;
+                break;
+            }
+            Node child = node.children[idx];
+            char[] label = child.label;
+            int j = 1;
+            while (j < label.length && i + j < length
+                   && label[j] == name.charAt(i + j)) {
+                j++;
+            }
+            if (j < label.length) {
+                // Split the edge: the common part becomes a new node
+                Node split = new Node();
+                split.label = new char[j];
+                System.arraycopy(label, 0, split.label, 0, j);
+                child.label = new char[label.length - j];
+                System.arraycopy(label, j, child.label, 0, label.length - j);
+                split.firsts = new char[] { child.label[0] };
+                split.children = new Node[] { child };
+                node.children[idx] = split;
+                child = split;
+            }
+            node = child;
+            i += j;
+        }
+        if (prefix) {
+            node.prefix = element;
+        } else {
+            node.exact = element;
+        }
+    }
+
+
+    /**
+     * Find the element registered for exact matching of the given chars.
+     */
+    Mapper.MapElement findExact(char[] buf, int start, int end) {
+        Node node = root;
+        int pos = start;
+        while (pos < end) {
+            node = next(node, buf, pos, end);
+            if (node == null) {
+                return null;
+            }
+            pos += node.label.length;
+        }
+        return node.exact;
+    }
+
+
+    /**
+     * Find the longest element registered for prefix matching whose name is
+     * followed, in the given chars, either by their end or by a '/'.
+     */
+    Mapper.MapElement findPrefix(char[] buf, int start, int end) {
+        Node node = root;
+        int pos = start;
+        Mapper.MapElement result = null;
+        while (true) {
+            if (node.prefix != null && (pos == end || buf[pos] == '/')) {
+                result = node.prefix;
+            }
+            if (pos == end) {
+                return result;
+            }
+            node = next(node, buf, pos, end);
+            if (node == null) {
+                return result;
+            }
+            pos += node.label.length;
+        }
+    }
+
+
+    /**
+     * Return the child of the given node whose label matches the given chars
+     * starting at <code>pos</code>, or <code>null</code> if there is none.
+     */
+    static Node next(Node node, char[] buf, int pos, int end) {
+        int idx = indexOf(node.firsts, buf[pos]);
+        if (idx < 0) {
+            return null;
+        }
+        Node child = node.children[idx];
+        char[] label = child.label;
+        if (end - pos < label.length) {
+            return null;
+        }
+        for (int i = 1; i < label.length; i++) {
+            if (buf[pos + i] != label[i]) {
+                return null;
+            }
+        }
+        return child;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    /**
+     * Binary search of a char in a sorted array. Returns the index of the
+     * char, or <code>(-(insertion point) - 1)</code> if it is not present.
+     */
+    private static final int indexOf(char[] firsts, char c) {
+        int a = 0;
+        int b = firsts.length - 1;
+        while (a <= b) {
+            int i = (a + b) >>> 1;
+            char f = firsts[i];
+            if (f < c) {
+                a = i + 1;
+            } else if (f > c) {
+                b = i - 1;
+            } else {
+                return i;
+            }
+        }
+        return -(a + 1);
+    }
+
+
+    private static final void insertChild(Node node, int pos, Node child) {
+        int length = node.children.length;
+        char[] newFirsts = new char[length + 1];
+        Node[] newChildren = new Node[length + 1];
+        System.arraycopy(node.firsts, 0, newFirsts, 0, pos);
+        System.arraycopy(node.children, 0, newChildren, 0, pos);
+        newFirsts[pos] = child.label[0];
+        newChildren[pos] = child;
+        System.arraycopy(node.firsts, pos, newFirsts, pos + 1, length - pos);
+        System.arraycopy(node.children, pos, newChildren, pos + 1,
+                         length - pos);
+        node.firsts = newFirsts;
+        node.children = newChildren;
+    }
+
+
+    // ------------------------------------------------------- Node Inner Class
+
+
+    static final class Node {
+
+        /**
+         * Label of the edge leading to this node.
+         */
+        char[] label = NO_CHARS;
+
+        /**
+         * First char of the label of each child, sorted.
+         */
+        char[] firsts = NO_CHARS;
+
+        Node[] children = NO_NODES;
+
+        Mapper.MapElement exact = null;
+        Mapper.MapElement prefix = null;
+
+    }
+
+
+}
@@ -33,6 +33,7 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
 import java.security.KeyStore;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Set;
@@ -518,12 +519,23 @@ public class NioEndpoint extends AbstractEndpoint {
     protected Poller[] pollers = null;
     protected AtomicInteger pollerRotater = new AtomicInteger(0);
     /**
-     * Return an available poller in true round robin fashion
+     * Return the poller with the fewest connections, starting from the
+     * next one in round robin fashion so that ties are spread evenly
      * @return
      */
     public Poller getPoller0() {
         int idx = Math.abs(pollerRotater.incrementAndGet()) % pollers.length;
-        return pollers[idx];
+        Poller result = pollers[idx];
+        int load = result.getKeyCount();
+        for (int i = 1; i < pollers.length && load > 0; i++) {
+            Poller poller = pollers[(idx + i) % pollers.length];
+            int pollerLoad = poller.getKeyCount();
+            if (pollerLoad < load) {
+                result = poller;
+                load = pollerLoad;
+            }
+        }
+        return result;
     }
 
     /**
@@ -1374,8 +1386,10 @@ public class NioEndpoint extends AbstractEndpoint {
         public void run() {
             if ( interestOps == OP_REGISTER ) {
                 try {
-                    socket.getIOChannel().register(socket.getPoller().getSelector(), SelectionKey.OP_READ, key);
+                    SelectionKey sk = socket.getIOChannel().register(socket.getPoller().getSelector(), SelectionKey.OP_READ, key);
+                    socket.getPoller().scheduleTimeout(sk, key, System.currentTimeMillis());
                 } catch (Exception x) {
+                    socket.getPoller().keyCount.decrementAndGet();
                     log.error("", x);
                 }
             } else {
@@ -1388,11 +1402,14 @@ public class NioEndpoint extends AbstractEndpoint {
                             //handle callback flag
                             if (att.getComet() && (interestOps & OP_CALLBACK) == OP_CALLBACK ) {
                                 att.setCometNotify(true);
+                                socket.getPoller().cometCallbacks.add(key);
                             } else {
                                 att.setCometNotify(false);
                             }
                             interestOps = (interestOps & (~OP_CALLBACK));//remove the callback flag
                             att.access();//to prevent timeout
+                            //the timeout may have been shortened
+                            socket.getPoller().scheduleTimeout(key, att, att.getLastAccess());
                             //we are registering the key to start with, reset the fairness counter.
                             int ops = key.interestOps() | interestOps;
                             att.interestOps(ops);
@@ -1433,14 +1450,41 @@ public class NioEndpoint extends AbstractEndpoint {
         
         protected CountDownLatch stopLatch = new CountDownLatch(1);
 
+        /**
+         * Keys bucketed by the time their timeout should be checked.
+         */
+        protected TimeoutWheel timeoutWheel = null;
+        protected ArrayList<SelectionKey> expiredKeys = new ArrayList<SelectionKey>();
+
+        /**
+         * Keys with a pending comet callback.
+         */
+        protected ArrayList<SelectionKey> cometCallbacks = new ArrayList<SelectionKey>();
+
+        /**
+         * Sockets handed to this poller whose key has not been cancelled yet.
+         * The selector key set is not thread safe, so this is what the
+         * acceptor reads to pick a poller.
+         */
+        protected AtomicInteger keyCount = new AtomicInteger(0);
 
 
         public Poller() throws IOException {
             this.selector = Selector.open();
+            this.timeoutWheel = new TimeoutWheel(socketProperties.getTimeoutWheelSize(),
+                    socketProperties.getTimeoutInterval(), System.currentTimeMillis());
         }
         
         public Selector getSelector() { return selector;}
 
+        /**
+         * Return the number of connections handled by this poller, used to
+         * spread new connections across the pollers.
+         */
+        public int getKeyCount() {
+            return close ? Integer.MAX_VALUE : keyCount.get();
+        }
+
         /**
          * Destroy the poller.
          */
@@ -1518,6 +1562,7 @@ public class NioEndpoint extends AbstractEndpoint {
         
         public void register(final NioChannel socket)
         {
+            keyCount.incrementAndGet();
             socket.setPoller(this);
             KeyAttachment key = keyCache.poll();
             final KeyAttachment ka = key!=null?key:new KeyAttachment();
@@ -1544,7 +1589,8 @@ public class NioEndpoint extends AbstractEndpoint {
                     }                    
                 }
                 
-                key.attach(null);
+                // Only the call that detaches the attachment counts the key
+                if (key.attach(null) != null) keyCount.decrementAndGet();
                 if (ka!=null) handler.release(ka.getChannel());
                 if (key.isValid()) key.cancel();
                 if (key.channel().isOpen()) try {key.channel().close();}catch (Exception ignore){}
@@ -1813,59 +1859,98 @@ public class NioEndpoint extends AbstractEndpoint {
             //attachment.setCometOps(intops);
         }
 
+        /**
+         * Schedule the next timeout check of a key, at the time its
+         * connection expires if it is not accessed again.
+         */
+        protected void scheduleTimeout(SelectionKey key, KeyAttachment ka, long now) {
+            long timeout = (ka.getTimeout()==-1)?((long) socketProperties.getSoTimeout()):(ka.getTimeout());
+            long expiry = Math.max(ka.getLastAccess(), now) + timeout;
+            if (timeout > 0 && expiry < 0) expiry = Long.MAX_VALUE;
+            timeoutWheel.schedule(key, ka, expiry);
+        }
+
         protected void timeout(int keyCount, boolean hasEvents) {
             long now = System.currentTimeMillis();
-            //don't process timeouts too frequently, but if the selector simply timed out
-            //then we can check timeouts to avoid gaps
-            if ( ((keyCount>0 || hasEvents) ||(now < nextExpiration)) && (!close) ) {
+            if (close) {
+                //stop all the connections
+                Set<SelectionKey> keys = selector.keys();
+                for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext(); ) {
+                    timeout(iter.next(), now);
+                }
+                timeoutWheel.clear();
+                cometCallbacks.clear();
                 return;
             }
-            long prevExp = nextExpiration; //for logging purposes only
-            nextExpiration = now + socketProperties.getTimeoutInterval();
-            //timeout
-            Set<SelectionKey> keys = selector.keys();
-            int keycount = 0;
-            for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext(); ) {
-                SelectionKey key = iter.next();
-                keycount++;
-                try {
+            if (cometCallbacks.size() > 0) {
+                for (int i = 0; i < cometCallbacks.size(); i++) {
+                    SelectionKey key = cometCallbacks.get(i);
                     KeyAttachment ka = (KeyAttachment) key.attachment();
-                    if ( ka == null ) {
-                        cancelledKey(key, SocketStatus.ERROR,false); //we don't support any keys without attachments
-                    } else if ( ka.getError() ) {
-                        cancelledKey(key, SocketStatus.ERROR,true);//TODO this is not yet being used
-                    } else if (ka.getComet() && ka.getCometNotify() ) {
-                        ka.setCometNotify(false);
-                        reg(key,ka,0);//avoid multiple calls, this gets reregistered after invokation
-                        //if (!processSocket(ka.getChannel(), SocketStatus.OPEN_CALLBACK)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT);
-                        if (!processSocket(ka.getChannel(), SocketStatus.OPEN)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT);
-                    }else if ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
-                    		  (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
-                        //only timeout sockets that we are waiting for a read from - or write (send file)
-                        long delta = now - ka.getLastAccess();
-                        long timeout = (ka.getTimeout()==-1)?((long) socketProperties.getSoTimeout()):(ka.getTimeout());
-                        boolean isTimedout = delta > timeout;
-                        if ( close ) {
-                            key.interestOps(0); 
-                            ka.interestOps(0); //avoid duplicate stop calls
-                            processKey(key,ka);
-                        } else if (isTimedout) {
-                            key.interestOps(0); 
-                            ka.interestOps(0); //avoid duplicate timeout calls
-                            cancelledKey(key, SocketStatus.TIMEOUT,true);
-                        } else {
-                            long nextTime = now+(timeout-delta);
-                            nextExpiration = (nextTime < nextExpiration)?nextTime:nextExpiration;
-                        }
-                    }//end if
-                }catch ( CancelledKeyException ckx ) {
-                    cancelledKey(key, SocketStatus.ERROR,false);
+                    if (key.isValid() && ka != null && ka.getComet() && ka.getCometNotify()) {
+                        timeout(key, now);
+                    }
                 }
-            }//for
-            if ( log.isDebugEnabled() ) log.debug("timeout completed: keys processed="+keycount+"; now="+now+"; nextExpiration="+prevExp+"; "+
-                                                  "keyCount="+keyCount+"; hasEvents="+hasEvents +"; eval="+( (now < prevExp) && (keyCount>0 || hasEvents) && (!close) ));
+                cometCallbacks.clear();
+            }
+            //only look at the keys which may have expired, whether the selector
+            //timed out or not
+            if (now < nextExpiration) {
+                return;
+            }
+            timeoutWheel.expire(now, expiredKeys);
+            nextExpiration = timeoutWheel.getNextTickTime();
+            int expired = expiredKeys.size();
+            for (int i = 0; i < expired; i++) {
+                timeout(expiredKeys.get(i), now);
+            }
+            expiredKeys.clear();
+            if ( log.isDebugEnabled() ) log.debug("timeout completed: keys processed="+expired+"; now="+now+"; nextExpiration="+nextExpiration+"; "+
+                                                  "keyCount="+keyCount+"; hasEvents="+hasEvents+"; wheelSize="+timeoutWheel.getSize());
 
         }
+
+        /**
+         * Check the timeout of a key, and schedule its next check if it has
+         * not expired.
+         */
+        protected void timeout(SelectionKey key, long now) {
+            try {
+                KeyAttachment ka = (KeyAttachment) key.attachment();
+                if ( ka == null ) {
+                    cancelledKey(key, SocketStatus.ERROR,false); //we don't support any keys without attachments
+                } else if ( ka.getError() ) {
+                    cancelledKey(key, SocketStatus.ERROR,true);//TODO this is not yet being used
+                } else if (ka.getComet() && ka.getCometNotify() ) {
+                    ka.setCometNotify(false);
+                    reg(key,ka,0);//avoid multiple calls, this gets reregistered after invokation
+                    //if (!processSocket(ka.getChannel(), SocketStatus.OPEN_CALLBACK)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT);
+                    if (!processSocket(ka.getChannel(), SocketStatus.OPEN)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT);
+                    if (!close) scheduleTimeout(key, ka, now);
+                }else if ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
+                		  (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
+                    //only timeout sockets that we are waiting for a read from - or write (send file)
+                    long delta = now - ka.getLastAccess();
+                    long timeout = (ka.getTimeout()==-1)?((long) socketProperties.getSoTimeout()):(ka.getTimeout());
+                    boolean isTimedout = delta > timeout;
+                    if ( close ) {
+                        key.interestOps(0); 
+                        ka.interestOps(0); //avoid duplicate stop calls
+                        processKey(key,ka);
+                    } else if (isTimedout) {
+                        key.interestOps(0); 
+                        ka.interestOps(0); //avoid duplicate timeout calls
+                        cancelledKey(key, SocketStatus.TIMEOUT,true);
+                    } else {
+                        scheduleTimeout(key, ka, now);
+                    }
+                } else if (!close) {
+                    //the socket is being processed, check again later
+                    scheduleTimeout(key, ka, now);
+                }//end if
+            }catch ( CancelledKeyException ckx ) {
+                cancelledKey(key, SocketStatus.ERROR,false);
+            }
+        }
     }
 
 // ----------------------------------------------------- Key Attachment Class   
@@ -1891,6 +1976,7 @@ public class NioEndpoint extends AbstractEndpoint {
             cometNotify = false;
             cometOps = SelectionKey.OP_READ;
             sendfileData = null;
+            timeoutTick = TimeoutWheel.NOT_SCHEDULED;
         }
         
         public void reset() {
@@ -1912,6 +1998,8 @@ public class NioEndpoint extends AbstractEndpoint {
         public void setCurrentAccess(boolean access) { currentAccess = access; }
         public void setTimeout(long timeout) {this.timeout = timeout;}
         public long getTimeout() {return this.timeout;}
+        public long getTimeoutTick() { return timeoutTick; }
+        public void setTimeoutTick(long timeoutTick) { this.timeoutTick = timeoutTick; }
         public boolean getError() { return error; }
         public void setError(boolean error) { this.error = error; }
         public NioChannel getChannel() { return channel;}
@@ -1964,6 +2052,7 @@ public class NioEndpoint extends AbstractEndpoint {
         protected CountDownLatch writeLatch = null;
         protected long lastRegistered = 0;
         protected SendfileData sendfileData = null;
+        protected long timeoutTick = TimeoutWheel.NOT_SCHEDULED;
     }
     // ----------------------------------------------------- Worker Inner Class
 
@@ -162,6 +162,15 @@ public class SocketProperties {
      * poller going boinkers during high traffic
      */
     protected long timeoutInterval = 1000;
+
+    /**
+     * The number of buckets of the timing wheel each poller uses to track
+     * connection timeouts, each bucket covering timeoutInterval
+     * milliseconds. Timeouts longer than the wheel span are supported, the
+     * connections are simply looked at once per rotation.
+     * Default value is 512
+     */
+    protected int timeoutWheelSize = 512;
     
     /**
      * Timeout in milliseconds for an unlock to take place.
@@ -276,6 +285,10 @@ public class SocketProperties {
         return timeoutInterval;
     }
 
+    public int getTimeoutWheelSize() {
+        return timeoutWheelSize;
+    }
+
     public int getDirectBufferPool() {
         return bufferPool;
     }
@@ -368,6 +381,10 @@ public class SocketProperties {
         this.timeoutInterval = timeoutInterval;
     }
 
+    public void setTimeoutWheelSize(int timeoutWheelSize) {
+        this.timeoutWheelSize = timeoutWheelSize;
+    }
+
     public void setDirectBufferPool(int directBufferPool) {
         this.bufferPool = directBufferPool;
     }
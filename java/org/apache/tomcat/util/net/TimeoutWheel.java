@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tomcat.util.net.NioEndpoint.KeyAttachment;
+
+/**
+ * Hashed timing wheel holding the keys of a NIO poller, bucketed by the time
+ * at which their connection should be checked for a timeout, so that the
+ * poller only looks at the keys which may have expired instead of all its
+ * keys.
+ * <p>
+ * Accessing a connection does not move its key: when the key comes due, the
+ * poller checks the last access time and schedules it again if the
+ * connection has been used in the meantime. The tick the key is scheduled
+ * for is stored in its attachment, entries which do not match it any more
+ * are dropped when their bucket is processed, as are the entries of
+ * cancelled keys.
+ * <p>
+ * This class is not thread safe, it is only used by the poller thread.
+ */
+public class TimeoutWheel {
+
+
+    /**
+     * Tick value of an attachment which is not scheduled.
+     */
+    public static final long NOT_SCHEDULED = -1;
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * @param ticksPerWheel Number of buckets, rounded up to a power of two
+     * @param tickDuration Duration of a tick in milliseconds
+     * @param now Current time
+     */
+    @SuppressWarnings("unchecked")
+    public TimeoutWheel(int ticksPerWheel, long tickDuration, long now) {
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new ArrayList[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayList<SelectionKey>();
+        }
+        this.mask = size - 1;
+        this.tickDuration = (tickDuration > 0) ? tickDuration : 1;
+        this.tick = now / this.tickDuration;
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    protected ArrayList<SelectionKey>[] wheel;
+
+
+    protected int mask;
+
+
+    protected long tickDuration;
+
+
+    /**
+     * Last processed tick.
+     */
+    protected long tick;
+
+
+    /**
+     * Number of entries in the wheel, including the stale ones.
+     */
+    protected int size = 0;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+
+    public int getSize() {
+        return size;
+    }
+
+
+    /**
+     * Return the time at which the next tick should be processed.
+     */
+    public long getNextTickTime() {
+        return (tick + 1) * tickDuration;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Schedule a timeout check of the key, unless it is already scheduled
+     * for an earlier time.
+     *
+     * @param key The key
+     * @param ka The attachment of the key
+     * @param expiry Time after which the connection expires
+     */
+    public void schedule(SelectionKey key, KeyAttachment ka, long expiry) {
+        // The key is checked once the time has reached the expiry
+        long t = expiry / tickDuration;
+        if (expiry % tickDuration != 0) {
+            t++;
+        }
+        if (t <= tick) {
+            t = tick + 1;
+        }
+        long current = ka.getTimeoutTick();
+        if ((current != NOT_SCHEDULED) && (current <= t)) {
+            return;
+        }
+        ka.setTimeoutTick(t);
+        wheel[(int) (t & mask)].add(key);
+        size++;
+    }
+
+
+    /**
+     * Process the ticks up to the given time, and add the keys which have
+     * come due to the given list. The attachments of these keys are not
+     * scheduled any more. Valid keys without an attachment are also
+     * returned, cancelled keys are dropped.
+     *
+     * @param now Current time
+     * @param expired List the keys which have come due are added to
+     */
+    public void expire(long now, List<SelectionKey> expired) {
+        long target = now / tickDuration;
+        if (target - tick > wheel.length) {
+            // Process each bucket once
+            tick = target - wheel.length;
+        }
+        while (tick < target) {
+            tick++;
+            int slot = (int) (tick & mask);
+            ArrayList<SelectionKey> bucket = wheel[slot];
+            int count = bucket.size();
+            if (count == 0) {
+                continue;
+            }
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                SelectionKey key = bucket.get(i);
+                if (!key.isValid()) {
+                    continue;
+                }
+                Object attachment = key.attachment();
+                if (!(attachment instanceof KeyAttachment)) {
+                    expired.add(key);
+                    continue;
+                }
+                KeyAttachment ka = (KeyAttachment) attachment;
+                long t = ka.getTimeoutTick();
+                if ((t == NOT_SCHEDULED) || ((t & mask) != slot)) {
+                    // Stale entry, the key was scheduled again
+                    continue;
+                }
+                if (t <= tick) {
+                    ka.setTimeoutTick(NOT_SCHEDULED);
+                    expired.add(key);
+                } else {
+                    // Due in a later round
+                    bucket.set(kept++, key);
+                }
+            }
+            bucket.subList(kept, count).clear();
+            size -= count - kept;
+        }
+    }
+
+
+    /**
+     * Remove all the entries.
+     */
+    public void clear() {
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i].clear();
+        }
+        size = 0;
+    }
+
+
+}
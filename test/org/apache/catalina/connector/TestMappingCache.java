@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.connector;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.MBeanServerNotification;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.mapper.Mapper;
+import org.apache.tomcat.util.http.mapper.MappingData;
+
+public class TestMappingCache extends TestCase {
+
+    private Mapper mapper;
+    private MappingCache cache;
+
+
+    protected void setUp() throws Exception {
+        mapper = new Mapper();
+        mapper.addHost("localhost", new String[0], "host");
+        mapper.setDefaultHostName("localhost");
+        mapper.addContext("localhost", "/app", "context", new String[0],
+                null);
+        mapper.addWrapper("localhost", "/app", "/servlet/*", "wrapper");
+        cache = new MappingCache();
+        cache.setMaxSize(10);
+    }
+
+
+    public void testHitAndMiss() throws Exception {
+        MappingData mappingData = new MappingData();
+        assertFalse(cache.map("localhost", "/app/servlet/a", mappingData));
+        map("/app/servlet/a", mappingData, cache.getGeneration());
+        assertEquals(1, cache.getSize());
+
+        mappingData = new MappingData();
+        assertTrue(cache.map("localhost", "/app/servlet/a", mappingData));
+        assertEquals("host", mappingData.host);
+        assertEquals("context", mappingData.context);
+        assertEquals("wrapper", mappingData.wrapper);
+        assertEquals("/app", mappingData.contextPath.toString());
+        assertEquals("/servlet", mappingData.wrapperPath.toString());
+        assertEquals("/a", mappingData.pathInfo.toString());
+
+        // Other URIs and hosts are not mixed up with the cached one
+        assertFalse(cache.map("localhost", "/app/servlet/b",
+                new MappingData()));
+        assertFalse(cache.map("otherhost", "/app/servlet/a",
+                new MappingData()));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+
+    public void testDirectoriesNotCached() throws Exception {
+        map("/app/servlet/", new MappingData(), cache.getGeneration());
+        assertEquals(0, cache.getSize());
+    }
+
+
+    public void testSizeBound() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            map("/app/servlet/" + i, new MappingData(), cache.getGeneration());
+            assertTrue(cache.getSize() <= 10);
+        }
+        // The 11th and 22nd mappings found the cache full and cleared it
+        assertEquals(3, cache.getSize());
+        assertTrue(cache.map("localhost", "/app/servlet/24",
+                new MappingData()));
+    }
+
+
+    public void testStaleGenerationNotInserted() throws Exception {
+        int generation = cache.getGeneration();
+        cache.clear();
+        map("/app/servlet/a", new MappingData(), generation);
+        assertEquals(0, cache.getSize());
+        assertFalse(cache.map("localhost", "/app/servlet/a",
+                new MappingData()));
+    }
+
+
+    public void testClearRacingPut() throws Exception {
+        // The cache is cleared while the mapping is being added
+        cache.hosts.put("localhost", new ConcurrentHashMap<String,
+                MappingCache.Entry>() {
+            private static final long serialVersionUID = 1L;
+            public MappingCache.Entry put(String key,
+                    MappingCache.Entry value) {
+                cache.clear();
+                return super.put(key, value);
+            }
+        });
+        map("/app/servlet/a", new MappingData(), cache.getGeneration());
+        assertEquals(0, cache.getSize());
+        assertFalse(cache.map("localhost", "/app/servlet/a",
+                new MappingData()));
+    }
+
+
+    public void testClearedOnRegistration() throws Exception {
+        Connector connector = new Connector();
+        connector.setMappingCacheSize(10);
+        cache = connector.getMappingCache();
+        MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+        MapperListener listener = new MapperListener(mapper, connector);
+        listener.setDomain("Catalina");
+        listener.mBeanServer = mBeanServer;
+
+        // Context registration
+        map("/app/servlet/a", new MappingData(), cache.getGeneration());
+        assertEquals(1, cache.getSize());
+        ObjectName contextName = new ObjectName("Catalina:j2eeType=WebModule,"
+                + "name=//localhost/other,J2EEApplication=none,"
+                + "J2EEServer=none");
+        mBeanServer.registerMBean(new MockContainer(), contextName);
+        listener.handleNotification(new MBeanServerNotification(
+                MBeanServerNotification.REGISTRATION_NOTIFICATION, this, 1,
+                contextName), null);
+        assertEquals(0, cache.getSize());
+        assertFalse(cache.map("localhost", "/app/servlet/a",
+                new MappingData()));
+
+        // Wrapper registration
+        map("/app/servlet/a", new MappingData(), cache.getGeneration());
+        assertEquals(1, cache.getSize());
+        ObjectName wrapperName = new ObjectName("Catalina:j2eeType=Servlet,"
+                + "name=other,WebModule=//localhost/app,"
+                + "J2EEApplication=none,J2EEServer=none");
+        mBeanServer.registerMBean(new MockContainer(), wrapperName);
+        listener.handleNotification(new MBeanServerNotification(
+                MBeanServerNotification.REGISTRATION_NOTIFICATION, this, 2,
+                wrapperName), null);
+        assertEquals(0, cache.getSize());
+
+        // The new wrapper is used by the next mapping
+        MappingData mappingData = new MappingData();
+        map("/app/other/a", mappingData, cache.getGeneration());
+        assertTrue(mappingData.wrapper instanceof MockContainer);
+    }
+
+
+    /**
+     * Map the URI on localhost, the way CoyoteAdapter does on a cache miss.
+     */
+    private void map(String uri, MappingData mappingData, int generation)
+            throws Exception {
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString("localhost");
+        MessageBytes decodedURI = MessageBytes.newInstance();
+        decodedURI.setString(uri);
+        mapper.map(host, decodedURI, mappingData);
+        cache.put("localhost", uri, mappingData, generation);
+    }
+
+
+    /**
+     * Exposes what MapperListener reads from the context and wrapper MBeans.
+     */
+    public static class MockContainer implements DynamicMBean {
+        public Object getAttribute(String attribute)
+                throws AttributeNotFoundException {
+            if ("welcomeFiles".equals(attribute)) {
+                return new String[0];
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+        public Object invoke(String actionName, Object[] params,
+                String[] signature) {
+            if ("findMappings".equals(actionName)) {
+                return new String[] {"/other/*"};
+            } else if ("findMappingObject".equals(actionName)) {
+                return this;
+            }
+            return null;
+        }
+        public AttributeList getAttributes(String[] attributes) {
+            return new AttributeList();
+        }
+        public void setAttribute(Attribute attribute) {
+            // Read only
+        }
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+        public MBeanInfo getMBeanInfo() {
+            return new MBeanInfo(getClass().getName(), null, null, null,
+                    null, null);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.catalina.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.apache.catalina.Executor;
+
+/**
+ * Named Benchmarks so it is not automatically executed as part of the unit
+ * tests. Runs tasks blocking on a simulated backend, as a JDBC or LDAP call
+ * would, on the standard thread pool and on the virtual thread executor, and
+ * compares the peak number of threads and the task latency. The virtual
+ * thread executor falls back to platform threads on JVMs without virtual
+ * threads.
+ */
+public class Benchmarks extends TestCase {
+
+    private static final int TASKS = 10000;
+
+    private static final int BACKEND_LATENCY = 20;
+
+
+    /*
+     * Results are printed as
+     * <executor> <tasks> tasks in <time> ms, average latency <latency> ms,
+     * peak threads <threads>
+     */
+    public void testBlockingBackend() throws Exception {
+        String mode = (VirtualThreadExecutor.createVirtualThreadFactory("test")
+                != null) ? "virtual" : "platform";
+        // The first rounds include the warm up
+        for (int i = 0; i < 3; i++) {
+            StandardThreadExecutor standard = new StandardThreadExecutor();
+            standard.setMaxThreads(200);
+            doTestBlockingBackend("standard", standard);
+
+            VirtualThreadExecutor virtual = new VirtualThreadExecutor();
+            virtual.setMaxThreads(5000);
+            doTestBlockingBackend("virtual (" + mode + ")", virtual);
+        }
+    }
+
+
+    public void testConcurrencyCap() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor();
+        executor.setMaxThreads(4);
+        executor.start();
+        final AtomicLong running = new AtomicLong();
+        final AtomicLong maxRunning = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    long current = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        if (current > maxRunning.get()) {
+                            maxRunning.set(current);
+                        }
+                    }
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        assertTrue(maxRunning.get() <= 4);
+        assertEquals(0, executor.getQueueSize());
+        // The last tasks may not have returned yet
+        for (int i = 0; i < 100 && executor.getActiveCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(100, executor.getCompletedTaskCount());
+        executor.stop();
+    }
+
+
+    private void doTestBlockingBackend(String name, Executor executor)
+        throws Exception {
+
+        executor.start();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        final AtomicLong totalLatency = new AtomicLong();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < TASKS; i++) {
+            final long submitted = System.nanoTime();
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(BACKEND_LATENCY);
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    totalLatency.addAndGet(System.nanoTime() - submitted);
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long end = System.currentTimeMillis();
+        int peakThreads = threads.getPeakThreadCount();
+        executor.stop();
+
+        StringBuffer result = new StringBuffer();
+        result.append(name);
+        result.append(' ');
+        result.append(TASKS);
+        result.append(" tasks in ");
+        result.append(end - start);
+        result.append(" ms, average latency ");
+        result.append(totalLatency.get() / TASKS / 1000000);
+        result.append(" ms, peak threads ");
+        result.append(peakThreads);
+        System.out.println(result.toString());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.ha.session;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestDeltaManager extends TestCase {
+
+    private static final int SESSION_COUNT = 10;
+
+    private LinkedManager donor;
+    private LinkedManager receiver;
+
+
+    protected void setUp() throws Exception {
+        donor = new LinkedManager(4001);
+        receiver = new LinkedManager(4002);
+        donor.peer = receiver;
+        receiver.peer = donor;
+        receiver.setStreamingStateTransfer(true);
+        donor.setSendAllSessionsSize(3);
+        for (int i = 0; i < SESSION_COUNT; i++) {
+            Session session = donor.createSession("S" + i, false);
+            ((DeltaSession) session).setAttribute("n", new Integer(i), false,
+                    false);
+        }
+    }
+
+
+    public void testStreamedState() throws Exception {
+        requestState();
+        assertTrue(receiver.getStateTransfered());
+        assertEquals(SESSION_COUNT, receiver.findSessions().length);
+        for (int i = 0; i < SESSION_COUNT; i++) {
+            DeltaSession session = (DeltaSession) receiver.findSession("S" + i);
+            assertEquals(new Integer(i), session.getAttribute("n"));
+            assertFalse(session.isPrimarySession());
+        }
+        // 10 sessions in blocks of 3
+        assertEquals(4, donor.getCounterSend_EVT_ALL_SESSION_DATA());
+    }
+
+
+    public void testSessionFetchedOnDemand() throws Exception {
+        donor.holdState = true;
+        requestState();
+        assertFalse(receiver.isStateReady());
+        assertEquals(0, receiver.findSessions().length);
+
+        // A change to a session that has not been received yet is kept
+        DeltaRequest delta = new DeltaRequest("S5", false);
+        delta.setAttribute("n", "changed");
+        receiver.messageDataReceived(new SessionMessageImpl(receiver.getName(),
+                SessionMessage.EVT_SESSION_DELTA, delta.serialize(), "S5",
+                "S5-delta"));
+        assertEquals(0, receiver.findSessions().length);
+
+        for (int i = 0; i < SESSION_COUNT / 2; i++) {
+            DeltaSession session = (DeltaSession) receiver.findSession(
+                    "S" + (i * 2 + 1));
+            assertNotNull(session);
+        }
+        assertEquals("changed",
+                ((DeltaSession) receiver.findSession("S5")).getAttribute("n"));
+        assertEquals(new Integer(3),
+                ((DeltaSession) receiver.findSession("S3")).getAttribute("n"));
+        assertEquals(SESSION_COUNT / 2, receiver.findSessions().length);
+        assertTrue(receiver.isStateReady());
+        assertFalse(receiver.getStateTransfered());
+
+        // A session that has expired at the sender
+        donor.findSession("S0").expire();
+        assertNull(receiver.findSession("S0"));
+    }
+
+
+    public void testFetchedSessionNotReplaced() throws Exception {
+        donor.holdState = true;
+        requestState();
+        DeltaSession fetched = (DeltaSession) receiver.findSession("S5");
+        assertNotNull(fetched);
+        fetched.setAttribute("n", "changed");
+
+        // The block holding S5 arrives after it has been fetched and changed
+        donor.releaseState();
+        assertTrue(receiver.getStateTransfered());
+        assertEquals(SESSION_COUNT, receiver.findSessions().length);
+        assertSame(fetched, receiver.findSession("S5"));
+        assertEquals("changed", fetched.getAttribute("n"));
+        assertEquals(new Integer(4),
+                ((DeltaSession) receiver.findSession("S4")).getAttribute("n"));
+    }
+
+
+    public void testFetchTimeout() throws Exception {
+        donor.holdState = true;
+        receiver.setStateTransferTimeout(1);
+        receiver.dropFetches = true;
+        requestState();
+        long start = System.currentTimeMillis();
+        assertNull(receiver.findSession("S5"));
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+
+        // Not waited for again
+        start = System.currentTimeMillis();
+        assertNull(receiver.findSession("S5"));
+        assertTrue(System.currentTimeMillis() - start < 500);
+
+        // But still added when it arrives
+        donor.releaseState();
+        assertEquals(new Integer(5),
+                ((DeltaSession) receiver.findSession("S5")).getAttribute("n"));
+    }
+
+
+    public void testSourceDisappeared() throws Exception {
+        donor.holdState = true;
+        receiver.setStateTransferTimeout(1);
+        receiver.dropFetches = true;
+        requestState();
+
+        // Another member leaving changes nothing
+        receiver.memberDisappeared(new MemberImpl("localhost", 4003, 0));
+        long start = System.currentTimeMillis();
+        assertNull(receiver.findSession("S5"));
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+
+        // The missing sessions are not waited for once the sender has left
+        receiver.memberDisappeared(donor.member);
+        start = System.currentTimeMillis();
+        assertNull(receiver.findSession("S6"));
+        assertTrue(System.currentTimeMillis() - start < 500);
+    }
+
+
+    private void requestState() {
+        SessionMessage msg = new SessionMessageImpl(donor.getName(),
+                SessionMessage.EVT_GET_ALL_SESSIONS, null,
+                DeltaManager.GET_ALL_STREAMING, "GET-ALL");
+        donor.messageDataReceived(msg);
+    }
+
+
+    /**
+     * A manager that delivers the messages sent to one member directly to
+     * another manager.
+     */
+    private static class LinkedManager extends DeltaManager {
+
+        LinkedManager peer;
+        Member member;
+        boolean holdState = false;
+        boolean dropFetches = false;
+        ArrayList held = new ArrayList();
+
+        LinkedManager(int port) throws Exception {
+            setContainer(new StandardContext());
+            member = new MemberImpl("localhost", port, 0);
+        }
+
+        protected void send(SessionMessage msg, Member dest) {
+            msg.setAddress(member);
+            if (holdState &&
+                    (msg.getEventType() == SessionMessage.EVT_ALL_SESSION_TRANSFERCOMPLETE ||
+                     "SESSION-STATE".equals(msg.getSessionID()))) {
+                held.add(msg);
+                return;
+            }
+            if (dropFetches &&
+                    msg.getEventType() == SessionMessage.EVT_GET_SESSION) {
+                return;
+            }
+            peer.messageDataReceived(msg);
+        }
+
+        void releaseState() {
+            holdState = false;
+            for (int i = 0; i < held.size(); i++) {
+                peer.messageDataReceived((SessionMessage) held.get(i));
+            }
+            held.clear();
+        }
+    }
+}
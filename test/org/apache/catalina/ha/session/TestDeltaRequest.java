@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.ha.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.apache.catalina.core.StandardContext;
+
+public class TestDeltaRequest extends TestCase {
+
+    private static final String ID = "0123456789ABCDEF0123456789ABCDEF";
+
+
+    public void testCompactRoundTrip() throws Exception {
+        DeltaRequest sender = new DeltaRequest(ID, false);
+        sender.setCompact(true);
+        sender.setAttribute("string", "caf\u00e9");
+        sender.setAttribute("int", new Integer(-42));
+        sender.setAttribute("long", new Long(Long.MAX_VALUE));
+        sender.setAttribute("bool", Boolean.TRUE);
+        sender.setAttribute("bytes", new byte[] {1, 2, 3});
+        sender.setAttribute("date", new Date(1000L));
+        sender.removeAttribute("removed");
+        sender.setMaxInactiveInterval(600);
+        sender.setNew(false);
+        sender.setAuthType("BASIC");
+
+        DeltaSession session = createSession();
+        session.setAttribute("removed", "x", false, false);
+        read(new DeltaRequest(), sender.serialize()).execute(session, false);
+
+        assertEquals("caf\u00e9", session.getAttribute("string"));
+        assertEquals(new Integer(-42), session.getAttribute("int"));
+        assertEquals(new Long(Long.MAX_VALUE), session.getAttribute("long"));
+        assertEquals(Boolean.TRUE, session.getAttribute("bool"));
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3},
+                (byte[]) session.getAttribute("bytes")));
+        assertEquals(new Date(1000L), session.getAttribute("date"));
+        assertNull(session.getAttribute("removed"));
+        assertEquals(600, session.getMaxInactiveInterval());
+        assertEquals("BASIC", session.getAuthType());
+    }
+
+
+    public void testCompactIsSmaller() throws Exception {
+        DeltaRequest standard = new DeltaRequest(ID, false);
+        DeltaRequest compact = new DeltaRequest(ID, false);
+        compact.setCompact(true);
+        DeltaRequest receiver = new DeltaRequest();
+        for (int i = 0; i < 3; i++) {
+            standard.setAttribute("shoppingCartItemCount", new Integer(i));
+            standard.setAttribute("lastVisitedPage", "/catalog/item/" + i);
+            compact.setAttribute("shoppingCartItemCount", new Integer(i));
+            compact.setAttribute("lastVisitedPage", "/catalog/item/" + i);
+            byte[] standardData = standard.serialize();
+            byte[] compactData = compact.serialize();
+            standard.reset();
+            compact.reset();
+            assertTrue(compactData.length * 3 < standardData.length * 2);
+            read(receiver, compactData);
+            assertEquals(2, receiver.getSize());
+        }
+    }
+
+
+    public void testStandardFormatIsRead() throws Exception {
+        DeltaRequest sender = new DeltaRequest(ID, false);
+        sender.setAttribute("name", "value");
+        DeltaRequest receiver = new DeltaRequest();
+        receiver.setCompact(true);
+        read(receiver, sender.serialize());
+        assertEquals(ID, receiver.getSessionId());
+        DeltaSession session = createSession();
+        receiver.execute(session, false);
+        assertEquals("value", session.getAttribute("name"));
+    }
+
+
+    public void testMessagesAreSelfContained() throws Exception {
+        DeltaRequest sender = new DeltaRequest(ID, false);
+        sender.setCompact(true);
+        byte[][] data = new byte[3][];
+        for (int i = 0; i < data.length; i++) {
+            sender.setAttribute("a", String.valueOf(i));
+            sender.setAttribute("b" + i, "x");
+            data[i] = sender.serialize();
+            sender.reset();
+        }
+
+        // A node which missed messages, joined late or receives them out of
+        // order reads each of them
+        DeltaRequest receiver = new DeltaRequest();
+        for (int i = data.length - 1; i >= 0; i--) {
+            DeltaSession session = createSession();
+            read(receiver, data[i]).execute(session, false);
+            assertEquals(String.valueOf(i), session.getAttribute("a"));
+            assertEquals("x", session.getAttribute("b" + i));
+        }
+    }
+
+
+    public void testAttributeSerializer() throws Exception {
+        AttributeSerializer[] serializers =
+            ClusterManagerBase.createAttributeSerializers(
+                    DateSerializer.class.getName());
+        DeltaRequest sender = new DeltaRequest(ID, false);
+        sender.setCompact(true);
+        sender.setSerializers(serializers);
+        sender.setAttribute("date", new Date(1234L));
+        byte[] data = sender.serialize();
+
+        DeltaRequest receiver = new DeltaRequest();
+        receiver.setSerializers(serializers);
+        DeltaSession session = createSession();
+        read(receiver, data).execute(session, false);
+        assertEquals(new Date(1234L), session.getAttribute("date"));
+
+        try {
+            read(new DeltaRequest(), data);
+            fail("The receiver has no serializer");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+
+    public static class DateSerializer implements AttributeSerializer {
+
+        public boolean accept(Object value) {
+            return value.getClass() == Date.class;
+        }
+
+        public void writeValue(Object value, ObjectOutput out)
+                throws IOException {
+            out.writeLong(((Date) value).getTime());
+        }
+
+        public Object readValue(ObjectInput in) throws IOException {
+            return new Date(in.readLong());
+        }
+    }
+
+
+    private DeltaRequest read(DeltaRequest request, byte[] data)
+            throws Exception {
+        ObjectInputStream in =
+            new ObjectInputStream(new ByteArrayInputStream(data));
+        request.readExternal(in);
+        in.close();
+        return request;
+    }
+
+
+    private DeltaSession createSession() {
+        DeltaManager manager = new DeltaManager();
+        manager.setContainer(new StandardContext());
+        DeltaSession session = new DeltaSession(manager);
+        session.setValid(true);
+        session.setId(ID);
+        return session;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.naming.resources.FileDirContext;
+
+public class TestWebappClassLoader extends TestCase {
+
+    private File dir;
+    private WebappClassLoader loader;
+
+
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"),
+                "TestWebappClassLoader" + System.currentTimeMillis());
+        File lib = new File(dir, "WEB-INF/lib");
+        lib.mkdirs();
+        new File(dir, "work").mkdirs();
+        writeJar(new File(lib, "a.jar"), new String[] {
+                "p1/res.txt", "a", "shared/res.txt", "a",
+                "p1/Loaded.class", null });
+        writeJar(new File(lib, "b.jar"), new String[] {
+                "p2/res.txt", "b", "shared/res.txt", "b", "p3/", "" });
+        loader = createLoader();
+        loader.start();
+    }
+
+
+    protected void tearDown() throws Exception {
+        loader.stop();
+        delete(dir);
+    }
+
+
+    public void testResources() throws Exception {
+        assertEquals("a", read(loader.getResource("p1/res.txt")));
+        assertEquals("b", read(loader.getResource("p2/res.txt")));
+        // The first JAR wins
+        assertEquals("a", read(loader.getResource("shared/res.txt")));
+        Enumeration<URL> urls = loader.findResources("shared/res.txt");
+        assertEquals("a", read(urls.nextElement()));
+        assertEquals("b", read(urls.nextElement()));
+        assertFalse(urls.hasMoreElements());
+        assertNotNull(loader.findResource("p3/"));
+        assertNotNull(loader.findResource("p3"));
+        assertNull(loader.getResource("p2/missing.txt"));
+        assertNull(loader.getResource("missing/res.txt"));
+        assertTrue(loader.notFoundResources.containsKey("p2/missing.txt"));
+
+        // The JARs are opened again after having been closed
+        loader.closeJARs(true);
+        assertEquals("b", read(loader.getResource("p2/res.txt")));
+    }
+
+
+    public void testParallelLoading() throws Exception {
+        final Class<?>[] classes = new Class<?>[8];
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[classes.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        classes[index] = loader.loadClass("p1.Loaded");
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertNull(failure[0]);
+        assertSame(loader, classes[0].getClassLoader());
+        for (int i = 1; i < classes.length; i++) {
+            assertSame(classes[0], classes[i]);
+        }
+        try {
+            loader.loadClass("p1.Missing");
+            fail();
+        } catch (ClassNotFoundException e) {
+            // Expected
+        }
+    }
+
+
+    public void testStartupCache() throws Exception {
+        loader.stop();
+        loader = createLoader();
+        loader.setStartupCache(true);
+        loader.start();
+        loader.loadClass("p1.Loaded");
+        loader.getResource("p2/res.txt");
+        loader.getResource("p2/missing.txt");
+        loader.saveStartupCache();
+        // Not recorded anymore
+        loader.getResource("shared/res.txt");
+        loader.stop();
+
+        loader = createLoader();
+        loader.setStartupCache(true);
+        loader.start();
+        loader.loadStartupCache();
+        assertEquals(2, loader.resourceEntries.size());
+        assertNotNull(loader.resourceEntries.get("p1.Loaded"));
+        assertNotNull(loader.resourceEntries.get("p2/res.txt"));
+        assertSame(loader, loader.loadClass("p1.Loaded").getClassLoader());
+        loader.stop();
+
+        // The cache is ignored once a JAR has changed
+        File jar = new File(dir, "WEB-INF/lib/b.jar");
+        jar.setLastModified(jar.lastModified() - 10000);
+        loader = createLoader();
+        loader.setStartupCache(true);
+        loader.start();
+        loader.loadStartupCache();
+        assertEquals(0, loader.resourceEntries.size());
+    }
+
+
+    private WebappClassLoader createLoader() throws Exception {
+        FileDirContext resources = new FileDirContext();
+        resources.setDocBase(dir.getAbsolutePath());
+        WebappClassLoader loader =
+            new WebappClassLoader(getClass().getClassLoader());
+        loader.setResources(resources);
+        loader.setJarPath("/WEB-INF/lib");
+        loader.setWorkDir(new File(dir, "work"));
+        addJar(loader, new File(dir, "WEB-INF/lib/a.jar"));
+        addJar(loader, new File(dir, "WEB-INF/lib/b.jar"));
+        return loader;
+    }
+
+
+    private void addJar(WebappClassLoader loader, File file)
+            throws Exception {
+        loader.addJar("/WEB-INF/lib/" + file.getName(), new JarFile(file),
+                file);
+    }
+
+
+    private String read(URL url) throws Exception {
+        InputStream is = url.openStream();
+        try {
+            return new String(new byte[] { (byte) is.read() }, "UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+
+    /**
+     * Write a JAR with the given entries. A null content is replaced by an
+     * empty class named after the entry.
+     */
+    private void writeJar(File file, String[] entries) throws Exception {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        for (int i = 0; i < entries.length; i += 2) {
+            out.putNextEntry(new JarEntry(entries[i]));
+            if (entries[i + 1] == null) {
+                String name = entries[i].substring(0,
+                        entries[i].length() - ".class".length());
+                out.write(createClass(name));
+            } else {
+                out.write(entries[i + 1].getBytes("UTF-8"));
+            }
+            out.closeEntry();
+        }
+        out.close();
+    }
+
+
+    private byte[] createClass(String name) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        // Constant pool
+        out.writeShort(5);
+        out.writeByte(1);
+        out.writeUTF(name);
+        out.writeByte(7);
+        out.writeShort(1);
+        out.writeByte(1);
+        out.writeUTF("java/lang/Object");
+        out.writeByte(7);
+        out.writeShort(3);
+        // public super, this class, super class
+        out.writeShort(0x21);
+        out.writeShort(2);
+        out.writeShort(4);
+        // No interfaces, fields, methods or attributes
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            delete(files[i]);
+        }
+        file.delete();
+    }
+}
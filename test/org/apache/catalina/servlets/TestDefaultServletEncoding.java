@@ -0,0 +1,373 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.apache.catalina.Globals;
+import org.apache.naming.resources.FileDirContext;
+import org.apache.naming.resources.ProxyDirContext;
+
+public class TestDefaultServletEncoding extends TestCase {
+
+    private File dir;
+    private DefaultServlet servlet;
+    private String css;
+
+
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"),
+                "TestDefaultServletEncoding" + System.currentTimeMillis());
+        dir.mkdirs();
+        StringBuffer text = new StringBuffer();
+        for (int i = 0; i < 200; i++) {
+            text.append("p.c").append(i).append(" { color: red; }\n");
+        }
+        css = text.toString();
+        write("style.css", css.getBytes("ISO-8859-1"), 0);
+
+        FileDirContext fileContext = new FileDirContext();
+        fileContext.setCached(false);
+        fileContext.setDocBase(dir.getAbsolutePath());
+        final ProxyDirContext resources =
+            new ProxyDirContext(new Hashtable(), fileContext);
+
+        final Map<String, String> initParameters = new HashMap<String, String>();
+        initParameters.put("precompressed", "true");
+        initParameters.put("compressedCacheSize", "1024");
+        final ServletContext context = (ServletContext) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] {ServletContext.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getAttribute")
+                        && Globals.RESOURCES_ATTR.equals(args[0])) {
+                    return resources;
+                } else if (name.equals("getMimeType")) {
+                    String file = (String) args[0];
+                    if (file.endsWith(".css")) {
+                        return "text/css";
+                    } else if (file.endsWith(".js")) {
+                        return "text/javascript";
+                    }
+                }
+                return null;
+            }
+        });
+        ServletConfig config = (ServletConfig) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] {ServletConfig.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getInitParameter")) {
+                    return initParameters.get(args[0]);
+                } else if (name.equals("getServletContext")) {
+                    return context;
+                }
+                return null;
+            }
+        });
+        servlet = new DefaultServlet();
+        servlet.init(config);
+    }
+
+
+    protected void tearDown() throws Exception {
+        servlet.destroy();
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+
+    public void testIdentity() throws Exception {
+        MockResponse response = get("/style.css", null);
+        assertEquals(200, response.status);
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(css, response.getBody());
+        assertFalse(response.getHeader("ETag").endsWith("-gzip\""));
+    }
+
+
+    public void testGzip() throws Exception {
+        String identityETag = get("/style.css", null).getHeader("ETag");
+        MockResponse response = get("/style.css", "deflate;q=0.5, gzip");
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(identityETag.substring(0, identityETag.length() - 1)
+                + "-gzip\"", response.getHeader("ETag"));
+        assertEquals(css, response.gunzip());
+    }
+
+
+    public void testDeflate() throws Exception {
+        MockResponse response = get("/style.css", "gzip;q=0, deflate");
+        assertEquals("deflate", response.getHeader("Content-Encoding"));
+        assertTrue(response.getHeader("ETag").endsWith("-deflate\""));
+        assertEquals(css, response.inflate());
+    }
+
+
+    public void testIfNoneMatch() throws Exception {
+        String gzipETag = get("/style.css", "gzip").getHeader("ETag");
+
+        MockRequest request = new MockRequest("/style.css", "gzip");
+        request.headers.put("If-None-Match", gzipETag);
+        MockResponse response = serve(request);
+        assertEquals(304, response.status);
+        assertEquals(gzipETag, response.getHeader("ETag"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+
+        // The identity representation is a different entity
+        request = new MockRequest("/style.css", null);
+        request.headers.put("If-None-Match", gzipETag);
+        response = serve(request);
+        assertEquals(200, response.status);
+        assertEquals(css, response.getBody());
+    }
+
+
+    public void testIfRange() throws Exception {
+        String gzipETag = get("/style.css", "gzip").getHeader("ETag");
+        MockRequest request = new MockRequest("/style.css", "gzip");
+        request.headers.put("Range", "bytes=0-9");
+        request.headers.put("If-Range", gzipETag);
+        // Ranges apply to the identity representation, whose ETag differs
+        MockResponse response = serve(request);
+        assertEquals(200, response.status);
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(css, response.getBody());
+    }
+
+
+    public void testPrecompressed() throws Exception {
+        byte[] js = "var a = 1;".getBytes("ISO-8859-1");
+        long now = System.currentTimeMillis();
+        write("app.js", js, now - 10000);
+        write("app.js.gz", new byte[] {1, 2, 3}, now);
+
+        MockResponse response = get("/app.js", "gzip");
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals(3, response.body.size());
+        assertTrue(response.getHeader("ETag").endsWith("-gzip\""));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+
+        // A variant older than the resource is not used
+        write("app.js.gz", new byte[] {1, 2, 3}, now - 20000);
+        response = get("/app.js", "gzip");
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("var a = 1;", response.getBody());
+    }
+
+
+    public void testCompressedBodyCacheKeys() throws Exception {
+        CompressedBodyCache cache = servlet.compressedBodies;
+        get("/style.css", "gzip");
+        get("/style.css", "gzip");
+        assertEquals(1, cache.getCount());
+        get("/style.css", "deflate");
+        assertEquals(2, cache.getCount());
+
+        // A modified resource gets new bodies
+        css = css + "p { }\n";
+        write("style.css", css.getBytes("ISO-8859-1"),
+                System.currentTimeMillis() + 10000);
+        assertEquals(css, get("/style.css", "gzip").gunzip());
+        assertEquals(3, cache.getCount());
+    }
+
+
+    public void testCompressedBodyCacheEviction() throws Exception {
+        CompressedBodyCache cache = new CompressedBodyCache(2000);
+        for (int i = 0; i < 30; i++) {
+            cache.put("body" + i, new byte[80]);
+            assertTrue(cache.getSize() <= 2000);
+        }
+        assertEquals(25, cache.getCount());
+        assertNull(cache.get("body4"));
+        assertNotNull(cache.get("body5"));
+        assertNotNull(cache.get("body29"));
+
+        // Larger than a twentieth of the cache
+        cache.put("large", new byte[101]);
+        assertNull(cache.get("large"));
+
+        cache.clear();
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+    }
+
+
+    private MockResponse get(String path, String acceptEncoding)
+            throws Exception {
+        return serve(new MockRequest(path, acceptEncoding));
+    }
+
+
+    private MockResponse serve(MockRequest request) throws Exception {
+        MockResponse response = new MockResponse();
+        servlet.serveResource(request.proxy(), response.proxy(), true);
+        return response;
+    }
+
+
+    private void write(String name, byte[] content, long lastModified)
+            throws IOException {
+        File file = new File(dir, name);
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+        if (lastModified > 0) {
+            file.setLastModified(lastModified);
+        }
+    }
+
+
+    private static class MockRequest implements InvocationHandler {
+
+        Map<String, String> headers = new HashMap<String, String>();
+        String path;
+
+        MockRequest(String path, String acceptEncoding) {
+            this.path = path;
+            if (acceptEncoding != null) {
+                headers.put("Accept-Encoding", acceptEncoding);
+            }
+        }
+
+        HttpServletRequest proxy() {
+            return (HttpServletRequest) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class[] {HttpServletRequest.class}, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getHeader")) {
+                return headers.get(args[0]);
+            } else if (name.equals("getDateHeader")) {
+                return Long.valueOf(-1);
+            } else if (name.equals("getMethod")) {
+                return "GET";
+            } else if (name.equals("getServletPath")) {
+                return path;
+            } else if (name.equals("getRequestURI")) {
+                return path;
+            }
+            return null;
+        }
+    }
+
+
+    private static class MockResponse implements InvocationHandler {
+
+        Map<String, String> headers = new HashMap<String, String>();
+        int status = 200;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        HttpServletResponse proxy() {
+            return (HttpServletResponse) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class[] {HttpServletResponse.class}, this);
+        }
+
+        String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        String getBody() throws IOException {
+            return body.toString("ISO-8859-1");
+        }
+
+        String gunzip() throws IOException {
+            return read(new GZIPInputStream(
+                    new ByteArrayInputStream(body.toByteArray())));
+        }
+
+        String inflate() throws IOException {
+            return read(new InflaterInputStream(
+                    new ByteArrayInputStream(body.toByteArray())));
+        }
+
+        private String read(InputStream is) throws IOException {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int len;
+            while ((len = is.read(buffer)) > 0) {
+                result.write(buffer, 0, len);
+            }
+            return result.toString("ISO-8859-1");
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("setHeader")) {
+                headers.put((String) args[0], (String) args[1]);
+            } else if (name.equals("addHeader")) {
+                String value = headers.get(args[0]);
+                headers.put((String) args[0], (value == null)
+                        ? (String) args[1] : value + ", " + args[1]);
+            } else if (name.equals("setStatus")
+                    || name.equals("sendError")) {
+                status = ((Integer) args[0]).intValue();
+            } else if (name.equals("getOutputStream")) {
+                return new ServletOutputStream() {
+                    public void write(int b) {
+                        body.write(b);
+                    }
+                    public void write(byte[] b, int off, int len) {
+                        body.write(b, off, len);
+                    }
+                };
+            } else if (name.equals("containsHeader")) {
+                return Boolean.valueOf(headers.containsKey(args[0]));
+            } else if (name.equals("isCommitted")) {
+                return Boolean.FALSE;
+            }
+            return null;
+        }
+    }
+}
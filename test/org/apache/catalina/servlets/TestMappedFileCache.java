@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import javax.servlet.ServletOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.naming.resources.CacheEntry;
+import org.apache.naming.resources.Resource;
+import org.apache.naming.resources.ResourceAttributes;
+
+public class TestMappedFileCache extends TestCase {
+
+    private File dir;
+    private MappedFileCache cache;
+
+
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"),
+                "TestMappedFileCache" + System.currentTimeMillis());
+        dir.mkdirs();
+        cache = new MappedFileCache(100);
+    }
+
+
+    protected void tearDown() throws Exception {
+        cache.clear();
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+
+    public void testReuse() throws Exception {
+        File file = write("a", 40);
+        ByteBuffer first = get(file);
+        assertEquals(40, first.remaining());
+        Object mapping = cache.files.get(file.getPath()).buffer;
+        ByteBuffer second = get(file);
+        assertSame(mapping, cache.files.get(file.getPath()).buffer);
+        // Each caller has its own position
+        first.get();
+        assertEquals(0, second.position());
+        assertEquals(1, cache.getCount());
+        assertEquals(40, cache.getSize());
+    }
+
+
+    public void testInvalidation() throws Exception {
+        File file = write("a", 40);
+        get(file);
+        Object mapping = cache.files.get(file.getPath()).buffer;
+
+        // Modified with the same length
+        file.setLastModified(file.lastModified() - 10000);
+        get(file);
+        assertNotSame(mapping, cache.files.get(file.getPath()).buffer);
+        mapping = cache.files.get(file.getPath()).buffer;
+
+        // Different length
+        long lastModified = file.lastModified();
+        write("a", 30);
+        file.setLastModified(lastModified);
+        ByteBuffer buffer = get(file);
+        assertNotSame(mapping, cache.files.get(file.getPath()).buffer);
+        assertEquals(30, buffer.remaining());
+        assertEquals(1, cache.getCount());
+        assertEquals(30, cache.getSize());
+
+        cache.remove(file.getPath());
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+    }
+
+
+    public void testChangedOnDisk() throws Exception {
+        File file = write("a", 40);
+        long lastModified = file.lastModified();
+        assertNotNull(get(file));
+
+        // Truncated in place, with the stale attributes of the resources
+        // cache: the mapping must not be handed out, nor a new one made
+        write("a", 30);
+        file.setLastModified(lastModified + 10000);
+        assertNull(cache.get(file.getPath(), lastModified, 40));
+        assertEquals(0, cache.getCount());
+        assertNull(cache.get(file.getPath(), lastModified, 40));
+        assertEquals(0, cache.getCount());
+
+        ByteBuffer buffer = get(file);
+        assertEquals(30, buffer.remaining());
+        assertEquals(1, cache.getCount());
+    }
+
+
+    public void testEviction() throws Exception {
+        File a = write("a", 40);
+        File b = write("b", 40);
+        File c = write("c", 40);
+        get(a);
+        get(b);
+        get(c);
+        // The oldest mapping was dropped to make room
+        assertNull(cache.files.get(a.getPath()));
+        assertNotNull(cache.files.get(b.getPath()));
+        assertNotNull(cache.files.get(c.getPath()));
+        assertEquals(80, cache.getSize());
+
+        // Too large to be mapped at all
+        File d = write("d", 200);
+        assertNull(get(d));
+        assertEquals(80, cache.getSize());
+    }
+
+
+    public void testRangeSlices() throws Exception {
+        File file = write("a", 100);
+        DefaultServlet servlet = new DefaultServlet();
+        servlet.mappedFiles = cache;
+        // Smaller than the ranges, to copy them in several chunks
+        servlet.output = 7;
+        CacheEntry entry = createEntry(file);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertNull(servlet.copyRange(entry, get(file), wrap(out), 10, 29));
+        assertEquals(expected(10, 29), out.toString("ISO-8859-1"));
+
+        // Ranges of a multipart response share the same buffer
+        ByteBuffer buffer = get(file);
+        out = new ByteArrayOutputStream();
+        assertNull(servlet.copyRange(entry, buffer, wrap(out), 90, 99));
+        assertNull(servlet.copyRange(entry, buffer, wrap(out), 0, 0));
+        assertNull(servlet.copyRange(entry, buffer, wrap(out), 50, 64));
+        assertEquals(expected(90, 99) + expected(0, 0) + expected(50, 64),
+                out.toString("ISO-8859-1"));
+    }
+
+
+    private CacheEntry createEntry(final File file) throws IOException {
+        CacheEntry entry = new CacheEntry();
+        entry.attributes = new ResourceAttributes() {
+            private static final long serialVersionUID = 1L;
+            public String getCanonicalPath() {
+                return file.getPath();
+            }
+        };
+        entry.attributes.setContentLength(file.length());
+        entry.attributes.setLastModified(file.lastModified());
+        entry.resource = new Resource(new FileInputStream(file));
+        return entry;
+    }
+
+
+    private ByteBuffer get(File file) {
+        return cache.get(file.getPath(), file.lastModified(), file.length());
+    }
+
+
+    /**
+     * Write a file whose byte at each offset is the offset modulo 26, as a
+     * lower case letter.
+     */
+    private File write(String name, int length) throws IOException {
+        File file = new File(dir, name);
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(expected(0, length - 1).getBytes("ISO-8859-1"));
+        } finally {
+            os.close();
+        }
+        return file;
+    }
+
+
+    private String expected(int start, int end) {
+        StringBuffer result = new StringBuffer();
+        for (int i = start; i <= end; i++) {
+            result.append((char) ('a' + (i % 26)));
+        }
+        return result.toString();
+    }
+
+
+    private ServletOutputStream wrap(final OutputStream out) {
+        return new ServletOutputStream() {
+            public void write(int b) throws IOException {
+                out.write(b);
+            }
+        };
+    }
+}
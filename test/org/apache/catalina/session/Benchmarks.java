@@ -0,0 +1,100 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.catalina.session;
+
+import junit.framework.TestCase;
+
+/**
+ * Named Benchmarks so it is not automatically executed as part of the unit
+ * tests. Compares session identifier generation with the manager wide lock
+ * against the lock free pooled generators.
+ */
+public class Benchmarks extends TestCase {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+    private static final int ITERATIONS = 200000;
+
+
+    /*
+     * Results are printed as
+     * <mode> <threads> threads, <ids> ids in <time> ms (<rate> ids/s)
+     */
+    public void testManagerBaseGenerateSessionId() throws Exception {
+        for (int i = 0; i < THREAD_COUNTS.length; i++) {
+            doTestManagerBaseGenerateSessionId(THREAD_COUNTS[i], false);
+            doTestManagerBaseGenerateSessionId(THREAD_COUNTS[i], true);
+        }
+    }
+
+
+    private void doTestManagerBaseGenerateSessionId(int threadCount,
+            boolean lockFree) throws Exception {
+
+        StandardManager mgr = new StandardManager();
+        mgr.setLockFreeSessionIdGeneration(lockFree);
+        // Warm up: seed the generators outside of the measurement
+        mgr.generateSessionId();
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(
+                    new GenerateSessionIdThread(mgr, ITERATIONS / threadCount));
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+        }
+        long end = System.currentTimeMillis();
+
+        long time = Math.max(1, end - start);
+        StringBuffer result = new StringBuffer();
+        result.append(lockFree ? "lockFree     " : "synchronized ");
+        result.append(threadCount);
+        result.append(" threads, ");
+        result.append(ITERATIONS);
+        result.append(" ids in ");
+        result.append(time);
+        result.append(" ms (");
+        result.append(ITERATIONS * 1000L / time);
+        result.append(" ids/s)");
+        System.out.println(result.toString());
+    }
+
+
+    private static final class GenerateSessionIdThread implements Runnable {
+
+        private final ManagerBase mgr;
+        private final int count;
+
+        public GenerateSessionIdThread(ManagerBase mgr, int count) {
+            this.mgr = mgr;
+            this.count = count;
+        }
+
+        public void run() {
+            for (int i = 0; i < count; i++) {
+                mgr.generateSessionId();
+            }
+        }
+    }
+}
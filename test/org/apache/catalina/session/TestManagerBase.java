@@ -0,0 +1,89 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.catalina.session;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.catalina.core.StandardEngine;
+
+public class TestManagerBase extends TestCase {
+
+    private static final int THREADS = 8;
+
+    private static final int IDS_PER_THREAD = 1000;
+
+
+    public void testSynchronizedSessionIds() throws Exception {
+        doTestSessionIds(false);
+    }
+
+
+    public void testLockFreeSessionIds() throws Exception {
+        StandardManager mgr = doTestSessionIds(true);
+        assertTrue(mgr.sessionIdSources.size() <= THREADS);
+    }
+
+
+    private StandardManager doTestSessionIds(boolean lockFree)
+            throws Exception {
+
+        StandardEngine engine = new StandardEngine();
+        engine.setJvmRoute("node1");
+        final StandardManager mgr = new StandardManager();
+        mgr.setContainer(engine);
+        mgr.setSessionIdLength(20);
+        mgr.setLockFreeSessionIdGeneration(lockFree);
+
+        final Set<String> ids = new HashSet<String>();
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < IDS_PER_THREAD; j++) {
+                            String id = mgr.generateSessionId();
+                            synchronized (ids) {
+                                ids.add(id);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+
+        assertNull(failure[0]);
+        assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+        for (String id : ids) {
+            // 20 bytes rendered as 40 upper case hexadecimal digits
+            assertTrue(id, id.matches("[0-9A-F]{40}\\.node1"));
+        }
+        return mgr;
+    }
+}
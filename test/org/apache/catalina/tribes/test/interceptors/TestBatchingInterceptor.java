@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.test.interceptors;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelListener;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.ErrorHandler;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.UniqueId;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.GroupChannel;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.group.interceptors.BatchingInterceptor;
+import org.apache.catalina.tribes.group.interceptors.OrderInterceptor;
+
+public class TestBatchingInterceptor extends TestCase {
+
+    GroupChannel[] channels = null;
+    BatchingInterceptor[] batchings = null;
+    CountingInterceptor[] counters = null;
+    TestListener[] listeners = null;
+    int channelCount = 2;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        //the order test numbers the messages before they are batched
+        boolean ordered = getName().startsWith("testOrder");
+        channels = new GroupChannel[channelCount];
+        batchings = new BatchingInterceptor[channelCount];
+        counters = new CountingInterceptor[channelCount];
+        listeners = new TestListener[channelCount];
+        for ( int i=0; i<channelCount; i++ ) {
+            channels[i] = new GroupChannel();
+            if ( ordered ) channels[i].addInterceptor(new OrderInterceptor());
+            batchings[i] = new BatchingInterceptor();
+            batchings[i].setMaxWait(20);
+            channels[i].addInterceptor(batchings[i]);
+            counters[i] = new CountingInterceptor();
+            channels[i].addInterceptor(counters[i]);
+            listeners[i] = new TestListener();
+            channels[i].addChannelListener(listeners[i]);
+            channels[i].start(Channel.DEFAULT);
+        }
+        Thread.sleep(2000);
+    }
+
+    protected void tearDown() throws Exception {
+        for ( int i=0; i<channelCount; i++ ) channels[i].stop(Channel.DEFAULT);
+        super.tearDown();
+    }
+
+    public void testSynchronousSends() throws Exception {
+        final Member[] dest = channels[0].getMembers();
+        assertEquals(1, dest.length);
+        final int threadCount = 8;
+        final int messageCount = 50;
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[threadCount];
+        for ( int i=0; i<threadCount; i++ ) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for ( int j=0; j<messageCount; j++ ) {
+                            channels[0].send(dest, new Integer(j), Channel.SEND_OPTIONS_USE_ACK|Channel.SEND_OPTIONS_SYNCHRONIZED_ACK);
+                        }
+                    } catch ( Throwable t ) {
+                        failure[0] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( int i=0; i<threadCount; i++ ) threads[i].join();
+        assertNull(failure[0]);
+        //the messages were acknowledged once processed, so they have been received
+        assertEquals(threadCount*messageCount, listeners[1].count.get());
+        assertTrue(counters[0].count.get() < threadCount*messageCount);
+    }
+
+    public void testAsynchronousSends() throws Exception {
+        Member[] dest = channels[0].getMembers();
+        final AtomicInteger completed = new AtomicInteger(0);
+        ErrorHandler handler = new ErrorHandler() {
+            public void handleError(ChannelException x, UniqueId id) {
+                //not counted
+            }
+            public void handleCompletion(UniqueId id) {
+                completed.incrementAndGet();
+            }
+        };
+        int messageCount = 100;
+        for ( int i=0; i<messageCount; i++ ) {
+            channels[0].send(dest, new Integer(i), Channel.SEND_OPTIONS_ASYNCHRONOUS, handler);
+        }
+        for ( int i=0; i<100 && listeners[1].count.get()<messageCount; i++ ) Thread.sleep(50);
+        assertEquals(messageCount, listeners[1].count.get());
+        assertEquals(messageCount, completed.get());
+        assertTrue(counters[0].count.get() < messageCount);
+    }
+
+    public void testOrderWithOrderInterceptor() throws Exception {
+        Member[] dest = channels[0].getMembers();
+        batchings[0].setMaxSize(1024);
+        //the large message is always sent while the batch is open
+        batchings[0].setMaxWait(500);
+        channels[0].send(dest, new Integer(0), Channel.SEND_OPTIONS_ASYNCHRONOUS);
+        StringBuffer large = new StringBuffer();
+        for ( int i=0; i<200; i++ ) large.append("0123456789");
+        channels[0].send(dest, large.toString(), Channel.SEND_OPTIONS_ASYNCHRONOUS);
+        for ( int i=0; i<100 && listeners[1].received.size()<2; i++ ) Thread.sleep(50);
+        assertEquals(2, listeners[1].received.size());
+        //the large message was held until the batch had been received
+        assertEquals(new Integer(0), listeners[1].received.get(0));
+        assertEquals(large.toString(), listeners[1].received.get(1));
+    }
+
+    public static class TestListener implements ChannelListener {
+        AtomicInteger count = new AtomicInteger(0);
+        List received = Collections.synchronizedList(new ArrayList());
+        public synchronized void messageReceived(Serializable msg, Member sender) {
+            if ( received.size() < 10 ) received.add(msg);
+            count.incrementAndGet();
+        }
+
+        public boolean accept(Serializable msg, Member sender) {
+            return (msg instanceof Integer) || (msg instanceof String);
+        }
+    }
+
+    public static class CountingInterceptor extends ChannelInterceptorBase {
+        AtomicInteger count = new AtomicInteger(0);
+        public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload) throws ChannelException {
+            count.incrementAndGet();
+            super.sendMessage(destination, msg, payload);
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.test.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.catalina.tribes.io.BufferPool;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestDataPackage extends TestCase {
+
+    public void testCreateDataPackageInPlace() throws Exception {
+        ChannelData data = createData(1000);
+        byte[] expected = XByteBuffer.createDataPackage(data);
+
+        ByteBuffer buffer = BufferPool.getBufferPool().getDirectBuffer(expected.length);
+        assertTrue(buffer.isDirect());
+        assertTrue(buffer.capacity() >= expected.length);
+        XByteBuffer.createDataPackage(data, buffer);
+        buffer.flip();
+        assertEquals(expected.length, buffer.remaining());
+        byte[] actual = new byte[buffer.remaining()];
+        buffer.get(actual);
+        assertTrue(Arrays.equals(expected, actual));
+        BufferPool.getBufferPool().returnDirectBuffer(buffer);
+
+        // The returned buffer is handed out again
+        assertSame(buffer, BufferPool.getBufferPool().getDirectBuffer(10));
+        assertEquals(0, buffer.position());
+    }
+
+    public void testExtractPackages() throws Exception {
+        ChannelData[] sent = new ChannelData[] {createData(10), createData(0), createData(5000)};
+        XByteBuffer received = new XByteBuffer(1024, true);
+        for (int i = 0; i < sent.length; i++) {
+            byte[] pkg = XByteBuffer.createDataPackage(sent[i]);
+            received.append(pkg, 0, pkg.length);
+        }
+        // Half of a package that has not been fully received yet
+        byte[] partial = XByteBuffer.createDataPackage(createData(100));
+        received.append(partial, 0, 50);
+
+        ChannelData[] result = received.extractPackages();
+        assertEquals(sent.length, result.length);
+        for (int i = 0; i < sent.length; i++) {
+            assertEquals(sent[i], result[i]);
+            assertEquals(sent[i].getOptions(), result[i].getOptions());
+            assertEquals(sent[i].getTimestamp(), result[i].getTimestamp());
+            assertEquals(sent[i].getAddress(), result[i].getAddress());
+            assertEquals(sent[i].getMessage().getLength(), result[i].getMessage().getLength());
+            assertTrue(Arrays.equals(sent[i].getMessage().getBytes(), result[i].getMessage().getBytes()));
+        }
+        assertEquals(50, received.getLength());
+        assertEquals(0, received.extractPackages().length);
+
+        received.append(partial, 50, partial.length - 50);
+        assertEquals(1, received.extractPackages().length);
+        assertEquals(0, received.getLength());
+    }
+
+    private ChannelData createData(int size) throws Exception {
+        byte[] message = new byte[size];
+        for (int i = 0; i < size; i++) message[i] = (byte) i;
+        ChannelData data = new ChannelData(true);
+        data.setOptions(size);
+        data.setTimestamp(System.currentTimeMillis());
+        data.setAddress(new MemberImpl("127.0.0.1", 4000, 1000));
+        data.setMessage(new XByteBuffer(message, false));
+        return data;
+    }
+}
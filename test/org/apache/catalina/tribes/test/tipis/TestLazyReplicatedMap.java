@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.test.tipis;
+
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.GroupChannel;
+import org.apache.catalina.tribes.tipis.LazyReplicatedMap;
+import org.apache.catalina.tribes.tipis.AbstractReplicatedMap.MapEntry;
+
+public class TestLazyReplicatedMap extends TestCase {
+
+    int entryCount = 300;
+    GroupChannel[] channels = new GroupChannel[4];
+    LazyReplicatedMap[] maps = new LazyReplicatedMap[4];
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        for ( int i=0; i<3; i++ ) start(i);
+        Thread.sleep(1000);
+    }
+
+    protected void tearDown() throws Exception {
+        for ( int i=0; i<channels.length; i++ ) {
+            if ( maps[i] != null ) maps[i].breakdown();
+            if ( channels[i] != null ) channels[i].stop(Channel.DEFAULT);
+        }
+        super.tearDown();
+    }
+
+    public void testConsistentHashing() throws Exception {
+        for ( int i=0; i<entryCount; i++ ) maps[0].put("session-"+i, new Integer(i));
+        HashMap before = new HashMap();
+        int[] perMember = new int[2];
+        for ( int i=0; i<entryCount; i++ ) {
+            String key = "session-"+i;
+            Member backup = getBackup(key);
+            assertEquals(maps[0].getBackupCandidates(key)[0], backup);
+            perMember[backup.equals(channels[1].getLocalMember(false)) ? 0 : 1]++;
+            before.put(key, backup);
+        }
+        //the backups are spread over both members
+        assertTrue(perMember[0] > entryCount/4);
+        assertTrue(perMember[1] > entryCount/4);
+
+        //a new member only takes over its share of the backups
+        start(3);
+        Member added = channels[3].getLocalMember(false);
+        //the backups move in the background
+        for ( int i=0; i<100 && !isPlaced(); i++ ) Thread.sleep(100);
+        int moved = 0;
+        for ( int i=0; i<entryCount; i++ ) {
+            String key = "session-"+i;
+            Member backup = getBackup(key);
+            assertEquals(maps[0].getBackupCandidates(key)[0], backup);
+            if ( !backup.equals(before.get(key)) ) {
+                assertEquals(added, backup);
+                moved++;
+            }
+        }
+        assertTrue(moved > entryCount/6);
+        assertTrue(moved < entryCount/2);
+        for ( int i=0; i<entryCount; i++ ) {
+            String key = "session-"+i;
+            if ( getBackup(key).equals(added) ) {
+                assertTrue(maps[3].getInternal(key).isBackup());
+            }
+        }
+    }
+
+    private boolean isPlaced() {
+        for ( int i=0; i<entryCount; i++ ) {
+            String key = "session-"+i;
+            if ( !getBackup(key).equals(maps[0].getBackupCandidates(key)[0]) ) return false;
+        }
+        return true;
+    }
+
+    private Member getBackup(String key) {
+        MapEntry entry = maps[0].getInternal(key);
+        assertTrue(entry.isPrimary());
+        assertEquals(1, entry.getBackupNodes().length);
+        return entry.getBackupNodes()[0];
+    }
+
+    private void start(int i) throws Exception {
+        channels[i] = new GroupChannel();
+        channels[i].start(Channel.DEFAULT);
+        Thread.sleep(500);
+        maps[i] = new LazyReplicatedMap(null, channels[i], 5000, "TestLazyReplicatedMap",
+                                        new ClassLoader[] {getClass().getClassLoader()});
+        maps[i].setConsistentHashing(true);
+    }
+
+}
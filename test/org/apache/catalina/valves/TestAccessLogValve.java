@@ -0,0 +1,210 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.catalina.valves;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestAccessLogValve extends TestCase {
+
+    private static final int THREADS = 8;
+
+    private static final int LINES = 5000;
+
+    private File dir;
+
+
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"),
+                "TestAccessLogValve-" + System.currentTimeMillis());
+        assertTrue(dir.mkdirs());
+    }
+
+
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+
+    public void testRing() {
+        AccessLogRing ring = new AccessLogRing(3);
+        assertEquals(4, ring.getCapacity());
+        byte[] b = "abcdef".getBytes();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(b, i, 2, false));
+        }
+        // Full
+        assertFalse(ring.offer(b, 0, 1, false));
+        assertEquals(4, ring.getSize());
+
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        assertEquals(2, ring.nextLength());
+        ring.take(buffer);
+        assertTrue(ring.offer(b, 0, 6, false));
+        while (ring.nextLength() >= 0) {
+            ring.take(buffer);
+        }
+        assertEquals(0, ring.getSize());
+        assertEquals("abbccddeabcdef", new String(buffer.array(), 0,
+                buffer.position()));
+    }
+
+
+    public void testRingClose() throws Exception {
+        final AccessLogRing ring = new AccessLogRing(2);
+        final byte[] b = "ab".getBytes();
+        assertTrue(ring.offer(b, 0, 2, true));
+        assertTrue(ring.offer(b, 0, 2, true));
+        // Blocks on the full ring, without any consumer
+        final boolean[] result = new boolean[] {true};
+        Thread producer = new Thread() {
+            public void run() {
+                result[0] = ring.offer(b, 0, 2, true);
+            }
+        };
+        producer.start();
+        Thread.sleep(100);
+        ring.close();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        assertFalse(result[0]);
+        assertFalse(ring.offer(b, 0, 1, true));
+        // The records accepted before can still be read
+        assertEquals(2, ring.getSize());
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        while (ring.nextLength() >= 0) {
+            ring.take(buffer);
+        }
+        assertEquals(4, buffer.position());
+    }
+
+
+    public void testStopWhileLogging() throws Exception {
+        final AccessLogValve valve = newValve("block", 4);
+        valve.start();
+        final int[] logged = new int[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < LINES; j++) {
+                        valve.log("line " + j);
+                        logged[id]++;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        Thread.sleep(20);
+        valve.stop();
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join(10000);
+            assertFalse(threads[i].isAlive());
+        }
+        // Every line is either written or counted as dropped
+        int total = 0;
+        for (int i = 0; i < THREADS; i++) {
+            total += logged[i];
+        }
+        assertEquals(total, readLines().size() + valve.getDroppedCount());
+    }
+
+
+    public void testAsyncWrite() throws Exception {
+        final AccessLogValve valve = newValve("block", 64);
+        valve.start();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < LINES; j++) {
+                        valve.log(id + " " + j + " \u00e9");
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join();
+        }
+        valve.stop();
+        assertEquals(0, valve.getDroppedCount());
+
+        List<String> lines = readLines();
+        assertEquals(THREADS * LINES, lines.size());
+        int[] next = new int[THREADS];
+        for (int i = 0; i < lines.size(); i++) {
+            String[] fields = lines.get(i).split(" ");
+            int id = Integer.parseInt(fields[0]);
+            // The lines of each thread are written in order
+            assertEquals(next[id]++, Integer.parseInt(fields[1]));
+            assertEquals("\u00e9", fields[2]);
+        }
+    }
+
+
+    public void testDrop() throws Exception {
+        AccessLogValve valve = newValve("drop", 4);
+        valve.start();
+        for (int i = 0; i < LINES; i++) {
+            valve.log("line " + i);
+        }
+        valve.stop();
+        assertEquals(LINES, readLines().size() + valve.getDroppedCount());
+    }
+
+
+    private AccessLogValve newValve(String policy, int queueSize) {
+        AccessLogValve valve = new AccessLogValve();
+        valve.setDirectory(dir.getAbsolutePath());
+        valve.setEncoding("UTF-8");
+        valve.setAsyncWrite(true);
+        valve.setAsyncQueueSize(queueSize);
+        valve.setAsyncOverflowPolicy(policy);
+        return valve;
+    }
+
+
+    private List<String> readLines() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(files[i]), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            reader.close();
+        }
+        return lines;
+    }
+}
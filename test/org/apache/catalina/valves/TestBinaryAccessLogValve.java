@@ -0,0 +1,185 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.catalina.valves;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+
+import junit.framework.TestCase;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+
+public class TestBinaryAccessLogValve extends TestCase {
+
+    private static final String PATTERN =
+        "%h %l %u \"%r\" %s %b %D %T %p \"%{User-Agent}i\" %S";
+
+    private static final String[] HOSTS = { "192.168.0.10", "10.0.0.1",
+            "10.0.0.2" };
+
+    private static final String[] URIS = { "/index.html", "/images/logo.png",
+            "/app/servlet" };
+
+    private static final String[] AGENTS = { "Mozilla/5.0 (X11; Linux x86_64)",
+            "curl/7.68.0" };
+
+    private File dir;
+
+
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"),
+                "TestBinaryAccessLogValve-" + System.currentTimeMillis());
+        assertTrue(dir.mkdirs());
+    }
+
+
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+
+    public void testRoundTrip() throws Exception {
+        AccessLogValve text = new AccessLogValve();
+        text.setDirectory(dir.getAbsolutePath());
+        text.setPrefix("text.");
+        text.setPattern(PATTERN);
+        BinaryAccessLogValve binary = new BinaryAccessLogValve();
+        binary.setDirectory(dir.getAbsolutePath());
+        binary.setPrefix("binary.");
+        binary.setPattern(PATTERN);
+        // Several blocks and a partial one
+        binary.setBlockSize(100);
+        text.start();
+        binary.start();
+        for (int i = 0; i < 1050; i++) {
+            Request request = newRequest(i);
+            Response response = newResponse(i);
+            text.log(request, response, i * 7);
+            binary.log(request, response, i * 7);
+        }
+        text.stop();
+        binary.stop();
+
+        BufferedReader lines = new BufferedReader(new InputStreamReader(
+                new FileInputStream(getFile("text.")), "UTF-8"));
+        BinaryAccessLogReader reader = new BinaryAccessLogReader(
+                new FileInputStream(getFile("binary.")));
+        int count = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            assertTrue(reader.next());
+            assertEquals(line, reader.getLine());
+            count++;
+        }
+        assertFalse(reader.next());
+        assertEquals(11, reader.getColumnCount());
+        reader.close();
+        lines.close();
+        assertEquals(1050, count);
+        assertTrue(getFile("binary.").length() * 3 < getFile("text.").length());
+    }
+
+
+    public void testColumns() throws Exception {
+        BinaryAccessLogValve binary = new BinaryAccessLogValve();
+        binary.setDirectory(dir.getAbsolutePath());
+        binary.setPattern("%t %s %U");
+        long start = System.currentTimeMillis();
+        binary.start();
+        binary.log(newRequest(1), newResponse(1), 10);
+        binary.log(newRequest(2), newResponse(2), 10);
+        binary.stop();
+        // Restarting appends a new header record
+        binary.setPattern("%U");
+        binary.start();
+        binary.log(newRequest(0), newResponse(0), 10);
+        binary.stop();
+
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        BinaryAccessLogReader reader =
+            new BinaryAccessLogReader(new FileInputStream(files[0]));
+        assertTrue(reader.next());
+        assertEquals(3, reader.getColumnCount());
+        assertEquals("%t", reader.getColumnName(0));
+        assertEquals(BinaryAccessLogValve.SEGMENT_TIME,
+                reader.getColumnType(0));
+        assertTrue(reader.getLong(0) >= start);
+        assertEquals(BinaryAccessLogValve.SEGMENT_NUMBER,
+                reader.getColumnType(1));
+        assertEquals(404, reader.getLong(1));
+        assertEquals("/images/logo.png", reader.getString(2));
+        assertTrue(reader.next());
+        assertEquals(500, reader.getLong(1));
+        assertTrue(reader.next());
+        assertEquals(1, reader.getColumnCount());
+        assertEquals("/index.html", reader.getLine());
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+
+    private Request newRequest(int i) {
+        Request request = new Request();
+        org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+        request.setCoyoteRequest(coyoteRequest);
+        request.setRemoteAddr(HOSTS[i % HOSTS.length]);
+        request.setRemoteHost(HOSTS[i % HOSTS.length]);
+        coyoteRequest.method().setString((i % 5 == 0) ? "POST" : "GET");
+        coyoteRequest.requestURI().setString(URIS[i % URIS.length]);
+        if (i % 4 == 0) {
+            coyoteRequest.queryString().setString("id=" + i);
+        }
+        coyoteRequest.protocol().setString("HTTP/1.1");
+        coyoteRequest.setServerPort(8080);
+        coyoteRequest.getMimeHeaders().addValue("User-Agent").setString(
+                AGENTS[i % AGENTS.length]);
+        return request;
+    }
+
+
+    private Response newResponse(final int i) {
+        // Without a connector, the response has no output buffer
+        return new Response() {
+            public int getStatus() {
+                return new int[] { 200, 404, 500 }[i % 3];
+            }
+            public long getContentCountLong() {
+                return (i % 3 == 0) ? 1000 + i : 0;
+            }
+        };
+    }
+
+
+    private File getFile(String prefix) {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].getName().startsWith(prefix)) {
+                return files[i];
+            }
+        }
+        return null;
+    }
+}
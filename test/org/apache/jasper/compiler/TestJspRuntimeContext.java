@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.compiler;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+import org.apache.jasper.JspC;
+import org.apache.jasper.servlet.JspCServletContext;
+
+public class TestJspRuntimeContext extends TestCase {
+
+    private JspRuntimeContext rctxt;
+
+
+    protected void setUp() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        JspCServletContext context = new JspCServletContext(
+                new PrintWriter(System.out), dir.toURI().toURL());
+        JspC jspc = new JspC();
+        jspc.setOutputDir(dir.getAbsolutePath());
+        rctxt = new JspRuntimeContext(context, jspc);
+    }
+
+
+    protected void tearDown() throws Exception {
+        rctxt.destroy();
+    }
+
+
+    public void testCompileExecutor() throws Exception {
+        Thread thread = rctxt.getCompileExecutor().submit(
+                new Callable<Thread>() {
+                    public Thread call() {
+                        return Thread.currentThread();
+                    }
+                }).get();
+        assertTrue(thread.isDaemon());
+        assertSame(rctxt.getParentClassLoader(),
+                thread.getContextClassLoader());
+        assertSame(rctxt.getCompileExecutor(), rctxt.getCompileExecutor());
+
+        rctxt.destroy();
+        try {
+            rctxt.getCompileExecutor().execute(new Runnable() {
+                public void run() {
+                    // Never run
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+    }
+
+
+    public void testDependencyLastModifiedOnlyDuringCheck() {
+        rctxt.setDependencyLastModified("/include.jspf", 1000L);
+        assertNull(rctxt.getDependencyLastModified("/include.jspf"));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.compiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.servlet.ServletContext;
+
+import junit.framework.TestCase;
+
+import org.apache.jasper.Constants;
+
+public class TestTldLocationsCache extends TestCase {
+
+    static {
+        System.setProperty(
+                "org.apache.jasper.compiler.TldLocationsCache.USE_INDEX",
+                "true");
+        System.setProperty(
+                "org.apache.jasper.compiler.TldLocationsCache.SCAN_THREADS",
+                "4");
+    }
+
+    private File dir;
+    private File workDir;
+    private URL[] jars;
+
+
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"),
+                "TestTldLocationsCache" + System.currentTimeMillis());
+        workDir = new File(dir, "work");
+        workDir.mkdirs();
+        jars = new URL[10];
+        for (int i = 0; i < jars.length; i++) {
+            File jar = new File(dir, "lib" + i + ".jar");
+            // lib0 and lib1 define the same uri, the first one wins
+            writeJar(jar, i == 1 ? "urn:lib0" : "urn:lib" + i, i);
+            jars[i] = jar.toURI().toURL();
+        }
+    }
+
+
+    protected void tearDown() throws Exception {
+        delete(dir);
+    }
+
+
+    public void testScanAndIndex() throws Exception {
+        String[] location = getLocation("urn:lib7");
+        assertEquals(jars[7].toString(), location[0]);
+        assertEquals("META-INF/lib7.tld", location[1]);
+        assertEquals(jars[0].toString(), getLocation("urn:lib0")[0]);
+        assertNull(getLocation("urn:none"));
+        File index = new File(workDir, "tld-locations.idx");
+        assertTrue(index.exists());
+
+        // The index is used for unchanged JARs
+        long indexModified = index.lastModified();
+        assertEquals(jars[3].toString(), getLocation("urn:lib3")[0]);
+        assertEquals(indexModified, index.lastModified());
+
+        // A changed JAR is scanned again
+        File jar = new File(dir, "lib3.jar");
+        writeJar(jar, "urn:changed", 100);
+        jar.setLastModified(jar.lastModified() + 2000);
+        assertNull(getLocation("urn:lib3"));
+        assertEquals(jars[3].toString(), getLocation("urn:changed")[0]);
+    }
+
+
+    private String[] getLocation(String uri) throws Exception {
+        ClassLoader original = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(
+                new URLClassLoader(jars, null));
+        try {
+            return new TldLocationsCache(createContext(), true).getLocation(
+                    uri);
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
+
+
+    private ServletContext createContext() {
+        return (ServletContext) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { ServletContext.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        if (method.getName().equals("getAttribute") &&
+                                Constants.TMP_DIR.equals(args[0])) {
+                            return workDir;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+
+    private void writeJar(File file, String uri, int padding)
+            throws Exception {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        out.putNextEntry(new JarEntry("META-INF/" +
+                file.getName().replace(".jar", ".tld")));
+        StringBuffer tld = new StringBuffer();
+        tld.append("<taglib><tlib-version>1.0</tlib-version>");
+        tld.append("<short-name>t</short-name><uri>").append(uri);
+        tld.append("</uri></taglib>");
+        for (int i = 0; i < padding; i++) {
+            tld.append(' ');
+        }
+        out.write(tld.toString().getBytes("UTF-8"));
+        out.closeEntry();
+        out.close();
+    }
+
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            delete(files[i]);
+        }
+        file.delete();
+    }
+}
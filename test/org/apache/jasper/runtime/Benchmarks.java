@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.runtime;
+
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.Tag;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import junit.framework.TestCase;
+
+/**
+ * Named Benchmarks so it is not automatically executed as part of the unit
+ * tests. Renders a page the way a generated servlet does for a tag heavy
+ * JSP, taking every tag handler from its pool and returning it afterwards,
+ * with the synchronized, per thread and striped tag handler pools.
+ */
+public class Benchmarks extends TestCase {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+    private static final int PAGES = 20000;
+
+    // Tags on the rendered page, as in 100 iterations of <c:if><c:out/></c:if>
+    private static final int TAGS_PER_PAGE = 200;
+
+
+    /*
+     * Results are printed as
+     * <pool> <threads> threads, <pages> pages in <time> ms (<rate> pages/s)
+     */
+    public void testTagHeavyPage() throws Exception {
+        for (int i = 0; i < THREAD_COUNTS.length; i++) {
+            doTestTagHeavyPage("synchronized", THREAD_COUNTS[i]);
+            doTestTagHeavyPage("perThread   ", THREAD_COUNTS[i]);
+            doTestTagHeavyPage("striped     ", THREAD_COUNTS[i]);
+        }
+    }
+
+
+    @SuppressWarnings("deprecation")
+    private void doTestTagHeavyPage(String mode, int threadCount)
+            throws Exception {
+
+        final TagHandlerPool ifPool;
+        final TagHandlerPool outPool;
+        if (mode.startsWith("synchronized")) {
+            ifPool = new TagHandlerPool(5);
+            outPool = new TagHandlerPool(5);
+        } else if (mode.startsWith("perThread")) {
+            ifPool = new PerThreadTagHandlerPool();
+            ifPool.init(null);
+            outPool = new PerThreadTagHandlerPool();
+            outPool.init(null);
+        } else {
+            ifPool = new StripedTagHandlerPool();
+            ifPool.init(null);
+            outPool = new StripedTagHandlerPool();
+            outPool.init(null);
+        }
+
+        final int pages = PAGES / threadCount;
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < pages; j++) {
+                            renderPage(ifPool, outPool);
+                        }
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+        }
+        long end = System.currentTimeMillis();
+        assertNull(failure[0]);
+        ifPool.release();
+        outPool.release();
+
+        long time = Math.max(1, end - start);
+        StringBuffer result = new StringBuffer();
+        result.append(mode);
+        result.append(' ');
+        result.append(threadCount);
+        result.append(" threads, ");
+        result.append(pages * threadCount);
+        result.append(" pages in ");
+        result.append(time);
+        result.append(" ms (");
+        result.append(pages * threadCount * 1000L / time);
+        result.append(" pages/s)");
+        System.out.println(result.toString());
+    }
+
+
+    /*
+     * The code generated for <c:if test="..."><c:out value="..."/></c:if>
+     */
+    private static void renderPage(TagHandlerPool ifPool,
+            TagHandlerPool outPool) throws JspException {
+        for (int i = 0; i < TAGS_PER_PAGE / 2; i++) {
+            Tag ifTag = ifPool.get(IfTag.class);
+            ifTag.setPageContext(null);
+            ifTag.setParent(null);
+            if (ifTag.doStartTag() != Tag.SKIP_BODY) {
+                Tag outTag = outPool.get(OutTag.class);
+                outTag.setPageContext(null);
+                outTag.setParent(ifTag);
+                outTag.doStartTag();
+                if (outTag.doEndTag() == Tag.SKIP_PAGE) {
+                    return;
+                }
+                outPool.reuse(outTag);
+            }
+            if (ifTag.doEndTag() == Tag.SKIP_PAGE) {
+                return;
+            }
+            ifPool.reuse(ifTag);
+        }
+    }
+
+
+    public static class IfTag extends TagSupport {
+        private static final long serialVersionUID = 1L;
+
+        public int doStartTag() {
+            return EVAL_BODY_INCLUDE;
+        }
+    }
+
+
+    public static class OutTag extends TagSupport {
+        private static final long serialVersionUID = 1L;
+    }
+}
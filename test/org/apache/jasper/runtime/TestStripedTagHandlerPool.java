@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.Tag;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import junit.framework.TestCase;
+
+public class TestStripedTagHandlerPool extends TestCase {
+
+    private StripedTagHandlerPool pool;
+
+
+    protected void setUp() throws Exception {
+        pool = new StripedTagHandlerPool();
+        // 2 stripes of 2 handlers
+        pool.init(4, 2);
+        CountingTag.released.set(0);
+    }
+
+
+    public void testGetAndReuse() throws Exception {
+        Tag first = pool.get(CountingTag.class);
+        Tag second = pool.get(CountingTag.class);
+        assertNotSame(first, second);
+        pool.reuse(first);
+        assertSame(first, pool.get(CountingTag.class));
+        pool.reuse(first);
+        pool.reuse(second);
+        Tag a = pool.get(CountingTag.class);
+        Tag b = pool.get(CountingTag.class);
+        assertTrue(a == first && b == second || a == second && b == first);
+        // The stripe is empty again
+        Tag created = pool.get(CountingTag.class);
+        assertTrue(created != first && created != second);
+        assertEquals(0, CountingTag.released.get());
+    }
+
+
+    public void testOverflow() throws Exception {
+        Tag[] handlers = new Tag[10];
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i] = pool.get(CountingTag.class);
+        }
+        for (int i = 0; i < handlers.length; i++) {
+            pool.reuse(handlers[i]);
+        }
+        // This thread only uses its stripe, of 2 handlers
+        assertEquals(8, CountingTag.released.get());
+        Tag handler = pool.get(CountingTag.class);
+        assertTrue(handler == handlers[0] || handler == handlers[1]);
+        pool.reuse(handler);
+    }
+
+
+    public void testRelease() throws Exception {
+        // A single stripe, shared by all the threads
+        pool.init(8, 1);
+        Tag mine = pool.get(CountingTag.class);
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    Tag first = pool.get(CountingTag.class);
+                    Tag second = pool.get(CountingTag.class);
+                    pool.reuse(first);
+                    pool.reuse(second);
+                } catch (JspException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNull(failure[0]);
+        pool.reuse(mine);
+
+        pool.release();
+        assertEquals(3, CountingTag.released.get());
+        // Released handlers are not handed out again
+        assertNotSame(mine, pool.get(CountingTag.class));
+        pool.release();
+        assertEquals(3, CountingTag.released.get());
+    }
+
+
+    public void testInstantiationFailure() {
+        try {
+            pool.get(Tag.class);
+            fail("An interface cannot be instantiated");
+        } catch (JspException expected) {
+            // Expected
+        }
+    }
+
+
+    public static class CountingTag extends TagSupport {
+        private static final long serialVersionUID = 1L;
+
+        static final AtomicInteger released = new AtomicInteger();
+
+        public void release() {
+            released.incrementAndGet();
+        }
+    }
+}
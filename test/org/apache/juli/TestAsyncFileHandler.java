@@ -0,0 +1,199 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.juli;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+public class TestAsyncFileHandler extends TestCase {
+
+    private static final int THREADS = 4;
+
+    private static final int RECORDS = 5000;
+
+    private File dir;
+
+
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"),
+                "TestAsyncFileHandler-" + System.currentTimeMillis());
+        assertTrue(dir.mkdirs());
+    }
+
+
+    protected void tearDown() throws Exception {
+        LogManager.getLogManager().reset();
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+
+    public void testCloseWritesQueuedRecords() throws Exception {
+        configure("org.apache.juli.AsyncFileHandler.queueSize = 100\n" +
+                "org.apache.juli.AsyncFileHandler.formatter = " +
+                "org.apache.juli.OneLineFormatter\n");
+        final AsyncFileHandler handler = new AsyncFileHandler(
+                dir.getAbsolutePath(), "async.", ".log");
+        assertEquals(100, handler.getQueueSize());
+        assertEquals(AsyncFileHandler.OVERFLOW_BLOCK,
+                handler.getOverflowPolicy());
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < RECORDS; j++) {
+                        handler.publish(new LogRecord(Level.INFO,
+                                "record " + id + " " + j));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join();
+        }
+        handler.close();
+
+        assertEquals(0, handler.getDroppedCount());
+        int[] next = new int[THREADS];
+        BufferedReader reader = new BufferedReader(new FileReader(getFile()));
+        String line;
+        int count = 0;
+        while ((line = reader.readLine()) != null) {
+            int pos = line.indexOf("record ");
+            assertTrue(pos >= 0);
+            String[] fields = line.substring(pos).split(" ");
+            int id = Integer.parseInt(fields[1]);
+            // The records of each thread are written in order
+            assertEquals(next[id]++, Integer.parseInt(fields[2]));
+            count++;
+        }
+        reader.close();
+        assertEquals(THREADS * RECORDS, count);
+    }
+
+
+    public void testCloseWithBlockedPublishers() throws Exception {
+        String name = SlowHandler.class.getName();
+        configure(name + ".queueSize = 10\n" +
+                name + ".formatter = org.apache.juli.OneLineFormatter\n");
+        final AsyncFileHandler handler = new SlowHandler(dir.getAbsolutePath());
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 200; j++) {
+                        handler.publish(new LogRecord(Level.INFO, "record"));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        // Closed while the publishers wait for room in the queue
+        Thread.sleep(50);
+        handler.close();
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join(10000);
+            assertFalse(threads[i].isAlive());
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(getFile()));
+        int count = 0;
+        while (reader.readLine() != null) {
+            count++;
+        }
+        reader.close();
+        assertEquals(0, handler.getDroppedCount());
+        assertEquals(THREADS * 200, count);
+    }
+
+
+    public void testDropNewest() throws Exception {
+        // Handlers are configured with their own class name
+        String name = SlowHandler.class.getName();
+        configure(name + ".queueSize = 10\n" +
+                name + ".overflowPolicy = dropNewest\n" +
+                name + ".formatter = org.apache.juli.OneLineFormatter\n");
+        AsyncFileHandler handler = new SlowHandler(dir.getAbsolutePath());
+        assertEquals(AsyncFileHandler.OVERFLOW_DROP_NEWEST,
+                handler.getOverflowPolicy());
+        for (int i = 0; i < 1000; i++) {
+            handler.publish(new LogRecord(Level.INFO, "record " + i));
+        }
+        handler.close();
+
+        long dropped = handler.getDroppedCount();
+        assertTrue(dropped > 0);
+        BufferedReader reader = new BufferedReader(new FileReader(getFile()));
+        String line;
+        int written = 0;
+        boolean reported = false;
+        while ((line = reader.readLine()) != null) {
+            if (line.indexOf("record ") >= 0) {
+                written++;
+            } else if (line.indexOf("dropped (" + dropped + " in total)") >= 0) {
+                reported = true;
+            }
+        }
+        reader.close();
+        assertEquals(1000, written + dropped);
+        assertTrue(reported);
+    }
+
+
+    private static class SlowHandler extends AsyncFileHandler {
+
+        public SlowHandler(String directory) {
+            super(directory, "drop.", ".log");
+        }
+
+        protected void write(LogRecord record, boolean flush) {
+            // A slow disk
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(record, flush);
+        }
+    }
+
+
+    private void configure(String properties) throws Exception {
+        LogManager.getLogManager().readConfiguration(
+                new ByteArrayInputStream(properties.getBytes("ISO-8859-1")));
+    }
+
+
+    private File getFile() {
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+}
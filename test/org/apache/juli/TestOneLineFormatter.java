@@ -0,0 +1,220 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.juli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.logging.ErrorManager;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+public class TestOneLineFormatter extends TestCase {
+
+    private static final String LINE_SEP = System.getProperty("line.separator");
+
+
+    public void testFormat() throws Exception {
+        OneLineFormatter formatter = new OneLineFormatter();
+        LogRecord record = newRecord(1234567890123L);
+        String expected = new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss",
+                Locale.US).format(new Date(1234567890123L)) + ".123 INFO [" +
+                Thread.currentThread().getName() + "] org.example.Foo.bar " +
+                "A message" + LINE_SEP;
+        assertEquals(expected, formatter.format(record));
+
+        StringWriter out = new StringWriter();
+        formatter.format(record, out);
+        assertEquals(expected, out.toString());
+
+        record.setMillis(1234567890007L);
+        assertTrue(formatter.format(record).indexOf(":30.007 INFO") > 0);
+    }
+
+
+    public void testThrown() {
+        OneLineFormatter formatter = new OneLineFormatter();
+        LogRecord record = newRecord(System.currentTimeMillis());
+        record.setThrown(new IllegalStateException("Broken"));
+        String result = formatter.format(record);
+        assertTrue(result.indexOf("A message" + LINE_SEP +
+                " java.lang.IllegalStateException: Broken" + LINE_SEP) > 0);
+        assertTrue(result.indexOf("at org.apache.juli.TestOneLineFormatter" +
+                ".testThrown") > 0);
+        // The buffer is reused for the next record
+        record.setThrown(null);
+        assertEquals(-1, formatter.format(record).indexOf("Broken"));
+    }
+
+
+    public void testThreadName() {
+        OneLineFormatter formatter = new OneLineFormatter();
+        LogRecord record = newRecord(System.currentTimeMillis());
+        String name = Thread.currentThread().getName();
+        try {
+            Thread.currentThread().setName("before");
+            assertTrue(formatter.format(record).indexOf("[before]") > 0);
+            // Renamed within the same second
+            Thread.currentThread().setName("after");
+            assertTrue(formatter.format(record).indexOf("[after]") > 0);
+        } finally {
+            Thread.currentThread().setName(name);
+        }
+    }
+
+
+    public void testFileHandler() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"),
+                "TestOneLineFormatter-" + System.currentTimeMillis());
+        assertTrue(dir.mkdirs());
+        FileHandler handler = new FileHandler(dir.getAbsolutePath(),
+                "test.", ".log");
+        final int[] errors = new int[] {-1};
+        handler.setErrorManager(new ErrorManager() {
+            public void error(String msg, Exception ex, int code) {
+                errors[0] = code;
+            }
+        });
+        try {
+            // A subclass is not bypassed
+            handler.setFormatter(new OneLineFormatter() {
+                public String format(LogRecord record) {
+                    return "custom" + LINE_SEP;
+                }
+            });
+            handler.publish(newRecord(System.currentTimeMillis()));
+
+            handler.setFormatter(new OneLineFormatter());
+            LogRecord record = newRecord(System.currentTimeMillis());
+            record.setThrown(new IllegalStateException() {
+                private static final long serialVersionUID = 1L;
+                public void printStackTrace(PrintWriter s) {
+                    throw new IllegalStateException("Broken");
+                }
+            });
+            handler.publish(record);
+            assertEquals(ErrorManager.FORMAT_FAILURE, errors[0]);
+        } finally {
+            handler.close();
+        }
+
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        BufferedReader reader = new BufferedReader(new FileReader(files[0]));
+        assertEquals("custom", reader.readLine());
+        reader.close();
+        files[0].delete();
+        dir.delete();
+    }
+
+
+    public void testNoAllocation() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long id = Thread.currentThread().getId();
+
+        OneLineFormatter formatter = new OneLineFormatter();
+        LogRecord record = newRecord(System.currentTimeMillis());
+        Writer out = new Writer() {
+            public void write(char[] cbuf, int off, int len) {
+                // NO-OP
+            }
+            public void flush() {
+                // NO-OP
+            }
+            public void close() {
+                // NO-OP
+            }
+        };
+        // Warm up, and stay within a second
+        for (int i = 0; i < 100000; i++) {
+            formatter.format(record, out);
+        }
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 10000; i++) {
+            formatter.format(record, out);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        // Allow for the measurement itself
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1000);
+    }
+
+
+    public void testDateFormatCache() throws Exception {
+        final String format = "dd-MMM-yyyy HH:mm:ss";
+        final DateFormatCache cache = new DateFormatCache(30, format, null);
+        final long base = System.currentTimeMillis();
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final long seed = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    SimpleDateFormat sdf = new SimpleDateFormat(format,
+                            Locale.US);
+                    Random random = new Random(seed);
+                    try {
+                        for (int j = 0; j < 20000; j++) {
+                            long time = base + random.nextInt(120000);
+                            assertEquals(sdf.format(new Date(time)),
+                                    cache.getFormat(time));
+                        }
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertNull(failure[0]);
+
+        DateFormatCache child = new DateFormatCache(5, format, cache);
+        assertEquals(cache.getFormat(base), child.getFormat(base));
+    }
+
+
+    private LogRecord newRecord(long millis) {
+        LogRecord record = new LogRecord(Level.INFO, "A message");
+        record.setMillis(millis);
+        record.setSourceClassName("org.example.Foo");
+        record.setSourceMethodName("bar");
+        return record;
+    }
+}
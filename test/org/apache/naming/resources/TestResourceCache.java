@@ -0,0 +1,75 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.naming.resources;
+
+import junit.framework.TestCase;
+
+public class TestResourceCache extends TestCase {
+
+    private ResourceCache cache;
+
+    public void setUp() {
+        cache = new ResourceCache();
+        cache.setCacheMaxSize(100);
+    }
+
+    public void testHotEntriesSurviveScan() {
+        load("/hot", 10);
+        // Second access promotes the entry to the protected segment
+        for (int i = 0; i < ResourceCache.ACCESS_BUFFER_DRAIN_THRESHOLD + 1;
+                i++) {
+            assertNotNull(cache.lookup("/hot"));
+        }
+        for (int i = 0; i < 50; i++) {
+            load("/scan" + i, 10);
+        }
+        assertNotNull(cache.lookup("/hot"));
+        assertTrue(cache.getCacheSize() <= cache.getCacheMaxSize());
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    public void testNotFoundAndUnload() {
+        CacheEntry entry = new CacheEntry();
+        entry.name = "/missing";
+        entry.exists = false;
+        cache.load(entry);
+        assertSame(entry, cache.lookup("/missing"));
+        assertEquals(1, cache.getCacheSize());
+        load("/a", 5);
+        assertEquals(6, cache.getCacheSize());
+        assertTrue(cache.unload("/a"));
+        assertTrue(cache.unload("/missing"));
+        assertFalse(cache.unload("/a"));
+        assertEquals(0, cache.getCacheSize());
+        assertNull(cache.lookup("/a"));
+    }
+
+    public void testTooLarge() {
+        assertFalse(cache.allocate(101));
+    }
+
+    private void load(String name, int size) {
+        CacheEntry entry = new CacheEntry();
+        entry.name = name;
+        entry.exists = true;
+        entry.size = size;
+        if (cache.lookup(name) == null && cache.allocate(size)) {
+            cache.load(entry);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+public class TestMimeHeaders extends TestCase {
+
+    public static void main( String args[] ) {
+       TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+       TestSuite suite = new TestSuite();
+       suite.addTest(new TestSuite(TestMimeHeaders.class));
+       return suite;
+    }
+
+    public void testKnownIds() {
+        assertEquals(-1, MimeHeaders.knownId("x-custom"));
+        assertEquals(-1, MimeHeaders.knownId("hos"));
+        assertEquals(-1, MimeHeaders.knownId(""));
+        int id = MimeHeaders.knownId("Content-Length");
+        assertTrue(id >= 0);
+        byte[] b = "xxcontent-LENGTHxx".getBytes();
+        assertEquals(id, MimeHeaders.knownId(b, 2, 14));
+        assertEquals(id, MimeHeaders.knownId("CONTENT-length".toCharArray(),
+                0, 14));
+        assertEquals(-1, MimeHeaders.knownId(b, 2, 13));
+    }
+
+    public void testLookups() {
+        MimeHeaders headers = new MimeHeaders();
+        byte[] b = "host".getBytes();
+        headers.addValue(b, 0, b.length).setString("localhost");
+        headers.addValue("X-Custom").setString("custom");
+        headers.addValue("Cookie").setString("a=1");
+        headers.addValue("cookie").setString("b=2");
+
+        assertEquals("localhost", headers.getHeader("Host"));
+        assertEquals("custom", headers.getHeader("x-custom"));
+        assertEquals("a=1", headers.getHeader("COOKIE"));
+        assertNull(headers.getValue("content-length"));
+        assertEquals(2, headers.findHeader("cookie", 0));
+        assertEquals(3, headers.findHeader("cookie", 3));
+        assertEquals(-1, headers.findHeader("cookie", 4));
+        assertEquals("localhost", headers.getUniqueValue("host").toString());
+        try {
+            headers.getUniqueValue("cookie");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testRemoveAndSet() {
+        MimeHeaders headers = new MimeHeaders();
+        headers.addValue("Cookie").setString("a=1");
+        headers.addValue("Host").setString("localhost");
+        headers.addValue("Cookie").setString("b=2");
+        headers.addValue("Vary").setString("Accept");
+
+        headers.removeHeader("host");
+        assertNull(headers.getValue("host"));
+        assertEquals("Accept", headers.getHeader("vary"));
+        assertEquals("a=1", headers.getHeader("cookie"));
+
+        headers.setValue("Cookie").setString("c=3");
+        assertEquals(2, headers.size());
+        assertEquals("c=3", headers.getUniqueValue("cookie").toString());
+        headers.setValue("Date").setString("now");
+        assertEquals("now", headers.getHeader("date"));
+
+        headers.recycle();
+        assertEquals(0, headers.size());
+        assertNull(headers.getValue("cookie"));
+        headers.addValue("X-Forwarded-For").setString("127.0.0.1");
+        assertEquals("127.0.0.1", headers.getHeader("x-forwarded-for"));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.http.mapper;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+
+public class TestMapper extends TestCase {
+
+    public static void main( String args[] ) {
+       TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+       TestSuite suite = new TestSuite();
+       suite.addTest(new TestSuite(TestMapper.class));
+       return suite;
+    }
+
+    private static final String[] URIS = {
+        "/", "/foo", "/foo/", "/foo/bar", "/foo/bar/", "/foo/bar/blh",
+        "/foo/bar/blh/x", "/foo/bar/fo", "/foo/bar/fo/", "/foo/bar/fo/x",
+        "/foo/bar/fob", "/foo/bar/blah/bou", "/foo/bar/blah/bou/x.jsp",
+        "/foo/bar/blah/bobou/foo", "/foo/bar/blah/bo", "/foo/bar/a.jsp",
+        "/foo/bar/a.jsp/b", "/foo/bar/dir.jsp/b.htm", "/foo/bar/a.tar.gz",
+        "/foo/bar/a.gz", "/foo/bar/noext", "/foo/bar/.jsp", "/foo/bar/bla",
+        "/foo/bar/bla/x.htm", "/foo/bar/bla/index.jsp", "/foobar",
+        "/foo/barx/y.jsp", "/other/x.jsp", "/x.htm", "/foo/bar/exact/*",
+        "/foo/bar/exact", "/foo/bar/exact/", "/foo/bar/exactly"
+    };
+
+    private Mapper createMapper(boolean trie) {
+        Mapper mapper = new Mapper();
+        mapper.setTrieMapping(trie);
+        mapper.addHost("iowejoiejfoiew", new String[0], "blah7");
+        mapper.addHost("ylwrehirkuewh", new String[0], "blah3");
+        mapper.setDefaultHostName("ylwrehirkuewh");
+
+        String[] welcomes = new String[2];
+        welcomes[0] = "boo/baba";
+        welcomes[1] = "bobou";
+
+        mapper.addContext("iowejoiejfoiew", "", "context0", new String[0], null);
+        mapper.addContext("iowejoiejfoiew", "/foo", "context1", new String[0], null);
+        mapper.addContext("iowejoiejfoiew", "/foo/bar", "context2", welcomes, null);
+        mapper.addContext("iowejoiejfoiew", "/foo/bar/bla", "context3", new String[0], null);
+        mapper.addContext("ylwrehirkuewh", "/foo", "context4", new String[0], null);
+
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/fo/*", "wrapper0");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/", "wrapper1");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/blh", "wrapper2");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "*.jsp", "wrapper3");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/blah/bou/*", "wrapper4");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/blah/bobou/*", "wrapper5");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "*.htm", "wrapper6");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/exact", "wrapper7");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/exact/*", "wrapper8");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "*.tar.gz", "wrapper9");
+        mapper.addWrapper("iowejoiejfoiew", "/foo", "/*", "wrapper10", true);
+        mapper.addWrapper("iowejoiejfoiew", "", "*.jsp", "wrapper11");
+        return mapper;
+    }
+
+    public void testTrieMatchesArrays() throws Exception {
+        Mapper arrays = createMapper(false);
+        Mapper trie = createMapper(true);
+        String[] hosts = { "iowejoiejfoiew", "IOWEJOIEJFOIEW", "unknown" };
+        for (int i = 0; i < hosts.length; i++) {
+            for (int j = 0; j < URIS.length; j++) {
+                assertEquals(hosts[i] + URIS[j],
+                        map(arrays, hosts[i], URIS[j]),
+                        map(trie, hosts[i], URIS[j]));
+            }
+        }
+    }
+
+    public void testRemoveAndToggle() throws Exception {
+        Mapper arrays = createMapper(false);
+        Mapper trie = createMapper(false);
+        trie.setTrieMapping(true);
+        arrays.removeWrapper("iowejoiejfoiew", "/foo/bar", "/exact");
+        trie.removeWrapper("iowejoiejfoiew", "/foo/bar", "/exact");
+        arrays.removeContext("iowejoiejfoiew", "/foo/bar/bla");
+        trie.removeContext("iowejoiejfoiew", "/foo/bar/bla");
+        for (int j = 0; j < URIS.length; j++) {
+            assertEquals(URIS[j], map(arrays, "iowejoiejfoiew", URIS[j]),
+                    map(trie, "iowejoiejfoiew", URIS[j]));
+        }
+        assertEquals("blah7 context2 wrapper8 /exact cp=/foo/bar rp=/exact ",
+                map(trie, "iowejoiejfoiew", "/foo/bar/exact"));
+    }
+
+    private String map(Mapper mapper, String hostName, String uriString)
+        throws Exception {
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString(hostName);
+        MessageBytes uri = MessageBytes.newInstance();
+        uri.setString(uriString);
+        uri.toChars();
+        uri.getCharChunk().setLimit(-1);
+        mapper.map(host, uri, mappingData);
+        StringBuffer result = new StringBuffer();
+        result.append(mappingData.host).append(' ');
+        result.append(mappingData.context).append(' ');
+        result.append(mappingData.wrapper).append(' ');
+        result.append(mappingData.wrapperPath).append(' ');
+        if (!mappingData.contextPath.isNull()) {
+            result.append("cp=").append(mappingData.contextPath).append(' ');
+        }
+        if (!mappingData.requestPath.isNull()) {
+            result.append("rp=").append(mappingData.requestPath).append(' ');
+        }
+        if (!mappingData.pathInfo.isNull()) {
+            result.append("pi=").append(mappingData.pathInfo).append(' ');
+        }
+        if (!mappingData.redirectPath.isNull()) {
+            result.append("redirect=").append(mappingData.redirectPath);
+        }
+        if (mappingData.jspWildCard) {
+            result.append(" jsp");
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.net;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.tomcat.util.net.NioEndpoint.KeyAttachment;
+
+public class TestTimeoutWheel extends TestCase {
+
+    private static final long TICK = 1000;
+
+    private Selector selector;
+
+    private List<Pipe> pipes = new ArrayList<Pipe>();
+
+    private List<SelectionKey> expired = new ArrayList<SelectionKey>();
+
+
+    protected void setUp() throws Exception {
+        selector = Selector.open();
+    }
+
+
+    protected void tearDown() throws Exception {
+        for (int i = 0; i < pipes.size(); i++) {
+            pipes.get(i).source().close();
+            pipes.get(i).sink().close();
+        }
+        selector.close();
+    }
+
+
+    public void testExpiry() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel(8, TICK, 0);
+        SelectionKey key = newKey();
+        KeyAttachment ka = (KeyAttachment) key.attachment();
+        wheel.schedule(key, ka, 2500);
+        assertEquals(3, ka.getTimeoutTick());
+
+        wheel.expire(2999, expired);
+        assertEquals(0, expired.size());
+        wheel.expire(3000, expired);
+        assertEquals(1, expired.size());
+        assertSame(key, expired.get(0));
+        assertEquals(TimeoutWheel.NOT_SCHEDULED, ka.getTimeoutTick());
+        assertEquals(0, wheel.getSize());
+        assertEquals(4000, wheel.getNextTickTime());
+    }
+
+
+    public void testReschedule() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel(8, TICK, 0);
+        SelectionKey key = newKey();
+        KeyAttachment ka = (KeyAttachment) key.attachment();
+        wheel.schedule(key, ka, 5500);
+        // A later expiry does not move the key
+        wheel.schedule(key, ka, 6000);
+        assertEquals(6, ka.getTimeoutTick());
+        assertEquals(1, wheel.getSize());
+        // An earlier one does
+        wheel.schedule(key, ka, 1500);
+        assertEquals(2, ka.getTimeoutTick());
+        assertEquals(2, wheel.getSize());
+
+        wheel.expire(2000, expired);
+        assertEquals(1, expired.size());
+        expired.clear();
+        // The stale entry is dropped
+        wheel.expire(7000, expired);
+        assertEquals(0, expired.size());
+        assertEquals(0, wheel.getSize());
+    }
+
+
+    public void testLongTimeout() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel(8, TICK, 0);
+        SelectionKey key = newKey();
+        KeyAttachment ka = (KeyAttachment) key.attachment();
+        // Three rotations
+        wheel.schedule(key, ka, 20500);
+        wheel.expire(20999, expired);
+        assertEquals(0, expired.size());
+        assertEquals(1, wheel.getSize());
+        wheel.expire(21000, expired);
+        assertEquals(1, expired.size());
+    }
+
+
+    public void testStall() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel(8, TICK, 0);
+        for (int i = 0; i < 20; i++) {
+            SelectionKey key = newKey();
+            wheel.schedule(key, (KeyAttachment) key.attachment(), i * 500);
+        }
+        // Far more than a rotation later
+        wheel.expire(1000000, expired);
+        assertEquals(20, expired.size());
+        assertEquals(0, wheel.getSize());
+    }
+
+
+    public void testCancelled() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel(8, TICK, 0);
+        SelectionKey key = newKey();
+        wheel.schedule(key, (KeyAttachment) key.attachment(), 500);
+        SelectionKey detached = newKey();
+        wheel.schedule(detached, (KeyAttachment) detached.attachment(), 500);
+        key.cancel();
+        detached.attach(null);
+        wheel.expire(1000, expired);
+        // Only the valid key without attachment is handed to the poller
+        assertEquals(1, expired.size());
+        assertSame(detached, expired.get(0));
+        assertEquals(0, wheel.getSize());
+    }
+
+
+    public void testIdleKeys() throws Exception {
+        TimeoutWheel wheel = new TimeoutWheel(512, TICK, 0);
+        for (int i = 0; i < 1000; i++) {
+            SelectionKey key = newKey();
+            wheel.schedule(key, (KeyAttachment) key.attachment(), 60000);
+        }
+        SelectionKey key = newKey();
+        wheel.schedule(key, (KeyAttachment) key.attachment(), 20500);
+        // The idle keys are not looked at before they come due
+        for (long now = 0; now <= 21000; now += 100) {
+            wheel.expire(now, expired);
+        }
+        assertEquals(1, expired.size());
+        assertEquals(1000, wheel.getSize());
+    }
+
+
+    private SelectionKey newKey() throws IOException {
+        Pipe pipe = Pipe.open();
+        pipes.add(pipe);
+        pipe.source().configureBlocking(false);
+        KeyAttachment ka = new KeyAttachment();
+        ka.reset();
+        return pipe.source().register(selector, SelectionKey.OP_READ, ka);
+    }
+}